@@ -0,0 +1,177 @@
+package picasso;
+
+import java.awt.Dimension;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import picasso.model.ImageCache;
+import picasso.model.PngEncoder;
+import picasso.model.PnmWriter;
+import picasso.model.RowWriter;
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.ParseException;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.RenderMode;
+import picasso.render.TiledRenderer;
+
+/**
+ * Renders an expression without a window, straight to a file or to standard
+ * output, in strips of rows that are encoded as they are rendered (see
+ * TiledRenderer.renderStrips), so that the memory used does not depend on the
+ * height of the image: a print-sized render needs no more heap than a few
+ * strips of it.
+ *
+ * Run from the project directory:
+ *
+ * <pre>
+ * java picasso.HeadlessRender expression width height [output] [--format=png|ppm|pam] [--level=0-9]
+ * </pre>
+ *
+ * The format is named by the extension of the output file, or by --format.
+ * Without an output, or with - as the output, the image is written to standard
+ * output, as a PPM unless --format says otherwise, so that it can be piped to
+ * another program. An expression that uses t is rendered at t = 0.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class HeadlessRender {
+
+	/**
+	 * The formats an image can be streamed in.
+	 */
+	public enum Format {
+		PNG, PPM, PAM;
+
+		/**
+		 * Starts writing an image in this format to a stream, which is left open.
+		 *
+		 * @param out    the stream to write to
+		 * @param size   the size of the image
+		 * @param level  the compression level of a png, from 0 (none) to 9
+		 *               (smallest)
+		 * @return the writer of the rows
+		 * @throws IOException if the stream cannot be written
+		 */
+		public RowWriter open(OutputStream out, Dimension size, int level) throws IOException {
+			switch (this) {
+			case PNG:
+				return PngEncoder.getInstance().open(out, size.width, size.height, level);
+			case PAM:
+				return new PnmWriter(out, size.width, size.height, PnmWriter.Format.PAM);
+			default:
+				return new PnmWriter(out, size.width, size.height, PnmWriter.Format.PPM);
+			}
+		}
+
+		/**
+		 * Returns the format a file name names by its extension.
+		 *
+		 * @param fileName the name of an image file
+		 * @return the format
+		 * @throws IllegalArgumentException if the extension is not png, ppm or
+		 *                                  pam
+		 */
+		public static Format of(String fileName) {
+			String lower = fileName.toLowerCase();
+			for (Format format : values()) {
+				if (lower.endsWith("." + format.name().toLowerCase())) {
+					return format;
+				}
+			}
+			throw new IllegalArgumentException("Can only stream png, ppm and pam images, not " + fileName);
+		}
+	}
+
+	private static final String USAGE = "usage: java picasso.HeadlessRender expression width height [output] "
+			+ "[--format=png|ppm|pam] [--level=0-9]";
+
+	public static void main(String[] args) {
+		String format = null;
+		int level = PngEncoder.DEFAULT_LEVEL;
+		String[] positional = new String[4];
+		int count = 0;
+		try {
+			for (String arg : args) {
+				if (arg.startsWith("--format=")) {
+					format = arg.substring("--format=".length());
+				} else if (arg.startsWith("--level=")) {
+					level = Integer.parseInt(arg.substring("--level=".length()));
+				} else if (count < positional.length) {
+					positional[count++] = arg;
+				} else {
+					throw new IllegalArgumentException("too many arguments");
+				}
+			}
+			if (count < 3) {
+				throw new IllegalArgumentException("missing arguments");
+			}
+			Dimension size = new Dimension(Integer.parseInt(positional[1]), Integer.parseInt(positional[2]));
+			String output = count > 3 ? positional[3] : "-";
+			boolean toStandardOutput = output.equals("-");
+			Format chosen;
+			if (format != null) {
+				chosen = Format.valueOf(format.toUpperCase());
+			} else {
+				chosen = toStandardOutput ? Format.PPM : Format.of(output);
+			}
+
+			if (toStandardOutput) {
+				// nothing else may be printed among the bytes of the image
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+				System.setOut(System.err);
+				render(positional[0], size, chosen, level, out);
+				out.flush();
+			} else {
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+					render(positional[0], size, chosen, level, out);
+				}
+			}
+		} catch (ParseException e) {
+			System.err.println("Invalid expression: " + e.getMessage());
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch (IOException e) {
+			System.err.println("Cannot write the image: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Parses the expression, with its images decoded for a render of the given
+	 * size, and renders it in strips to the stream, which is left open.
+	 *
+	 * @param expression the expression to render
+	 * @param size       the size of the image
+	 * @param format     the format to write
+	 * @param level      the compression level of a png
+	 * @param out        the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public static void render(String expression, Dimension size, Format format, int level, OutputStream out)
+			throws IOException {
+		if (size.width <= 0 || size.height <= 0) {
+			throw new IllegalArgumentException("the image must be at least one pixel wide and high");
+		}
+		ExpressionTreeNode expr;
+		ImageCache images = ImageCache.getInstance();
+		images.setResolution(size);
+		try {
+			expr = new ExpressionTreeGenerator().makeExpression(expression);
+			ImageSampler.awaitImages(expr);
+		} finally {
+			images.setResolution(null);
+		}
+		ExpressionTreeNode prepared = RenderMode.COMPILED.prepare(ExpressionOptimizer.getInstance().optimize(expr));
+		try (RowWriter writer = format.open(out, size, level)) {
+			TiledRenderer.getInstance().renderStrips(prepared, size, 0, writer);
+		}
+	}
+}
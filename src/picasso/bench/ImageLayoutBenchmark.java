@@ -0,0 +1,121 @@
+package picasso.bench;
+
+import java.io.File;
+import java.util.Arrays;
+
+import picasso.model.ImageCache;
+import picasso.model.ImagePlanes;
+import picasso.model.Pixmap;
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.RenderMode;
+import picasso.render.TiledRenderer;
+
+/**
+ * Measures how long it takes to render expressions that sample the images of
+ * the images directory with the image planes laid out row after row and in
+ * blocks, through the renderer the application uses. The expressions sample
+ * each image at coordinates that move around, so that what is compared is how
+ * well the pixels sampled stay in the cache.
+ *
+ * Run from the project directory:
+ *
+ * <pre>
+ * java picasso.bench.ImageLayoutBenchmark [width] [height] [repetitions] [threads]
+ * </pre>
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ImageLayoutBenchmark {
+
+	private static final String IMAGES = "images";
+	private static final int WARMUP_REPETITIONS = 2;
+
+	/** the expressions timed, with %s for the name of the image file */
+	private static final String[] EXPRESSIONS = { "imageWrap(\"%s\", y, x)",
+			"imageWrap(\"%s\", sin(x * y / 0.1), cos(x / 0.2))", "imageClip(\"%s\", perlinBW(x / 0.3, y / 0.3), x)" };
+
+	private final Pixmap target;
+	private final int repetitions;
+	private final TiledRenderer renderer;
+	private final ExpressionTreeGenerator parser = new ExpressionTreeGenerator();
+
+	/**
+	 * Create a benchmark rendering into an image of the given size.
+	 *
+	 * @param width       the width of the image, in pixels
+	 * @param height      the height of the image, in pixels
+	 * @param repetitions how many times each expression is timed
+	 * @param threads     the number of threads the renderer uses
+	 */
+	public ImageLayoutBenchmark(int width, int height, int repetitions, int threads) {
+		this.target = new Pixmap(width, height);
+		this.repetitions = repetitions;
+		this.renderer = new TiledRenderer(threads, TiledRenderer.DEFAULT_TILE_SIZE, false);
+	}
+
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 3840;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 2160;
+		int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		File[] images = new File(IMAGES).listFiles((dir, name) -> name.endsWith(".jpg"));
+		if (images == null) {
+			System.err.println("Cannot find the " + IMAGES + " directory");
+			return;
+		}
+		Arrays.sort(images);
+
+		ImageLayoutBenchmark benchmark = new ImageLayoutBenchmark(width, height, repetitions, threads);
+		System.out.printf("%dx%d pixels, %d threads, best of %d, milliseconds per frame%n", width, height, threads,
+				repetitions);
+		System.out.printf("%-20s %-52s", "image", "expression");
+		for (ImagePlanes.Layout layout : ImagePlanes.Layout.values()) {
+			System.out.printf(" %8s", layout.name().toLowerCase());
+		}
+		System.out.println();
+		for (File image : images) {
+			for (String expression : EXPRESSIONS) {
+				benchmark.run(image, expression);
+			}
+		}
+		ImageCache.getInstance().setLayout(ImageCache.DEFAULT_LAYOUT);
+	}
+
+	/**
+	 * Times one expression on one image with every layout and prints a line of
+	 * results.
+	 *
+	 * @param image      the image file
+	 * @param expression the expression, with %s for the name of the image file
+	 */
+	public void run(File image, String expression) {
+		String path = IMAGES + "/" + image.getName();
+		System.out.printf("%-20s %-52s", image.getName(), String.format(expression, "..."));
+		for (ImagePlanes.Layout layout : ImagePlanes.Layout.values()) {
+			ImageCache.getInstance().setLayout(layout);
+			ExpressionTreeNode tree = parser.makeExpression(String.format(expression, path));
+			ExpressionTreeNode prepared = RenderMode.COMPILED.prepare(ExpressionOptimizer.getInstance().optimize(tree));
+			System.out.printf(" %8.2f", time(prepared));
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Returns the fastest of the timed renders, in milliseconds.
+	 */
+	private double time(ExpressionTreeNode expr) {
+		for (int i = 0; i < WARMUP_REPETITIONS; i++) {
+			renderer.render(expr, target);
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < repetitions; i++) {
+			long start = System.nanoTime();
+			renderer.render(expr, target);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+}
@@ -0,0 +1,169 @@
+package picasso.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.optimizer.CommonSubexpressionEliminator;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.RenderMode;
+import picasso.render.TiledRenderer;
+import picasso.view.commands.RandomExpressionLoader;
+
+/**
+ * Measures how long it takes to evaluate expressions over an image with the
+ * recursive per-pixel evaluate() of the parsed tree and with each render mode
+ * on the optimized expression, on one thread and without drawing the pixels,
+ * so that only the evaluation is compared. The axis tables of an expression
+ * are filled once per frame, as the renderer does. Also prints how many nodes
+ * the expression has before and after optimization, and how many of its
+ * subexpressions were hoisted into axis tables.
+ *
+ * Run from the project directory:
+ *
+ * <pre>
+ * java picasso.bench.RenderBenchmark [size] [repetitions] [random expressions] [seed]
+ * </pre>
+ *
+ * The expressions are the ones in expressions/samples.exp plus the given number
+ * of expressions from RandomExpressionLoader.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class RenderBenchmark {
+
+	private static final String SAMPLES = "expressions/samples.exp";
+	private static final int WARMUP_REPETITIONS = 3;
+
+	private final int size;
+	private final int repetitions;
+	private final double[] domain;
+	private final ExpressionTreeGenerator parser = new ExpressionTreeGenerator();
+
+	/**
+	 * Create a benchmark over a square image.
+	 *
+	 * @param size        the width and height of the image, in pixels
+	 * @param repetitions how many times each expression is timed
+	 */
+	public RenderBenchmark(int size, int repetitions) {
+		this.size = size;
+		this.repetitions = repetitions;
+		this.domain = new double[size];
+		for (int i = 0; i < size; i++) {
+			domain[i] = TiledRenderer.imageToDomainScale(i, size);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+		int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int randomCount = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+		List<String> expressions = readSamples(Path.of(SAMPLES));
+		RandomExpressionLoader generator = new RandomExpressionLoader(null, null, null, null, new Random(seed));
+		for (int i = 0; i < randomCount; i++) {
+			expressions.add(generator.generateTopLevelExpression());
+		}
+
+		RenderBenchmark benchmark = new RenderBenchmark(size, repetitions);
+		System.out.printf("%dx%d pixels, best of %d, milliseconds per frame%n", size, size, repetitions);
+		System.out.printf("%-40s %11s %6s %10s", "expression", "nodes", "tables", "per-pixel");
+		for (RenderMode mode : RenderMode.values()) {
+			System.out.printf(" %10s", mode.name().toLowerCase());
+		}
+		System.out.println();
+		for (String expression : expressions) {
+			benchmark.run(expression);
+		}
+	}
+
+	/**
+	 * Times one expression in every mode and prints a line of results.
+	 *
+	 * @param expression the expression to time
+	 */
+	public void run(String expression) {
+		ExpressionTreeNode tree = parser.makeExpression(expression);
+		ExpressionTreeNode optimized = ExpressionOptimizer.getInstance().optimize(tree);
+		String label = expression.length() > 40 ? expression.substring(0, 37) + "..." : expression;
+		String nodes = CommonSubexpressionEliminator.countTreeNodes(tree) + "/"
+				+ CommonSubexpressionEliminator.countDistinctNodes(optimized);
+		int tables = optimized instanceof HoistedExpression hoisted ? hoisted.getTables().size() : 0;
+		System.out.printf("%-40s %11s %6d %10.2f", label, nodes, tables, time(() -> evaluatePerPixel(tree)));
+		for (RenderMode mode : RenderMode.values()) {
+			ExpressionTreeNode prepared = mode.prepare(optimized);
+			System.out.printf(" %10.2f", time(() -> evaluateBatches(prepared)));
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Returns the fastest of the timed runs, in milliseconds.
+	 */
+	private double time(Runnable frame) {
+		for (int i = 0; i < WARMUP_REPETITIONS; i++) {
+			frame.run();
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < repetitions; i++) {
+			long start = System.nanoTime();
+			frame.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+
+	private double evaluatePerPixel(ExpressionTreeNode expr) {
+		double sum = 0;
+		for (int imageY = 0; imageY < size; imageY++) {
+			for (int imageX = 0; imageX < size; imageX++) {
+				RGBColor color = expr.evaluate(domain[imageX], domain[imageY]);
+				sum += color.getRed();
+			}
+		}
+		return sum;
+	}
+
+	private double evaluateBatches(ExpressionTreeNode expr) {
+		PixelBatch batch = new PixelBatch(TiledRenderer.DEFAULT_TILE_SIZE);
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		if (expr instanceof HoistedExpression hoisted) {
+			batch.setAxisTables(hoisted.fillTables(domain, domain, 0));
+		}
+		double sum = 0;
+		for (int imageY = 0; imageY < size; imageY++) {
+			for (int x0 = 0; x0 < size; x0 += batch.getCapacity()) {
+				batch.setRow(domain, x0, Math.min(x0 + batch.getCapacity(), size), domain, imageY);
+				expr.evaluate(batch, out);
+				sum += out.getRed()[0];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Reads the expressions of a file in which each expression is on one line,
+	 * skipping blank lines and // comments.
+	 */
+	private static List<String> readSamples(Path file) throws IOException {
+		List<String> expressions = new ArrayList<>();
+		for (String line : Files.readAllLines(file)) {
+			String trimmed = line.trim();
+			if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+				expressions.add(trimmed);
+			}
+		}
+		return expressions;
+	}
+}
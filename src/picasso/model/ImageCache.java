@@ -0,0 +1,475 @@
+package picasso.model;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The decoded images of the image functions, shared by every expression so
+ * that each image file is decoded once however many times expressions refer to
+ * it, and converted once into the planes the functions sample. Images are
+ * looked up by the canonical path of their file and decoded again if the file
+ * has been modified since.
+ *
+ * The planes kept are bounded by a budget in bytes: when an image does not fit,
+ * the images used least recently are evicted until it does. An image larger
+ * than the whole budget is decoded every time and never kept.
+ *
+ * The planes returned are shared and must not be changed. They are laid out
+ * the way the cache is set to lay out the images it decodes.
+ *
+ * The images can be decoded for the size of the render they are sampled for:
+ * an image at least n times larger than the render along both axes keeps only
+ * one pixel in n along each axis. The image kept is reused by renders at most
+ * as large, and decoded again at a higher resolution for a larger render. The
+ * size of the render is set by the thread that parses the expressions, so that
+ * renders of different sizes at once each get what they need. The image
+ * functions ask for the size their coordinates need instead, which is larger
+ * when they zoom into the image.
+ *
+ * Images can be prefetched: prefetch starts decoding an image on a small pool
+ * of threads and returns a handle on it at once, so that the parser can go on
+ * while the images it has seen are decoded, several at a time. An image being
+ * decoded is shared by every lookup that needs it rather than decoded twice.
+ *
+ * A cache can be given an ImageDiskCache, which it then reads the images it
+ * does not hold from instead of decoding them; the cache of the application
+ * is given the one of the application.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ImageCache {
+
+	/** the bytes of planes kept by default */
+	public static final long DEFAULT_BUDGET = 128L * 1024 * 1024;
+
+	/**
+	 * how the images are laid out by default: the images of the images
+	 * directory fit in the cache of the processor well enough that blocks only
+	 * pay off when an expression samples them all over the place
+	 */
+	public static final ImagePlanes.Layout DEFAULT_LAYOUT = ImagePlanes.Layout.ROWS;
+
+	private static ImageCache ourInstance;
+
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Loading> loading = new HashMap<>();
+	private ExecutorService loader;
+	private ImagePlanes.Layout layout = DEFAULT_LAYOUT;
+	private ImageDiskCache diskCache;
+	private final ThreadLocal<Dimension> resolution = new ThreadLocal<>();
+	private long budget;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create a cache that keeps at most the given bytes of planes.
+	 *
+	 * @param budget the bytes of planes the cache can keep (not negative)
+	 */
+	public ImageCache(long budget) {
+		this.budget = checkBudget(budget);
+	}
+
+	/**
+	 * Create a cache that keeps at most the given bytes of planes, laid out the
+	 * given way.
+	 *
+	 * @param budget the bytes of planes the cache can keep (not negative)
+	 * @param layout how to lay out the images decoded
+	 */
+	public ImageCache(long budget, ImagePlanes.Layout layout) {
+		this(budget);
+		this.layout = layout;
+	}
+
+	/**
+	 * Returns the cache shared by the whole application.
+	 *
+	 * @return the image cache
+	 */
+	public static synchronized ImageCache getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ImageCache(DEFAULT_BUDGET);
+			ourInstance.setDiskCache(ImageDiskCache.getInstance());
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Returns the decoded image in the given file, decoding it unless the cache
+	 * holds the image decoded since the file was last modified.
+	 *
+	 * @param fileName the name of the image file
+	 * @return the planes of the image, which must not be changed
+	 * @throws IllegalArgumentException if the file cannot be read as an image
+	 */
+	public ImagePlanes get(String fileName) {
+		return prefetch(fileName).get();
+	}
+
+	/**
+	 * Returns a handle on the decoded image in the given file, which is decoded
+	 * in the background unless the cache holds it or it is being decoded
+	 * already.
+	 *
+	 * @param fileName the name of the image file
+	 * @return the handle on the image, whose get() throws an
+	 *         IllegalArgumentException if the file cannot be read as an image
+	 */
+	public ImageHandle prefetch(String fileName) {
+		return prefetch(fileName, getResolution());
+	}
+
+	/**
+	 * Returns a handle on the image in the given file decoded for a render of
+	 * the given size rather than the size set for this thread, which is decoded
+	 * in the background unless the cache holds it with as many pixels or it is
+	 * being decoded so already.
+	 *
+	 * @param fileName   the name of the image file
+	 * @param resolution the size of the render, or null to keep every pixel
+	 * @return the handle on the image, whose get() throws an
+	 *         IllegalArgumentException if the file cannot be read as an image
+	 */
+	public ImageHandle prefetch(String fileName, Dimension resolution) {
+		File file = new File(String.valueOf(fileName));
+		String path = canonicalPath(file);
+		long modified = file.lastModified();
+		synchronized (this) {
+			Entry entry = entries.get(path);
+			if (entry != null && entry.modified == modified && entry.covers(resolution)) {
+				hits++;
+				return new ImageHandle(fileName, entry.image);
+			}
+			Loading pending = loading.get(path);
+			if (pending != null && pending.covers(resolution)) {
+				hits++;
+				return new ImageHandle(fileName, pending.planes);
+			}
+			CompletableFuture<ImagePlanes> planes = CompletableFuture.supplyAsync(() -> load(fileName, resolution),
+					loader());
+			Loading started = new Loading(planes, resolution);
+			loading.put(path, started);
+			planes.whenComplete((image, failure) -> {
+				synchronized (this) {
+					loading.remove(path, started);
+				}
+			});
+			return new ImageHandle(fileName, planes);
+		}
+	}
+
+	/**
+	 * Decodes the image in the given file for a render of the given size,
+	 * unless the cache holds it.
+	 */
+	private ImagePlanes load(String fileName, Dimension resolution) {
+		File file = new File(String.valueOf(fileName));
+		if (!file.isFile()) {
+			throw new IllegalArgumentException("Cannot find image " + fileName);
+		}
+		String path = canonicalPath(file);
+		long modified = file.lastModified();
+		synchronized (this) {
+			Entry entry = entries.get(path);
+			if (entry != null && entry.modified == modified && entry.covers(resolution)) {
+				hits++;
+				return entry.image;
+			}
+			misses++;
+		}
+		// decode without holding the lock, so that other images can be looked up
+		ImagePlanes image;
+		ImageDiskCache disk;
+		synchronized (this) {
+			disk = diskCache;
+		}
+		if (disk != null) {
+			image = disk.load(file, getLayout(), resolution);
+		} else {
+			image = decode(file, getLayout(), resolution);
+		}
+		Entry decoded = new Entry(image, modified);
+		synchronized (this) {
+			Entry entry = entries.get(path);
+			if (entry != null && entry.modified == modified && entry.image.getLayout() == layout
+					&& entry.covers(resolution)) {
+				// another thread decoded it meanwhile
+				return entry.image;
+			}
+			if (entry != null) {
+				remove(path, entry);
+			}
+			if (decoded.bytes <= budget && image.getLayout() == layout) {
+				entries.put(path, decoded);
+				bytes += decoded.bytes;
+				evictToBudget();
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the size of the render the images looked up by this thread are
+	 * decoded for.
+	 *
+	 * @return the size of the render, or null if every pixel is kept
+	 */
+	public Dimension getResolution() {
+		return resolution.get();
+	}
+
+	/**
+	 * Sets the size of the render the images looked up by this thread from now
+	 * on are decoded for. An image kept with fewer pixels than the render can
+	 * use is decoded again.
+	 *
+	 * @param size the size of the render, or null to keep every pixel
+	 */
+	public void setResolution(Dimension size) {
+		if (size == null) {
+			resolution.remove();
+		} else {
+			resolution.set(new Dimension(size));
+		}
+	}
+
+	/**
+	 * Returns how the images decoded are laid out.
+	 *
+	 * @return the layout of the planes
+	 */
+	public synchronized ImagePlanes.Layout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Sets how the images decoded from now on are laid out, forgetting the
+	 * images kept if they are laid out another way. The expressions already
+	 * parsed keep the images they have.
+	 *
+	 * @param layout the layout of the planes
+	 */
+	public synchronized void setLayout(ImagePlanes.Layout layout) {
+		if (layout != this.layout) {
+			this.layout = layout;
+			entries.clear();
+			bytes = 0;
+		}
+	}
+
+	/**
+	 * Returns the disk cache the images not held are read from.
+	 *
+	 * @return the disk cache, or null if images are always decoded
+	 */
+	public synchronized ImageDiskCache getDiskCache() {
+		return diskCache;
+	}
+
+	/**
+	 * Sets the disk cache the images not held are read from.
+	 *
+	 * @param diskCache the disk cache, or null to always decode the images
+	 */
+	public synchronized void setDiskCache(ImageDiskCache diskCache) {
+		this.diskCache = diskCache;
+	}
+
+	/**
+	 * Returns the bytes of planes the cache can keep.
+	 *
+	 * @return the budget in bytes
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Sets the bytes of planes the cache can keep, evicting the images used
+	 * least recently until the images kept fit.
+	 *
+	 * @param budget the bytes of planes the cache can keep (not negative)
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = checkBudget(budget);
+		evictToBudget();
+	}
+
+	private static long checkBudget(long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("budget must not be negative");
+		}
+		return budget;
+	}
+
+	/**
+	 * Returns the bytes of planes of the images kept.
+	 *
+	 * @return the bytes in use
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of images kept.
+	 *
+	 * @return the number of images
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns how many lookups found their image already decoded.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how many lookups had to decode their image.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns how many images were evicted to stay within the budget.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Forgets every image kept and resets the counters.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Returns the threads decoding the images prefetched, which end when they
+	 * have been idle for a while.
+	 */
+	private synchronized ExecutorService loader() {
+		if (loader == null) {
+			AtomicInteger count = new AtomicInteger();
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), runnable -> {
+						Thread thread = new Thread(runnable, "image-loader-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			pool.allowCoreThreadTimeOut(true);
+			loader = pool;
+		}
+		return loader;
+	}
+
+	private void evictToBudget() {
+		Iterator<Entry> leastRecent = entries.values().iterator();
+		while (bytes > budget && leastRecent.hasNext()) {
+			bytes -= leastRecent.next().bytes;
+			leastRecent.remove();
+			evictions++;
+		}
+	}
+
+	private void remove(String path, Entry entry) {
+		entries.remove(path);
+		bytes -= entry.bytes;
+	}
+
+	private static ImagePlanes decode(File file, ImagePlanes.Layout layout, Dimension resolution) {
+		byte[] contents;
+		try {
+			contents = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read image " + file, e);
+		}
+		return ImageDecoder.decode(file, contents, layout, resolution);
+	}
+
+	private static String canonicalPath(File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * An image being decoded, and the size of the render it is decoded for.
+	 */
+	private static class Loading {
+		private final CompletableFuture<ImagePlanes> planes;
+		private final Dimension resolution;
+
+		Loading(CompletableFuture<ImagePlanes> planes, Dimension resolution) {
+			this.planes = planes;
+			this.resolution = resolution;
+		}
+
+		/**
+		 * Tells whether the image will have as many pixels as a render of the
+		 * given size can use.
+		 */
+		boolean covers(Dimension size) {
+			if (resolution == null) {
+				return true;
+			}
+			return size != null && size.width <= resolution.width && size.height <= resolution.height;
+		}
+	}
+
+	/**
+	 * A decoded image and the modification time of its file when it was read.
+	 */
+	private static class Entry {
+		private final ImagePlanes image;
+		private final long modified;
+		private final long bytes;
+
+		Entry(ImagePlanes image, long modified) {
+			this.image = image;
+			this.modified = modified;
+			this.bytes = image.getBytes();
+		}
+
+		/**
+		 * Tells whether the image has as many pixels as a render of the given
+		 * size can use.
+		 */
+		boolean covers(Dimension resolution) {
+			return ImageDecoder.subsampling(image.getSourceWidth(), image.getSourceHeight(),
+					resolution) >= image.getSubsampling();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package picasso.model;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes an image file, keeping only one pixel in n along each axis when the
+ * image is at least n times larger than the render it is sampled for. The
+ * size of the image is read from its header first, so that the reader can
+ * skip the pixels that are not kept instead of decoding them.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+class ImageDecoder implements Closeable {
+
+	private final File file;
+	private final ImageInputStream input;
+	private final ImageReader reader;
+
+	/**
+	 * Opens the contents of an image file and reads its header.
+	 *
+	 * @param file     the image file, for the error messages
+	 * @param contents the contents of the file
+	 * @throws IllegalArgumentException if the contents are not an image
+	 */
+	ImageDecoder(File file, byte[] contents) {
+		this.file = file;
+		try {
+			this.input = ImageIO.createImageInputStream(new ByteArrayInputStream(contents));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read image " + file, e);
+		}
+		if (input == null) {
+			throw new IllegalArgumentException("Cannot read image " + file);
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+		if (!readers.hasNext()) {
+			closeInput();
+			throw new IllegalArgumentException("Cannot decode image " + file);
+		}
+		this.reader = readers.next();
+		reader.setInput(input, true, true);
+	}
+
+	/**
+	 * Returns the width and height of the whole image.
+	 *
+	 * @return the size of the image
+	 * @throws IllegalArgumentException if the header cannot be read
+	 */
+	Dimension getSize() {
+		try {
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot decode image " + file, e);
+		}
+	}
+
+	/**
+	 * Decodes one pixel in subsampling along each axis, starting with the top
+	 * left one.
+	 *
+	 * @param subsampling how many pixels along each axis become one
+	 * @return the decoded pixels
+	 * @throws IllegalArgumentException if the image cannot be decoded
+	 */
+	BufferedImage read(int subsampling) {
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+		try {
+			return reader.read(0, param);
+		} catch (IOException | RuntimeException e) {
+			throw new IllegalArgumentException("Cannot decode image " + file, e);
+		}
+	}
+
+	/**
+	 * Decodes the image of the contents of a file into planes.
+	 *
+	 * @param file       the image file, for the error messages
+	 * @param contents   the contents of the file
+	 * @param layout     how to lay the pixels out
+	 * @param resolution the size of the render the image is sampled for, or null
+	 *                   to keep every pixel
+	 * @return the planes of the image
+	 * @throws IllegalArgumentException if the contents are not an image
+	 */
+	static ImagePlanes decode(File file, byte[] contents, ImagePlanes.Layout layout, Dimension resolution) {
+		try (ImageDecoder decoder = new ImageDecoder(file, contents)) {
+			Dimension size = decoder.getSize();
+			int subsampling = subsampling(size.width, size.height, resolution);
+			return new ImagePlanes(decoder.read(subsampling), layout, size.width, size.height, subsampling);
+		}
+	}
+
+	/**
+	 * Returns how many pixels of an image along each axis can become one while
+	 * still leaving at least one pixel for each pixel of the render along both
+	 * axes.
+	 *
+	 * @param width      the width of the whole image
+	 * @param height     the height of the whole image
+	 * @param resolution the size of the render, or null to keep every pixel
+	 * @return the subsampling, at least 1
+	 */
+	static int subsampling(int width, int height, Dimension resolution) {
+		if (resolution == null || resolution.width <= 0 || resolution.height <= 0) {
+			return 1;
+		}
+		return Math.max(1, Math.min(width / resolution.width, height / resolution.height));
+	}
+
+	@Override
+	public void close() {
+		reader.dispose();
+		closeInput();
+	}
+
+	private void closeInput() {
+		try {
+			input.close();
+		} catch (IOException e) {
+			// the contents are in memory
+		}
+	}
+}
@@ -0,0 +1,417 @@
+package picasso.model;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The decoded images of the image functions kept on disk from one run to the
+ * next, so that a new process reads the planes of an image instead of
+ * decoding it again. Each image is stored raw, as its three planes of floats,
+ * in a file named after the SHA-256 of the contents of the image file and the
+ * layout of the planes, and of the subsampling for the images decoded at a
+ * lower resolution (see ImageCache): a changed image file has another hash,
+ * and so is decoded again, while copies of the same image share their entry.
+ *
+ * Entries are read through a memory mapping, so that the processes reading
+ * the same entry share its pages in the cache of the operating system. Entries
+ * are written to a temporary file and moved into place, so that a process
+ * never sees half an entry. An entry that cannot be read is decoded again, and
+ * an entry that cannot be written is skipped: the cache never makes an image
+ * fail to load.
+ *
+ * The entries take at most a limit of bytes: reading an entry marks it as
+ * used by setting its modification time, and writing one deletes the entries
+ * used least recently until the others fit, along with the entries of another
+ * version and the temporary files left behind by processes that died while
+ * writing.
+ *
+ * The directory is given by the picasso.imageCache system property, and is
+ * .picasso/images in the home directory of the user by default; the limit is
+ * given in bytes by the picasso.imageCacheLimit system property.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ImageDiskCache {
+
+	/** the system property naming the directory of the entries */
+	public static final String DIRECTORY_PROPERTY = "picasso.imageCache";
+
+	/** the system property giving the bytes the entries can take */
+	public static final String LIMIT_PROPERTY = "picasso.imageCacheLimit";
+
+	/** the bytes the entries can take by default */
+	public static final long DEFAULT_LIMIT = 1024L * 1024 * 1024;
+
+	private static final int MAGIC = 0x50494350; // PICP
+	private static final int VERSION = 3;
+	private static final int HEADER_BYTES = 9 * Integer.BYTES;
+	private static final String SUFFIX = ".planes";
+	private static final String TEMPORARY_PREFIX = "entry";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	/** how old a temporary file is when no process is writing it any more */
+	private static final long TEMPORARY_AGE = 60L * 60 * 1000;
+
+	private static ImageDiskCache ourInstance;
+
+	private final Path directory;
+	private final long limit;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create a cache keeping its entries in the given directory, which is
+	 * created when the first entry is written, in at most DEFAULT_LIMIT bytes.
+	 *
+	 * @param directory the directory of the entries
+	 */
+	public ImageDiskCache(Path directory) {
+		this(directory, DEFAULT_LIMIT);
+	}
+
+	/**
+	 * Create a cache keeping its entries in the given directory, which is
+	 * created when the first entry is written, in at most the given bytes.
+	 *
+	 * @param directory the directory of the entries
+	 * @param limit     the bytes the entries can take (not negative)
+	 */
+	public ImageDiskCache(Path directory, long limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative");
+		}
+		this.directory = directory;
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns the cache shared by the whole application, in the directory named
+	 * by the picasso.imageCache system property and with the limit given by the
+	 * picasso.imageCacheLimit one.
+	 *
+	 * @return the disk cache
+	 */
+	public static synchronized ImageDiskCache getInstance() {
+		if (ourInstance == null) {
+			String directory = System.getProperty(DIRECTORY_PROPERTY);
+			if (directory == null) {
+				directory = Paths.get(System.getProperty("user.home"), ".picasso", "images").toString();
+			}
+			ourInstance = new ImageDiskCache(Paths.get(directory), Long.getLong(LIMIT_PROPERTY, DEFAULT_LIMIT));
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Returns the directory of the entries.
+	 *
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Returns the bytes the entries can take.
+	 *
+	 * @return the limit
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the planes of the image in the given file, with every pixel, read
+	 * from the entry of its contents if there is one, and otherwise decoded and
+	 * stored.
+	 *
+	 * @param file   the image file
+	 * @param layout how to lay the pixels out
+	 * @return the planes of the image
+	 * @throws IllegalArgumentException if the file cannot be read as an image
+	 */
+	public ImagePlanes load(File file, ImagePlanes.Layout layout) {
+		return load(file, layout, null);
+	}
+
+	/**
+	 * Returns the planes of the image in the given file, with as many pixels as
+	 * a render of the given size can use, read from the entry of its contents
+	 * if there is one, and otherwise decoded and stored.
+	 *
+	 * @param file       the image file
+	 * @param layout     how to lay the pixels out
+	 * @param resolution the size of the render the image is sampled for, or null
+	 *                   to keep every pixel
+	 * @return the planes of the image
+	 * @throws IllegalArgumentException if the file cannot be read as an image
+	 */
+	public ImagePlanes load(File file, ImagePlanes.Layout layout, Dimension resolution) {
+		byte[] contents;
+		try {
+			contents = Files.readAllBytes(file.toPath());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read image " + file, e);
+		}
+		try (ImageDecoder decoder = new ImageDecoder(file, contents)) {
+			Dimension size = decoder.getSize();
+			int subsampling = ImageDecoder.subsampling(size.width, size.height, resolution);
+			String name = hash(contents) + "-" + layout.name().toLowerCase();
+			if (subsampling > 1) {
+				name += "-" + subsampling;
+			}
+			Path entry = directory.resolve(name + SUFFIX);
+			ImagePlanes planes = read(entry, layout, subsampling);
+			if (planes != null) {
+				synchronized (this) {
+					hits++;
+				}
+				touch(entry);
+				return planes;
+			}
+			synchronized (this) {
+				misses++;
+			}
+			planes = new ImagePlanes(decoder.read(subsampling), layout, size.width, size.height, subsampling);
+			write(entry, planes);
+			return planes;
+		}
+	}
+
+	/**
+	 * Returns how many images were read from their entry.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns how many images had to be decoded.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns how many entries were deleted to keep the others within the
+	 * limit.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the planes stored in the entry, or null if there is no entry or
+	 * it is not a complete entry of this version, layout and subsampling.
+	 */
+	private static ImagePlanes read(Path entry, ImagePlanes.Layout layout, int subsampling) {
+		try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES) {
+				return null;
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION || mapped.getInt() != layout.ordinal()) {
+				return null;
+			}
+			int width = mapped.getInt();
+			int height = mapped.getInt();
+			int length = mapped.getInt();
+			int sourceWidth = mapped.getInt();
+			int sourceHeight = mapped.getInt();
+			if (mapped.getInt() != subsampling || width < 0 || height < 0
+					|| length != ImagePlanes.planeLength(width, height, layout)
+					|| size != HEADER_BYTES + 3L * Float.BYTES * length) {
+				return null;
+			}
+			FloatBuffer floats = mapped.asFloatBuffer();
+			float[] red = new float[length];
+			float[] green = new float[length];
+			float[] blue = new float[length];
+			floats.get(red).get(green).get(blue);
+			return new ImagePlanes(width, height, layout, red, green, blue, sourceWidth, sourceHeight, subsampling);
+		} catch (IOException | RuntimeException e) {
+			// no entry, or a broken one, which the decoded image replaces
+			return null;
+		}
+	}
+
+	private void write(Path entry, ImagePlanes planes) {
+		int length = planes.getRed().length;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 3 * Float.BYTES * length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(planes.getLayout().ordinal());
+		buffer.putInt(planes.getWidth()).putInt(planes.getHeight()).putInt(length);
+		buffer.putInt(planes.getSourceWidth()).putInt(planes.getSourceHeight()).putInt(planes.getSubsampling());
+		FloatBuffer floats = buffer.asFloatBuffer();
+		floats.put(planes.getRed()).put(planes.getGreen()).put(planes.getBlue());
+		// the floats were written through a view, which leaves the buffer at the
+		// end of the header
+		buffer.rewind();
+		if (buffer.capacity() > limit) {
+			// the entry alone would not fit
+			return;
+		}
+		Path temporary = null;
+		try {
+			Files.createDirectories(directory);
+			temporary = Files.createTempFile(directory, TEMPORARY_PREFIX, TEMPORARY_SUFFIX);
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			try {
+				Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// the image is decoded again next time
+			deleteQuietly(temporary);
+			return;
+		}
+		trim(entry);
+	}
+
+	/**
+	 * Marks the entry as used now, so that it is evicted after the entries used
+	 * before it.
+	 */
+	private static void touch(Path entry) {
+		try {
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the entry is only evicted a little early
+		}
+	}
+
+	/**
+	 * Deletes the stale files of the directory, then the entries used least
+	 * recently until the others fit in the limit. The entry just written is
+	 * kept, as it fits by itself. Other processes may be deleting the same
+	 * files: a file already gone is skipped.
+	 */
+	private synchronized void trim(Path written) {
+		List<Path> files;
+		try (Stream<Path> listed = Files.list(directory)) {
+			files = listed.collect(Collectors.toList());
+		} catch (IOException e) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<Entry> entries = new ArrayList<>();
+		long bytes = 0;
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				long used = attributes.lastModifiedTime().toMillis();
+				if (name.startsWith(TEMPORARY_PREFIX) && name.endsWith(TEMPORARY_SUFFIX)) {
+					if (now - used > TEMPORARY_AGE) {
+						Files.deleteIfExists(file);
+					}
+				} else if (file.equals(written)) {
+					bytes += attributes.size();
+				} else if (name.endsWith(SUFFIX)) {
+					if (isCurrent(file)) {
+						entries.add(new Entry(file, attributes.size(), used));
+						bytes += attributes.size();
+					} else {
+						Files.deleteIfExists(file);
+					}
+				}
+			} catch (IOException e) {
+				// gone already, or to be dealt with next time
+			}
+		}
+		entries.sort(Comparator.comparingLong(entry -> entry.used));
+		for (int i = 0; i < entries.size() && bytes > limit; i++) {
+			Entry entry = entries.get(i);
+			deleteQuietly(entry.file);
+			bytes -= entry.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Returns whether the file starts like an entry of this version.
+	 */
+	private static boolean isCurrent(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// read the whole header, or up to the end of a shorter file
+			}
+			header.flip();
+			return header.remaining() == 2 * Integer.BYTES && header.getInt() == MAGIC && header.getInt() == VERSION;
+		}
+	}
+
+	/** an entry the limit may evict */
+	private static class Entry {
+		private final Path file;
+		private final long size;
+		private final long used;
+
+		Entry(Path file, long size, long used) {
+			this.file = file;
+			this.size = size;
+			this.used = used;
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// nothing more to do
+		}
+	}
+
+	private static String hash(byte[] contents) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+			StringBuilder hex = new StringBuilder(2 * digest.length);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform provides SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package picasso.model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * An image that may still be loading: ImageCache.prefetch starts decoding an
+ * image in the background and returns a handle on it, so that the parser goes
+ * on while the image is decoded. Asking the handle for the planes waits for
+ * the image if it is not loaded yet; once loaded, the planes are returned
+ * without waiting.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ImageHandle {
+
+	private final String fileName;
+	private final CompletableFuture<ImagePlanes> loading;
+	private volatile ImagePlanes planes;
+
+	/**
+	 * Create a handle on an image that is already loaded.
+	 *
+	 * @param fileName the name of the image file
+	 * @param planes   the planes of the image
+	 */
+	public ImageHandle(String fileName, ImagePlanes planes) {
+		this(fileName, CompletableFuture.completedFuture(planes));
+	}
+
+	/**
+	 * Create a handle on an image being loaded.
+	 *
+	 * @param fileName the name of the image file
+	 * @param loading  completes with the planes of the image, or with the
+	 *                 exception that kept it from loading
+	 */
+	public ImageHandle(String fileName, CompletableFuture<ImagePlanes> loading) {
+		this.fileName = fileName;
+		this.loading = loading;
+	}
+
+	/**
+	 * Returns the name of the image file.
+	 *
+	 * @return the name of the image file
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns true once the image is loaded or has failed to load.
+	 *
+	 * @return true if get() does not wait
+	 */
+	public boolean isDone() {
+		return loading.isDone();
+	}
+
+	/**
+	 * Returns the planes of the image, waiting for them if the image is still
+	 * loading.
+	 *
+	 * @return the planes of the image
+	 * @throws IllegalArgumentException if the image could not be loaded
+	 */
+	public ImagePlanes get() {
+		ImagePlanes loaded = planes;
+		if (loaded == null) {
+			try {
+				loaded = loading.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException cause) {
+					throw cause;
+				}
+				throw new IllegalArgumentException("Cannot load image " + fileName, e.getCause());
+			}
+			planes = loaded;
+		}
+		return loaded;
+	}
+
+	/**
+	 * Returns a handle on the same image that gives the planes the fallback
+	 * returns for the exception instead of failing.
+	 *
+	 * @param fallback the planes to use if the image cannot be loaded
+	 * @return the handle with the fallback
+	 */
+	public ImageHandle orElse(Function<Throwable, ImagePlanes> fallback) {
+		return new ImageHandle(fileName, loading.exceptionally(e -> {
+			return fallback.apply(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+		}));
+	}
+}
@@ -0,0 +1,350 @@
+package picasso.model;
+
+import java.awt.image.BufferedImage;
+import java.util.function.IntBinaryOperator;
+
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * An image converted once for sampling: the red, green and blue of its pixels
+ * in three planes of floats, already scaled from [0, 255] to [-1, 1]. Each
+ * float is picked so that it converts back to the same Java color component as
+ * the double the image functions computed before the planes, so that an image
+ * drawn as is keeps its exact colors. The image functions look pixels up by
+ * their index in the planes, which clipIndex and wrapIndex compute from domain
+ * coordinates without creating any object.
+ *
+ * The pixels are laid out row after row, or in square blocks of BLOCK_SIZE by
+ * BLOCK_SIZE pixels stored one after the other, each in Z-order (Morton
+ * order). In blocks, pixels close to each other in the image are close to each
+ * other in the planes whatever the direction, so that samples taken at
+ * scattered but nearby coordinates share cache lines.
+ *
+ * An image decoded for a render much smaller than it may keep only one pixel
+ * in getSubsampling() along each axis; its planes then have fewer pixels than
+ * the source, whose size getSourceWidth() and getSourceHeight() tell.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public final class ImagePlanes {
+
+	/**
+	 * How the pixels are laid out in the planes.
+	 */
+	public enum Layout {
+		/** row after row, from the top */
+		ROWS,
+		/** block after block, row after row of blocks, each block in Z-order */
+		BLOCKS
+	}
+
+	/** the width and height of a block, in pixels */
+	public static final int BLOCK_SIZE = 8;
+
+	private static final int BLOCK_SHIFT = Integer.numberOfTrailingZeros(BLOCK_SIZE);
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	/** the component of each Java color component, see component */
+	private static final float[] COMPONENTS = new float[256];
+
+	static {
+		for (int value = 0; value < COMPONENTS.length; value++) {
+			COMPONENTS[value] = component(value);
+		}
+	}
+
+	private final Layout layout;
+	private final int width;
+	private final int height;
+	private final int sourceWidth;
+	private final int sourceHeight;
+	private final int subsampling;
+	private final int blocksPerRow;
+	private final float[] red;
+	private final float[] green;
+	private final float[] blue;
+
+	/**
+	 * Converts the pixels of an image, row after row.
+	 *
+	 * @param image the image to convert
+	 */
+	public ImagePlanes(Pixmap image) {
+		this(image, Layout.ROWS);
+	}
+
+	/**
+	 * Converts the pixels of an image.
+	 *
+	 * @param image  the image to convert
+	 * @param layout how to lay the pixels out
+	 */
+	public ImagePlanes(Pixmap image, Layout layout) {
+		this(image.getSize().width, image.getSize().height, image::getRGB, layout, image.getSize().width,
+				image.getSize().height, 1);
+	}
+
+	/**
+	 * Converts the pixels of a decoded image.
+	 *
+	 * @param image  the image to convert
+	 * @param layout how to lay the pixels out
+	 */
+	public ImagePlanes(BufferedImage image, Layout layout) {
+		this(image, layout, image.getWidth(), image.getHeight(), 1);
+	}
+
+	/**
+	 * Converts the pixels of an image decoded from a larger source, one pixel
+	 * in subsampling along each axis.
+	 */
+	ImagePlanes(BufferedImage image, Layout layout, int sourceWidth, int sourceHeight, int subsampling) {
+		this(image.getWidth(), image.getHeight(), image::getRGB, layout, sourceWidth, sourceHeight, subsampling);
+	}
+
+	/**
+	 * @param pixels the packed color of the pixel at (x, y)
+	 */
+	private ImagePlanes(int width, int height, IntBinaryOperator pixels, Layout layout, int sourceWidth,
+			int sourceHeight, int subsampling) {
+		this(width, height, layout, new float[planeLength(width, height, layout)],
+				new float[planeLength(width, height, layout)], new float[planeLength(width, height, layout)],
+				sourceWidth, sourceHeight, subsampling);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int pixel = pixels.applyAsInt(x, y);
+				int index = pixelIndex(x, y);
+				red[index] = toComponent((pixel >> 16) & 0xFF);
+				green[index] = toComponent((pixel >> 8) & 0xFF);
+				blue[index] = toComponent(pixel & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Wraps planes already converted and laid out, as ImageDiskCache stores
+	 * them.
+	 *
+	 * @throws IllegalArgumentException if the planes do not have the length
+	 *                                  of the layout
+	 */
+	ImagePlanes(int width, int height, Layout layout, float[] red, float[] green, float[] blue, int sourceWidth,
+			int sourceHeight, int subsampling) {
+		int length = planeLength(width, height, layout);
+		if (red.length != length || green.length != length || blue.length != length) {
+			throw new IllegalArgumentException("planes do not match a " + width + "x" + height + " image");
+		}
+		this.layout = layout;
+		this.width = width;
+		this.height = height;
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+		this.subsampling = subsampling;
+		this.blocksPerRow = layout == Layout.BLOCKS ? (width + BLOCK_MASK) >> BLOCK_SHIFT : 0;
+		this.red = red;
+		this.green = green;
+		this.blue = blue;
+	}
+
+	/**
+	 * Returns the number of floats in each plane of an image of the given size
+	 * laid out the given way: the blocks on the right and bottom edges are
+	 * padded.
+	 *
+	 * @param width  the width of the image
+	 * @param height the height of the image
+	 * @param layout how the pixels are laid out
+	 * @return the length of a plane
+	 */
+	public static int planeLength(int width, int height, Layout layout) {
+		if (width < 0 || height < 0) {
+			throw new IllegalArgumentException("negative size " + width + "x" + height);
+		}
+		if (layout == Layout.BLOCKS) {
+			return ((width + BLOCK_MASK) >> BLOCK_SHIFT) * ((height + BLOCK_MASK) >> BLOCK_SHIFT) * BLOCK_SIZE
+					* BLOCK_SIZE;
+		}
+		return width * height;
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the width of the image the planes were decoded from.
+	 *
+	 * @return the width of the source, in pixels
+	 */
+	public int getSourceWidth() {
+		return sourceWidth;
+	}
+
+	/**
+	 * Returns the height of the image the planes were decoded from.
+	 *
+	 * @return the height of the source, in pixels
+	 */
+	public int getSourceHeight() {
+		return sourceHeight;
+	}
+
+	/**
+	 * Returns how many pixels of the source along each axis became one pixel
+	 * of the planes.
+	 *
+	 * @return the subsampling, 1 if every pixel was kept
+	 */
+	public int getSubsampling() {
+		return subsampling;
+	}
+
+	/**
+	 * Returns the bytes taken by the planes.
+	 *
+	 * @return the size of the planes in bytes
+	 */
+	public long getBytes() {
+		return 3L * Float.BYTES * red.length;
+	}
+
+	public float[] getRed() {
+		return red;
+	}
+
+	public float[] getGreen() {
+		return green;
+	}
+
+	public float[] getBlue() {
+		return blue;
+	}
+
+	/**
+	 * Returns the plane of a channel.
+	 *
+	 * @param channel 0 for red, 1 for green, 2 for blue
+	 * @return the plane of the channel
+	 */
+	public float[] getChannel(int channel) {
+		switch (channel) {
+		case 0:
+			return red;
+		case 1:
+			return green;
+		default:
+			return blue;
+		}
+	}
+
+	/**
+	 * Returns the index of the pixel nearest to the given domain coordinates,
+	 * with the coordinates clamped to [-1, 1].
+	 *
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the index of the pixel in the planes
+	 */
+	public int clipIndex(double x, double y) {
+		return index(Math.max(-1.0, Math.min(1.0, x)), Math.max(-1.0, Math.min(1.0, y)));
+	}
+
+	/**
+	 * Returns the index of the pixel nearest to the given domain coordinates,
+	 * with the coordinates wrapped around into [-1, 1].
+	 *
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the index of the pixel in the planes
+	 */
+	public int wrapIndex(double x, double y) {
+		return index(wrap(x), wrap(y));
+	}
+
+	/**
+	 * Converts a Java color component to the [-1,1] range of Picasso.
+	 */
+	private static float toComponent(int value) {
+		return COMPONENTS[value];
+	}
+
+	/**
+	 * Returns the float nearest to the component the image functions have
+	 * always computed in double for a Java color component, moved if needed so
+	 * that it still converts back to the same Java color component as the
+	 * double does.
+	 */
+	private static float component(int value) {
+		double exact = (value / 255.0) * 2.0 - 1.0;
+		int level = level(exact);
+		float component = (float) exact;
+		while (level(component) > level) {
+			component = Math.nextDown(component);
+		}
+		while (level(component) < level) {
+			component = Math.nextUp(component);
+		}
+		return component;
+	}
+
+	/**
+	 * Returns the Java color component a Picasso color component converts to.
+	 */
+	private static int level(double component) {
+		return RGBColor.toPackedRGB(component, component, component) & 0xFF;
+	}
+
+	/**
+	 * Returns the index of the pixel nearest to coordinates in [-1, 1]; NaN
+	 * coordinates give the first column or row.
+	 */
+	private int index(double x, double y) {
+		int imageX = (int) Math.round(((x + 1.0) / 2.0) * (width - 1));
+		int imageY = (int) Math.round(((y + 1.0) / 2.0) * (height - 1));
+		return pixelIndex(imageX, imageY);
+	}
+
+	/**
+	 * Returns the index in the planes of the pixel in the given column and row.
+	 *
+	 * @param imageX the column
+	 * @param imageY the row
+	 * @return the index of the pixel
+	 */
+	public int pixelIndex(int imageX, int imageY) {
+		if (layout == Layout.ROWS) {
+			return imageY * width + imageX;
+		}
+		int block = (imageY >> BLOCK_SHIFT) * blocksPerRow + (imageX >> BLOCK_SHIFT);
+		return block << (2 * BLOCK_SHIFT) | spread(imageX & BLOCK_MASK) | spread(imageY & BLOCK_MASK) << 1;
+	}
+
+	/**
+	 * Moves the three bits of a coordinate within a block to the even bits, so
+	 * that the bits of x and y interleave.
+	 */
+	private static int spread(int value) {
+		return (value & 1) | (value & 2) << 1 | (value & 4) << 2;
+	}
+
+	private static double wrap(double value) {
+		double wrapped = value + 1.0;
+		// the remainder is slow, and leaves the coordinates already in range as
+		// they are
+		if (!(wrapped >= 0 && wrapped < 2.0)) {
+			wrapped %= 2.0;
+		}
+		if (wrapped < 0) {
+			wrapped += 2.0;
+		}
+		return wrapped - 1.0;
+	}
+}
@@ -3,6 +3,9 @@ package picasso.model;
 import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import javax.imageio.*;
 
 /**
@@ -21,6 +24,12 @@ import javax.imageio.*;
  * local image, but changing the URL to support network retrievable images
  * should be straightforward.
  * 
+ * <p>
+ * A pixmap that is shown can be drawn into through a back buffer (see
+ * beginDrawing()), so that the image painted only changes one finished
+ * rectangle at a time and the listeners are told which rectangles to repaint.
+ * </p>
+ * 
  * <P>
  * Revision history for C++ version: <br/>
  * Modified: 3/21/94 11/29/94 4/13/95
@@ -37,9 +46,19 @@ public class Pixmap {
 	public static final Color DEFAULT_COLOR = Color.BLACK;
 	public static final String DEFAULT_NAME = "Picasso";
 
+	/** the bits of a packed color an image of type TYPE_INT_RGB keeps */
+	private static final int RGB_MASK = 0xFFFFFF;
+
 	private String myFileName;
 	private BufferedImage myImage;
+	private volatile BufferedImage myBackImage;
+	private BufferedImage mySpareImage;
+	// where the pixels of each image are, resolved once per image
+	private IntPixels myPixels;
+	private volatile IntPixels myBackPixels;
+	private IntPixels mySparePixels;
 	private Dimension mySize;
+	private final List<Consumer<Rectangle>> myListeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * Create a default pixmap (300x300 black)
@@ -76,7 +95,8 @@ public class Pixmap {
 	public Pixmap(Pixmap other) {
 		myFileName = other.myFileName;
 		mySize = other.getSize();
-		myImage = copyImage(mySize, mySize, other.myImage);
+		myImage = copyImage(mySize, mySize, other.drawingImage());
+		myPixels = new IntPixels(myImage);
 	}
 
 	/**
@@ -88,7 +108,7 @@ public class Pixmap {
 		if (fileName == null) {
 			createImage(DEFAULT_SIZE.width, DEFAULT_SIZE.height, DEFAULT_COLOR);
 		} else {
-			read(fileName);
+			readImage(fileName);
 		}
 	}
 
@@ -134,15 +154,168 @@ public class Pixmap {
 	 */
 	public Color getColor(int x, int y) {
 		if (isInBounds(x, y))
-			return new Color(myImage.getRGB(x, y));
+			return new Color(drawingImage().getRGB(x, y));
 		else
 			return DEFAULT_COLOR;
 	}
 
+	/**
+	 * Returns the color of the pixel at the given (x,y) coordinate packed into an
+	 * int (as returned by Color.getRGB()) if the coordinate is within the bounds
+	 * of the image; otherwise returns the default color. Unlike getColor, this
+	 * does not create a Color object.
+	 * 
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the packed color of the pixel at the given (x,y) coordinate
+	 */
+	public int getRGB(int x, int y) {
+		if (isInBounds(x, y))
+			return drawingImage().getRGB(x, y);
+		else
+			return DEFAULT_COLOR.getRGB();
+	}
+
 	public void setColor(int x, int y, Color value) {
+		setRGB(x, y, value.getRGB());
+	}
+
+	/**
+	 * Sets the pixel at the given (x,y) coordinate to a color packed into an int
+	 * (as returned by Color.getRGB()), if the coordinate is within the bounds of
+	 * the image. Unlike setColor, this needs no Color object.
+	 * 
+	 * @param x    the x coordinate
+	 * @param y    the y coordinate
+	 * @param argb the packed color; its alpha is ignored
+	 */
+	public void setRGB(int x, int y, int argb) {
 		if (isInBounds(x, y)) {
-			myImage.setRGB(x, y, value.getRGB());
+			IntPixels pixels = drawingPixels();
+			pixels.set(pixels.index(x, y), argb);
+		}
+	}
+
+	/**
+	 * Sets a run of pixels of a row to packed colors (as returned by
+	 * Color.getRGB()), writing them straight into the pixels of the image. The
+	 * part of the run outside the image is ignored.
+	 * 
+	 * @param x      the x coordinate of the first pixel
+	 * @param y      the y coordinate of the row
+	 * @param argb   the packed colors; their alpha is ignored
+	 * @param offset the index in argb of the color of the first pixel
+	 * @param length the number of pixels
+	 */
+	public void setRow(int x, int y, int[] argb, int offset, int length) {
+		setPixels(x, y, length, 1, argb, offset, length);
+	}
+
+	/**
+	 * Sets every stride-th pixel of a row, starting at x, to packed colors (as
+	 * returned by Color.getRGB()), writing them straight into the pixels of the
+	 * image. The pixels outside the image are ignored.
+	 * 
+	 * @param x      the x coordinate of the first pixel
+	 * @param y      the y coordinate of the row
+	 * @param count  the number of pixels
+	 * @param stride the distance from one pixel to the next (at least 1)
+	 * @param argb   the packed colors; their alpha is ignored
+	 * @param offset the index in argb of the color of the first pixel
+	 */
+	public void setPixels(int x, int y, int count, int stride, int[] argb, int offset) {
+		if (y < 0 || y >= mySize.height) {
+			return;
+		}
+		IntPixels pixels = drawingPixels();
+		int row = pixels.index(0, y);
+		for (int i = 0, imageX = x; i < count; i++, imageX += stride) {
+			if (imageX >= 0 && imageX < mySize.width) {
+				pixels.set(row + imageX, argb[offset + i]);
+			}
+		}
+	}
+
+	/**
+	 * Sets the pixels of a rectangle to packed colors (as returned by
+	 * Color.getRGB()), given row by row, writing them straight into the pixels
+	 * of the image. The part of the rectangle outside the image is ignored.
+	 * 
+	 * @param x      the x coordinate of the left column
+	 * @param y      the y coordinate of the top row
+	 * @param width  the number of columns
+	 * @param height the number of rows
+	 * @param argb   the packed colors; their alpha is ignored
+	 * @param offset the index in argb of the color of the top left pixel
+	 * @param scan   the distance in argb from one row to the next
+	 */
+	public void setPixels(int x, int y, int width, int height, int[] argb, int offset, int scan) {
+		int x0 = Math.max(x, 0);
+		int y0 = Math.max(y, 0);
+		int x1 = Math.min(x + width, mySize.width);
+		int y1 = Math.min(y + height, mySize.height);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
 		}
+		IntPixels pixels = drawingPixels();
+		for (int row = y0; row < y1; row++) {
+			int from = offset + (row - y) * scan + (x0 - x);
+			int to = pixels.index(x0, row);
+			for (int i = 0; i < x1 - x0; i++) {
+				pixels.set(to + i, argb[from + i]);
+			}
+		}
+	}
+
+	/**
+	 * Sets every pixel of a rectangle to the given color. The part of the
+	 * rectangle outside the image is ignored.
+	 * 
+	 * @param x      the x coordinate of the left column
+	 * @param y      the y coordinate of the top row
+	 * @param width  the number of columns
+	 * @param height the number of rows
+	 * @param value  the color
+	 */
+	public void fillRect(int x, int y, int width, int height, Color value) {
+		fillRect(x, y, width, height, value.getRGB());
+	}
+
+	/**
+	 * Sets every pixel of a rectangle to a color packed into an int (as returned
+	 * by Color.getRGB()). The part of the rectangle outside the image is
+	 * ignored.
+	 * 
+	 * @param x      the x coordinate of the left column
+	 * @param y      the y coordinate of the top row
+	 * @param width  the number of columns
+	 * @param height the number of rows
+	 * @param argb   the packed color; its alpha is ignored
+	 */
+	public void fillRect(int x, int y, int width, int height, int argb) {
+		int x0 = Math.max(x, 0);
+		int y0 = Math.max(y, 0);
+		int x1 = Math.min(x + width, mySize.width);
+		int y1 = Math.min(y + height, mySize.height);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+		drawingPixels().fill(x0, y0, x1, y1, argb);
+	}
+
+	/**
+	 * Makes this image a copy of the given image, size included
+	 * 
+	 * @param other the image to copy
+	 */
+	public void copyFrom(Pixmap other) {
+		synchronized (this) {
+			mySize = other.getSize();
+			myImage = copyImage(mySize, mySize, other.drawingImage());
+			myPixels = new IntPixels(myImage);
+			discardBuffers();
+		}
+		fireChanged(new Rectangle(mySize));
 	}
 
 	public void setSize(Dimension size) {
@@ -155,14 +328,16 @@ public class Pixmap {
 	 * @param width  the new width of the image
 	 * @param height the new height of the image
 	 */
-	public void setSize(int width, int height) {
+	public synchronized void setSize(int width, int height) {
 		if (width != mySize.width || height != mySize.height) {
+			discardBuffers();
 			Dimension newSize = new Dimension(width, height);
 			if (width > mySize.width || height > mySize.height) {
 				myImage = copyImage(mySize, newSize, myImage);
 			} else {
 				myImage = myImage.getSubimage(0, 0, width, height);
 			}
+			myPixels = new IntPixels(myImage);
 			mySize = newSize;
 		}
 	}
@@ -173,41 +348,245 @@ public class Pixmap {
 	 * @param fileName the name of the image file to be read in
 	 */
 	public void read(String fileName) {
+		if (readImage(fileName)) {
+			fireChanged(new Rectangle(mySize));
+		}
+	}
+
+	/**
+	 * Replaces the image with the one named by fileName, without telling the
+	 * listeners, so that the constructor can call it.
+	 * 
+	 * @return true if the image was read
+	 */
+	private boolean readImage(String fileName) {
 		try {
-			myFileName = fileName;
-			myImage = ImageIO.read(new File(myFileName));
-			mySize = new Dimension(myImage.getWidth(), myImage.getHeight());
+			BufferedImage image = ImageIO.read(new File(fileName));
+			if (image == null) {
+				throw new IOException("Cannot decode image " + fileName);
+			}
+			Dimension size = new Dimension(image.getWidth(), image.getHeight());
+			// every image is kept as TYPE_INT_RGB, so its pixels can be written directly
+			image = copyImage(size, size, image);
+			IntPixels pixels = new IntPixels(image);
+			synchronized (this) {
+				myFileName = fileName;
+				myImage = image;
+				myPixels = pixels;
+				mySize = size;
+				discardBuffers();
+			}
+			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return false;
 		}
 	}
 
 	/**
-	 * Write the current image to a file as a jpg.
+	 * Write the current image to a file in the format its extension names: a
+	 * lossless png (see PngEncoder), a gif or a bmp, and a jpg for any other
+	 * extension.
 	 * 
 	 * @param fileName the name of the file to write the image to
 	 */
 	public void write(String fileName) {
+		write(fileName, PngEncoder.DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Write the current image to a file in the format its extension names, with
+	 * the given compression level if it is a png.
+	 * 
+	 * @param fileName         the name of the file to write the image to
+	 * @param compressionLevel the compression level of a png, from 0 (none) to 9
+	 *                         (smallest)
+	 */
+	public void write(String fileName, int compressionLevel) {
 		try {
-			ImageIO.write(myImage, "jpg", new File(fileName));
+			File file = new File(fileName);
+			String format = formatOf(fileName);
+			if (format.equals("png")) {
+				PngEncoder.getInstance().write(drawingImage(), file, compressionLevel);
+			} else {
+				ImageIO.write(drawingImage(), format, file);
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
-	public void paint(Graphics pen) {
+	/**
+	 * Hands the top rows of the image to a writer, as the next rows of the image
+	 * it writes.
+	 * 
+	 * @param writer the writer of the rows
+	 * @param count  how many rows to write, from the top
+	 * @throws IOException if the writer cannot write the rows
+	 */
+	public void writeRows(RowWriter writer, int count) throws IOException {
+		writer.writeRows(drawingImage(), count);
+	}
+
+	/**
+	 * Returns the image format a file name names by its extension.
+	 * 
+	 * @param fileName the name of an image file
+	 * @return png, gif, bmp or jpg
+	 */
+	public static String formatOf(String fileName) {
+		String lower = fileName.toLowerCase();
+		for (String format : new String[] { "png", "gif", "bmp" }) {
+			if (lower.endsWith("." + format)) {
+				return format;
+			}
+		}
+		return "jpg";
+	}
+
+	/**
+	 * Paints the front image: while the pixmap is drawn through a back buffer,
+	 * only the rectangles published so far show the new pixels.
+	 * 
+	 * @param pen the graphics to paint with; its clip limits what is painted
+	 */
+	public synchronized void paint(Graphics pen) {
 		pen.drawImage(myImage, 0, 0, mySize.width, mySize.height, null);
 	}
 
+	/**
+	 * Adds a listener told about each rectangle of the image that changes on
+	 * screen: each rectangle published, and the whole image when it is read or
+	 * copied from another one.
+	 * 
+	 * @param listener called with the rectangle that changed, on the thread that
+	 *                 changed it
+	 */
+	public void addChangeListener(Consumer<Rectangle> listener) {
+		myListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added by addChangeListener.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	public void removeChangeListener(Consumer<Rectangle> listener) {
+		myListeners.remove(listener);
+	}
+
+	/**
+	 * Starts drawing into a back buffer that holds a copy of the image: from now
+	 * on, the pixels set are only painted once the rectangle they are in is
+	 * published, or once drawing ends. A pixmap without listeners is drawn into
+	 * directly, since nobody paints it meanwhile.
+	 */
+	public synchronized void beginDrawing() {
+		if (myListeners.isEmpty() || myBackImage != null) {
+			return;
+		}
+		BufferedImage back = mySpareImage;
+		IntPixels backPixels = mySparePixels;
+		mySpareImage = null;
+		mySparePixels = null;
+		if (back == null || back.getWidth() != mySize.width || back.getHeight() != mySize.height) {
+			back = copyImage(mySize, mySize, myImage);
+			backPixels = new IntPixels(back);
+		} else {
+			back.setData(myImage.getRaster());
+		}
+		// the pixels first, so that a writer seeing the back image finds them
+		myBackPixels = backPixels;
+		myBackImage = back;
+	}
+
+	/**
+	 * Copies a finished rectangle of the back buffer to the image painted, and
+	 * tells the listeners to repaint it. The part of the rectangle outside the
+	 * image is ignored.
+	 * 
+	 * @param x      the x coordinate of the left column
+	 * @param y      the y coordinate of the top row
+	 * @param width  the number of columns
+	 * @param height the number of rows
+	 */
+	public void publish(int x, int y, int width, int height) {
+		if (myListeners.isEmpty() && myBackImage == null) {
+			return;
+		}
+		Rectangle changed;
+		synchronized (this) {
+			changed = new Rectangle(x, y, width, height).intersection(new Rectangle(mySize));
+			if (changed.isEmpty()) {
+				return;
+			}
+			BufferedImage back = myBackImage;
+			if (back != null) {
+				myImage.getRaster().setRect(back.getRaster().createChild(changed.x, changed.y, changed.width,
+						changed.height, changed.x, changed.y, null));
+			}
+		}
+		fireChanged(changed);
+	}
+
+	/**
+	 * Ends drawing by swapping the back buffer in as the image painted, so that
+	 * every pixel set since beginDrawing is painted. The rectangles that were
+	 * not published are not repainted until something else repaints them.
+	 */
+	public synchronized void endDrawing() {
+		if (myBackImage == null) {
+			return;
+		}
+		mySpareImage = myImage;
+		mySparePixels = myPixels;
+		myImage = myBackImage;
+		myPixels = myBackPixels;
+		myBackImage = null;
+		myBackPixels = null;
+	}
+
+	/**
+	 * Returns the image pixels are read from and written to: the back buffer
+	 * while drawing, and otherwise the image painted.
+	 */
+	private BufferedImage drawingImage() {
+		BufferedImage back = myBackImage;
+		return back != null ? back : myImage;
+	}
+
+	/**
+	 * Returns the pixels of drawingImage().
+	 */
+	private IntPixels drawingPixels() {
+		IntPixels back = myBackPixels;
+		return back != null ? back : myPixels;
+	}
+
+	/**
+	 * Stops drawing through the back buffer when the image is replaced; the rest
+	 * of the drawing goes directly to the new image.
+	 */
+	private void discardBuffers() {
+		myBackImage = null;
+		myBackPixels = null;
+		mySpareImage = null;
+		mySparePixels = null;
+	}
+
+	private void fireChanged(Rectangle changed) {
+		for (Consumer<Rectangle> listener : myListeners) {
+			listener.accept(new Rectangle(changed));
+		}
+	}
+
 	private void createImage(int width, int height, Color color) {
 		myFileName = DEFAULT_NAME;
 		myImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		myPixels = new IntPixels(myImage);
 		mySize = new Dimension(width, height);
-		for( int i=0; i < width; i++ ) {
-			for(int j=0; j<width; j++ ) {
-				setColor(i, j, color);
-			}
-		}
+		// not through fillRect, which a subclass could override
+		myPixels.fill(0, 0, width, height, color.getRGB());
 	}
 
 	private BufferedImage copyImage(Dimension from, Dimension to, BufferedImage original) {
@@ -218,4 +597,51 @@ public class Pixmap {
 		result.setRGB(0, 0, from.width, from.height, data, 0, from.width);
 		return result;
 	}
+
+	/**
+	 * The int buffer behind an image of type TYPE_INT_RGB, or behind part of
+	 * one, and where each pixel of the image is in it. The pixels are written
+	 * through the buffer rather than its array, which taking would keep Java2D
+	 * from caching the image on the screen from then on.
+	 */
+	private static class IntPixels {
+		private final DataBufferInt buffer;
+		private final int offset;
+		private final int scanline;
+
+		IntPixels(BufferedImage image) {
+			WritableRaster raster = image.getRaster();
+			SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+			this.buffer = (DataBufferInt) raster.getDataBuffer();
+			this.scanline = model.getScanlineStride();
+			// a subimage starts inside the buffer of the image it is part of
+			this.offset = -raster.getSampleModelTranslateY() * scanline - raster.getSampleModelTranslateX();
+		}
+
+		int index(int x, int y) {
+			return offset + y * scanline + x;
+		}
+
+		/**
+		 * Sets the pixel at the given index to a packed color, ignoring its
+		 * alpha.
+		 */
+		void set(int index, int argb) {
+			buffer.setElem(index, argb & RGB_MASK);
+		}
+
+		/**
+		 * Sets every pixel from (x0, y0) to (x1, y1), excluded, to a packed
+		 * color.
+		 */
+		void fill(int x0, int y0, int x1, int y1, int argb) {
+			int rgb = argb & RGB_MASK;
+			for (int row = y0; row < y1; row++) {
+				int from = index(x0, row);
+				for (int i = from; i < from + x1 - x0; i++) {
+					buffer.setElem(i, rgb);
+				}
+			}
+		}
+	}
 }
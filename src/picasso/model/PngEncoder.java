@@ -0,0 +1,499 @@
+package picasso.model;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes images as 8-bit RGB PNG files, filtering and compressing the rows on
+ * several threads. The rows are cut into horizontal strips that are filtered
+ * and deflated independently: every strip but the last ends on a byte
+ * boundary with a sync flush, so the deflated strips put end to end are a
+ * single deflate stream, which is written in the IDAT chunks behind one zlib
+ * header. Each strip is deflated with the end of the strip before it as its
+ * dictionary, so that matches across strips are not lost. The checksum of the
+ * whole stream is combined from the checksums of the strips.
+ *
+ * Each row is filtered with the filter that gives the smallest sum of absolute
+ * differences, the usual heuristic.
+ *
+ * An image can also be written a few rows at a time through the RowWriter
+ * open returns, so that a render too large to be held in memory is written as
+ * it is rendered.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class PngEncoder {
+
+	/** the compression level used unless another is given */
+	public static final int DEFAULT_LEVEL = 6;
+
+	/** the fewest bytes of filtered rows in a strip, so that strips deflate well */
+	public static final int MIN_STRIP_BYTES = 128 * 1024;
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+	private static final int DICTIONARY_BYTES = 32 * 1024;
+	private static final int ADLER_BASE = 65521;
+	private static final int BYTES_PER_PIXEL = 3;
+
+	private static PngEncoder ourInstance;
+
+	private final ForkJoinPool pool;
+	private final int minStripBytes;
+
+	/**
+	 * Create an encoder that uses every available core.
+	 */
+	public PngEncoder() {
+		this(Runtime.getRuntime().availableProcessors(), MIN_STRIP_BYTES);
+	}
+
+	/**
+	 * Create an encoder with the given number of threads.
+	 *
+	 * @param threads       the number of threads (at least 1)
+	 * @param minStripBytes the fewest bytes of filtered rows in a strip (at
+	 *                      least 1)
+	 */
+	public PngEncoder(int threads, int minStripBytes) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		if (minStripBytes <= 0) {
+			throw new IllegalArgumentException("minStripBytes must be positive");
+		}
+		this.pool = new ForkJoinPool(threads);
+		this.minStripBytes = minStripBytes;
+	}
+
+	/**
+	 * Returns the encoder shared by the application.
+	 *
+	 * @return the shared encoder
+	 */
+	public static synchronized PngEncoder getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new PngEncoder();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Writes the image to a file with the default compression level.
+	 *
+	 * @param image the image to write
+	 * @param file  the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(BufferedImage image, File file) throws IOException {
+		write(image, file, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Writes the image to a file.
+	 *
+	 * @param image the image to write
+	 * @param file  the file to write
+	 * @param level the compression level, from 0 (none) to 9 (smallest)
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(BufferedImage image, File file, int level) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			write(image, out, level);
+		}
+	}
+
+	/**
+	 * Writes the image to a stream, which is left open.
+	 *
+	 * @param image the image to write, at least one pixel wide and high
+	 * @param out   the stream to write to
+	 * @param level the compression level, from 0 (none) to 9 (smallest)
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void write(BufferedImage image, OutputStream out, int level) throws IOException {
+		try (RowWriter writer = open(out, image.getWidth(), image.getHeight(), level)) {
+			writer.writeRows(image, image.getHeight());
+		}
+	}
+
+	/**
+	 * Starts writing an image to a stream, which is left open, and returns the
+	 * writer its rows are given to. The rows given at once are cut into strips
+	 * and deflated in parallel as write does; only those rows, the last row
+	 * before them and the end of the data deflated so far are kept, so the
+	 * memory used does not grow with the height of the image.
+	 *
+	 * @param out    the stream to write to
+	 * @param width  the width of the image, at least 1
+	 * @param height the height of the image, at least 1
+	 * @param level  the compression level, from 0 (none) to 9 (smallest)
+	 * @return the writer of the rows
+	 * @throws IOException if the stream cannot be written
+	 */
+	public RowWriter open(OutputStream out, int width, int height, int level) throws IOException {
+		if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("level must be between 0 and 9");
+		}
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("a PNG image has at least one pixel");
+		}
+		return new PngRowWriter(out, width, height, level);
+	}
+
+	/**
+	 * Filters and deflates the rows from y0 to y1. The row above the first row
+	 * of the image and the filtered bytes written before it are given, as the
+	 * rows before the image were written earlier.
+	 */
+	private static Strip deflate(BufferedImage image, int y0, int y1, int level, boolean last, byte[] aboveImage,
+			byte[] history) {
+		int width = image.getWidth();
+		int rowBytes = 1 + BYTES_PER_PIXEL * width;
+		byte[] filtered = new byte[rowBytes * (y1 - y0)];
+		int[] argb = new int[width];
+		byte[] previous = new byte[BYTES_PER_PIXEL * width];
+		byte[] current = new byte[BYTES_PER_PIXEL * width];
+		if (y0 > 0) {
+			toBytes(image, y0 - 1, argb, previous);
+		} else {
+			System.arraycopy(aboveImage, 0, previous, 0, previous.length);
+		}
+		for (int y = y0; y < y1; y++) {
+			toBytes(image, y, argb, current);
+			filter(current, previous, filtered, (y - y0) * rowBytes);
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		Deflater deflater = new Deflater(level, true);
+		try {
+			byte[] dictionary = dictionary(image, y0, aboveImage, history);
+			if (dictionary.length > 0) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(filtered);
+			if (last) {
+				deflater.finish();
+			}
+			byte[] buffer = new byte[Math.max(64, filtered.length / 2)];
+			int length = 0;
+			while (true) {
+				int space = buffer.length - length;
+				int count = deflater.deflate(buffer, length, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				length += count;
+				// a flush is complete once the deflater leaves room in the buffer
+				if (last ? deflater.finished() : count < space) {
+					break;
+				}
+				if (length == buffer.length) {
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+			}
+			Adler32 adler = new Adler32();
+			adler.update(filtered);
+			return new Strip(Arrays.copyOf(buffer, length), adler.getValue(), filtered.length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Returns the last filtered bytes before row y0 of the image, at most a
+	 * window of them: those of the rows of the image above it, after those
+	 * written before the image.
+	 */
+	private static byte[] dictionary(BufferedImage image, int y0, byte[] aboveImage, byte[] history) {
+		int width = image.getWidth();
+		int rowBytes = 1 + BYTES_PER_PIXEL * width;
+		int rows = Math.min(y0, (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+		byte[] filtered = new byte[rows * rowBytes];
+		int[] argb = new int[width];
+		byte[] previous = new byte[BYTES_PER_PIXEL * width];
+		byte[] current = new byte[BYTES_PER_PIXEL * width];
+		int first = y0 - rows;
+		if (first > 0) {
+			toBytes(image, first - 1, argb, previous);
+		} else {
+			System.arraycopy(aboveImage, 0, previous, 0, previous.length);
+		}
+		for (int y = first; y < y0; y++) {
+			toBytes(image, y, argb, current);
+			filter(current, previous, filtered, (y - first) * rowBytes);
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		if (filtered.length >= DICTIONARY_BYTES) {
+			return Arrays.copyOfRange(filtered, filtered.length - DICTIONARY_BYTES, filtered.length);
+		}
+		int earlier = Math.min(history.length, DICTIONARY_BYTES - filtered.length);
+		byte[] dictionary = new byte[earlier + filtered.length];
+		System.arraycopy(history, history.length - earlier, dictionary, 0, earlier);
+		System.arraycopy(filtered, 0, dictionary, earlier, filtered.length);
+		return dictionary;
+	}
+
+	/**
+	 * Unpacks the red, green and blue of the pixels of a row.
+	 */
+	private static void toBytes(BufferedImage image, int y, int[] argb, byte[] rgb) {
+		if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			// the packed pixels as they are, without converting each one
+			image.getRaster().getDataElements(0, y, argb.length, 1, argb);
+		} else {
+			image.getRGB(0, y, argb.length, 1, argb, 0, argb.length);
+		}
+		for (int x = 0, i = 0; x < argb.length; x++) {
+			int pixel = argb[x];
+			rgb[i++] = (byte) (pixel >> 16);
+			rgb[i++] = (byte) (pixel >> 8);
+			rgb[i++] = (byte) pixel;
+		}
+	}
+
+	/**
+	 * Writes the filter type and the filtered bytes of a row at the given
+	 * offset, with whichever of the five filters gives the smallest sum of
+	 * absolute values.
+	 */
+	private static void filter(byte[] row, byte[] above, byte[] out, int offset) {
+		int n = row.length;
+		int[] sums = new int[5];
+		for (int i = 0; i < n; i++) {
+			int value = row[i] & 0xFF;
+			int upper = above[i] & 0xFF;
+			int left = 0;
+			int upperLeft = 0;
+			// the first pixel has nothing on its left
+			if (i >= BYTES_PER_PIXEL) {
+				left = row[i - BYTES_PER_PIXEL] & 0xFF;
+				upperLeft = above[i - BYTES_PER_PIXEL] & 0xFF;
+			}
+			sums[0] += Math.abs((byte) value);
+			sums[1] += Math.abs((byte) (value - left));
+			sums[2] += Math.abs((byte) (value - upper));
+			sums[3] += Math.abs((byte) (value - ((left + upper) >> 1)));
+			sums[4] += Math.abs((byte) (value - paeth(left, upper, upperLeft)));
+		}
+		int best = 0;
+		for (int type = 1; type < 5; type++) {
+			if (sums[type] < sums[best]) {
+				best = type;
+			}
+		}
+		out[offset] = (byte) best;
+		// the filtered bytes are only stored for the filter chosen
+		for (int i = 0; i < n; i++) {
+			int value = row[i] & 0xFF;
+			int upper = above[i] & 0xFF;
+			int left = 0;
+			int upperLeft = 0;
+			if (i >= BYTES_PER_PIXEL) {
+				left = row[i - BYTES_PER_PIXEL] & 0xFF;
+				upperLeft = above[i - BYTES_PER_PIXEL] & 0xFF;
+			}
+			int predicted;
+			switch (best) {
+			case 1:
+				predicted = left;
+				break;
+			case 2:
+				predicted = upper;
+				break;
+			case 3:
+				predicted = (left + upper) >> 1;
+				break;
+			case 4:
+				predicted = paeth(left, upper, upperLeft);
+				break;
+			default:
+				predicted = 0;
+			}
+			out[offset + 1 + i] = (byte) (value - predicted);
+		}
+	}
+
+	/**
+	 * Returns whichever of left, up and upLeft is nearest to left + up - upLeft,
+	 * preferring them in that order.
+	 */
+	private static int paeth(int left, int up, int upLeft) {
+		int toLeft = Math.abs(up - upLeft);
+		int toUp = Math.abs(left - upLeft);
+		int toUpLeft = Math.abs(left + up - 2 * upLeft);
+		if (toLeft <= toUp && toLeft <= toUpLeft) {
+			return left;
+		}
+		return toUp <= toUpLeft ? up : upLeft;
+	}
+
+	/**
+	 * Returns the zlib header for a deflate stream at the given level, with the
+	 * level hint zlib itself writes.
+	 */
+	private static byte[] zlibHeader(int level) {
+		int hint = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+		int header = 0x7800 | hint << 6;
+		header += 31 - header % 31;
+		return new byte[] { (byte) (header >> 8), (byte) header };
+	}
+
+	/**
+	 * Returns the Adler-32 of two pieces of data put end to end from the
+	 * checksums of the pieces, as zlib's adler32_combine does.
+	 *
+	 * @param first  the checksum of the first piece
+	 * @param second the checksum of the second piece
+	 * @param length the length of the second piece
+	 * @return the checksum of both pieces
+	 */
+	static long combineAdler(long first, long second, long length) {
+		long remainder = length % ADLER_BASE;
+		long sum1 = first & 0xFFFF;
+		long sum2 = remainder * sum1 % ADLER_BASE;
+		sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+		if (sum1 >= ADLER_BASE) {
+			sum1 -= ADLER_BASE;
+		}
+		if (sum1 >= ADLER_BASE) {
+			sum1 -= ADLER_BASE;
+		}
+		if (sum2 >= 2L * ADLER_BASE) {
+			sum2 -= 2L * ADLER_BASE;
+		}
+		if (sum2 >= ADLER_BASE) {
+			sum2 -= ADLER_BASE;
+		}
+		return sum1 | sum2 << 16;
+	}
+
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+			throws IOException {
+		byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, offset, length);
+		out.writeInt(length);
+		out.write(name);
+		out.write(data, offset, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Writes the chunks of an image as its rows come: the header first, then
+	 * the deflated rows given at each call, then the checksum of them all.
+	 */
+	private class PngRowWriter implements RowWriter {
+		private final DataOutputStream data;
+		private final int width;
+		private final int height;
+		private final int level;
+		private final int rowsPerStrip;
+		private int rowsWritten;
+		private long checksum = 1;
+		private byte[] lastRow;
+		private byte[] history = new byte[0];
+
+		PngRowWriter(OutputStream out, int width, int height, int level) throws IOException {
+			this.data = new DataOutputStream(out);
+			this.width = width;
+			this.height = height;
+			this.level = level;
+			int rowBytes = 1 + BYTES_PER_PIXEL * width;
+			this.rowsPerStrip = Math.max(1, (minStripBytes + rowBytes - 1) / rowBytes);
+			// the row above the first one is all zeros
+			this.lastRow = new byte[BYTES_PER_PIXEL * width];
+
+			data.write(SIGNATURE);
+			byte[] header = new byte[13];
+			putInt(header, 0, width);
+			putInt(header, 4, height);
+			header[8] = 8; // bits per channel
+			header[9] = 2; // RGB
+			writeChunk(data, "IHDR", header, 0, header.length);
+			// the zlib header, then the deflated strips in order, then the checksum
+			writeChunk(data, "IDAT", zlibHeader(level), 0, 2);
+		}
+
+		@Override
+		public void writeRows(BufferedImage image, int count) throws IOException {
+			if (image.getWidth() != width) {
+				throw new IllegalArgumentException("the rows are " + image.getWidth() + " pixels wide, not " + width);
+			}
+			if (count < 0 || count > image.getHeight() || rowsWritten + count > height) {
+				throw new IllegalArgumentException("cannot write " + count + " more rows");
+			}
+			byte[] above = lastRow;
+			byte[] written = history;
+			List<ForkJoinTask<Strip>> strips = new ArrayList<>();
+			for (int y0 = 0; y0 < count; y0 += rowsPerStrip) {
+				int from = y0;
+				int to = Math.min(y0 + rowsPerStrip, count);
+				boolean last = rowsWritten + to == height;
+				strips.add(pool.submit(() -> deflate(image, from, to, level, last, above, written)));
+			}
+			for (ForkJoinTask<Strip> task : strips) {
+				Strip strip = task.join();
+				writeChunk(data, "IDAT", strip.deflated, 0, strip.deflated.length);
+				checksum = combineAdler(checksum, strip.adler, strip.length);
+			}
+			if (count > 0) {
+				history = dictionary(image, count, above, written);
+				lastRow = new byte[BYTES_PER_PIXEL * width];
+				toBytes(image, count - 1, new int[width], lastRow);
+				rowsWritten += count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (rowsWritten < height) {
+				throw new IOException((height - rowsWritten) + " rows of the image were not written");
+			}
+			byte[] trailer = new byte[4];
+			putInt(trailer, 0, (int) checksum);
+			writeChunk(data, "IDAT", trailer, 0, trailer.length);
+			writeChunk(data, "IEND", new byte[0], 0, 0);
+			data.flush();
+		}
+	}
+
+	/**
+	 * The deflated rows of a strip, and the checksum and length of the
+	 * filtered rows.
+	 */
+	private static class Strip {
+		private final byte[] deflated;
+		private final long adler;
+		private final int length;
+
+		Strip(byte[] deflated, long adler, int length) {
+			this.deflated = deflated;
+			this.adler = adler;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package picasso.model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes an image as raw 8-bit RGB Netpbm, a header followed by the red, green
+ * and blue bytes of each pixel row after row, either as a PPM (P6) or as a PAM
+ * (P7). Neither is compressed, so the rows are written as they come at the
+ * cost of the copy alone, which suits a stream piped to another program.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class PnmWriter implements RowWriter {
+
+	/**
+	 * The Netpbm formats written.
+	 */
+	public enum Format {
+		/** a portable pixmap, P6 */
+		PPM,
+		/** a portable arbitrary map of RGB tuples, P7 */
+		PAM
+	}
+
+	private static final int BYTES_PER_PIXEL = 3;
+
+	private final OutputStream out;
+	private final int width;
+	private final int height;
+	private final byte[] row;
+	private final int[] argb;
+	private int rowsWritten;
+
+	/**
+	 * Starts writing an image to a stream, which is left open, by writing its
+	 * header.
+	 *
+	 * @param out    the stream to write to
+	 * @param width  the width of the image, at least 1
+	 * @param height the height of the image, at least 1
+	 * @param format the format to write
+	 * @throws IOException if the stream cannot be written
+	 */
+	public PnmWriter(OutputStream out, int width, int height, Format format) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("an image has at least one pixel");
+		}
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		this.row = new byte[BYTES_PER_PIXEL * width];
+		this.argb = new int[width];
+		String header;
+		if (format == Format.PPM) {
+			header = "P6\n" + width + " " + height + "\n255\n";
+		} else {
+			header = "P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH 3\nMAXVAL 255\nTUPLTYPE RGB\nENDHDR\n";
+		}
+		out.write(header.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Override
+	public void writeRows(BufferedImage image, int count) throws IOException {
+		if (image.getWidth() != width) {
+			throw new IllegalArgumentException("the rows are " + image.getWidth() + " pixels wide, not " + width);
+		}
+		if (count < 0 || count > image.getHeight() || rowsWritten + count > height) {
+			throw new IllegalArgumentException("cannot write " + count + " more rows");
+		}
+		for (int y = 0; y < count; y++) {
+			image.getRGB(0, y, width, 1, argb, 0, width);
+			for (int x = 0, i = 0; x < width; x++) {
+				int pixel = argb[x];
+				row[i++] = (byte) (pixel >> 16);
+				row[i++] = (byte) (pixel >> 8);
+				row[i++] = (byte) pixel;
+			}
+			out.write(row);
+		}
+		rowsWritten += count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.flush();
+		if (rowsWritten < height) {
+			throw new IOException((height - rowsWritten) + " rows of the image were not written");
+		}
+	}
+}
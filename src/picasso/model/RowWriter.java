@@ -0,0 +1,35 @@
+package picasso.model;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes an image of a size given up front a few rows at a time, from the top
+ * row down, so that the whole image never has to be in memory: a render can
+ * hand over each strip of rows once it is done with it and reuse its pixels
+ * for the next one.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public interface RowWriter extends Closeable {
+
+	/**
+	 * Writes the top rows of the given image as the next rows of the image
+	 * written.
+	 *
+	 * @param rows  holds the rows, as wide as the image written
+	 * @param count how many of its rows to write, from the top
+	 * @throws IOException if the rows cannot be written
+	 */
+	void writeRows(BufferedImage rows, int count) throws IOException;
+
+	/**
+	 * Ends the image. The stream it is written to is left open.
+	 *
+	 * @throws IOException if the image cannot be ended, or not every row of it
+	 *                     was written
+	 */
+	@Override
+	void close() throws IOException;
+}
@@ -17,12 +17,21 @@ public class StringAnalyzer implements SemanticAnalyzerInterface {
 	@Override
 	public ExpressionTreeNode generateExpressionTree(Stack<Token> tokens) {
 		StringToken token = (StringToken) tokens.pop();
-		String value = token.getValue();
+		return new StringValue(imagePath(token.getValue()));
 		
+	}
+
+	/**
+	 * Returns the path of the image file a string literal names: a name that is
+	 * not absolute and not already in the images directory is looked up there.
+	 * 
+	 * @param value the value of the string literal
+	 * @return the path of the image file
+	 */
+	public static String imagePath(String value) {
 		if (!value.startsWith("images/") && !value.startsWith("/")) {
-			value = "images/" + value;
+			return "images/" + value;
 		}
-		return new StringValue(value);
-		
+		return value;
 	}
 }
\ No newline at end of file
@@ -5,8 +5,10 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
+import picasso.model.ImageCache;
 import picasso.parser.language.CharConstants;
 import picasso.parser.tokens.EOFToken;
+import picasso.parser.tokens.StringToken;
 import picasso.parser.tokens.Token;
 import picasso.parser.tokens.TokenFactory;
 
@@ -31,7 +33,9 @@ public class Tokenizer {
 	}
 
 	/**
-	 * Parses the given string into a list of Picasso tokens (in order)
+	 * Parses the given string into a list of Picasso tokens (in order). The
+	 * images named by string literals start loading as soon as they are seen,
+	 * so that they are decoded while the rest of the expression is parsed.
 	 * 
 	 * @param s
 	 *            the string to parse; may or may not be in valid format.
@@ -75,6 +79,9 @@ public class Tokenizer {
 				break;
 			}
 			tokens.add(result);
+			if (result instanceof StringToken string) {
+				ImageCache.getInstance().prefetch(StringAnalyzer.imagePath(string.getValue()));
+			}
 			result = nextToken();
 		}
 
@@ -0,0 +1,260 @@
+package picasso.parser.language;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * A subexpression that does not depend on y, or does not depend on x, so that
+ * over an image it takes one value per column, or one value per row. Those
+ * values are computed once per frame (see HoistedExpression) and looked up
+ * while rendering instead of evaluating the subexpression at every pixel.
+ *
+ * In an expression that uses t, a subexpression that does not can also get a
+ * table with one value per pixel. Those values are the same in every frame of
+ * an animation, so they are computed once for the whole animation, row by
+ * row. While a row is rendered, the values of a pixel table for that row are
+ * looked up by column, like those of a column table.
+ *
+ * Wherever the tables are not available, or a table was left out or not filled
+ * on a row, the subexpression is evaluated as usual.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class AxisTable extends ExpressionTreeNode {
+
+	/**
+	 * The image axis the values of the table run along.
+	 */
+	public enum Axis {
+		/** one value per column, for subexpressions that do not depend on y */
+		COLUMN,
+		/** one value per row, for subexpressions that do not depend on x */
+		ROW,
+		/** one value per pixel, for subexpressions that do not depend on t */
+		PIXEL
+	}
+
+	private final ExpressionTreeNode expression;
+	private final Axis axis;
+	private final int slot;
+	private final boolean usesTime;
+
+	/**
+	 * Create a table for a subexpression that may depend on t.
+	 *
+	 * @param expression the subexpression
+	 * @param axis       COLUMN if the subexpression does not depend on y, ROW if
+	 *                   it does not depend on x
+	 * @param slot       the index of the table among the tables of the expression
+	 */
+	public AxisTable(ExpressionTreeNode expression, Axis axis, int slot) {
+		this(expression, axis, slot, true);
+	}
+
+	/**
+	 * Create a table for a subexpression.
+	 *
+	 * @param expression the subexpression
+	 * @param axis       COLUMN if the subexpression does not depend on y, ROW if
+	 *                   it does not depend on x, PIXEL if it does not depend on t
+	 * @param slot       the index of the table among the tables of the expression
+	 * @param usesTime   false if the subexpression is known not to depend on t,
+	 *                   so that its values can be reused from frame to frame
+	 */
+	public AxisTable(ExpressionTreeNode expression, Axis axis, int slot, boolean usesTime) {
+		this.expression = expression;
+		this.axis = axis;
+		this.slot = slot;
+		this.usesTime = usesTime;
+	}
+
+	/**
+	 * Returns the subexpression.
+	 *
+	 * @return the subexpression
+	 */
+	public ExpressionTreeNode getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns the axis the values of the table run along.
+	 *
+	 * @return the axis
+	 */
+	public Axis getAxis() {
+		return axis;
+	}
+
+	/**
+	 * Returns the index of the table among the tables of the expression.
+	 *
+	 * @return the slot
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * Returns false if the subexpression does not depend on t, so that the
+	 * values of the table are the same in every frame.
+	 *
+	 * @return true if the values may change with t
+	 */
+	public boolean usesTime() {
+		return usesTime;
+	}
+
+	/**
+	 * Computes the values of a COLUMN or ROW table for a frame of an image.
+	 *
+	 * @param domain the x coordinates of the columns, for a COLUMN table, or the
+	 *               y coordinates of the rows, for a ROW table
+	 * @param time   the time of the frame
+	 * @return the value for each column or row
+	 */
+	public ColorPlanes fill(double[] domain, double time) {
+		ColorPlanes values = new ColorPlanes(Math.max(domain.length, 1));
+		PixelBatch batch = new PixelBatch(Math.max(Math.min(domain.length, 256), 1));
+		batch.setTime(time);
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		double[] along = axis == Axis.COLUMN ? batch.getX() : batch.getY();
+		for (int from = 0; from < domain.length; from += batch.getCapacity()) {
+			int size = Math.min(batch.getCapacity(), domain.length - from);
+			System.arraycopy(domain, from, along, 0, size);
+			batch.setSize(size);
+			expression.evaluate(batch, out);
+			System.arraycopy(out.getRed(), 0, values.getRed(), from, size);
+			System.arraycopy(out.getGreen(), 0, values.getGreen(), from, size);
+			System.arraycopy(out.getBlue(), 0, values.getBlue(), from, size);
+		}
+		return values;
+	}
+
+	/**
+	 * Computes the values of a PIXEL table on one row of an image. The values
+	 * do not depend on t, so they hold for every frame.
+	 *
+	 * @param domainX the x coordinates of the columns
+	 * @param y       the y coordinate of the row
+	 * @return the value for each column of the row
+	 */
+	public ColorPlanes fillRow(double[] domainX, double y) {
+		ColorPlanes values = new ColorPlanes(Math.max(domainX.length, 1));
+		PixelBatch batch = new PixelBatch(Math.max(Math.min(domainX.length, 256), 1));
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		for (int from = 0; from < domainX.length; from += batch.getCapacity()) {
+			int to = Math.min(from + batch.getCapacity(), domainX.length);
+			batch.setRow(domainX, from, to, y);
+			expression.evaluate(batch, out);
+			System.arraycopy(out.getRed(), 0, values.getRed(), from, to - from);
+			System.arraycopy(out.getGreen(), 0, values.getGreen(), from, to - from);
+			System.arraycopy(out.getBlue(), 0, values.getBlue(), from, to - from);
+		}
+		return values;
+	}
+
+	@Override
+	public RGBColor evaluate(double x, double y) {
+		return expression.evaluate(x, y);
+	}
+
+	/**
+	 * Looks the values of the points up in the table, if the batch has the
+	 * tables and knows the column and row of its points.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		ColorPlanes[] tables = batch.getAxisTables();
+		if (tables == null) {
+			expression.evaluate(batch, out);
+			return;
+		}
+		ColorPlanes values = tables[slot];
+		if (values == null) {
+			// a table left out, or a row of it not filled
+			expression.evaluate(batch, out);
+			return;
+		}
+		if (axis != Axis.ROW) {
+			int stride = batch.getColumnStride();
+			if (stride == 1) {
+				values.copyTo(batch.getColumn(), batch.getSize(), out);
+				return;
+			}
+			for (int channel = 0; channel < 3; channel++) {
+				double[] from = values.getChannel(channel);
+				double[] to = out.getChannel(channel);
+				for (int i = 0, column = batch.getColumn(); i < batch.getSize(); i++, column += stride) {
+					to[i] = from[column];
+				}
+			}
+		} else {
+			int row = batch.getRow();
+			out.fill(batch.getSize(), values.getRed()[row], values.getGreen()[row], values.getBlue()[row]);
+		}
+	}
+
+	/**
+	 * Tells whether the expression contains a table, so that it needs the tables
+	 * to be evaluated from them.
+	 *
+	 * @param expr the expression
+	 * @return true if there is a table in the expression
+	 */
+	public static boolean appearsIn(ExpressionTreeNode expr) {
+		return appearsIn(expr, new IdentityHashMap<>());
+	}
+
+	private static boolean appearsIn(ExpressionTreeNode expr, Map<ExpressionTreeNode, Boolean> visited) {
+		if (expr instanceof AxisTable) {
+			return true;
+		}
+		if (visited.put(expr, Boolean.TRUE) != null) {
+			return false;
+		}
+		for (ExpressionTreeNode child : expr.getChildren()) {
+			if (appearsIn(child, visited)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(expression);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return new AxisTable(children.get(0), axis, slot, usesTime);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof AxisTable)) {
+			return false;
+		}
+		return expression.equals(((AxisTable) obj).expression);
+	}
+
+	@Override
+	public int hashCode() {
+		return expression.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return expression.toString();
+	}
+}
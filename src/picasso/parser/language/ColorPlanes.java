@@ -0,0 +1,133 @@
+package picasso.parser.language;
+
+/**
+ * The result of evaluating an expression for a batch of points, stored as one
+ * array per color component. Element i of each array holds the component for
+ * the i-th point of the batch, on the same [-1,1] scale as RGBColor.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ColorPlanes {
+
+	private final double[] red;
+	private final double[] green;
+	private final double[] blue;
+
+	/**
+	 * Create planes that can hold the given number of colors.
+	 * 
+	 * @param capacity the number of colors each plane can hold
+	 */
+	public ColorPlanes(int capacity) {
+		red = new double[capacity];
+		green = new double[capacity];
+		blue = new double[capacity];
+	}
+
+	/**
+	 * Returns the number of colors each plane can hold.
+	 * 
+	 * @return the capacity of the planes
+	 */
+	public int getCapacity() {
+		return red.length;
+	}
+
+	/**
+	 * Returns the red components
+	 * 
+	 * @return the red components
+	 */
+	public double[] getRed() {
+		return red;
+	}
+
+	/**
+	 * Returns the green components
+	 * 
+	 * @return the green components
+	 */
+	public double[] getGreen() {
+		return green;
+	}
+
+	/**
+	 * Returns the blue components
+	 * 
+	 * @return the blue components
+	 */
+	public double[] getBlue() {
+		return blue;
+	}
+
+	/**
+	 * Returns the values of one component.
+	 * 
+	 * @param channel 0 for red, 1 for green or 2 for blue
+	 * @return the values of that component
+	 */
+	public double[] getChannel(int channel) {
+		switch (channel) {
+		case 0:
+			return red;
+		case 1:
+			return green;
+		case 2:
+			return blue;
+		default:
+			throw new IllegalArgumentException("channel must be 0, 1 or 2");
+		}
+	}
+
+	/**
+	 * Sets the first size colors to the given color.
+	 * 
+	 * @param size  the number of colors to set
+	 * @param r     the red component
+	 * @param g     the green component
+	 * @param b     the blue component
+	 */
+	public void fill(int size, double r, double g, double b) {
+		for (int i = 0; i < size; i++) {
+			red[i] = r;
+			green[i] = g;
+			blue[i] = b;
+		}
+	}
+
+	/**
+	 * Sets the first size colors to the gray value of the given component values.
+	 * 
+	 * @param size   the number of colors to set
+	 * @param values the value used for all three components of each color
+	 */
+	public void fillGray(int size, double[] values) {
+		System.arraycopy(values, 0, red, 0, size);
+		System.arraycopy(values, 0, green, 0, size);
+		System.arraycopy(values, 0, blue, 0, size);
+	}
+
+	/**
+	 * Copies the first size colors into other planes.
+	 * 
+	 * @param size   the number of colors to copy
+	 * @param target the planes to copy into
+	 */
+	public void copyTo(int size, ColorPlanes target) {
+		copyTo(0, size, target);
+	}
+
+	/**
+	 * Copies size colors, starting with the color at index from, into the start
+	 * of other planes.
+	 * 
+	 * @param from   the index of the first color to copy
+	 * @param size   the number of colors to copy
+	 * @param target the planes to copy into
+	 */
+	public void copyTo(int from, int size, ColorPlanes target) {
+		System.arraycopy(red, from, target.red, 0, size);
+		System.arraycopy(green, from, target.green, 0, size);
+		System.arraycopy(blue, from, target.blue, 0, size);
+	}
+}
@@ -1,5 +1,8 @@
 package picasso.parser.language;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -25,5 +28,115 @@ public abstract class ExpressionTreeNode implements EvaluatableExpression {
 	 */
 	public abstract RGBColor evaluate(double x, double y);
 
+	/**
+	 * Evaluate this expression at a single point at the given time, as a batch
+	 * of one point would.
+	 * 
+	 * @param x    the value of x
+	 * @param y    the value of y
+	 * @param time the value of t
+	 * 
+	 * @return the result of evaluating the expression at the given point and
+	 *         time
+	 */
+	public RGBColor evaluate(double x, double y, double time) {
+		PixelBatch batch = new PixelBatch(1);
+		batch.setSize(1);
+		batch.getX()[0] = x;
+		batch.getY()[0] = y;
+		batch.setTime(time);
+		ColorPlanes out = new ColorPlanes(1);
+		evaluate(batch, out);
+		return new RGBColor(out.getRed()[0], out.getGreen()[0], out.getBlue()[0]);
+	}
+
+	/**
+	 * Evaluate this expression for every point in the batch. The result for the
+	 * i-th point is written to element i of the output planes.
+	 * 
+	 * Subclasses should override this with a loop over whole planes; this
+	 * version falls back on evaluating one point at a time.
+	 * 
+	 * @param batch the points to evaluate the expression at
+	 * @param out   the planes to store the results in
+	 */
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		double[] xs = batch.getX();
+		double[] ys = batch.getY();
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		for (int i = 0; i < batch.getSize(); i++) {
+			RGBColor result = evaluate(xs[i], ys[i]);
+			red[i] = result.getRed();
+			green[i] = result.getGreen();
+			blue[i] = result.getBlue();
+		}
+	}
+
+	/**
+	 * Returns the expressions this expression takes as arguments, in order.
+	 * Variables and constants have none.
+	 * 
+	 * @return the arguments of this expression
+	 */
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of();
+	}
+
+	/**
+	 * Returns an expression of the same kind as this one that takes the given
+	 * arguments instead of its own. If the arguments are this expression's own,
+	 * returns this expression.
+	 * 
+	 * @param children the new arguments, in the order of getChildren()
+	 * @return the expression with the new arguments
+	 */
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (!hasChildren(children)) {
+			throw new IllegalArgumentException(this + " does not take " + children.size() + " arguments");
+		}
+		return this;
+	}
+
+	/**
+	 * Returns true if the given arguments are the same objects as this
+	 * expression's own.
+	 * 
+	 * @param children the arguments to compare
+	 * @return true iff the arguments are this expression's own
+	 */
+	protected boolean hasChildren(List<ExpressionTreeNode> children) {
+		List<ExpressionTreeNode> own = getChildren();
+		if (own.size() != children.size()) {
+			return false;
+		}
+		for (int i = 0; i < own.size(); i++) {
+			if (own.get(i) != children.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates an expression of this expression's class through its constructor
+	 * that takes one ExpressionTreeNode per argument, the way the semantic
+	 * analyzers create functions and operators.
+	 * 
+	 * @param children the arguments of the new expression
+	 * @return the new expression
+	 */
+	protected ExpressionTreeNode newInstance(List<ExpressionTreeNode> children) {
+		Class<?>[] paramTypes = new Class<?>[children.size()];
+		Arrays.fill(paramTypes, ExpressionTreeNode.class);
+		try {
+			return (ExpressionTreeNode) getClass().getConstructor(paramTypes).newInstance(children.toArray());
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException
+				| NoSuchMethodException e) {
+			throw new IllegalStateException(getClass().getSimpleName() + " not creatable " + e);
+		}
+	}
+
 	static protected Map<ExpressionTreeNode, Object> gelementsToValue = new TreeMap<ExpressionTreeNode, Object>();
 }
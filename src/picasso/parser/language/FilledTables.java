@@ -0,0 +1,92 @@
+package picasso.parser.language;
+
+/**
+ * The values of the tables of a HoistedExpression for one frame of an image:
+ * one value per column or row for COLUMN and ROW tables, and one row of values
+ * per image row for PIXEL tables.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class FilledTables {
+
+	private final ColorPlanes[] axisValues;
+	private final ColorPlanes[][] pixelRows;
+	private final boolean hasPixelTables;
+
+	/**
+	 * Create the values of the tables of an expression.
+	 *
+	 * @param axisValues the values of each COLUMN and ROW table, by slot, with
+	 *                   null for the PIXEL tables
+	 * @param pixelRows  the values of each row of each PIXEL table, by slot, with
+	 *                   null for the COLUMN and ROW tables
+	 */
+	public FilledTables(ColorPlanes[] axisValues, ColorPlanes[][] pixelRows) {
+		this.axisValues = axisValues;
+		this.pixelRows = pixelRows;
+		boolean pixels = false;
+		for (ColorPlanes[] rows : pixelRows) {
+			pixels |= rows != null;
+		}
+		this.hasPixelTables = pixels;
+	}
+
+	/**
+	 * Returns the number of tables.
+	 *
+	 * @return the number of slots
+	 */
+	public int size() {
+		return axisValues.length;
+	}
+
+	/**
+	 * Returns the values of a COLUMN or ROW table.
+	 *
+	 * @param slot the slot of the table
+	 * @return the value for each column or row, or null for a PIXEL table
+	 */
+	public ColorPlanes getAxisValues(int slot) {
+		return axisValues[slot];
+	}
+
+	/**
+	 * Returns the values of a PIXEL table.
+	 *
+	 * @param slot the slot of the table
+	 * @return the values of each row, by column, with null for the rows not
+	 *         filled, or null for a COLUMN or ROW table or a table left out
+	 */
+	public ColorPlanes[] getPixelRows(int slot) {
+		return pixelRows[slot];
+	}
+
+	/**
+	 * Tells whether some of the tables are PIXEL tables, whose values depend on
+	 * the row being evaluated.
+	 *
+	 * @return true if there is a PIXEL table
+	 */
+	public boolean hasPixelTables() {
+		return hasPixelTables;
+	}
+
+	/**
+	 * Returns the values the tables take on one row, by slot: those of the
+	 * COLUMN and ROW tables, and the row of each PIXEL table.
+	 *
+	 * @param row     the image row
+	 * @param scratch an array with one element per slot to fill, if there are
+	 *                PIXEL tables
+	 * @return the values of the tables on the row
+	 */
+	public ColorPlanes[] forRow(int row, ColorPlanes[] scratch) {
+		if (!hasPixelTables) {
+			return axisValues;
+		}
+		for (int slot = 0; slot < axisValues.length; slot++) {
+			scratch[slot] = pixelRows[slot] == null ? axisValues[slot] : pixelRows[slot][row];
+		}
+		return scratch;
+	}
+}
@@ -0,0 +1,216 @@
+package picasso.parser.language;
+
+import java.util.List;
+
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * The root of an expression whose subexpressions that depend on only one of x
+ * and y have been replaced by axis tables. A renderer fills the tables once per
+ * frame with fillTables and hands them to its batches, so that those
+ * subexpressions cost one evaluation per column or row instead of one per
+ * pixel. When rendering an animation, the tables that do not depend on t are
+ * filled once, before the first frame, and reused in every frame.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class HoistedExpression extends ExpressionTreeNode {
+
+	private final ExpressionTreeNode body;
+	private final List<AxisTable> tables;
+
+	/**
+	 * Create the root of a hoisted expression.
+	 *
+	 * @param body   the expression, which refers to the tables
+	 * @param tables the tables of the expression, in the order of their slots
+	 */
+	public HoistedExpression(ExpressionTreeNode body, List<AxisTable> tables) {
+		this.body = body;
+		this.tables = List.copyOf(tables);
+	}
+
+	/**
+	 * Returns the expression that refers to the tables.
+	 *
+	 * @return the body
+	 */
+	public ExpressionTreeNode getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns the tables of the expression, in the order of their slots.
+	 *
+	 * @return the tables
+	 */
+	public List<AxisTable> getTables() {
+		return tables;
+	}
+
+	/**
+	 * Returns the same expression with another body, such as the body compiled
+	 * for rendering.
+	 *
+	 * @param newBody the new body; it must use the same tables
+	 * @return the expression with the new body
+	 */
+	public HoistedExpression withBody(ExpressionTreeNode newBody) {
+		return new HoistedExpression(newBody, tables);
+	}
+
+	/**
+	 * Computes every table for a frame of an image, PIXEL tables included, on
+	 * the calling thread.
+	 *
+	 * @param domainX the x coordinate of each column of the image
+	 * @param domainY the y coordinate of each row of the image
+	 * @param time    the time of the frame
+	 * @return the values of the tables
+	 */
+	public FilledTables fillTables(double[] domainX, double[] domainY, double time) {
+		FilledTables invariant = fillInvariantTables(domainX, domainY, true);
+		for (int row = 0; row < domainY.length; row++) {
+			fillPixelRow(invariant, domainX, domainY, row);
+		}
+		return fillTables(domainX, domainY, time, invariant);
+	}
+
+	/**
+	 * Computes the tables for a frame of an image, reusing the values of the
+	 * tables that do not depend on t from another frame of the same image. The
+	 * PIXEL tables are only ever reused: without them, their subexpressions are
+	 * evaluated at each pixel.
+	 *
+	 * @param domainX the x coordinate of each column of the image
+	 * @param domainY the y coordinate of each row of the image
+	 * @param time    the time of the frame
+	 * @param reuse   the tables filled for another frame of the image, or null
+	 *                to compute every COLUMN and ROW table
+	 * @return the values of the tables
+	 */
+	public FilledTables fillTables(double[] domainX, double[] domainY, double time, FilledTables reuse) {
+		ColorPlanes[] values = new ColorPlanes[tables.size()];
+		ColorPlanes[][] pixelRows = new ColorPlanes[tables.size()][];
+		for (AxisTable table : tables) {
+			int slot = table.getSlot();
+			if (reuse != null && !table.usesTime()) {
+				values[slot] = reuse.getAxisValues(slot);
+				pixelRows[slot] = reuse.getPixelRows(slot);
+			} else if (table.getAxis() != AxisTable.Axis.PIXEL) {
+				values[slot] = fill(table, domainX, domainY, time);
+			}
+		}
+		return new FilledTables(values, pixelRows);
+	}
+
+	/**
+	 * Computes the COLUMN and ROW tables that do not depend on t, the same for
+	 * every frame of an image, and makes room for the rows of the PIXEL tables,
+	 * which fillPixelRow then fills one at a time, so that the rows can be
+	 * filled on several threads. The tables that depend on t are left out.
+	 *
+	 * @param domainX the x coordinate of each column of the image
+	 * @param domainY the y coordinate of each row of the image
+	 * @param pixels  false to leave the PIXEL tables out too
+	 * @return the values of the tables, to reuse in each frame
+	 */
+	public FilledTables fillInvariantTables(double[] domainX, double[] domainY, boolean pixels) {
+		ColorPlanes[] values = new ColorPlanes[tables.size()];
+		ColorPlanes[][] pixelRows = new ColorPlanes[tables.size()][];
+		for (AxisTable table : tables) {
+			if (table.usesTime()) {
+				continue;
+			}
+			int slot = table.getSlot();
+			if (table.getAxis() != AxisTable.Axis.PIXEL) {
+				values[slot] = fill(table, domainX, domainY, 0);
+			} else if (pixels) {
+				pixelRows[slot] = new ColorPlanes[domainY.length];
+			}
+		}
+		return new FilledTables(values, pixelRows);
+	}
+
+	/**
+	 * Computes one row of each PIXEL table there is room for in tables returned
+	 * by fillInvariantTables.
+	 *
+	 * @param invariant the tables to fill
+	 * @param domainX   the x coordinate of each column of the image
+	 * @param domainY   the y coordinate of each row of the image
+	 * @param row       the row to fill
+	 */
+	public void fillPixelRow(FilledTables invariant, double[] domainX, double[] domainY, int row) {
+		for (AxisTable table : tables) {
+			ColorPlanes[] rows = invariant.getPixelRows(table.getSlot());
+			if (rows != null) {
+				rows[row] = table.fillRow(domainX, domainY[row]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of PIXEL tables, each of which takes three doubles per
+	 * pixel of the image once filled.
+	 *
+	 * @return the number of PIXEL tables
+	 */
+	public int getPixelTableCount() {
+		int count = 0;
+		for (AxisTable table : tables) {
+			if (table.getAxis() == AxisTable.Axis.PIXEL) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static ColorPlanes fill(AxisTable table, double[] domainX, double[] domainY, double time) {
+		return table.fill(table.getAxis() == AxisTable.Axis.COLUMN ? domainX : domainY, time);
+	}
+
+	@Override
+	public RGBColor evaluate(double x, double y) {
+		return body.evaluate(x, y);
+	}
+
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		body.evaluate(batch, out);
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(body);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return withBody(children.get(0));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof HoistedExpression)) {
+			return false;
+		}
+		return body.equals(((HoistedExpression) obj).body);
+	}
+
+	@Override
+	public int hashCode() {
+		return body.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return body.toString();
+	}
+}
@@ -0,0 +1,123 @@
+package picasso.parser.language;
+
+import java.awt.Dimension;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import picasso.model.ImagePlanes;
+import picasso.parser.language.interval.Interval;
+import picasso.parser.language.interval.IntervalEvaluator;
+import picasso.parser.optimizer.DependencyAnalyzer;
+import picasso.parser.optimizer.DependencyAnalyzer.Variable;
+
+/**
+ * Expressions that look up colors in an image implement this interface so that
+ * evaluators other than the tree can sample the image directly. The image may
+ * still be loading when the expression is created; getPlanes() waits for it.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public interface ImageSampler {
+
+	/**
+	 * Returns the image the expression samples, in planes already scaled to
+	 * [-1, 1].
+	 * 
+	 * @return the planes of the image
+	 */
+	public ImagePlanes getPlanes();
+
+	/**
+	 * Returns the index in the planes of the image pixel at the given domain
+	 * coordinates, after the expression's own handling of coordinates outside
+	 * [-1, 1].
+	 * 
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the index of the pixel
+	 */
+	public int sampleIndex(double x, double y);
+
+	/**
+	 * Waits for every image the expression samples to be loaded, so that the
+	 * render does not wait for them and an image that cannot be loaded fails
+	 * before the render starts.
+	 * 
+	 * @param expr the expression
+	 * @throws IllegalArgumentException if an image cannot be loaded
+	 */
+	public static void awaitImages(ExpressionTreeNode expr) {
+		awaitImages(expr, new IdentityHashMap<>());
+	}
+
+	private static void awaitImages(ExpressionTreeNode expr, Map<ExpressionTreeNode, Boolean> visited) {
+		if (visited.put(expr, Boolean.TRUE) != null) {
+			return;
+		}
+		if (expr instanceof ImageSampler sampler) {
+			sampler.getPlanes();
+		}
+		for (ExpressionTreeNode child : expr.getChildren()) {
+			awaitImages(child, visited);
+		}
+	}
+
+	/**
+	 * Returns the size of render to decode an image for when it is sampled at
+	 * the given coordinates in a render of the given size. Each coordinate is
+	 * bounded over cells of the domain: a coordinate spanning [-1, 1] across the
+	 * render needs as many pixels as the render, and one spanning less needs
+	 * more, so that imageClip("f", x*0.1, y*0.1) gets ten times the pixels of
+	 * the render along each axis.
+	 * 
+	 * @param render the size of the render, or null to keep every pixel
+	 * @param xCoord the x coordinate of the pixels sampled
+	 * @param yCoord the y coordinate of the pixels sampled
+	 * @return the size to decode the image for, or null to keep every pixel
+	 *         when the span of a coordinate cannot be bounded
+	 */
+	public static Dimension sampledResolution(Dimension render, ExpressionTreeNode xCoord,
+			ExpressionTreeNode yCoord) {
+		if (render == null || render.width <= 0 || render.height <= 0) {
+			return null;
+		}
+		int width = sampledPixels(render, xCoord);
+		int height = sampledPixels(render, yCoord);
+		if (width == 0 || height == 0) {
+			return null;
+		}
+		return new Dimension(width, height);
+	}
+
+	/**
+	 * Returns the pixels an image needs along the axis the coordinate samples,
+	 * or 0 if the span of the coordinate over a cell cannot be bounded.
+	 */
+	private static int sampledPixels(Dimension render, ExpressionTreeNode coord) {
+		if (DependencyAnalyzer.getInstance().dependencies(coord).contains(Variable.T)) {
+			// the span at one time says nothing about the others
+			return 0;
+		}
+		int cells = 8;
+		// the coordinate may change along either axis of the render, so the
+		// step between two pixels is taken from the longer side of a cell
+		double cellPixels = Math.max(render.width, render.height) / (double) cells;
+		double needed = 0;
+		for (int row = 0; row < cells; row++) {
+			double yHi = 1 - 2.0 * row / cells;
+			double yLo = 1 - 2.0 * (row + 1) / cells;
+			for (int column = 0; column < cells; column++) {
+				double xLo = -1 + 2.0 * column / cells;
+				double xHi = -1 + 2.0 * (column + 1) / cells;
+				Interval bound = IntervalEvaluator.getInstance().bound(coord, xLo, xHi, yLo, yHi, 0)[0];
+				double span = bound.getHi() - bound.getLo();
+				if (bound.mayBeNaN() || !(span > 0) || Double.isInfinite(span)) {
+					return 0;
+				}
+				needed = Math.max(needed, 2 * cellPixels / span);
+			}
+		}
+		// spans like 0.1 are a rounding error off, which must not cost a pixel
+		return (int) Math.min(Integer.MAX_VALUE, Math.ceil(needed * (1 - 1e-9)));
+	}
+}
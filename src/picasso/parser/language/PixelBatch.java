@@ -0,0 +1,316 @@
+package picasso.parser.language;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * A batch of points at which an expression is evaluated at once. Holds the x
+ * and y coordinates of each point and a pool of scratch planes that nodes use
+ * for the results of their children, so that evaluating a batch does not
+ * allocate once the pool has warmed up.
+ * 
+ * A batch also keeps the results of shared subexpressions (see SharedNode)
+ * until its points change, so that each is evaluated once per batch.
+ * 
+ * When the points are a run of pixels of one image row, the batch also knows
+ * their column and row, so that subexpressions that depend on only one of x
+ * and y can be looked up in tables computed once per column or row (see
+ * AxisTable).
+ * 
+ * A batch also carries the time t of the frame being rendered, so that frames
+ * at different times can be evaluated at once by different threads.
+ * 
+ * A batch is not thread-safe; each rendering thread should use its own.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class PixelBatch {
+
+	private final double[] xs;
+	private final double[] ys;
+	private int size;
+	private int column = -1;
+	private int row = -1;
+	private int columnStride = 1;
+	private double time;
+	private FilledTables axisTables;
+	private ColorPlanes[] rowTables = new ColorPlanes[0];
+	private int rowTablesRow = -1;
+	private final Deque<ColorPlanes> scratch = new ArrayDeque<>();
+	private long generation;
+	private ColorPlanes[] sharedResults = new ColorPlanes[0];
+	private Object[] sharedOwners = new Object[0];
+	private long[] sharedGenerations = new long[0];
+
+	/**
+	 * Create a batch that can hold up to capacity points.
+	 * 
+	 * @param capacity the maximum number of points in the batch
+	 */
+	public PixelBatch(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		xs = new double[capacity];
+		ys = new double[capacity];
+	}
+
+	/**
+	 * Returns the maximum number of points in the batch.
+	 * 
+	 * @return the capacity of the batch
+	 */
+	public int getCapacity() {
+		return xs.length;
+	}
+
+	/**
+	 * Returns the number of points in the batch.
+	 * 
+	 * @return the number of points in the batch
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Sets the number of points in the batch. The coordinates of the points are
+	 * the first size elements of getX() and getY(). Call this after changing the
+	 * coordinates, since it also forgets the stored shared results and the
+	 * column and row of the points.
+	 * 
+	 * @param size the number of points, at most the capacity
+	 */
+	public void setSize(int size) {
+		if (size < 0 || size > xs.length) {
+			throw new IllegalArgumentException("size must be between 0 and " + xs.length);
+		}
+		this.size = size;
+		column = -1;
+		row = -1;
+		columnStride = 1;
+		generation++;
+	}
+
+	/**
+	 * Returns the x coordinates of the points
+	 * 
+	 * @return the x coordinates of the points
+	 */
+	public double[] getX() {
+		return xs;
+	}
+
+	/**
+	 * Returns the y coordinates of the points
+	 * 
+	 * @return the y coordinates of the points
+	 */
+	public double[] getY() {
+		return ys;
+	}
+
+	/**
+	 * Fills the batch with a run of points on the same row.
+	 * 
+	 * @param domainX the x coordinates of the whole row
+	 * @param from    the index of the first point of the run in domainX
+	 * @param to      the index after the last point of the run in domainX
+	 * @param y       the y coordinate of the row
+	 */
+	public void setRow(double[] domainX, int from, int to, double y) {
+		setSize(to - from);
+		System.arraycopy(domainX, from, xs, 0, size);
+		for (int i = 0; i < size; i++) {
+			ys[i] = y;
+		}
+	}
+
+	/**
+	 * Fills the batch with a run of pixels of one image row and remembers their
+	 * column and row.
+	 * 
+	 * @param domainX the x coordinates of every column of the image
+	 * @param from    the column of the first pixel of the run
+	 * @param to      the column after the last pixel of the run
+	 * @param domainY the y coordinates of every row of the image
+	 * @param row     the row of the run
+	 */
+	public void setRow(double[] domainX, int from, int to, double[] domainY, int row) {
+		setRow(domainX, from, to, 1, domainY, row);
+	}
+
+	/**
+	 * Fills the batch with every stride-th pixel of a run of one image row and
+	 * remembers their columns and row.
+	 * 
+	 * @param domainX the x coordinates of every column of the image
+	 * @param from    the column of the first pixel of the run
+	 * @param to      the column after the last pixel of the run
+	 * @param stride  the number of columns from one pixel to the next
+	 * @param domainY the y coordinates of every row of the image
+	 * @param row     the row of the run
+	 */
+	public void setRow(double[] domainX, int from, int to, int stride, double[] domainY, int row) {
+		if (stride == 1) {
+			setRow(domainX, from, to, domainY[row]);
+		} else {
+			setSize((to - from + stride - 1) / stride);
+			double y = domainY[row];
+			for (int i = 0; i < size; i++) {
+				xs[i] = domainX[from + i * stride];
+				ys[i] = y;
+			}
+		}
+		this.column = from;
+		this.row = row;
+		this.columnStride = stride;
+	}
+
+	/**
+	 * Returns the image column of the first point, or -1 if the points were not
+	 * set with the column and row. Point i is in column getColumn() + i *
+	 * getColumnStride().
+	 * 
+	 * @return the column of the first point, or -1
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * Returns the number of columns from one point to the next.
+	 * 
+	 * @return the column stride, 1 unless set
+	 */
+	public int getColumnStride() {
+		return columnStride;
+	}
+
+	/**
+	 * Returns the image row of the points, or -1 if the points were not set with
+	 * the column and row.
+	 * 
+	 * @return the row of the points, or -1
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Returns the time t at which the points are evaluated.
+	 * 
+	 * @return the time of the frame, 0 unless set
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * Sets the time t at which the points are evaluated.
+	 * 
+	 * @param time the time of the frame being rendered
+	 */
+	public void setTime(double time) {
+		this.time = time;
+	}
+
+	/**
+	 * Sets the tables of the expression being evaluated, filled for the image
+	 * the column and row refer to.
+	 * 
+	 * @param tables the tables, or null if there are none
+	 */
+	public void setAxisTables(FilledTables tables) {
+		this.axisTables = tables;
+		this.rowTablesRow = -1;
+		if (tables != null && rowTables.length < tables.size()) {
+			rowTables = new ColorPlanes[tables.size()];
+		}
+	}
+
+	/**
+	 * Returns the values the tables set with setAxisTables take on the row of
+	 * the points, by slot, or null if there are no tables or the column and row
+	 * of the points are not known. The values of a COLUMN table, and of a PIXEL
+	 * table on the row, are looked up by column; those of a ROW table by row.
+	 * 
+	 * @return the tables, by slot, or null
+	 */
+	public ColorPlanes[] getAxisTables() {
+		if (column < 0 || axisTables == null) {
+			return null;
+		}
+		if (!axisTables.hasPixelTables()) {
+			return axisTables.forRow(row, rowTables);
+		}
+		if (rowTablesRow != row) {
+			axisTables.forRow(row, rowTables);
+			rowTablesRow = row;
+		}
+		return rowTables;
+	}
+
+	/**
+	 * Borrows planes for intermediate results. Return them with release() when
+	 * done.
+	 * 
+	 * @return planes with at least the capacity of this batch
+	 */
+	public ColorPlanes acquire() {
+		ColorPlanes planes = scratch.poll();
+		if (planes == null) {
+			planes = new ColorPlanes(xs.length);
+		}
+		return planes;
+	}
+
+	/**
+	 * Returns planes obtained from acquire() to the pool.
+	 * 
+	 * @param planes the planes to return
+	 */
+	public void release(ColorPlanes planes) {
+		scratch.push(planes);
+	}
+
+	/**
+	 * Returns the stored result of a shared subexpression, or null if it has not
+	 * been stored since the points of the batch last changed.
+	 * 
+	 * @param slot  the slot of the shared subexpression
+	 * @param owner the shared subexpression, to tell apart expressions that use
+	 *              the same slot
+	 * @return the stored result, or null
+	 */
+	public ColorPlanes getSharedResult(int slot, Object owner) {
+		if (slot < sharedResults.length && sharedOwners[slot] == owner && sharedGenerations[slot] == generation) {
+			return sharedResults[slot];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the planes to store the result of a shared subexpression in. The
+	 * result is valid until the points of the batch change.
+	 * 
+	 * @param slot  the slot of the shared subexpression
+	 * @param owner the shared subexpression
+	 * @return planes with at least the capacity of this batch
+	 */
+	public ColorPlanes storeSharedResult(int slot, Object owner) {
+		if (slot >= sharedResults.length) {
+			int length = Math.max(slot + 1, sharedResults.length * 2);
+			sharedResults = Arrays.copyOf(sharedResults, length);
+			sharedOwners = Arrays.copyOf(sharedOwners, length);
+			sharedGenerations = Arrays.copyOf(sharedGenerations, length);
+		}
+		if (sharedResults[slot] == null) {
+			sharedResults[slot] = new ColorPlanes(xs.length);
+		}
+		sharedOwners[slot] = owner;
+		sharedGenerations[slot] = generation;
+		return sharedResults[slot];
+	}
+}
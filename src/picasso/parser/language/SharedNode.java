@@ -0,0 +1,102 @@
+package picasso.parser.language;
+
+import java.util.List;
+
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * Marks a subexpression that appears in more than one place in an expression
+ * DAG. Batch evaluation computes it once per batch and hands a copy of the
+ * result to every place that uses it.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class SharedNode extends ExpressionTreeNode {
+
+	private final ExpressionTreeNode expression;
+	private final int slot;
+
+	/**
+	 * Create a shared subexpression.
+	 *
+	 * @param expression the subexpression
+	 * @param slot       the slot of its result in a PixelBatch; every shared
+	 *                   node of an expression needs its own slot
+	 */
+	public SharedNode(ExpressionTreeNode expression, int slot) {
+		this.expression = expression;
+		this.slot = slot;
+	}
+
+	/**
+	 * Returns the subexpression.
+	 *
+	 * @return the subexpression
+	 */
+	public ExpressionTreeNode getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns the slot of the result in a PixelBatch.
+	 *
+	 * @return the slot
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	@Override
+	public RGBColor evaluate(double x, double y) {
+		return expression.evaluate(x, y);
+	}
+
+	/**
+	 * Evaluates the subexpression, unless it has already been evaluated for the
+	 * points of this batch, and copies the result into the output planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		ColorPlanes stored = batch.getSharedResult(slot, this);
+		if (stored != null) {
+			stored.copyTo(batch.getSize(), out);
+			return;
+		}
+		expression.evaluate(batch, out);
+		out.copyTo(batch.getSize(), batch.storeSharedResult(slot, this));
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(expression);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return new SharedNode(children.get(0), slot);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof SharedNode)) {
+			return false;
+		}
+		return expression.equals(((SharedNode) obj).expression);
+	}
+
+	@Override
+	public int hashCode() {
+		return expression.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return expression.toString();
+	}
+}
@@ -0,0 +1,442 @@
+package picasso.parser.language.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a minimal JVM class file: one class with a single field, a
+ * constructor that stores its argument in that field, and methods whose code
+ * the caller assembles with a {@link Code} buffer.
+ *
+ * Method bodies must be straight-line code (no branches), which lets the class
+ * file leave out the stack map frames that the verifier would otherwise
+ * require.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+class ClassFileWriter {
+
+	/** the largest method body allowed by the class file format */
+	static final int MAX_CODE_LENGTH = 65535;
+
+	private static final int MAGIC = 0xCAFEBABE;
+	private static final int MAJOR_VERSION = 52;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int TAG_UTF8 = 1;
+	private static final int TAG_DOUBLE = 6;
+	private static final int TAG_CLASS = 7;
+	private static final int TAG_FIELDREF = 9;
+	private static final int TAG_METHODREF = 10;
+	private static final int TAG_NAME_AND_TYPE = 12;
+
+	private static final String OBJECT = "java/lang/Object";
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndices = new HashMap<>();
+	private int poolCount = 1;
+
+	private final String className;
+	private final String interfaceName;
+	private final String fieldName;
+	private final String fieldDescriptor;
+	private final List<byte[]> methods = new ArrayList<>();
+
+	/**
+	 * Create a writer for a public final class that implements one interface and
+	 * has one private final field, set by its only constructor.
+	 *
+	 * @param className       the internal name of the class (with slashes)
+	 * @param interfaceName   the internal name of the interface it implements
+	 * @param fieldName       the name of the field
+	 * @param fieldDescriptor the type descriptor of the field
+	 */
+	ClassFileWriter(String className, String interfaceName, String fieldName, String fieldDescriptor) {
+		this.className = className;
+		this.interfaceName = interfaceName;
+		this.fieldName = fieldName;
+		this.fieldDescriptor = fieldDescriptor;
+		addConstructor();
+	}
+
+	/**
+	 * Returns the constant pool index of the reference to this class's field.
+	 *
+	 * @return the index of the field reference
+	 */
+	int fieldRef() {
+		return memberRef(TAG_FIELDREF, className, fieldName, fieldDescriptor);
+	}
+
+	/**
+	 * Returns the constant pool index of a class reference.
+	 *
+	 * @param internalName the internal name of the class (with slashes)
+	 * @return the index of the class reference
+	 */
+	int classRef(String internalName) {
+		return constant("C" + internalName, () -> {
+			int name = utf8(internalName);
+			pool.writeByte(TAG_CLASS);
+			pool.writeShort(name);
+		}, 1);
+	}
+
+	/**
+	 * Returns the constant pool index of a method reference.
+	 *
+	 * @param owner      the internal name of the class that declares the method
+	 * @param name       the name of the method
+	 * @param descriptor the type descriptor of the method
+	 * @return the index of the method reference
+	 */
+	int methodRef(String owner, String name, String descriptor) {
+		return memberRef(TAG_METHODREF, owner, name, descriptor);
+	}
+
+	/**
+	 * Returns the constant pool index of a double constant.
+	 *
+	 * @param value the constant
+	 * @return the index of the constant
+	 */
+	int doubleConstant(double value) {
+		return constant("D" + Double.doubleToRawLongBits(value), () -> {
+			pool.writeByte(TAG_DOUBLE);
+			pool.writeDouble(value);
+		}, 2);
+	}
+
+	/**
+	 * Adds a public method to the class.
+	 *
+	 * @param name       the name of the method
+	 * @param descriptor the type descriptor of the method
+	 * @param code       the body of the method, ending with a return instruction
+	 * @param maxLocals  the number of local variable slots the body uses,
+	 *                   including the parameters
+	 */
+	void addMethod(String name, String descriptor, Code code, int maxLocals) {
+		if (code.length() > MAX_CODE_LENGTH) {
+			throw new UnsupportedOperationException("Method body is too large: " + code.length() + " bytes");
+		}
+		if (maxLocals > 0xFFFF) {
+			throw new UnsupportedOperationException("Method needs too many local variables: " + maxLocals);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1); // attributes: Code
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + code.length());
+			out.writeShort(code.getMaxStack());
+			out.writeShort(maxLocals);
+			out.writeInt(code.length());
+			code.writeTo(out);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes of Code
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	/**
+	 * Returns the complete class file.
+	 *
+	 * @return the bytes of the class file
+	 */
+	byte[] toByteArray() {
+		int thisClass = classRef(className);
+		int superClass = classRef(OBJECT);
+		int implemented = classRef(interfaceName);
+		int fieldNameIndex = utf8(fieldName);
+		int fieldDescriptorIndex = utf8(fieldDescriptor);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(0);
+			out.writeShort(MAJOR_VERSION);
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(implemented);
+
+			out.writeShort(1);
+			out.writeShort(ACC_PRIVATE | ACC_FINAL);
+			out.writeShort(fieldNameIndex);
+			out.writeShort(fieldDescriptorIndex);
+			out.writeShort(0);
+
+			out.writeShort(methods.size());
+			for (byte[] method : methods) {
+				out.write(method);
+			}
+			out.writeShort(0); // class attributes
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The constructor calls Object() and stores its only argument in the field.
+	 */
+	private void addConstructor() {
+		Code code = new Code(this);
+		code.aload(0);
+		code.invokespecial(methodRef(OBJECT, "<init>", "()V"), 0);
+		code.aload(0);
+		code.aload(1);
+		code.putfield(fieldRef());
+		code.op(Code.RETURN, 0);
+		addMethod("<init>", "(" + fieldDescriptor + ")V", code, 2);
+	}
+
+	private int utf8(String value) {
+		return constant("U" + value, () -> {
+			pool.writeByte(TAG_UTF8);
+			pool.writeUTF(value);
+		}, 1);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		return constant(tag + owner + "." + name + descriptor, () -> {
+			int ownerIndex = classRef(owner);
+			int nameAndType = nameAndType(name, descriptor);
+			pool.writeByte(tag);
+			pool.writeShort(ownerIndex);
+			pool.writeShort(nameAndType);
+		}, 1);
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return constant("N" + name + descriptor, () -> {
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			pool.writeByte(TAG_NAME_AND_TYPE);
+			pool.writeShort(nameIndex);
+			pool.writeShort(descriptorIndex);
+		}, 1);
+	}
+
+	/**
+	 * Returns the index of the constant with the given key, adding it with the
+	 * writer if it is not in the pool yet. Entries that the new constant refers
+	 * to are added by the writer before the constant itself.
+	 */
+	private int constant(String key, PoolEntryWriter writer, int slots) {
+		Integer index = poolIndices.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			writer.write();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		int newIndex = poolCount;
+		if (newIndex + slots > 0xFFFF) {
+			throw new UnsupportedOperationException("Too many constants");
+		}
+		poolCount += slots;
+		poolIndices.put(key, newIndex);
+		return newIndex;
+	}
+
+	private interface PoolEntryWriter {
+		void write() throws IOException;
+	}
+
+	/**
+	 * A buffer of straight-line bytecode that keeps track of the deepest operand
+	 * stack it needs.
+	 */
+	static class Code {
+		static final int DCONST_0 = 0x0e;
+		static final int DCONST_1 = 0x0f;
+		static final int BIPUSH = 0x10;
+		static final int SIPUSH = 0x11;
+		static final int LDC_W = 0x13;
+		static final int LDC2_W = 0x14;
+		static final int ILOAD = 0x15;
+		static final int DLOAD = 0x18;
+		static final int ALOAD = 0x19;
+		static final int FALOAD = 0x30;
+		static final int DALOAD = 0x31;
+		static final int AALOAD = 0x32;
+		static final int ISTORE = 0x36;
+		static final int DSTORE = 0x39;
+		static final int DASTORE = 0x52;
+		static final int DADD = 0x63;
+		static final int DSUB = 0x67;
+		static final int DMUL = 0x6b;
+		static final int DDIV = 0x6f;
+		static final int DREM = 0x73;
+		static final int DNEG = 0x77;
+		static final int ISHR = 0x7a;
+		static final int IAND = 0x7e;
+		static final int I2D = 0x87;
+		static final int F2D = 0x8d;
+		static final int RETURN = 0xb1;
+		static final int GETFIELD = 0xb4;
+		static final int PUTFIELD = 0xb5;
+		static final int INVOKEVIRTUAL = 0xb6;
+		static final int INVOKESPECIAL = 0xb7;
+		static final int INVOKESTATIC = 0xb8;
+		static final int CHECKCAST = 0xc0;
+		static final int WIDE = 0xc4;
+
+		private final ClassFileWriter classFile;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int stack;
+		private int maxStack;
+
+		Code(ClassFileWriter classFile) {
+			this.classFile = classFile;
+		}
+
+		int length() {
+			return bytes.size();
+		}
+
+		int getMaxStack() {
+			return maxStack;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			bytes.writeTo(out);
+		}
+
+		/**
+		 * Appends an instruction without operands.
+		 *
+		 * @param opcode     the instruction
+		 * @param stackDelta the change in operand stack size, in slots
+		 */
+		void op(int opcode, int stackDelta) {
+			bytes.write(opcode);
+			adjustStack(stackDelta);
+		}
+
+		void pushDouble(double value) {
+			if (Double.doubleToRawLongBits(value) == 0L) {
+				op(DCONST_0, 2);
+			} else if (value == 1.0) {
+				op(DCONST_1, 2);
+			} else {
+				withIndex(LDC2_W, classFile.doubleConstant(value), 2);
+			}
+		}
+
+		void pushInt(int value) {
+			if (value >= -128 && value <= 127) {
+				bytes.write(BIPUSH);
+				bytes.write(value);
+			} else {
+				bytes.write(SIPUSH);
+				writeShort(value);
+			}
+			adjustStack(1);
+		}
+
+		void dload(int slot) {
+			local(DLOAD, slot, 2);
+		}
+
+		void dstore(int slot) {
+			local(DSTORE, slot, -2);
+		}
+
+		void iload(int slot) {
+			local(ILOAD, slot, 1);
+		}
+
+		void istore(int slot) {
+			local(ISTORE, slot, -1);
+		}
+
+		void aload(int slot) {
+			local(ALOAD, slot, 1);
+		}
+
+		void getfield(int fieldRef) {
+			withIndex(GETFIELD, fieldRef, 0);
+		}
+
+		void putfield(int fieldRef) {
+			withIndex(PUTFIELD, fieldRef, -2);
+		}
+
+		void checkcast(int classRef) {
+			withIndex(CHECKCAST, classRef, 0);
+		}
+
+		/**
+		 * @param argumentSlots the slots taken by the arguments, minus the slots
+		 *                      taken by the result
+		 */
+		void invokestatic(int methodRef, int argumentSlots) {
+			withIndex(INVOKESTATIC, methodRef, -argumentSlots);
+		}
+
+		/**
+		 * @param argumentSlots the slots taken by the receiver and arguments, minus
+		 *                      the slots taken by the result
+		 */
+		void invokevirtual(int methodRef, int argumentSlots) {
+			withIndex(INVOKEVIRTUAL, methodRef, -argumentSlots);
+		}
+
+		void invokespecial(int methodRef, int argumentSlots) {
+			withIndex(INVOKESPECIAL, methodRef, -argumentSlots - 1);
+		}
+
+		private void local(int opcode, int slot, int stackDelta) {
+			if (slot <= 0xFF) {
+				bytes.write(opcode);
+				bytes.write(slot);
+			} else {
+				bytes.write(WIDE);
+				bytes.write(opcode);
+				writeShort(slot);
+			}
+			adjustStack(stackDelta);
+		}
+
+		private void withIndex(int opcode, int index, int stackDelta) {
+			bytes.write(opcode);
+			writeShort(index);
+			adjustStack(stackDelta);
+		}
+
+		private void writeShort(int value) {
+			bytes.write((value >> 8) & 0xFF);
+			bytes.write(value & 0xFF);
+		}
+
+		private void adjustStack(int delta) {
+			stack += delta;
+			maxStack = Math.max(maxStack, stack);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package picasso.parser.language.compiler;
+
+import picasso.parser.language.ColorPlanes;
+
+/**
+ * An expression that has been compiled to JVM bytecode by ExpressionCompiler.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public interface CompiledExpression {
+
+	/**
+	 * Evaluate the expression at one point and store the color at the given
+	 * index of the output arrays.
+	 *
+	 * @param x      the value of x
+	 * @param y      the value of y
+	 * @param t      the value of t
+	 * @param tables the axis tables of the expression, or null if it has none
+	 * @param column the image column of the point, to look up column tables
+	 * @param row    the image row of the point, to look up row tables
+	 * @param red    the array to store the red component in
+	 * @param green  the array to store the green component in
+	 * @param blue   the array to store the blue component in
+	 * @param index  the index to store the color at
+	 */
+	void evaluate(double x, double y, double t, ColorPlanes[] tables, int column, int row, double[] red,
+			double[] green, double[] blue, int index);
+}
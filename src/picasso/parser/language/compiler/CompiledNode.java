@@ -0,0 +1,110 @@
+package picasso.parser.language.compiler;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * An expression tree node that evaluates its source tree with compiled code,
+ * so that it can be rendered wherever the tree could be. If the source uses
+ * axis tables, the code only runs on batches that have them; elsewhere the
+ * source tree is evaluated instead.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class CompiledNode extends ExpressionTreeNode {
+
+	private final ExpressionTreeNode source;
+	private final CompiledExpression code;
+	private final boolean usesTables;
+
+	/**
+	 * Create a node that evaluates the source tree with the given code.
+	 *
+	 * @param source the expression tree that was compiled
+	 * @param code   the compiled form of the source
+	 */
+	public CompiledNode(ExpressionTreeNode source, CompiledExpression code) {
+		this.source = source;
+		this.code = code;
+		this.usesTables = AxisTable.appearsIn(source);
+	}
+
+	/**
+	 * Returns the expression tree that was compiled.
+	 *
+	 * @return the source tree
+	 */
+	public ExpressionTreeNode getSource() {
+		return source;
+	}
+
+	/**
+	 * Evaluates the point at time 0; a render passes its time with the batch.
+	 */
+	@Override
+	public RGBColor evaluate(double x, double y) {
+		return evaluate(x, y, 0);
+	}
+
+	@Override
+	public RGBColor evaluate(double x, double y, double time) {
+		if (usesTables) {
+			return source.evaluate(x, y, time);
+		}
+		double[] red = new double[1];
+		double[] green = new double[1];
+		double[] blue = new double[1];
+		code.evaluate(x, y, time, null, -1, -1, red, green, blue, 0);
+		return new RGBColor(red[0], green[0], blue[0]);
+	}
+
+	/**
+	 * Runs the compiled code for every point in the batch, writing straight into
+	 * the output planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		ColorPlanes[] tables = batch.getAxisTables();
+		if (usesTables && tables == null) {
+			source.evaluate(batch, out);
+			return;
+		}
+		int column = batch.getColumn();
+		int stride = batch.getColumnStride();
+		int row = batch.getRow();
+		double[] xs = batch.getX();
+		double[] ys = batch.getY();
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		double t = batch.getTime();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			code.evaluate(xs[i], ys[i], t, tables, column + i * stride, row, red, green, blue, i);
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof CompiledNode)) {
+			return false;
+		}
+		return source.equals(((CompiledNode) obj).source);
+	}
+
+	@Override
+	public int hashCode() {
+		return source.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return source.toString();
+	}
+}
@@ -0,0 +1,641 @@
+package picasso.parser.language.compiler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.compiler.ClassFileWriter.Code;
+import picasso.parser.language.expressions.*;
+import picasso.parser.optimizer.ChannelAnalyzer;
+import picasso.parser.optimizer.ChannelDemandAnalyzer;
+
+/**
+ * Compiles expression trees into hidden JVM classes whose single method
+ * evaluates the expression at one point with straight-line double arithmetic,
+ * one local variable per color channel of every node. There is no virtual call
+ * per node and no RGBColor per node, and the JIT sees the whole expression at
+ * once. Nodes that are provably gray (see ChannelAnalyzer) compute one value
+ * instead of three, and channels that are never read (see
+ * ChannelDemandAnalyzer) are not computed at all.
+ *
+ * The compiled code does exactly the same floating-point operations as the
+ * tree, in the same order, so it produces exactly the same colors.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ExpressionCompiler {
+
+	/**
+	 * Methods longer than this many bytes are never JIT-compiled by HotSpot, so
+	 * running them would be slower than walking the tree.
+	 */
+	public static final int MAX_METHOD_LENGTH = 8000;
+
+	private static final String CLASS_NAME = "picasso/parser/language/compiler/GeneratedExpression";
+	private static final String INTERFACE_NAME = "picasso/parser/language/compiler/CompiledExpression";
+	private static final String METHOD_DESCRIPTOR = "(DDD[Lpicasso/parser/language/ColorPlanes;II[D[D[DI)V";
+	private static final String REFS_DESCRIPTOR = "[Ljava/lang/Object;";
+
+	private static final String MATH = "java/lang/Math";
+	private static final String EXPRESSIONS = "picasso/parser/language/expressions/";
+	private static final String NOISE = "picasso/model/ImprovedNoise";
+	private static final String COLOR_PLANES = "picasso/parser/language/ColorPlanes";
+	private static final String IMAGE_PLANES = "picasso/model/ImagePlanes";
+
+	// local variable slots of the parameters of CompiledExpression.evaluate
+	private static final int X_SLOT = 1;
+	private static final int Y_SLOT = 3;
+	private static final int T_SLOT = 5;
+	private static final int TABLES_SLOT = 7;
+	private static final int COLUMN_SLOT = 8;
+	private static final int ROW_SLOT = 9;
+	private static final int RED_SLOT = 10;
+	private static final int GREEN_SLOT = 11;
+	private static final int BLUE_SLOT = 12;
+	private static final int INDEX_SLOT = 13;
+	private static final int FIRST_TEMP_SLOT = 14;
+
+	/** unary functions that apply a one-argument Math method to each channel */
+	private static final Map<Class<?>, String> MATH_FUNCTIONS = Map.of(Sin.class, "sin", Cos.class, "cos",
+			Tan.class, "tan", Atan.class, "atan", Exp.class, "exp", Floor.class, "floor", Ceil.class, "ceil",
+			Abs.class, "abs");
+
+	/** binary operators that map onto one double instruction */
+	private static final Map<Class<?>, Integer> OPERATOR_INSTRUCTIONS = Map.of(Plus.class, Code.DADD, Minus.class,
+			Code.DSUB, Multiply.class, Code.DMUL, Divide.class, Code.DDIV, Modulo.class, Code.DREM);
+
+	private static ExpressionCompiler ourInstance;
+
+	/**
+	 * Returns the compiler shared by the application.
+	 *
+	 * @return the shared compiler
+	 */
+	public static synchronized ExpressionCompiler getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ExpressionCompiler();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Compile the expression.
+	 *
+	 * @param expr the expression to compile
+	 * @return the compiled expression
+	 * @throws UnsupportedOperationException if the expression contains a node the
+	 *                                       compiler does not know, or is too
+	 *                                       large to compile usefully
+	 */
+	public CompiledExpression compile(ExpressionTreeNode expr) {
+		ClassFileWriter classFile = new ClassFileWriter(CLASS_NAME, INTERFACE_NAME, "refs", REFS_DESCRIPTOR);
+		MethodGenerator generator = new MethodGenerator(classFile);
+		Code code = generator.generate(expr);
+		if (code.length() > MAX_METHOD_LENGTH) {
+			throw new UnsupportedOperationException("Compiled expression is too large: " + code.length() + " bytes");
+		}
+		classFile.addMethod("evaluate", METHOD_DESCRIPTOR, code, generator.maxLocals());
+		return define(classFile.toByteArray(), generator.refs.toArray());
+	}
+
+	/**
+	 * Compile the expression if every node in it can be compiled.
+	 *
+	 * @param expr the expression to compile
+	 * @return a node that runs the compiled expression, or the expression itself
+	 *         if it cannot be compiled
+	 */
+	public ExpressionTreeNode compileIfSupported(ExpressionTreeNode expr) {
+		try {
+			return new CompiledNode(expr, compile(expr));
+		} catch (UnsupportedOperationException e) {
+			return expr;
+		}
+	}
+
+	private static CompiledExpression define(byte[] classBytes, Object[] refs) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+			MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class, Object[].class));
+			return (CompiledExpression) constructor.invoke(refs);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Could not load compiled expression", e);
+		}
+	}
+
+	/**
+	 * Generates the body of the evaluate method. Each node is emitted once, even
+	 * if the tree refers to it more than once, and leaves its channels in local
+	 * variables.
+	 */
+	private static class MethodGenerator {
+		private final ClassFileWriter classFile;
+		private final Code code;
+		private final List<Object> refs = new ArrayList<>();
+		private final Map<ExpressionTreeNode, int[]> emitted = new IdentityHashMap<>();
+		private Set<ExpressionTreeNode> grayNodes = Set.of();
+		private Map<ExpressionTreeNode, Integer> demands = Map.of();
+		private int nextSlot = FIRST_TEMP_SLOT;
+
+		MethodGenerator(ClassFileWriter classFile) {
+			this.classFile = classFile;
+			this.code = new Code(classFile);
+		}
+
+		Code generate(ExpressionTreeNode expr) {
+			grayNodes = ChannelAnalyzer.getInstance().grayNodes(expr);
+			demands = ChannelDemandAnalyzer.getInstance().analyze(expr);
+			int[] result = emit(expr);
+			int[] outputs = { RED_SLOT, GREEN_SLOT, BLUE_SLOT };
+			for (int channel = 0; channel < 3; channel++) {
+				code.aload(outputs[channel]);
+				code.iload(INDEX_SLOT);
+				code.dload(result[channel]);
+				code.op(Code.DASTORE, -4);
+			}
+			code.op(Code.RETURN, 0);
+			return code;
+		}
+
+		int maxLocals() {
+			return nextSlot;
+		}
+
+		/**
+		 * Emits the code for a node, unless it has been emitted already.
+		 *
+		 * @return the local variable slots that hold the red, green and blue values
+		 */
+		private int[] emit(ExpressionTreeNode node) {
+			int[] slots = emitted.get(node);
+			if (slots == null) {
+				slots = emitNode(node);
+				emitted.put(node, slots);
+			}
+			return slots;
+		}
+
+		private int[] emitNode(ExpressionTreeNode node) {
+			if (node instanceof SharedNode shared) {
+				// emitted once anyway, since every use refers to the same node
+				return emit(shared.getExpression());
+			}
+			if (node instanceof AxisTable table) {
+				return emitTable(table);
+			}
+			if (node instanceof X) {
+				return gray(X_SLOT);
+			}
+			if (node instanceof Y) {
+				return gray(Y_SLOT);
+			}
+			if (node instanceof T) {
+				return gray(T_SLOT);
+			}
+			if (node instanceof RGBColor || node instanceof Constant || node instanceof Random) {
+				// these do not depend on x, y or t
+				RGBColor color = node.evaluate(0, 0);
+				return constant(color.getRed(), color.getGreen(), color.getBlue());
+			}
+			if (node instanceof UnaryFunction function) {
+				return emitFunction(function);
+			}
+			if (node instanceof Negate negate) {
+				int[] param = emit(negate.getParam());
+				return channelwise(negate, param, (slot) -> {
+					code.dload(slot);
+					code.op(Code.DNEG, 0);
+				});
+			}
+			if (node instanceof BinaryOperator operator) {
+				return emitOperator(operator);
+			}
+			if (node instanceof PerlinBW perlin) {
+				return emitPerlinBW(perlin);
+			}
+			if (node instanceof PerlinColor perlin) {
+				return emitPerlinColor(perlin);
+			}
+			if (node instanceof Mandelbrot mandelbrot) {
+				int real = emit(mandelbrot.getReal())[0];
+				int imag = emit(mandelbrot.getImag())[0];
+				code.dload(real);
+				code.dload(imag);
+				invokestatic(EXPRESSIONS + "Mandelbrot", "escapeValue", "(DD)D", 2);
+				return gray(storeDouble());
+			}
+			if (node instanceof ImageClip image) {
+				return emitSample(image, "ImageClip", image.getXCoord(), image.getYCoord());
+			}
+			if (node instanceof ImageWrap image) {
+				return emitSample(image, "ImageWrap", image.getXCoord(), image.getYCoord());
+			}
+			if (node instanceof StringValue image) {
+				return emitSample(image, "StringValue", new X(), new Y());
+			}
+			throw new UnsupportedOperationException("Cannot compile " + node.getClass().getSimpleName());
+		}
+
+		private int[] emitFunction(UnaryFunction function) {
+			int[] param = emit(function.getParam());
+			String mathFunction = MATH_FUNCTIONS.get(function.getClass());
+			if (mathFunction != null) {
+				return channelwise(function, param, (slot) -> {
+					code.dload(slot);
+					invokestatic(MATH, mathFunction, "(D)D", 0);
+				});
+			}
+			if (function instanceof Log) {
+				return channelwise(function, param, (slot) -> {
+					code.dload(slot);
+					invokestatic(MATH, "abs", "(D)D", 0);
+					invokestatic(MATH, "log", "(D)D", 0);
+				});
+			}
+			if (function instanceof Clamp) {
+				return channelwise(function, param, (slot) -> {
+					code.dload(slot);
+					code.pushDouble(-1);
+					code.pushDouble(1);
+					invokestatic(MATH, "clamp", "(DDD)D", 4);
+				});
+			}
+			if (function instanceof Wrap) {
+				return channelwise(function, param, (slot) -> {
+					code.dload(slot);
+					invokestatic(EXPRESSIONS + "Wrap", "wrapHelper", "(D)D", 0);
+				});
+			}
+			if (function instanceof RgbToYCrCb) {
+				return emitRgbToYCrCb(param);
+			}
+			if (function instanceof YCrCbToRGB) {
+				return emitYCrCbToRGB(param);
+			}
+			throw new UnsupportedOperationException("Cannot compile " + function.getClass().getSimpleName());
+		}
+
+		private int[] emitOperator(BinaryOperator operator) {
+			int[] left = emit(operator.getLeft());
+			int[] right = emit(operator.getRight());
+			Integer instruction = OPERATOR_INSTRUCTIONS.get(operator.getClass());
+			if (instruction == null && !(operator instanceof Exponent)) {
+				throw new UnsupportedOperationException("Cannot compile " + operator.getClass().getSimpleName());
+			}
+			int channels = channelCount(operator);
+			int[] result = new int[3];
+			for (int channel = 0; channel < channels; channel++) {
+				if (!needs(operator, channel)) {
+					continue;
+				}
+				code.dload(left[channel]);
+				code.dload(right[channel]);
+				if (instruction != null) {
+					code.op(instruction, -2);
+				} else {
+					invokestatic(MATH, "pow", "(DD)D", 2);
+				}
+				result[channel] = storeDouble();
+			}
+			return channels == 1 ? gray(result[0]) : unneeded(operator, result);
+		}
+
+		private int[] emitPerlinBW(PerlinBW perlin) {
+			int[] left = emit(perlin.getXExpr());
+			int[] right = emit(perlin.getYExpr());
+			if (grayNodes.contains(perlin.getXExpr()) && grayNodes.contains(perlin.getYExpr())) {
+				// the three sums are the same
+				code.dload(left[0]);
+				code.dload(right[0]);
+				code.op(Code.DADD, -2);
+				int sum = storeDouble();
+				for (int channel = 0; channel < 3; channel++) {
+					code.dload(sum);
+				}
+			} else {
+				for (int channel = 0; channel < 3; channel++) {
+					code.dload(left[channel]);
+					code.dload(right[channel]);
+					code.op(Code.DADD, -2);
+				}
+			}
+			invokestatic(NOISE, "noise", "(DDD)D", 4);
+			return gray(storeDouble());
+		}
+
+		private int[] emitPerlinColor(PerlinColor perlin) {
+			int xVal = emit(perlin.getXExpr())[0];
+			int yVal = emit(perlin.getYExpr())[0];
+			// the same offsets as PerlinColor, in the same order
+			double[] offsets = { 0.3, -0.8, 0.1 };
+			int[] result = new int[3];
+			for (int channel = 0; channel < 3; channel++) {
+				if (!needs(perlin, channel)) {
+					continue;
+				}
+				double offset = Math.abs(offsets[channel]);
+				int instruction = offsets[channel] < 0 ? Code.DSUB : Code.DADD;
+				code.dload(xVal);
+				code.pushDouble(offset);
+				code.op(instruction, -2);
+				code.dload(yVal);
+				code.pushDouble(offset);
+				code.op(instruction, -2);
+				code.pushDouble(0);
+				invokestatic(NOISE, "noise", "(DDD)D", 4);
+				result[channel] = storeDouble();
+			}
+			return unneeded(perlin, result);
+		}
+
+		/**
+		 * Reads the value of the point's column or row from an axis table, or of
+		 * the point from the row of a pixel table.
+		 */
+		private int[] emitTable(AxisTable table) {
+			int index = table.getAxis() == AxisTable.Axis.ROW ? ROW_SLOT : COLUMN_SLOT;
+			String[] getters = { "getRed", "getGreen", "getBlue" };
+			int channels = channelCount(table);
+			int[] result = new int[3];
+			for (int channel = 0; channel < channels; channel++) {
+				if (!needs(table, channel)) {
+					continue;
+				}
+				code.aload(TABLES_SLOT);
+				code.pushInt(table.getSlot());
+				code.op(Code.AALOAD, -1);
+				code.invokevirtual(classFile.methodRef(COLOR_PLANES, getters[channel], "()[D"), 0);
+				code.iload(index);
+				code.op(Code.DALOAD, 0);
+				result[channel] = storeDouble();
+			}
+			return channels == 1 ? gray(result[0]) : unneeded(table, result);
+		}
+
+		/**
+		 * Calls sampleIndex on the node and reads the pixel at that index from
+		 * the planes of its image.
+		 */
+		private int[] emitSample(ExpressionTreeNode image, String className, ExpressionTreeNode xCoord,
+				ExpressionTreeNode yCoord) {
+			int xVal = emit(xCoord)[0];
+			int yVal = emit(yCoord)[0];
+			String owner = EXPRESSIONS + className;
+			int ref = refs.size();
+			refs.add(image);
+			loadRef(ref, owner);
+			code.dload(xVal);
+			code.dload(yVal);
+			code.invokevirtual(classFile.methodRef(owner, "sampleIndex", "(DD)I"), 4);
+			int pixel = nextSlot++;
+			code.istore(pixel);
+
+			String[] getters = { "getRed", "getGreen", "getBlue" };
+			int[] result = new int[3];
+			for (int channel = 0; channel < 3; channel++) {
+				if (!needs(image, channel)) {
+					continue;
+				}
+				loadRef(ref, owner);
+				code.invokevirtual(classFile.methodRef(owner, "getPlanes", "()L" + IMAGE_PLANES + ";"), 0);
+				code.invokevirtual(classFile.methodRef(IMAGE_PLANES, getters[channel], "()[F"), 0);
+				code.iload(pixel);
+				code.op(Code.FALOAD, -1);
+				code.op(Code.F2D, 1);
+				result[channel] = storeDouble();
+			}
+			return unneeded(image, result);
+		}
+
+		/**
+		 * Pushes the node the generated code refers to by the given index.
+		 */
+		private void loadRef(int ref, String owner) {
+			code.aload(0);
+			code.getfield(classFile.fieldRef());
+			code.pushInt(ref);
+			code.op(Code.AALOAD, -1);
+			code.checkcast(classFile.classRef(owner));
+		}
+
+		/**
+		 * The same arithmetic as RgbToYCrCb.evaluate.
+		 */
+		private int[] emitRgbToYCrCb(int[] param) {
+			int[] prime = new int[3];
+			for (int channel = 0; channel < 3; channel++) {
+				code.dload(param[channel]);
+				code.pushDouble(1);
+				code.op(Code.DADD, -2);
+				code.pushDouble(2.0);
+				code.op(Code.DDIV, -2);
+				prime[channel] = storeDouble();
+			}
+			code.pushDouble(0.299);
+			code.dload(prime[0]);
+			code.op(Code.DMUL, -2);
+			code.pushDouble(0.587);
+			code.dload(prime[1]);
+			code.op(Code.DMUL, -2);
+			code.op(Code.DADD, -2);
+			code.pushDouble(0.114);
+			code.dload(prime[2]);
+			code.op(Code.DMUL, -2);
+			code.op(Code.DADD, -2);
+			int luma = storeDouble();
+
+			code.dload(luma);
+			code.pushDouble(2.0);
+			code.op(Code.DMUL, -2);
+			code.pushDouble(1.0);
+			code.op(Code.DSUB, -2);
+			int yPicasso = storeDouble();
+
+			code.pushDouble(0.492);
+			code.dload(prime[2]);
+			code.dload(luma);
+			code.op(Code.DSUB, -2);
+			code.op(Code.DMUL, -2);
+			code.pushDouble(0.492);
+			code.op(Code.DDIV, -2);
+			int cb = storeDouble();
+
+			code.pushDouble(0.877);
+			code.dload(prime[0]);
+			code.dload(luma);
+			code.op(Code.DSUB, -2);
+			code.op(Code.DMUL, -2);
+			code.pushDouble(0.877);
+			code.op(Code.DDIV, -2);
+			int cr = storeDouble();
+			return new int[] { yPicasso, cb, cr };
+		}
+
+		/**
+		 * The same arithmetic as YCrCbToRGB.evaluate.
+		 */
+		private int[] emitYCrCbToRGB(int[] param) {
+			code.dload(param[0]);
+			code.pushDouble(1.0);
+			code.op(Code.DADD, -2);
+			code.pushDouble(2.0);
+			code.op(Code.DDIV, -2);
+			int yPrime = storeDouble();
+
+			code.dload(param[1]);
+			code.pushDouble(0.492);
+			code.op(Code.DMUL, -2);
+			int cb = storeDouble();
+
+			code.dload(param[2]);
+			code.pushDouble(0.877);
+			code.op(Code.DMUL, -2);
+			int cr = storeDouble();
+
+			// rPrime = yPrime + 1.402 * cr
+			code.dload(yPrime);
+			code.pushDouble(1.402);
+			code.dload(cr);
+			code.op(Code.DMUL, -2);
+			code.op(Code.DADD, -2);
+			int rPrime = storeDouble();
+
+			// gPrime = yPrime - 0.344136 * cb - 0.714136 * cr
+			code.dload(yPrime);
+			code.pushDouble(0.344136);
+			code.dload(cb);
+			code.op(Code.DMUL, -2);
+			code.op(Code.DSUB, -2);
+			code.pushDouble(0.714136);
+			code.dload(cr);
+			code.op(Code.DMUL, -2);
+			code.op(Code.DSUB, -2);
+			int gPrime = storeDouble();
+
+			// bPrime = yPrime + 1.772 * cb
+			code.dload(yPrime);
+			code.pushDouble(1.772);
+			code.dload(cb);
+			code.op(Code.DMUL, -2);
+			code.op(Code.DADD, -2);
+			int bPrime = storeDouble();
+
+			return channelwise(new int[] { rPrime, gPrime, bPrime }, (slot) -> {
+				code.dload(slot);
+				code.pushDouble(2.0);
+				code.op(Code.DMUL, -2);
+				code.pushDouble(1.0);
+				code.op(Code.DSUB, -2);
+			});
+		}
+
+		/**
+		 * Returns 1 if the node is gray, so that only its first channel needs
+		 * computing, or 3.
+		 */
+		private int channelCount(ExpressionTreeNode node) {
+			return grayNodes.contains(node) ? 1 : 3;
+		}
+
+		/**
+		 * Applies the same computation to each channel of the parameter, or to the
+		 * first channel only if the node is gray.
+		 */
+		private int[] channelwise(ExpressionTreeNode node, int[] param, ChannelEmitter emitter) {
+			if (channelCount(node) == 1) {
+				emitter.emit(param[0]);
+				return gray(storeDouble());
+			}
+			int[] result = new int[3];
+			for (int channel = 0; channel < 3; channel++) {
+				if (needs(node, channel)) {
+					emitter.emit(param[channel]);
+					result[channel] = storeDouble();
+				}
+			}
+			return unneeded(node, result);
+		}
+
+		/**
+		 * Returns true if the channel of the node is ever read.
+		 */
+		private boolean needs(ExpressionTreeNode node, int channel) {
+			int demand = demands.getOrDefault(node, 0);
+			return demand == 0 || ChannelDemandAnalyzer.needs(demand, channel);
+		}
+
+		/**
+		 * Points the channels of the node that are never read at a channel that was
+		 * computed, so that every slot in the result is a valid variable.
+		 */
+		private int[] unneeded(ExpressionTreeNode node, int[] result) {
+			int computed = needs(node, 0) ? result[0] : needs(node, 1) ? result[1] : result[2];
+			for (int channel = 0; channel < 3; channel++) {
+				if (!needs(node, channel)) {
+					result[channel] = computed;
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Applies the same computation to each channel of the parameter.
+		 */
+		private int[] channelwise(int[] param, ChannelEmitter emitter) {
+			int[] result = new int[3];
+			for (int channel = 0; channel < 3; channel++) {
+				emitter.emit(param[channel]);
+				result[channel] = storeDouble();
+			}
+			return result;
+		}
+
+		private int[] constant(double red, double green, double blue) {
+			if (Double.doubleToRawLongBits(red) == Double.doubleToRawLongBits(green)
+					&& Double.doubleToRawLongBits(red) == Double.doubleToRawLongBits(blue)) {
+				code.pushDouble(red);
+				return gray(storeDouble());
+			}
+			int[] result = new int[3];
+			double[] values = { red, green, blue };
+			for (int channel = 0; channel < 3; channel++) {
+				code.pushDouble(values[channel]);
+				result[channel] = storeDouble();
+			}
+			return result;
+		}
+
+		private void invokestatic(String owner, String name, String descriptor, int argumentSlots) {
+			code.invokestatic(classFile.methodRef(owner, name, descriptor), argumentSlots);
+		}
+
+		/**
+		 * Stores the double on top of the stack in a new local variable.
+		 *
+		 * @return the slot of the variable
+		 */
+		private int storeDouble() {
+			int slot = nextSlot;
+			nextSlot += 2;
+			code.dstore(slot);
+			return slot;
+		}
+
+		private static int[] gray(int slot) {
+			return new int[] { slot, slot, slot };
+		}
+	}
+
+	private interface ChannelEmitter {
+		void emit(int slot);
+	}
+}
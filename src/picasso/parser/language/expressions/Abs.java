@@ -1,5 +1,7 @@
 package picasso.parser.language.expressions;
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the abs function in the Picasso language.
@@ -22,4 +24,22 @@ public class Abs extends UnaryFunction {
 
 		return new RGBColor(red, green, blue);
 	}
+
+	/**
+	 * Evaluates the absolute value of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = Math.abs(red[i]);
+			green[i] = Math.abs(green[i]);
+			blue[i] = Math.abs(blue[i]);
+		}
+	}
 }
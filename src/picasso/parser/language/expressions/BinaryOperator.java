@@ -1,5 +1,8 @@
 package picasso.parser.language.expressions;
 
+import java.util.List;
+import java.util.Objects;
+
 import picasso.parser.language.ExpressionTreeNode;
 
 /**
@@ -23,6 +26,37 @@ public abstract class BinaryOperator extends ExpressionTreeNode {
         this.right = right;
 	}
 
+	/**
+	 * Returns the left operand.
+	 * 
+	 * @return the left operand
+	 */
+	public ExpressionTreeNode getLeft() {
+		return left;
+	}
+
+	/**
+	 * Returns the right operand.
+	 * 
+	 * @return the right operand
+	 */
+	public ExpressionTreeNode getRight() {
+		return right;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(left, right);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return newInstance(children);
+	}
+
 	/**
 	 * Returns the string representation of the function in the format "<ClassName>:
 	 * <left>, <right>"
@@ -60,6 +94,16 @@ public abstract class BinaryOperator extends ExpressionTreeNode {
 		return true;
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(getClass().getName(), left, right);
+	}
+
 	
 	
 }
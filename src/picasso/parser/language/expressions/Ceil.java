@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the Ceil function in the Picasso language.
@@ -35,4 +37,21 @@ public class Ceil extends UnaryFunction {
 		return new RGBColor(red, green, blue);
 	}
 
+	/**
+	 * Evaluates the ceiling of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = Math.ceil(red[i]);
+			green[i] = Math.ceil(green[i]);
+			blue[i] = Math.ceil(blue[i]);
+		}
+	}
 }
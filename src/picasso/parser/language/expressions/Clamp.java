@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the clamp function in the Picasso Language
@@ -22,4 +24,21 @@ public class Clamp extends UnaryFunction {
 		return new RGBColor(red, green, blue);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Evaluates the clamped value of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = Math.clamp(red[i], -1, 1);
+			green[i] = Math.clamp(green[i], -1, 1);
+			blue[i] = Math.clamp(blue[i], -1, 1);
+		}
+	}
+}
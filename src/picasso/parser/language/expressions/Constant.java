@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents a constant in the Picasso language.
@@ -66,4 +68,22 @@ public class Constant extends ExpressionTreeNode {
 		Constant other = (Constant) obj;
 		return Double.compare(other.value, value) == 0;
 	}
+
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Double.hashCode(value);
+	}
+
+	/**
+	 * Returns the constant for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		out.fill(batch.getSize(), value, value, value);
+	}
 }
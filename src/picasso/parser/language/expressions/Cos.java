@@ -1,5 +1,7 @@
 package picasso.parser.language.expressions;
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the Cos function in the Picasso language.
@@ -25,4 +27,21 @@ public class Cos extends UnaryFunction{
 
 	}
 
+	/**
+	 * Evaluates the cosine of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = Math.cos(red[i]);
+			green[i] = Math.cos(green[i]);
+			blue[i] = Math.cos(blue[i]);
+		}
+	}
 }
@@ -1,33 +1,122 @@
 package picasso.parser.language.expressions;
 
+import java.awt.Dimension;
+import java.util.List;
+import java.util.Objects;
+
+import picasso.model.ImageCache;
+import picasso.model.ImageHandle;
+import picasso.model.ImagePlanes;
 import picasso.model.Pixmap;
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the ImageClip function - imports an image and clips it
  *
  * @author Luis Coronel
  */
-public class ImageClip extends ExpressionTreeNode {
+public class ImageClip extends ExpressionTreeNode implements ImageSampler {
 
 	private String filename;
 	private ExpressionTreeNode xCoord;
 	private ExpressionTreeNode yCoord;
-	private Pixmap image;
+	private ImageHandle image;
 
 	public ImageClip(String filename, ExpressionTreeNode xCoord, ExpressionTreeNode yCoord) {
 		this.filename = filename;
 		this.xCoord = xCoord;
 		this.yCoord = yCoord;
 
-		try {
-			this.image = new Pixmap(filename);
-		} catch (Exception e) {
+		// the image is decoded in the background while parsing goes on, with
+		// as many pixels as the span of the coordinates needs
+		ImageCache images = ImageCache.getInstance();
+		Dimension resolution = ImageSampler.sampledResolution(images.getResolution(), xCoord, yCoord);
+		this.image = images.prefetch(filename, resolution).orElse(e -> {
 			System.err.println("Error loading image: " + filename);
 			e.printStackTrace();
 			// Create default image
-			this.image = new Pixmap(100, 100);
+			return new ImagePlanes(new Pixmap(100, 100));
+		});
+	}
+
+	/**
+	 * Creates the function on an image that has already been loaded.
+	 */
+	private ImageClip(String filename, ImageHandle image, ExpressionTreeNode xCoord, ExpressionTreeNode yCoord) {
+		this.filename = filename;
+		this.image = image;
+		this.xCoord = xCoord;
+		this.yCoord = yCoord;
+	}
+
+	/**
+	 * Returns the name of the image file.
+	 * 
+	 * @return the name of the image file
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Returns the expression for the x coordinate.
+	 * 
+	 * @return the x coordinate expression
+	 */
+	public ExpressionTreeNode getXCoord() {
+		return xCoord;
+	}
+
+	/**
+	 * Returns the expression for the y coordinate.
+	 * 
+	 * @return the y coordinate expression
+	 */
+	public ExpressionTreeNode getYCoord() {
+		return yCoord;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(xCoord, yCoord);
+	}
+
+	/**
+	 * Returns the function with new coordinate expressions, on the same image.
+	 */
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
 		}
+		return new ImageClip(filename, image, children.get(0), children.get(1));
+	}
+
+	/**
+	 * Returns the image the function samples, waiting for it if it is still
+	 * being decoded.
+	 * 
+	 * @return the planes of the image
+	 */
+	@Override
+	public ImagePlanes getPlanes() {
+		return image.get();
+	}
+
+	/**
+	 * Returns the index of the image pixel at the given coordinates, clamped
+	 * to [-1, 1].
+	 * 
+	 * @param xVal the x coordinate
+	 * @param yVal the y coordinate
+	 * @return the index of the pixel in the planes of the image
+	 */
+	@Override
+	public int sampleIndex(double xVal, double yVal) {
+		return image.get().clipIndex(xVal, yVal);
 	}
 
 	@Override
@@ -37,28 +126,37 @@ public class ImageClip extends ExpressionTreeNode {
 		RGBColor yResult = yCoord.evaluate(x, y);
 
 		// Use red component as coordinate value
-		double xVal = xResult.getRed();
-		double yVal = yResult.getRed();
-
-		// Clamp to [-1, 1]
-		xVal = Math.max(-1.0, Math.min(1.0, xVal));
-		yVal = Math.max(-1.0, Math.min(1.0, yVal));
-		
-		int imageWidth = image.getSize().width;
-		int imageHeight = image.getSize().height;
-
-		int imageX = (int) Math.round(((xVal + 1.0) / 2.0) * (imageWidth - 1));
-		int imageY = (int) Math.round(((yVal + 1.0) / 2.0) * (imageHeight - 1));
-
-		// Get color from image
-		java.awt.Color pixelColor = image.getColor(imageX, imageY);
+		ImagePlanes planes = getPlanes();
+		int index = planes.clipIndex(xResult.getRed(), yResult.getRed());
+		return new RGBColor(planes.getRed()[index], planes.getGreen()[index], planes.getBlue()[index]);
+	}
 
-		// Convert [0,255] to [-1,1]
-		double red = (pixelColor.getRed() / 255.0) * 2.0 - 1.0;
-		double green = (pixelColor.getGreen() / 255.0) * 2.0 - 1.0;
-		double blue = (pixelColor.getBlue() / 255.0) * 2.0 - 1.0;
+	/**
+	 * Evaluates the coordinate expressions for every point in the batch and
+	 * samples the image at the clamped coordinates.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		xCoord.evaluate(batch, out);
+		ColorPlanes yResult = batch.acquire();
+		yCoord.evaluate(batch, yResult);
 
-		return new RGBColor(red, green, blue);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		double[] yRed = yResult.getRed();
+		ImagePlanes planes = getPlanes();
+		float[] imageRed = planes.getRed();
+		float[] imageGreen = planes.getGreen();
+		float[] imageBlue = planes.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			int index = planes.clipIndex(red[i], yRed[i]);
+			red[i] = imageRed[index];
+			green[i] = imageGreen[index];
+			blue[i] = imageBlue[index];
+		}
+		batch.release(yResult);
 	}
 
 	@Override
@@ -71,6 +169,16 @@ public class ImageClip extends ExpressionTreeNode {
 		       yCoord.equals(other.yCoord);
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(filename, xCoord, yCoord);
+	}
+
 	@Override
 	public String toString() {
 		return "ImageClip(\"" + filename + "\", " + xCoord + ", " + yCoord + ")";
@@ -1,13 +1,19 @@
 package picasso.parser.language.expressions;
 
+import java.util.List;
+import java.util.Objects;
+
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the Mandelbrot function that computes iterations for the Mandelbrot set
  * @author Menilik Deneke
  */
 public class Mandelbrot extends ExpressionTreeNode {
-	private static final int MAX_ITER = 80;
+	/** the number of iterations after which a point is taken not to escape */
+	public static final int MAX_ITER = 80;
 	
 	private ExpressionTreeNode real;
 	private ExpressionTreeNode imag;
@@ -23,6 +29,37 @@ public class Mandelbrot extends ExpressionTreeNode {
 		this.imag = imag;
 	}
 
+	/**
+	 * Returns the expression for the real part of c.
+	 * 
+	 * @return the expression for the real part of c
+	 */
+	public ExpressionTreeNode getReal() {
+		return real;
+	}
+
+	/**
+	 * Returns the expression for the imaginary part of c.
+	 * 
+	 * @return the expression for the imaginary part of c
+	 */
+	public ExpressionTreeNode getImag() {
+		return imag;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(real, imag);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return new Mandelbrot(children.get(0), children.get(1));
+	}
+
 	/**
 	 * Evaluates the Mandelbrot function at the given x, y coordinates
 	 * 
@@ -35,9 +72,42 @@ public class Mandelbrot extends ExpressionTreeNode {
 		RGBColor realResult = real.evaluate(x, y);
 		RGBColor imagResult = imag.evaluate(x, y);
 
-		double cReal = realResult.getRed();
-		double cImag = imagResult.getRed();
-						
+		double value = escapeValue(realResult.getRed(), imagResult.getRed());
+		
+		return new RGBColor(value, value, value);
+	}
+
+	/**
+	 * Evaluates the Mandelbrot function for every point in the batch
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		real.evaluate(batch, out);
+		ColorPlanes imagResult = batch.acquire();
+		imag.evaluate(batch, imagResult);
+
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		double[] imagRed = imagResult.getRed();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			double value = escapeValue(red[i], imagRed[i]);
+			red[i] = value;
+			green[i] = value;
+			blue[i] = value;
+		}
+		batch.release(imagResult);
+	}
+
+	/**
+	 * Iterates z = z^2 + c from z = 0 until z escapes or MAX_ITER is reached.
+	 * 
+	 * @param cReal the real part of c
+	 * @param cImag the imaginary part of c
+	 * @return the number of iterations, mapped to a value between -1 and 1
+	 */
+	public static double escapeValue(double cReal, double cImag) {
 		double zReal = 0;
 		double zImag = 0;
 		double zMod = Math.sqrt(zReal*zReal + zImag*zImag);
@@ -52,9 +122,7 @@ public class Mandelbrot extends ExpressionTreeNode {
 		}
 		
 		//maps number of iterations to a value between -1 and 1
-		double value = 1.0 - (2.0 * n / MAX_ITER);
-		
-		return new RGBColor(value, value, value);
+		return 1.0 - (2.0 * n / MAX_ITER);
 	}
 	
 	@Override
@@ -65,6 +133,16 @@ public class Mandelbrot extends ExpressionTreeNode {
 		return real.equals(other.real) && imag.equals(other.imag);
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash("mandelbrot", real, imag);
+	}
+
 	@Override
 	public String toString() {
 		return "Mandelbrot(" + real + ", " + imag + ")";
@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the minus operator in the Picasso language.
@@ -34,4 +36,28 @@ public class Minus extends BinaryOperator {
 
 		return new RGBColor(red, green, blue);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates the difference of the parameters for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		left.evaluate(batch, out);
+		ColorPlanes rightResult = batch.acquire();
+		right.evaluate(batch, rightResult);
+
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		double[] rightRed = rightResult.getRed();
+		double[] rightGreen = rightResult.getGreen();
+		double[] rightBlue = rightResult.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] -= rightRed[i];
+			green[i] -= rightGreen[i];
+			blue[i] -= rightBlue[i];
+		}
+		batch.release(rightResult);
+	}
+}
@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * 
@@ -23,4 +25,21 @@ public class Negate extends UnaryOperator{
 		return new RGBColor(red, green, blue);
 	}
 
+	/**
+	 * Evaluates the negation of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = -red[i];
+			green[i] = -green[i];
+			blue[i] = -blue[i];
+		}
+	}
 }
@@ -1,7 +1,12 @@
 package picasso.parser.language.expressions;
 
+import java.util.List;
+import java.util.Objects;
+
 import picasso.model.ImprovedNoise;
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the PerlinBW function - creates grayscale color based on 2D Perlin noise
@@ -18,6 +23,37 @@ public class PerlinBW extends ExpressionTreeNode {
 		this.yExpr = yExpr;
 	}
 
+	/**
+	 * Returns the first argument.
+	 * 
+	 * @return the first argument
+	 */
+	public ExpressionTreeNode getXExpr() {
+		return xExpr;
+	}
+
+	/**
+	 * Returns the second argument.
+	 * 
+	 * @return the second argument
+	 */
+	public ExpressionTreeNode getYExpr() {
+		return yExpr;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(xExpr, yExpr);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return new PerlinBW(children.get(0), children.get(1));
+	}
+
 	@Override
 	public RGBColor evaluate(double x, double y) {
 		RGBColor left = xExpr.evaluate(x, y);
@@ -41,8 +77,44 @@ public class PerlinBW extends ExpressionTreeNode {
 		return xExpr.equals(other.xExpr) && yExpr.equals(other.yExpr);
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash("perlinBW", xExpr, yExpr);
+	}
+
 	@Override
 	public String toString() {
 		return "perlinBW(" + xExpr + ", " + yExpr + ")";
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates the grayscale noise for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		xExpr.evaluate(batch, out);
+		ColorPlanes right = batch.acquire();
+		yExpr.evaluate(batch, right);
+
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		double[] rightRed = right.getRed();
+		double[] rightGreen = right.getGreen();
+		double[] rightBlue = right.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			double grey = ImprovedNoise.noise(red[i] + rightRed[i], green[i] + rightGreen[i],
+					blue[i] + rightBlue[i]);
+			red[i] = grey;
+			green[i] = grey;
+			blue[i] = grey;
+		}
+		batch.release(right);
+	}
+}
@@ -1,7 +1,12 @@
 package picasso.parser.language.expressions;
 
+import java.util.List;
+import java.util.Objects;
+
 import picasso.model.ImprovedNoise;
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the PerlinColor function - creates random col r based on 2d noise
@@ -18,6 +23,37 @@ public class PerlinColor extends ExpressionTreeNode {
 		this.yExpr = yExpr;
 	}
 
+	/**
+	 * Returns the first argument.
+	 * 
+	 * @return the first argument
+	 */
+	public ExpressionTreeNode getXExpr() {
+		return xExpr;
+	}
+
+	/**
+	 * Returns the second argument.
+	 * 
+	 * @return the second argument
+	 */
+	public ExpressionTreeNode getYExpr() {
+		return yExpr;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(xExpr, yExpr);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return new PerlinColor(children.get(0), children.get(1));
+	}
+
 	@Override
 	public RGBColor evaluate(double x, double y) {
 		RGBColor xResult = xExpr.evaluate(x, y);
@@ -42,8 +78,42 @@ public class PerlinColor extends ExpressionTreeNode {
 		return xExpr.equals(other.xExpr) && yExpr.equals(other.yExpr);
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash("perlinColor", xExpr, yExpr);
+	}
+
 	@Override
 	public String toString() {
 		return "perlinColor(" + xExpr + ", " + yExpr + ")";
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates the colored noise for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		xExpr.evaluate(batch, out);
+		ColorPlanes yResult = batch.acquire();
+		yExpr.evaluate(batch, yResult);
+
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		double[] yRed = yResult.getRed();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			double xVal = red[i];
+			double yVal = yRed[i];
+			red[i] = ImprovedNoise.noise(xVal + 0.3, yVal + 0.3, 0);
+			green[i] = ImprovedNoise.noise(xVal - 0.8, yVal - 0.8, 0);
+			blue[i] = ImprovedNoise.noise(xVal + 0.1, yVal + 0.1, 0);
+		}
+		batch.release(yResult);
+	}
+}
@@ -2,7 +2,9 @@ package picasso.parser.language.expressions;
 
 import java.awt.Color;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Special color class for Picasso. Represents colors by their red, green, and
@@ -83,13 +85,28 @@ public class RGBColor extends ExpressionTreeNode {
 	}
 
 	/**
-	 * Converts to Java's Color class
+	 * Converts to Java's Color class, clamping the components of the copy
+	 * converted; this color is left as it is.
 	 * 
 	 * @return this color converted into Java's Color
 	 */
 	public Color toJavaColor() {
-		clamp();
-		return new Color(toInt(myRed), toInt(myGreen), toInt(myBlue));
+		return new Color(toPackedRGB(myRed, myGreen, myBlue));
+	}
+
+	/**
+	 * Converts a color given by its components to a Java color packed into an
+	 * int (as returned by Color.getRGB()), without creating any object. Gives
+	 * the same color as toJavaColor().
+	 * 
+	 * @param red   the amount of red, clamped to between COLOR_MIN and COLOR_MAX
+	 * @param green the amount of green, clamped to between COLOR_MIN and
+	 *              COLOR_MAX
+	 * @param blue  the amount of blue, clamped to between COLOR_MIN and COLOR_MAX
+	 * @return the packed color, opaque
+	 */
+	public static int toPackedRGB(double red, double green, double blue) {
+		return 0xFF000000 | toInt(clamp(red)) << 16 | toInt(clamp(green)) << 8 | toInt(clamp(blue));
 	}
 
 	/**
@@ -112,6 +129,18 @@ public class RGBColor extends ExpressionTreeNode {
 		return false;
 	}
 
+	/**
+	 * Returns the same hash code for every color, since equals() treats colors
+	 * within ERROR_TOLERANCE of each other as equal and any hash of the
+	 * components would split some of them apart.
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return "Color".hashCode();
+	}
+
 	/**
 	 * Returns the RGBColor as a String in the form "Color: &lt;red&gt;
 	 * &lt;green&gt; &lt;blue&gt;"
@@ -169,4 +198,15 @@ public class RGBColor extends ExpressionTreeNode {
 	public RGBColor evaluate(double x, double y) {
 		return this;
 	}
+
+	/**
+	 * Returns this color for every point in the batch.
+	 * 
+	 * @see picasso.parser.language.ExpressionTreeNode#evaluate(PixelBatch,
+	 *      ColorPlanes)
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		out.fill(batch.getSize(), myRed, myGreen, myBlue);
+	}
 }
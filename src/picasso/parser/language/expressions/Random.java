@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the Random function in the Picasso language
@@ -25,4 +27,8 @@ public class Random extends ExpressionTreeNode {
 		return new RGBColor(red, green, blue);
 	}
 
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		out.fill(batch.getSize(), red, green, blue);
+	}
 }
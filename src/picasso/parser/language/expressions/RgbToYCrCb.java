@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the rgbToYCrCb in Picasso language
@@ -71,4 +73,30 @@ public class RgbToYCrCb extends UnaryFunction{
 				return new RGBColor(y_picasso, cb_picasso, cr_picasso);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Converts the parameter from RGB to YCrCb for every point in the batch, in
+	 * place in the parameter's planes. Uses the same formulas as
+	 * evaluate(double, double).
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			double red_prime = (red[i] + 1) / 2.0;
+			double green_prime = (green[i] + 1) / 2.0;
+			double blue_prime = (blue[i] + 1) / 2.0;
+
+			double Y_prime = 0.299 * red_prime + 0.587 * green_prime + 0.114 * blue_prime;
+			double cb_val = 0.492 * (blue_prime - Y_prime);
+			double cr_val = 0.877 * (red_prime - Y_prime);
+
+			red[i] = (Y_prime * 2.0) - 1.0;
+			green[i] = cb_val / 0.492;
+			blue[i] = cr_val / 0.877;
+		}
+	}
+}
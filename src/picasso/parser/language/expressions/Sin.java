@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the Sin function in the Picasso language.
@@ -25,4 +27,22 @@ public class Sin extends UnaryFunction{
 	return new RGBColor(red, green, blue);
 
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates the sine of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = Math.sin(red[i]);
+			green[i] = Math.sin(green[i]);
+			blue[i] = Math.sin(blue[i]);
+		}
+	}
+}
@@ -1,23 +1,28 @@
 package picasso.parser.language.expressions;
 
-import picasso.model.Pixmap;
+import picasso.model.ImageCache;
+import picasso.model.ImageHandle;
+import picasso.model.ImagePlanes;
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents a string valuee
  * 
  * @author Luis Coronel
  */
-public class StringValue extends ExpressionTreeNode {
+public class StringValue extends ExpressionTreeNode implements ImageSampler {
 	
 	private String value;
-	private Pixmap image;
+	private ImageHandle image;
 	
 	public StringValue(String value) {
 		this.value = value;
 		
-		// Load the image when string is created
-			this.image = new Pixmap(value);
+		// Start loading the image when string is created, decoding each file once
+		this.image = ImageCache.getInstance().prefetch(value);
 		
 	}
 	
@@ -25,29 +30,60 @@ public class StringValue extends ExpressionTreeNode {
 		return value;
 	}
 	
+	/**
+	 * Returns the image named by the string, waiting for it if it is still
+	 * being decoded.
+	 * 
+	 * @return the planes of the image
+	 * @throws IllegalArgumentException if the image cannot be loaded
+	 */
+	@Override
+	public ImagePlanes getPlanes() {
+		return image.get();
+	}
+
+	/**
+	 * Returns the index of the image pixel at the given coordinates, clamped
+	 * to [-1, 1].
+	 * 
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the index of the pixel in the planes of the image
+	 */
+	@Override
+	public int sampleIndex(double x, double y) {
+		return image.get().clipIndex(x, y);
+	}
+	
 	@Override
 	public RGBColor evaluate(double x, double y) {
 		// Map domain coordinates [-1,1] to image coordinates
-		int imageWidth = image.getSize().width;
-		int imageHeight = image.getSize().height;
-		
-		// Clamp to [-1, 1]
-		x = Math.clamp(x, -1.0, 1.0);
-		y = Math.clamp(y, -1.0, 1.0);
-		
-		// Convert to image coordinates
-		int imageX = (int) Math.round(((x + 1.0) / 2.0) * (imageWidth - 1));
-		int imageY = (int) Math.round(((y + 1.0) / 2.0) * (imageHeight - 1));
-		
-		// Get color from image
-		java.awt.Color pixelColor = image.getColor(imageX, imageY);
-		
-		// Convert [0,255] to [-1,1]
-		double red = (pixelColor.getRed() / 255.0) * 2.0 - 1.0;
-		double green = (pixelColor.getGreen() / 255.0) * 2.0 - 1.0;
-		double blue = (pixelColor.getBlue() / 255.0) * 2.0 - 1.0;
-		
-		return new RGBColor(red, green, blue);
+		ImagePlanes planes = getPlanes();
+		int index = planes.clipIndex(x, y);
+		return new RGBColor(planes.getRed()[index], planes.getGreen()[index], planes.getBlue()[index]);
+	}
+	
+	/**
+	 * Samples the image at every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		double[] xs = batch.getX();
+		double[] ys = batch.getY();
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		ImagePlanes planes = getPlanes();
+		float[] imageRed = planes.getRed();
+		float[] imageGreen = planes.getGreen();
+		float[] imageBlue = planes.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			int index = planes.clipIndex(xs[i], ys[i]);
+			red[i] = imageRed[index];
+			green[i] = imageGreen[index];
+			blue[i] = imageBlue[index];
+		}
 	}
 	
 	@Override
@@ -56,6 +92,16 @@ public class StringValue extends ExpressionTreeNode {
 		if (!(obj instanceof StringValue)) return false;
 		return value.equals(((StringValue) obj).value);
 	}
+
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return value.hashCode();
+	}
 	
 	@Override
 	public String toString() {
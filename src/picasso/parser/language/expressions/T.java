@@ -1,9 +1,13 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
- * Represents t in a Picasso expression
+ * Represents t in a Picasso expression. Evaluated over a batch, t is the time of
+ * the batch; evaluated at a single point, it is the time given, or 0 when none
+ * is.
  * 
  * @author Asya Yurkovskaya
  * @author Luis Coronel
@@ -11,32 +15,23 @@ import picasso.parser.language.ExpressionTreeNode;
  */
 public class T extends ExpressionTreeNode {
 
-    private static double tTime = 0;
-    private static boolean hasTime = false;
-
 	/**
-	 * Returns the color represented by t. The value of x and y do not matter.
+	 * Returns the color represented by t at time 0. The value of x and y do not
+	 * matter.
 	 */
 	@Override
 	public RGBColor evaluate(double x, double y) {
-		return new RGBColor(tTime, tTime, tTime);
+		return evaluate(x, y, 0);
 	}
 
-    public static void increaseTime() {
-        tTime += 0.02;
-    }
-
-    public static void resetTime() {
-        tTime = 0;
-    }
-
-    public static void setHasTime(boolean timeBoolean) {
-        hasTime = timeBoolean;
-    }
-
-    public static boolean getHasTime() {
-        return hasTime;
-    }
+	/**
+	 * Returns the color represented by t at the given time. The value of x and y
+	 * do not matter.
+	 */
+	@Override
+	public RGBColor evaluate(double x, double y, double time) {
+		return new RGBColor(time, time, time);
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -54,6 +49,16 @@ public class T extends ExpressionTreeNode {
 		return true;
 	}
 
+	/**
+	 * Returns the same hash code for every t, since they are all equal.
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return "t".hashCode();
+	}
+
 	/**
 	 * Returns "t", the representation of this variable in Picasso expressions
 	 * 
@@ -64,4 +69,12 @@ public class T extends ExpressionTreeNode {
 		return "t";
 	}
 
+	/**
+	 * Returns the time of the batch for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		double time = batch.getTime();
+		out.fill(batch.getSize(), time, time, time);
+	}
 }
@@ -1,5 +1,8 @@
 package picasso.parser.language.expressions;
 
+import java.util.List;
+import java.util.Objects;
+
 import picasso.parser.language.ExpressionTreeNode;
 
 /**
@@ -21,6 +24,28 @@ public abstract class UnaryFunction extends ExpressionTreeNode {
 		this.param = param;
 	}
 
+	/**
+	 * Returns the parameter of the function.
+	 * 
+	 * @return the parameter of the function
+	 */
+	public ExpressionTreeNode getParam() {
+		return param;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(param);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return newInstance(children);
+	}
+
 	/**
 	 * Returns the string representation of the function in the format "<ClassName>:
 	 * <parameter>"
@@ -58,4 +83,14 @@ public abstract class UnaryFunction extends ExpressionTreeNode {
 		return true;
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(getClass().getName(), param);
+	}
+
 }
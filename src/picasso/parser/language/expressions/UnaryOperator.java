@@ -1,4 +1,7 @@
 package picasso.parser.language.expressions;
+
+import java.util.List;
+import java.util.Objects;
 import picasso.parser.language.ExpressionTreeNode;
 
 /**
@@ -17,6 +20,28 @@ public abstract class UnaryOperator  extends ExpressionTreeNode{
 	public UnaryOperator(ExpressionTreeNode param) {
 		this.param = param;        
 	}
+
+	/**
+	 * Returns the operand of the operator.
+	 * 
+	 * @return the operand of the operator
+	 */
+	public ExpressionTreeNode getParam() {
+		return param;
+	}
+
+	@Override
+	public List<ExpressionTreeNode> getChildren() {
+		return List.of(param);
+	}
+
+	@Override
+	public ExpressionTreeNode withChildren(List<ExpressionTreeNode> children) {
+		if (hasChildren(children)) {
+			return this;
+		}
+		return newInstance(children);
+	}
 	
 	/**
 	 * Returns the string representation of the function in the format "<ClassName>:
@@ -55,4 +80,14 @@ public abstract class UnaryOperator  extends ExpressionTreeNode{
 		return true;
 	}
 
+	/**
+	 * Returns a hash code consistent with equals().
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Objects.hash(getClass().getName(), param);
+	}
+
 }
@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the Wrap function
@@ -22,7 +24,13 @@ public class Wrap extends UnaryFunction {
 		return new RGBColor(red, green, blue);
 	}
 	
-	private static double wrapHelper(double val) {
+	/**
+	 * Wraps a value into [-1, 1].
+	 * 
+	 * @param val the value to wrap
+	 * @return the wrapped value
+	 */
+	public static double wrapHelper(double val) {
 		double range = 2.0;
 		double shifted = val + 1;
 		
@@ -44,4 +52,21 @@ public class Wrap extends UnaryFunction {
 		
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Evaluates the wrapped value of the parameter for every point in the batch, in
+	 * place in the parameter's planes.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			red[i] = wrapHelper(red[i]);
+			green[i] = wrapHelper(green[i]);
+			blue[i] = wrapHelper(blue[i]);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents x in a Picasso expression
@@ -35,6 +37,16 @@ public class X extends ExpressionTreeNode {
 		return true;
 	}
 
+	/**
+	 * Returns the same hash code for every x, since they are all equal.
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return "x".hashCode();
+	}
+
 	/**
 	 * Returns "x", the representation of this variable in Picasso expressions
 	 * 
@@ -45,4 +57,11 @@ public class X extends ExpressionTreeNode {
 		return "x";
 	}
 
+	/**
+	 * Returns x for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		out.fillGray(batch.getSize(), batch.getX());
+	}
 }
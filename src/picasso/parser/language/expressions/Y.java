@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents y in a Picasso expression
@@ -35,6 +37,16 @@ public class Y extends ExpressionTreeNode {
 		return true;
 	}
 
+	/**
+	 * Returns the same hash code for every y, since they are all equal.
+	 * 
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return "y".hashCode();
+	}
+
 	/**
 	 * Returns "y", the representation of this variable in Picasso expressions
 	 * 
@@ -44,4 +56,12 @@ public class Y extends ExpressionTreeNode {
 	public String toString() {
 		return "y";
 	}
+
+	/**
+	 * Returns y for every point in the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		out.fillGray(batch.getSize(), batch.getY());
+	}
 }
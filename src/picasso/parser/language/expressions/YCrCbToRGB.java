@@ -1,6 +1,8 @@
 package picasso.parser.language.expressions;
 
+import picasso.parser.language.ColorPlanes;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
 
 /**
  * Represents the YCrCbToRGB in Picasso language
@@ -51,4 +53,30 @@ public class YCrCbToRGB extends UnaryFunction{
 				return new RGBColor(rPicasso, gPicasso, bPicasso);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Converts the parameter from YCrCb to RGB for every point in the batch, in
+	 * place in the parameter's planes. Uses the same formulas as
+	 * evaluate(double, double).
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		param.evaluate(batch, out);
+		double[] red = out.getRed();
+		double[] green = out.getGreen();
+		double[] blue = out.getBlue();
+		int size = batch.getSize();
+		for (int i = 0; i < size; i++) {
+			double yPrime = (red[i] + 1.0) / 2.0;
+			double cb = green[i] * 0.492;
+			double cr = blue[i] * 0.877;
+
+			double rPrime = yPrime + 1.402 * cr;
+			double gPrime = yPrime - 0.344136 * cb - 0.714136 * cr;
+			double bPrime = yPrime + 1.772 * cb;
+
+			red[i] = (rPrime * 2.0) - 1.0;
+			green[i] = (gPrime * 2.0) - 1.0;
+			blue[i] = (bPrime * 2.0) - 1.0;
+		}
+	}
+}
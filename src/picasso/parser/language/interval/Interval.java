@@ -0,0 +1,369 @@
+package picasso.parser.language.interval;
+
+import java.util.Objects;
+
+/**
+ * A closed range of doubles [lo, hi] that is known to contain every value a
+ * computation can take, together with whether the computation may also give
+ * NaN. Intervals are immutable.
+ *
+ * The operations bound exactly what Java computes, rounding included: the
+ * basic operations and Math.floor, ceil, exp, log, atan and the like round
+ * monotonically, so applying them to the end points of an argument bounds
+ * applying them to any value in between.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public final class Interval {
+
+	/** every double, and NaN */
+	public static final Interval UNKNOWN = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+
+	/** the range of a color channel */
+	public static final Interval COLOR_RANGE = new Interval(-1, 1, false);
+
+	/** beyond this, rounding an angle to a multiple of pi is too coarse to trust */
+	private static final double LARGEST_ANGLE = 1e6;
+
+	/** how far, in multiples of pi, an extreme may be from where it is computed */
+	private static final double EXTREME_MARGIN = 1e-9;
+
+	private final double lo;
+	private final double hi;
+	private final boolean mayBeNaN;
+
+	private Interval(double lo, double hi, boolean mayBeNaN) {
+		this.lo = lo;
+		this.hi = hi;
+		this.mayBeNaN = mayBeNaN;
+	}
+
+	/**
+	 * Returns the interval [lo, hi].
+	 *
+	 * @param lo       the smallest value
+	 * @param hi       the largest value
+	 * @param mayBeNaN true if the value may also be NaN
+	 * @return the interval, or UNKNOWN if an end point is NaN
+	 */
+	public static Interval of(double lo, double hi, boolean mayBeNaN) {
+		if (Double.isNaN(lo) || Double.isNaN(hi)) {
+			return UNKNOWN;
+		}
+		if (lo > hi) {
+			throw new IllegalArgumentException("lo must not be greater than hi");
+		}
+		return new Interval(lo, hi, mayBeNaN);
+	}
+
+	/**
+	 * Returns the interval [lo, hi] of values that are never NaN.
+	 *
+	 * @param lo the smallest value
+	 * @param hi the largest value
+	 * @return the interval
+	 */
+	public static Interval of(double lo, double hi) {
+		return of(lo, hi, false);
+	}
+
+	/**
+	 * Returns the interval that holds only the given value.
+	 *
+	 * @param value the value
+	 * @return the interval [value, value], or UNKNOWN if the value is NaN
+	 */
+	public static Interval point(double value) {
+		return of(value, value, false);
+	}
+
+	/**
+	 * Returns the smallest value.
+	 *
+	 * @return the lower end point
+	 */
+	public double getLo() {
+		return lo;
+	}
+
+	/**
+	 * Returns the largest value.
+	 *
+	 * @return the upper end point
+	 */
+	public double getHi() {
+		return hi;
+	}
+
+	/**
+	 * Returns true if the value may be NaN as well as any value in [lo, hi].
+	 *
+	 * @return true if the value may be NaN
+	 */
+	public boolean mayBeNaN() {
+		return mayBeNaN;
+	}
+
+	/**
+	 * Returns true if the interval holds a single value that is never NaN.
+	 *
+	 * @return true if the value is known exactly
+	 */
+	public boolean isPoint() {
+		return !mayBeNaN && Double.doubleToLongBits(lo) == Double.doubleToLongBits(hi);
+	}
+
+	/**
+	 * Returns true if zero lies in the interval.
+	 *
+	 * @return true if the value may be zero
+	 */
+	public boolean containsZero() {
+		return lo <= 0 && hi >= 0;
+	}
+
+	/**
+	 * Returns true if an end point is infinite.
+	 *
+	 * @return true if the value may be infinite
+	 */
+	public boolean isUnbounded() {
+		return Double.isInfinite(lo) || Double.isInfinite(hi);
+	}
+
+	/**
+	 * Returns true if the interval lies within [-1, 1] and is never NaN.
+	 *
+	 * @return true if every value is a color channel
+	 */
+	public boolean isColor() {
+		return !mayBeNaN && lo >= -1 && hi <= 1;
+	}
+
+	/**
+	 * Bounds a + b, where this interval bounds a and the other interval bounds b.
+	 * The other binary operations are named the same way.
+	 *
+	 * @param other the bound of the right operand
+	 * @return the bound of the result
+	 */
+	public Interval plus(Interval other) {
+		return corners(this, other, lo + other.lo, lo + other.hi, hi + other.lo, hi + other.hi, false);
+	}
+
+	public Interval minus(Interval other) {
+		return corners(this, other, lo - other.lo, lo - other.hi, hi - other.lo, hi - other.hi, false);
+	}
+
+	public Interval times(Interval other) {
+		// 0 * infinity may happen inside the intervals as well as at the corners
+		boolean zeroTimesInfinity = (containsZero() && other.isUnbounded())
+				|| (isUnbounded() && other.containsZero());
+		return corners(this, other, lo * other.lo, lo * other.hi, hi * other.lo, hi * other.hi,
+				zeroTimesInfinity);
+	}
+
+	public Interval dividedBy(Interval other) {
+		if (other.containsZero()) {
+			// x / 0 is infinite, or NaN for 0 / 0
+			return UNKNOWN;
+		}
+		return corners(this, other, lo / other.lo, lo / other.hi, hi / other.lo, hi / other.hi, false);
+	}
+
+	/**
+	 * Bounds a % b, which Java computes exactly, has the sign of a and is smaller
+	 * than b in magnitude.
+	 */
+	public Interval remainder(Interval other) {
+		if (other.containsZero() || isUnbounded()) {
+			return UNKNOWN;
+		}
+		boolean nan = mayBeNaN || other.mayBeNaN;
+		double smallest = Math.min(Math.abs(other.lo), Math.abs(other.hi));
+		if (lo > -smallest && hi < smallest) {
+			// every value is its own remainder
+			return of(lo, hi, nan);
+		}
+		double largest = Math.max(Math.abs(other.lo), Math.abs(other.hi));
+		return of(Math.max(Math.min(lo, 0), -largest), Math.min(Math.max(hi, 0), largest), nan);
+	}
+
+	/**
+	 * Bounds -a, where this interval bounds a. The other functions of one
+	 * argument are named after the Math functions they bound.
+	 *
+	 * @return the bound of the result
+	 */
+	public Interval negate() {
+		return of(-hi, -lo, mayBeNaN);
+	}
+
+	public Interval abs() {
+		if (lo >= 0) {
+			return of(Math.abs(lo), hi, mayBeNaN);
+		}
+		if (hi <= 0) {
+			return of(-hi, -lo, mayBeNaN);
+		}
+		return of(0, Math.max(-lo, hi), mayBeNaN);
+	}
+
+	/**
+	 * Bounds a * a, which unlike a * b is never negative.
+	 */
+	public Interval square() {
+		Interval magnitude = abs();
+		return of(magnitude.lo * magnitude.lo, magnitude.hi * magnitude.hi, mayBeNaN);
+	}
+
+	public Interval sqrt() {
+		return of(Math.sqrt(lo), Math.sqrt(hi), mayBeNaN);
+	}
+
+	public Interval floor() {
+		return of(Math.floor(lo), Math.floor(hi), mayBeNaN);
+	}
+
+	public Interval ceil() {
+		return of(Math.ceil(lo), Math.ceil(hi), mayBeNaN);
+	}
+
+	public Interval exp() {
+		return of(Math.exp(lo), Math.exp(hi), mayBeNaN);
+	}
+
+	public Interval atan() {
+		return of(Math.atan(lo), Math.atan(hi), mayBeNaN);
+	}
+
+	/**
+	 * Bounds Math.log(Math.abs(value)), which is negative infinity at zero.
+	 */
+	public Interval logAbs() {
+		Interval magnitude = abs();
+		return of(Math.log(magnitude.lo), Math.log(magnitude.hi), mayBeNaN);
+	}
+
+	public Interval clamp(double min, double max) {
+		return of(Math.clamp(lo, min, max), Math.clamp(hi, min, max), mayBeNaN);
+	}
+
+	public Interval sin() {
+		return periodic(0.5, true);
+	}
+
+	public Interval cos() {
+		return periodic(0, false);
+	}
+
+	/**
+	 * Bounds Math.tan, which increases between its poles at pi/2 + k pi.
+	 */
+	public Interval tan() {
+		if (isUnbounded()) {
+			return UNKNOWN;
+		}
+		if (mayCross(0.5)) {
+			return of(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, mayBeNaN);
+		}
+		return of(Math.tan(lo), Math.tan(hi), mayBeNaN);
+	}
+
+	/**
+	 * Bounds Math.pow. Only a positive base, for which pow is monotonic in each
+	 * argument, or a single pair of arguments is bounded.
+	 */
+	public Interval pow(Interval other) {
+		if (isPoint() && other.isPoint()) {
+			return point(Math.pow(lo, other.lo));
+		}
+		if (lo <= 0 || isUnbounded() || other.isUnbounded()) {
+			return UNKNOWN;
+		}
+		Interval corners = corners(this, other, Math.pow(lo, other.lo), Math.pow(lo, other.hi),
+				Math.pow(hi, other.lo), Math.pow(hi, other.hi), false);
+		// pow is not required to round monotonically, so allow for a few ulps
+		return of(corners.lo - 2 * Math.ulp(corners.lo), corners.hi + 2 * Math.ulp(corners.hi),
+				corners.mayBeNaN);
+	}
+
+	/**
+	 * Bounds sin or cos, whose extremes are at (offset + k) pi: maxima for even k
+	 * and minima for odd k. Between extremes the functions are monotonic, and
+	 * Math.sin and Math.cos are semi-monotonic, so their values at the end points
+	 * bound them.
+	 */
+	private Interval periodic(double offset, boolean sine) {
+		if (isUnbounded() || Math.max(-lo, hi) > LARGEST_ANGLE) {
+			return of(-1, 1, true);
+		}
+		if (hi - lo >= 2 * Math.PI) {
+			return of(-1, 1, mayBeNaN);
+		}
+		double a = sine ? Math.sin(lo) : Math.cos(lo);
+		double b = sine ? Math.sin(hi) : Math.cos(hi);
+		double min = Math.min(a, b);
+		double max = Math.max(a, b);
+		long first = (long) Math.ceil(lo / Math.PI - offset - EXTREME_MARGIN);
+		long last = (long) Math.floor(hi / Math.PI - offset + EXTREME_MARGIN);
+		for (long k = first; k <= last; k++) {
+			if (k % 2 == 0) {
+				max = 1;
+			} else {
+				min = -1;
+			}
+		}
+		return of(min, max, mayBeNaN);
+	}
+
+	/**
+	 * Returns true if (offset + k) pi may lie in the interval for some k.
+	 */
+	private boolean mayCross(double offset) {
+		if (Math.max(-lo, hi) > LARGEST_ANGLE) {
+			return true;
+		}
+		long first = (long) Math.ceil(lo / Math.PI - offset - EXTREME_MARGIN);
+		long last = (long) Math.floor(hi / Math.PI - offset + EXTREME_MARGIN);
+		return first <= last;
+	}
+
+	/**
+	 * Returns the interval spanned by the results of an operation at the four
+	 * corners of two intervals, which bound it when the operation is monotonic in
+	 * each argument.
+	 */
+	private static Interval corners(Interval a, Interval b, double c1, double c2, double c3, double c4,
+			boolean mayBeNaN) {
+		if (Double.isNaN(c1) || Double.isNaN(c2) || Double.isNaN(c3) || Double.isNaN(c4)) {
+			return UNKNOWN;
+		}
+		double lo = Math.min(Math.min(c1, c2), Math.min(c3, c4));
+		double hi = Math.max(Math.max(c1, c2), Math.max(c3, c4));
+		return new Interval(lo, hi, mayBeNaN || a.mayBeNaN || b.mayBeNaN);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof Interval)) {
+			return false;
+		}
+		Interval other = (Interval) obj;
+		return Double.compare(lo, other.lo) == 0 && Double.compare(hi, other.hi) == 0
+				&& mayBeNaN == other.mayBeNaN;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(lo, hi, mayBeNaN);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + lo + ", " + hi + "]" + (mayBeNaN ? " or NaN" : "");
+	}
+}
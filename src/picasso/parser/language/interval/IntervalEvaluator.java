@@ -0,0 +1,331 @@
+package picasso.parser.language.interval;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import picasso.model.ImprovedNoise;
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.compiler.CompiledNode;
+import picasso.parser.language.expressions.*;
+import picasso.parser.language.vm.ProgramNode;
+
+/**
+ * Bounds the color an expression takes over a rectangle of the domain. For
+ * every point (x, y) of the rectangle, each channel of expr.evaluate(x, y) is
+ * guaranteed to lie in the interval computed for that channel, and to be NaN
+ * only if the interval says it may be.
+ *
+ * Every node is bounded from the bounds of its arguments with the same
+ * operations, in the same order, as its evaluate method, so the bounds hold
+ * for the values Java actually computes and not just for exact arithmetic.
+ * Nodes this evaluator does not know are unbounded.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class IntervalEvaluator {
+
+	/**
+	 * Each of the gradients Perlin noise blends is at most 2 in magnitude, and
+	 * the blends stay between them, give or take rounding.
+	 */
+	private static final Interval NOISE_RANGE = Interval.of(-2.5, 2.5);
+
+	private static IntervalEvaluator ourInstance;
+
+	/**
+	 * Returns the evaluator shared by the application.
+	 *
+	 * @return the shared evaluator
+	 */
+	public static synchronized IntervalEvaluator getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new IntervalEvaluator();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Bounds the red, green and blue channels of the expression over the points
+	 * whose x lies in [xLo, xHi] and whose y lies in [yLo, yHi], at time t.
+	 *
+	 * @param expr the expression, which may be compiled, lowered or hoisted
+	 * @param xLo  the smallest x
+	 * @param xHi  the largest x
+	 * @param yLo  the smallest y
+	 * @param yHi  the largest y
+	 * @param t    the time of the frame
+	 * @return the bounds of the red, green and blue channels
+	 */
+	public Interval[] bound(ExpressionTreeNode expr, double xLo, double xHi, double yLo, double yHi, double t) {
+		Bounds bounds = new Bounds(Interval.of(xLo, xHi), Interval.of(yLo, yHi), Interval.point(t));
+		return bounds.of(expr);
+	}
+
+	/**
+	 * The bounds of the variables over one rectangle and of every node bounded
+	 * so far.
+	 */
+	private static class Bounds {
+		private final Interval x;
+		private final Interval y;
+		private final Interval t;
+		private final Map<ExpressionTreeNode, Interval[]> memo = new IdentityHashMap<>();
+
+		Bounds(Interval x, Interval y, Interval t) {
+			this.x = x;
+			this.y = y;
+			this.t = t;
+		}
+
+		Interval[] of(ExpressionTreeNode node) {
+			Interval[] result = memo.get(node);
+			if (result == null) {
+				result = computeBound(node, this);
+				memo.put(node, result);
+			}
+			return result;
+		}
+	}
+
+	private static Interval[] computeBound(ExpressionTreeNode node, Bounds bounds) {
+		Interval x = bounds.x;
+		Interval y = bounds.y;
+		if (node instanceof CompiledNode compiled) {
+			return bounds.of(compiled.getSource());
+		}
+		if (node instanceof ProgramNode program) {
+			return bounds.of(program.getSource());
+		}
+		if (node instanceof HoistedExpression hoisted) {
+			return bounds.of(hoisted.getBody());
+		}
+		if (node instanceof AxisTable table) {
+			return bounds.of(table.getExpression());
+		}
+		if (node instanceof SharedNode shared) {
+			return bounds.of(shared.getExpression());
+		}
+		if (node instanceof X) {
+			return gray(x);
+		}
+		if (node instanceof Y) {
+			return gray(y);
+		}
+		if (node instanceof T) {
+			return gray(bounds.t);
+		}
+		if (node instanceof RGBColor || node instanceof Constant || node instanceof Random) {
+			RGBColor color = node.evaluate(0, 0);
+			return new Interval[] { Interval.point(color.getRed()), Interval.point(color.getGreen()),
+					Interval.point(color.getBlue()) };
+		}
+		if (node instanceof Negate negate) {
+			Interval[] param = bounds.of(negate.getParam());
+			return new Interval[] { param[0].negate(), param[1].negate(), param[2].negate() };
+		}
+		if (node instanceof UnaryFunction function) {
+			return unaryFunction(function, bounds.of(function.getParam()));
+		}
+		if (node instanceof BinaryOperator operator) {
+			Interval[] left = bounds.of(operator.getLeft());
+			Interval[] right = bounds.of(operator.getRight());
+			Interval[] result = new Interval[3];
+			for (int channel = 0; channel < 3; channel++) {
+				result[channel] = binaryOperator(operator, left[channel], right[channel]);
+			}
+			return result;
+		}
+		if (node instanceof PerlinBW perlin) {
+			Interval[] left = bounds.of(perlin.getXExpr());
+			Interval[] right = bounds.of(perlin.getYExpr());
+			return gray(noise(left[0].plus(right[0]), left[1].plus(right[1]), left[2].plus(right[2])));
+		}
+		if (node instanceof PerlinColor perlin) {
+			Interval xVal = bounds.of(perlin.getXExpr())[0];
+			Interval yVal = bounds.of(perlin.getYExpr())[0];
+			Interval zero = Interval.point(0);
+			return new Interval[] {
+					noise(xVal.plus(Interval.point(0.3)), yVal.plus(Interval.point(0.3)), zero),
+					noise(xVal.minus(Interval.point(0.8)), yVal.minus(Interval.point(0.8)), zero),
+					noise(xVal.plus(Interval.point(0.1)), yVal.plus(Interval.point(0.1)), zero) };
+		}
+		if (node instanceof Mandelbrot mandelbrot) {
+			Interval real = bounds.of(mandelbrot.getReal())[0];
+			Interval imag = bounds.of(mandelbrot.getImag())[0];
+			return gray(mandelbrot(real, imag));
+		}
+		if (node instanceof ImageClip || node instanceof ImageWrap || node instanceof StringValue) {
+			// every pixel of an image is a color
+			return gray(Interval.COLOR_RANGE);
+		}
+		return gray(Interval.UNKNOWN);
+	}
+
+	private static Interval[] unaryFunction(UnaryFunction function, Interval[] param) {
+		if (function instanceof RgbToYCrCb) {
+			return rgbToYCrCb(param);
+		}
+		if (function instanceof YCrCbToRGB) {
+			return yCrCbToRGB(param);
+		}
+		Interval[] result = new Interval[3];
+		for (int channel = 0; channel < 3; channel++) {
+			Interval value = param[channel];
+			if (function instanceof Abs) {
+				result[channel] = value.abs();
+			} else if (function instanceof Atan) {
+				result[channel] = value.atan();
+			} else if (function instanceof Ceil) {
+				result[channel] = value.ceil();
+			} else if (function instanceof Clamp) {
+				result[channel] = value.clamp(-1, 1);
+			} else if (function instanceof Cos) {
+				result[channel] = value.cos();
+			} else if (function instanceof Exp) {
+				result[channel] = value.exp();
+			} else if (function instanceof Floor) {
+				result[channel] = value.floor();
+			} else if (function instanceof Log) {
+				result[channel] = value.logAbs();
+			} else if (function instanceof Sin) {
+				result[channel] = value.sin();
+			} else if (function instanceof Tan) {
+				result[channel] = value.tan();
+			} else if (function instanceof Wrap) {
+				result[channel] = wrap(value);
+			} else {
+				result[channel] = Interval.UNKNOWN;
+			}
+		}
+		return result;
+	}
+
+	private static Interval binaryOperator(BinaryOperator operator, Interval left, Interval right) {
+		if (operator instanceof Plus) {
+			return left.plus(right);
+		}
+		if (operator instanceof Minus) {
+			return left.minus(right);
+		}
+		if (operator instanceof Multiply) {
+			return left.times(right);
+		}
+		if (operator instanceof Divide) {
+			return left.dividedBy(right);
+		}
+		if (operator instanceof Modulo) {
+			return left.remainder(right);
+		}
+		if (operator instanceof Exponent) {
+			return left.pow(right);
+		}
+		return Interval.UNKNOWN;
+	}
+
+	/**
+	 * Bounds Wrap.wrapHelper. Between two odd numbers, where value + 1 lies
+	 * strictly between two multiples of 2, wrapping increases with the value.
+	 */
+	private static Interval wrap(Interval value) {
+		if (value.isPoint()) {
+			return Interval.point(Wrap.wrapHelper(value.getLo()));
+		}
+		if (value.isUnbounded()) {
+			return Interval.of(-1, 1, true);
+		}
+		double shiftedLo = value.getLo() + 1;
+		double shiftedHi = value.getHi() + 1;
+		double period = 2 * Math.floor(shiftedLo / 2);
+		if (shiftedLo > period && shiftedHi < period + 2) {
+			return Interval.of(Wrap.wrapHelper(value.getLo()), Wrap.wrapHelper(value.getHi()), value.mayBeNaN());
+		}
+		return Interval.of(-1, 1, value.mayBeNaN());
+	}
+
+	/**
+	 * Bounds ImprovedNoise.noise, which is NaN for NaN or infinite arguments.
+	 */
+	private static Interval noise(Interval x, Interval y, Interval z) {
+		if (x.isPoint() && y.isPoint() && z.isPoint()) {
+			return Interval.point(ImprovedNoise.noise(x.getLo(), y.getLo(), z.getLo()));
+		}
+		boolean nan = x.mayBeNaN() || y.mayBeNaN() || z.mayBeNaN() || x.isUnbounded() || y.isUnbounded()
+				|| z.isUnbounded();
+		return Interval.of(NOISE_RANGE.getLo(), NOISE_RANGE.getHi(), nan);
+	}
+
+	/**
+	 * Bounds Mandelbrot.escapeValue by iterating on intervals of z. While every
+	 * z is still within 2 of 0, or every z has escaped, all the points of c are
+	 * at the same iteration; inside the set the intervals of z shrink, so large
+	 * regions of the interior are proven never to escape.
+	 */
+	private static Interval mandelbrot(Interval real, Interval imag) {
+		if (real.isPoint() && imag.isPoint()) {
+			return Interval.point(Mandelbrot.escapeValue(real.getLo(), imag.getLo()));
+		}
+		if (real.mayBeNaN() || imag.mayBeNaN()) {
+			return Interval.COLOR_RANGE;
+		}
+		Interval two = Interval.point(2);
+		Interval zReal = Interval.point(0);
+		Interval zImag = Interval.point(0);
+		Interval zMod = zReal.square().plus(zImag.square()).sqrt();
+		int n = 0;
+		while (zMod.getHi() <= 2 && n < Mandelbrot.MAX_ITER) {
+			Interval newZReal = zReal.square().minus(zImag.square()).plus(real);
+			Interval newZImag = two.times(zReal).times(zImag).plus(imag);
+			zReal = newZReal;
+			zImag = newZImag;
+			zMod = zReal.square().plus(zImag.square()).sqrt();
+			n++;
+		}
+		if (zMod.mayBeNaN() || (zMod.getLo() <= 2 && n < Mandelbrot.MAX_ITER)) {
+			// some of the points escape now and some do not
+			return Interval.COLOR_RANGE;
+		}
+		return Interval.point(1.0 - (2.0 * n / Mandelbrot.MAX_ITER));
+	}
+
+	/**
+	 * Bounds RgbToYCrCb with the same formulas, one channel at a time.
+	 */
+	private static Interval[] rgbToYCrCb(Interval[] color) {
+		Interval one = Interval.point(1);
+		Interval two = Interval.point(2.0);
+		Interval redPrime = color[0].plus(one).dividedBy(two);
+		Interval greenPrime = color[1].plus(one).dividedBy(two);
+		Interval bluePrime = color[2].plus(one).dividedBy(two);
+		Interval yPrime = scale(0.299, redPrime).plus(scale(0.587, greenPrime)).plus(scale(0.114, bluePrime));
+		Interval cb = scale(0.492, bluePrime.minus(yPrime));
+		Interval cr = scale(0.877, redPrime.minus(yPrime));
+		return new Interval[] { scale(2.0, yPrime).minus(Interval.point(1.0)), cb.dividedBy(Interval.point(0.492)),
+				cr.dividedBy(Interval.point(0.877)) };
+	}
+
+	/**
+	 * Bounds YCrCbToRGB with the same formulas, one channel at a time.
+	 */
+	private static Interval[] yCrCbToRGB(Interval[] color) {
+		Interval one = Interval.point(1.0);
+		Interval yPrime = color[0].plus(one).dividedBy(Interval.point(2.0));
+		Interval cb = scale(0.492, color[1]);
+		Interval cr = scale(0.877, color[2]);
+		Interval redPrime = yPrime.plus(scale(1.402, cr));
+		Interval greenPrime = yPrime.minus(scale(0.344136, cb)).minus(scale(0.714136, cr));
+		Interval bluePrime = yPrime.plus(scale(1.772, cb));
+		return new Interval[] { scale(2.0, redPrime).minus(one), scale(2.0, greenPrime).minus(one),
+				scale(2.0, bluePrime).minus(one) };
+	}
+
+	private static Interval scale(double factor, Interval value) {
+		return Interval.point(factor).times(value);
+	}
+
+	private static Interval[] gray(Interval value) {
+		return new Interval[] { value, value, value };
+	}
+}
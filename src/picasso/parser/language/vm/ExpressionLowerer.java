@@ -0,0 +1,413 @@
+package picasso.parser.language.vm;
+
+import static picasso.parser.language.vm.Opcodes.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.expressions.*;
+import picasso.parser.optimizer.ChannelAnalyzer;
+
+/**
+ * Lowers expression trees to VM programs. Every node becomes one instruction
+ * per color channel, in the order a post-order walk of the tree visits them;
+ * instructions whose results are never used are dropped and the remaining
+ * values are packed into as few registers as possible. Nodes that are provably
+ * gray (see ChannelAnalyzer) get one instruction instead of three.
+ *
+ * The instructions do the same floating-point operations as the tree, in the
+ * same order, so a program produces exactly the same colors.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ExpressionLowerer {
+
+	/** unary functions that map onto one instruction per channel */
+	private static final Map<Class<?>, Integer> FUNCTION_OPCODES = Map.ofEntries(Map.entry(Sin.class, SIN),
+			Map.entry(Cos.class, COS), Map.entry(Tan.class, TAN), Map.entry(Atan.class, ATAN),
+			Map.entry(Exp.class, EXP), Map.entry(Log.class, LOG), Map.entry(Floor.class, FLOOR),
+			Map.entry(Ceil.class, CEIL), Map.entry(Abs.class, ABS), Map.entry(Clamp.class, CLAMP),
+			Map.entry(Wrap.class, WRAP));
+
+	/** binary operators that map onto one instruction per channel */
+	private static final Map<Class<?>, Integer> OPERATOR_OPCODES = Map.of(Plus.class, ADD, Minus.class, SUB,
+			Multiply.class, MUL, Divide.class, DIV, Modulo.class, REM, Exponent.class, POW);
+
+	private static ExpressionLowerer ourInstance;
+
+	/**
+	 * Returns the lowerer shared by the application.
+	 *
+	 * @return the shared lowerer
+	 */
+	public static synchronized ExpressionLowerer getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ExpressionLowerer();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Lower the expression to a program.
+	 *
+	 * @param expr the expression to lower
+	 * @return the program
+	 * @throws UnsupportedOperationException if the expression contains a node the
+	 *                                       VM has no instructions for
+	 */
+	public Program lower(ExpressionTreeNode expr) {
+		return new Lowering().lower(expr);
+	}
+
+	/**
+	 * Lower the expression if every node in it is supported by the VM.
+	 *
+	 * @param expr the expression to lower
+	 * @return a node that runs the program, or the expression itself if it cannot
+	 *         be lowered
+	 */
+	public ExpressionTreeNode lowerIfSupported(ExpressionTreeNode expr) {
+		try {
+			return new ProgramNode(expr, lower(expr));
+		} catch (UnsupportedOperationException e) {
+			return expr;
+		}
+	}
+
+	/**
+	 * The state of lowering one expression. Instructions are first emitted in
+	 * static single assignment form, over virtual registers; registers are
+	 * assigned once the whole program is known.
+	 */
+	private static class Lowering {
+		private final List<int[]> instructions = new ArrayList<>();
+		/** the fixed register of each virtual register, or -1 for temporaries */
+		private final List<Integer> fixedRegisters = new ArrayList<>();
+		private final List<Double> constants = new ArrayList<>();
+		private final Map<Long, Integer> constantRegisters = new HashMap<>();
+		private final List<ImageSampler> samplers = new ArrayList<>();
+		private final Map<ExpressionTreeNode, int[]> lowered = new IdentityHashMap<>();
+		private Set<ExpressionTreeNode> grayNodes = Set.of();
+
+		private final int x = fixed(Program.X_REGISTER);
+		private final int y = fixed(Program.Y_REGISTER);
+		private final int t = fixed(Program.T_REGISTER);
+
+		Program lower(ExpressionTreeNode expr) {
+			grayNodes = ChannelAnalyzer.getInstance().grayNodes(expr);
+			int[] outputs = emit(expr);
+			boolean[] live = removeDeadInstructions(outputs);
+			return allocateRegisters(outputs, live);
+		}
+
+		/**
+		 * Emits the instructions for a node, unless it has been lowered already.
+		 *
+		 * @return the virtual registers that hold the red, green and blue values
+		 */
+		private int[] emit(ExpressionTreeNode node) {
+			int[] registers = lowered.get(node);
+			if (registers == null) {
+				registers = emitNode(node);
+				lowered.put(node, registers);
+			}
+			return registers;
+		}
+
+		private int[] emitNode(ExpressionTreeNode node) {
+			if (node instanceof SharedNode shared) {
+				// lowered once anyway, since every use refers to the same node
+				return emit(shared.getExpression());
+			}
+			if (node instanceof AxisTable table) {
+				int opcode = table.getAxis() == AxisTable.Axis.ROW ? ROW_TABLE : COLUMN_TABLE;
+				if (grayNodes.contains(node)) {
+					return gray(instruction(opcode, table.getSlot(), 0, 0));
+				}
+				return new int[] { instruction(opcode, table.getSlot(), 0, 0),
+						instruction(opcode, table.getSlot(), 1, 0), instruction(opcode, table.getSlot(), 2, 0) };
+			}
+			if (node instanceof X) {
+				return gray(x);
+			}
+			if (node instanceof Y) {
+				return gray(y);
+			}
+			if (node instanceof T) {
+				return gray(t);
+			}
+			if (node instanceof RGBColor || node instanceof Constant || node instanceof Random) {
+				// these do not depend on x, y or t
+				RGBColor color = node.evaluate(0, 0);
+				return new int[] { constant(color.getRed()), constant(color.getGreen()), constant(color.getBlue()) };
+			}
+			Integer opcode = FUNCTION_OPCODES.get(node.getClass());
+			if (opcode != null) {
+				return channelwise(node, opcode, emit(((UnaryFunction) node).getParam()));
+			}
+			opcode = OPERATOR_OPCODES.get(node.getClass());
+			if (opcode != null) {
+				BinaryOperator operator = (BinaryOperator) node;
+				int[] left = emit(operator.getLeft());
+				int[] right = emit(operator.getRight());
+				if (grayNodes.contains(node)) {
+					return gray(op(opcode, left[0], right[0]));
+				}
+				return new int[] { op(opcode, left[0], right[0]), op(opcode, left[1], right[1]),
+						op(opcode, left[2], right[2]) };
+			}
+			if (node instanceof Negate negate) {
+				return channelwise(negate, NEG, emit(negate.getParam()));
+			}
+			if (node instanceof RgbToYCrCb function) {
+				return emitRgbToYCrCb(emit(function.getParam()));
+			}
+			if (node instanceof YCrCbToRGB function) {
+				return emitYCrCbToRGB(emit(function.getParam()));
+			}
+			if (node instanceof PerlinBW perlin) {
+				int[] left = emit(perlin.getXExpr());
+				int[] right = emit(perlin.getYExpr());
+				if (grayNodes.contains(perlin.getXExpr()) && grayNodes.contains(perlin.getYExpr())) {
+					int sum = op(ADD, left[0], right[0]);
+					return gray(op(NOISE, sum, sum, sum));
+				}
+				return gray(op(NOISE, op(ADD, left[0], right[0]), op(ADD, left[1], right[1]),
+						op(ADD, left[2], right[2])));
+			}
+			if (node instanceof PerlinColor perlin) {
+				int xVal = emit(perlin.getXExpr())[0];
+				int yVal = emit(perlin.getYExpr())[0];
+				int zero = constant(0);
+				// the same offsets as PerlinColor, in the same order
+				return new int[] { noise(ADD, xVal, yVal, 0.3, zero), noise(SUB, xVal, yVal, 0.8, zero),
+						noise(ADD, xVal, yVal, 0.1, zero) };
+			}
+			if (node instanceof Mandelbrot mandelbrot) {
+				int real = emit(mandelbrot.getReal())[0];
+				int imag = emit(mandelbrot.getImag())[0];
+				return gray(op(MANDELBROT, real, imag));
+			}
+			if (node instanceof ImageClip image) {
+				return emitSample(image, emit(image.getXCoord())[0], emit(image.getYCoord())[0]);
+			}
+			if (node instanceof ImageWrap image) {
+				return emitSample(image, emit(image.getXCoord())[0], emit(image.getYCoord())[0]);
+			}
+			if (node instanceof StringValue image) {
+				return emitSample(image, x, y);
+			}
+			throw new UnsupportedOperationException("Cannot lower " + node.getClass().getSimpleName());
+		}
+
+		private int noise(int opcode, int xVal, int yVal, double offset, int zero) {
+			int shift = constant(offset);
+			return op(NOISE, op(opcode, xVal, shift), op(opcode, yVal, shift), zero);
+		}
+
+		private int[] emitSample(ImageSampler image, int xVal, int yVal) {
+			int sampler = samplers.size();
+			int pixel = instruction(SAMPLE, xVal, yVal, sampler);
+			samplers.add(image);
+			return new int[] { instruction(CHANNEL, pixel, sampler, 0), instruction(CHANNEL, pixel, sampler, 1),
+					instruction(CHANNEL, pixel, sampler, 2) };
+		}
+
+		/**
+		 * The same arithmetic as RgbToYCrCb.evaluate.
+		 */
+		private int[] emitRgbToYCrCb(int[] param) {
+			int one = constant(1);
+			int two = constant(2.0);
+			int redPrime = op(DIV, op(ADD, param[0], one), two);
+			int greenPrime = op(DIV, op(ADD, param[1], one), two);
+			int bluePrime = op(DIV, op(ADD, param[2], one), two);
+			int luma = op(ADD,
+					op(ADD, op(MUL, constant(0.299), redPrime), op(MUL, constant(0.587), greenPrime)),
+					op(MUL, constant(0.114), bluePrime));
+			int cb = op(MUL, constant(0.492), op(SUB, bluePrime, luma));
+			int cr = op(MUL, constant(0.877), op(SUB, redPrime, luma));
+			return new int[] { op(SUB, op(MUL, luma, two), one), op(DIV, cb, constant(0.492)),
+					op(DIV, cr, constant(0.877)) };
+		}
+
+		/**
+		 * The same arithmetic as YCrCbToRGB.evaluate.
+		 */
+		private int[] emitYCrCbToRGB(int[] param) {
+			int one = constant(1.0);
+			int two = constant(2.0);
+			int yPrime = op(DIV, op(ADD, param[0], one), two);
+			int cb = op(MUL, param[1], constant(0.492));
+			int cr = op(MUL, param[2], constant(0.877));
+			int rPrime = op(ADD, yPrime, op(MUL, constant(1.402), cr));
+			int gPrime = op(SUB, op(SUB, yPrime, op(MUL, constant(0.344136), cb)), op(MUL, constant(0.714136), cr));
+			int bPrime = op(ADD, yPrime, op(MUL, constant(1.772), cb));
+			return new int[] { op(SUB, op(MUL, rPrime, two), one), op(SUB, op(MUL, gPrime, two), one),
+					op(SUB, op(MUL, bPrime, two), one) };
+		}
+
+		/**
+		 * Applies the opcode to each channel of the parameter, or to the first
+		 * channel only if the node is gray.
+		 */
+		private int[] channelwise(ExpressionTreeNode node, int opcode, int[] param) {
+			if (grayNodes.contains(node)) {
+				return gray(op(opcode, param[0]));
+			}
+			return new int[] { op(opcode, param[0]), op(opcode, param[1]), op(opcode, param[2]) };
+		}
+
+		private int op(int opcode, int... operands) {
+			int[] registers = Arrays.copyOf(operands, 3);
+			return instruction(opcode, registers[0], registers[1], registers[2]);
+		}
+
+		/**
+		 * Appends an instruction that writes a new virtual register.
+		 *
+		 * @return the virtual register
+		 */
+		private int instruction(int opcode, int a, int b, int c) {
+			int dst = fixedRegisters.size();
+			fixedRegisters.add(-1);
+			instructions.add(new int[] { opcode, dst, a, b, c });
+			return dst;
+		}
+
+		private int constant(double value) {
+			return constantRegisters.computeIfAbsent(Double.doubleToRawLongBits(value), (bits) -> {
+				constants.add(value);
+				return fixed(Program.FIRST_CONSTANT_REGISTER + constants.size() - 1);
+			});
+		}
+
+		private int fixed(int register) {
+			fixedRegisters.add(register);
+			return fixedRegisters.size() - 1;
+		}
+
+		/**
+		 * Walks the program backwards from the outputs and marks the instructions
+		 * whose results are used.
+		 */
+		private boolean[] removeDeadInstructions(int[] outputs) {
+			boolean[] needed = new boolean[fixedRegisters.size()];
+			for (int output : outputs) {
+				needed[output] = true;
+			}
+			boolean[] live = new boolean[instructions.size()];
+			for (int k = instructions.size() - 1; k >= 0; k--) {
+				int[] instruction = instructions.get(k);
+				if (!needed[instruction[1]]) {
+					continue;
+				}
+				live[k] = true;
+				for (int operand = 2; operand < 2 + registerOperands(instruction[0]); operand++) {
+					needed[instruction[operand]] = true;
+				}
+			}
+			return live;
+		}
+
+		/**
+		 * Assigns registers to the live instructions, handing a temporary's
+		 * register to the next instruction once its last reader has run.
+		 */
+		private Program allocateRegisters(int[] outputs, boolean[] live) {
+			int virtualCount = fixedRegisters.size();
+			int[] lastUse = new int[virtualCount];
+			for (int k = 0; k < instructions.size(); k++) {
+				if (!live[k]) {
+					continue;
+				}
+				int[] instruction = instructions.get(k);
+				for (int operand = 2; operand < 2 + registerOperands(instruction[0]); operand++) {
+					lastUse[instruction[operand]] = k;
+				}
+			}
+			for (int output : outputs) {
+				lastUse[output] = Integer.MAX_VALUE;
+			}
+
+			int[] physical = new int[virtualCount];
+			for (int v = 0; v < virtualCount; v++) {
+				physical[v] = fixedRegisters.get(v);
+			}
+			int registerCount = Program.FIRST_CONSTANT_REGISTER + constants.size();
+			Deque<Integer> free = new ArrayDeque<>();
+			int[] code = new int[instructions.size() * WIDTH];
+			int length = 0;
+			for (int k = 0; k < instructions.size(); k++) {
+				if (!live[k]) {
+					continue;
+				}
+				int[] instruction = instructions.get(k);
+				int operands = registerOperands(instruction[0]);
+				code[length] = instruction[0];
+				for (int operand = 2; operand < 2 + operands; operand++) {
+					int v = instruction[operand];
+					code[length + operand] = physical[v];
+					if (lastUse[v] == k && fixedRegisters.get(v) < 0 && !free.contains(physical[v])) {
+						free.push(physical[v]);
+					}
+				}
+				for (int operand = 2 + operands; operand < WIDTH; operand++) {
+					code[length + operand] = instruction[operand];
+				}
+				int dst = instruction[1];
+				physical[dst] = free.isEmpty() ? registerCount++ : free.pop();
+				code[length + 1] = physical[dst];
+				length += WIDTH;
+			}
+
+			double[] constantValues = new double[constants.size()];
+			for (int k = 0; k < constantValues.length; k++) {
+				constantValues[k] = constants.get(k);
+			}
+			int[] outputRegisters = { physical[outputs[0]], physical[outputs[1]], physical[outputs[2]] };
+			return new Program(Arrays.copyOf(code, length), constantValues, samplers.toArray(new ImageSampler[0]),
+					registerCount, outputRegisters);
+		}
+
+		/**
+		 * Returns how many of the operands of an instruction are registers; the
+		 * rest are immediate values.
+		 */
+		private static int registerOperands(int opcode) {
+			switch (opcode) {
+			case NOISE:
+				return 3;
+			case SAMPLE:
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case REM:
+			case POW:
+			case MANDELBROT:
+				return 2;
+			case COLUMN_TABLE:
+			case ROW_TABLE:
+				return 0;
+			default:
+				return 1;
+			}
+		}
+
+		private static int[] gray(int register) {
+			return new int[] { register, register, register };
+		}
+	}
+}
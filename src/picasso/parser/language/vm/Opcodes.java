@@ -0,0 +1,47 @@
+package picasso.parser.language.vm;
+
+/**
+ * The instructions of the expression VM. Every instruction is WIDTH ints long:
+ * the opcode, the destination register and up to three operands. Operands are
+ * register numbers, except where noted.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+final class Opcodes {
+
+	static final int WIDTH = 5;
+
+	static final int ADD = 0;
+	static final int SUB = 1;
+	static final int MUL = 2;
+	static final int DIV = 3;
+	static final int REM = 4;
+	static final int POW = 5;
+	static final int NEG = 6;
+	static final int SIN = 7;
+	static final int COS = 8;
+	static final int TAN = 9;
+	static final int ATAN = 10;
+	static final int EXP = 11;
+	/** the log of the absolute value */
+	static final int LOG = 12;
+	static final int FLOOR = 13;
+	static final int CEIL = 14;
+	static final int ABS = 15;
+	static final int CLAMP = 16;
+	static final int WRAP = 17;
+	/** 3D Perlin noise of the three operands */
+	static final int NOISE = 18;
+	static final int MANDELBROT = 19;
+	/** samples image number c at (a, b) and stores the index of the pixel */
+	static final int SAMPLE = 20;
+	/** reads channel c of image number b at pixel index a */
+	static final int CHANNEL = 21;
+	/** reads channel b of column table number a at the column of each point */
+	static final int COLUMN_TABLE = 22;
+	/** reads channel b of row table number a at the row of the points */
+	static final int ROW_TABLE = 23;
+
+	private Opcodes() {
+	}
+}
@@ -0,0 +1,247 @@
+package picasso.parser.language.vm;
+
+import static picasso.parser.language.vm.Opcodes.*;
+
+import java.util.Arrays;
+
+import picasso.model.ImprovedNoise;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.Mandelbrot;
+import picasso.parser.language.expressions.Wrap;
+
+/**
+ * An expression lowered to a flat array of instructions over a file of
+ * registers. Each register holds one value per point of a batch, so every
+ * instruction is dispatched once per batch rather than once per pixel.
+ *
+ * Registers 0, 1 and 2 hold x, y and t; the constants come next and are
+ * written once when the register file is created; the rest are temporaries,
+ * reused as soon as their value is no longer needed.
+ *
+ * A program is immutable and can be run by several threads at once, each with
+ * its own register file.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class Program {
+
+	static final int X_REGISTER = 0;
+	static final int Y_REGISTER = 1;
+	static final int T_REGISTER = 2;
+	static final int FIRST_CONSTANT_REGISTER = 3;
+
+	private final int[] code;
+	private final double[] constants;
+	private final ImageSampler[] samplers;
+	private final int registerCount;
+	private final int[] outputs;
+
+	Program(int[] code, double[] constants, ImageSampler[] samplers, int registerCount, int[] outputs) {
+		this.code = code;
+		this.constants = constants;
+		this.samplers = samplers;
+		this.registerCount = registerCount;
+		this.outputs = outputs;
+	}
+
+	/**
+	 * Returns the number of instructions in the program.
+	 *
+	 * @return the number of instructions
+	 */
+	public int getInstructionCount() {
+		return code.length / WIDTH;
+	}
+
+	/**
+	 * Returns the number of registers the program uses.
+	 *
+	 * @return the number of registers
+	 */
+	public int getRegisterCount() {
+		return registerCount;
+	}
+
+	/**
+	 * Create a register file for batches of up to the given number of points,
+	 * with the constants already loaded.
+	 *
+	 * @param capacity the largest batch the register file will be used for
+	 * @return the new register file
+	 */
+	public double[] newRegisterFile(int capacity) {
+		double[] registers = new double[registerCount * capacity];
+		for (int k = 0; k < constants.length; k++) {
+			int start = (FIRST_CONSTANT_REGISTER + k) * capacity;
+			Arrays.fill(registers, start, start + capacity, constants[k]);
+		}
+		return registers;
+	}
+
+	/**
+	 * Run the program for every point in the batch.
+	 *
+	 * @param registers a register file from newRegisterFile, created for the
+	 *                  capacity of the batch
+	 * @param batch     the points to evaluate the expression at, with the axis
+	 *                  tables if the program reads any
+	 * @param t         the value of t
+	 * @param out       the planes to store the results in
+	 */
+	public void run(double[] registers, PixelBatch batch, double t, ColorPlanes out) {
+		int capacity = batch.getCapacity();
+		int size = batch.getSize();
+		System.arraycopy(batch.getX(), 0, registers, X_REGISTER * capacity, size);
+		System.arraycopy(batch.getY(), 0, registers, Y_REGISTER * capacity, size);
+		Arrays.fill(registers, T_REGISTER * capacity, T_REGISTER * capacity + size, t);
+
+		for (int pc = 0; pc < code.length; pc += WIDTH) {
+			int dst = code[pc + 1] * capacity;
+			int a = code[pc + 2] * capacity;
+			int b = code[pc + 3] * capacity;
+			switch (code[pc]) {
+			case ADD:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = registers[a + i] + registers[b + i];
+				}
+				break;
+			case SUB:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = registers[a + i] - registers[b + i];
+				}
+				break;
+			case MUL:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = registers[a + i] * registers[b + i];
+				}
+				break;
+			case DIV:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = registers[a + i] / registers[b + i];
+				}
+				break;
+			case REM:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = registers[a + i] % registers[b + i];
+				}
+				break;
+			case POW:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.pow(registers[a + i], registers[b + i]);
+				}
+				break;
+			case NEG:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = -registers[a + i];
+				}
+				break;
+			case SIN:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.sin(registers[a + i]);
+				}
+				break;
+			case COS:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.cos(registers[a + i]);
+				}
+				break;
+			case TAN:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.tan(registers[a + i]);
+				}
+				break;
+			case ATAN:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.atan(registers[a + i]);
+				}
+				break;
+			case EXP:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.exp(registers[a + i]);
+				}
+				break;
+			case LOG:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.log(Math.abs(registers[a + i]));
+				}
+				break;
+			case FLOOR:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.floor(registers[a + i]);
+				}
+				break;
+			case CEIL:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.ceil(registers[a + i]);
+				}
+				break;
+			case ABS:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.abs(registers[a + i]);
+				}
+				break;
+			case CLAMP:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Math.clamp(registers[a + i], -1, 1);
+				}
+				break;
+			case WRAP:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Wrap.wrapHelper(registers[a + i]);
+				}
+				break;
+			case NOISE: {
+				int c = code[pc + 4] * capacity;
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = ImprovedNoise.noise(registers[a + i], registers[b + i], registers[c + i]);
+				}
+				break;
+			}
+			case MANDELBROT:
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = Mandelbrot.escapeValue(registers[a + i], registers[b + i]);
+				}
+				break;
+			case SAMPLE: {
+				ImageSampler sampler = samplers[code[pc + 4]];
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = sampler.sampleIndex(registers[a + i], registers[b + i]);
+				}
+				break;
+			}
+			case CHANNEL: {
+				float[] plane = samplers[code[pc + 3]].getPlanes().getChannel(code[pc + 4]);
+				for (int i = 0; i < size; i++) {
+					registers[dst + i] = plane[(int) registers[a + i]];
+				}
+				break;
+			}
+			case COLUMN_TABLE: {
+				double[] values = batch.getAxisTables()[code[pc + 2]].getChannel(code[pc + 3]);
+				int stride = batch.getColumnStride();
+				if (stride == 1) {
+					System.arraycopy(values, batch.getColumn(), registers, dst, size);
+				} else {
+					for (int i = 0, column = batch.getColumn(); i < size; i++, column += stride) {
+						registers[dst + i] = values[column];
+					}
+				}
+				break;
+			}
+			case ROW_TABLE: {
+				double[] values = batch.getAxisTables()[code[pc + 2]].getChannel(code[pc + 3]);
+				Arrays.fill(registers, dst, dst + size, values[batch.getRow()]);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Unknown opcode " + code[pc]);
+			}
+		}
+
+		System.arraycopy(registers, outputs[0] * capacity, out.getRed(), 0, size);
+		System.arraycopy(registers, outputs[1] * capacity, out.getGreen(), 0, size);
+		System.arraycopy(registers, outputs[2] * capacity, out.getBlue(), 0, size);
+	}
+}
@@ -0,0 +1,115 @@
+package picasso.parser.language.vm;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * An expression tree node that evaluates its source tree by running the VM
+ * program it was lowered to, so that it can be rendered wherever the tree
+ * could be. Each thread gets its own register file, which is kept between
+ * batches. If the source uses axis tables, the program only runs on batches
+ * that have them; elsewhere the source tree is evaluated instead.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ProgramNode extends ExpressionTreeNode {
+
+	private final ExpressionTreeNode source;
+	private final Program program;
+	private final boolean usesTables;
+	private final ThreadLocal<double[]> registerFiles = new ThreadLocal<>();
+
+	/**
+	 * Create a node that evaluates the source tree with the given program.
+	 *
+	 * @param source  the expression tree that was lowered
+	 * @param program the program the source was lowered to
+	 */
+	public ProgramNode(ExpressionTreeNode source, Program program) {
+		this.source = source;
+		this.program = program;
+		this.usesTables = AxisTable.appearsIn(source);
+	}
+
+	/**
+	 * Returns the expression tree that was lowered.
+	 *
+	 * @return the source tree
+	 */
+	public ExpressionTreeNode getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the program this node runs.
+	 *
+	 * @return the program
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * Evaluates the point at time 0; a render passes its time with the batch.
+	 */
+	@Override
+	public RGBColor evaluate(double x, double y) {
+		return evaluate(x, y, 0);
+	}
+
+	@Override
+	public RGBColor evaluate(double x, double y, double time) {
+		if (usesTables) {
+			return source.evaluate(x, y, time);
+		}
+		PixelBatch batch = new PixelBatch(1);
+		batch.setSize(1);
+		batch.getX()[0] = x;
+		batch.getY()[0] = y;
+		ColorPlanes out = new ColorPlanes(1);
+		program.run(program.newRegisterFile(1), batch, time, out);
+		return new RGBColor(out.getRed()[0], out.getGreen()[0], out.getBlue()[0]);
+	}
+
+	/**
+	 * Runs the program over the batch.
+	 */
+	@Override
+	public void evaluate(PixelBatch batch, ColorPlanes out) {
+		if (usesTables && batch.getAxisTables() == null) {
+			source.evaluate(batch, out);
+			return;
+		}
+		int capacity = batch.getCapacity();
+		double[] registers = registerFiles.get();
+		if (registers == null || registers.length != program.getRegisterCount() * capacity) {
+			registers = program.newRegisterFile(capacity);
+			registerFiles.set(registers);
+		}
+		program.run(registers, batch, batch.getTime(), out);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof ProgramNode)) {
+			return false;
+		}
+		return source.equals(((ProgramNode) obj).source);
+	}
+
+	@Override
+	public int hashCode() {
+		return source.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return source.toString();
+	}
+}
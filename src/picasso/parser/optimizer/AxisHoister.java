@@ -0,0 +1,122 @@
+package picasso.parser.optimizer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.SharedNode;
+import picasso.parser.optimizer.DependencyAnalyzer.Variable;
+
+/**
+ * Moves the subexpressions that depend on x but not y, like cos(x) or
+ * clamp(x), out of the per-pixel loop: they get an AxisTable with one value
+ * per column of the image, computed once per frame. Likewise, subexpressions
+ * that depend on y but not x get one value per row, and those that depend on
+ * neither but change with t are computed once per row too. On a W by H image
+ * they then cost W or H evaluations instead of W * H.
+ *
+ * In an expression that uses t, the subexpressions that use both x and y but
+ * not t get a table with one value per pixel. An animation computes it once
+ * for all its frames, so each frame only evaluates the parts that change with
+ * t.
+ *
+ * Only the largest such subexpressions get a table; a subexpression that uses
+ * both x and y keeps being evaluated at every pixel, reading its hoisted parts
+ * from the tables.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class AxisHoister {
+
+	private static AxisHoister ourInstance;
+
+	/**
+	 * Returns the hoister shared by the application.
+	 *
+	 * @return the shared hoister
+	 */
+	public static synchronized AxisHoister getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new AxisHoister();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Hoist the subexpressions of an expression that depend on only one of x and
+	 * y. The expression itself is not changed.
+	 *
+	 * @param expr the expression
+	 * @return a HoistedExpression whose body uses axis tables, or the expression
+	 *         itself if nothing can be hoisted
+	 */
+	public ExpressionTreeNode hoist(ExpressionTreeNode expr) {
+		if (expr instanceof HoistedExpression) {
+			return expr;
+		}
+		Map<ExpressionTreeNode, Set<Variable>> dependencies = DependencyAnalyzer.getInstance().analyze(expr);
+		List<AxisTable> tables = new ArrayList<>();
+		boolean animated = dependencies.get(expr).contains(Variable.T);
+		ExpressionTreeNode body = hoist(expr, dependencies, animated, new IdentityHashMap<>(), tables);
+		if (tables.isEmpty()) {
+			return expr;
+		}
+		return new HoistedExpression(body, tables);
+	}
+
+	private ExpressionTreeNode hoist(ExpressionTreeNode node, Map<ExpressionTreeNode, Set<Variable>> dependencies,
+			boolean animated, Map<ExpressionTreeNode, ExpressionTreeNode> hoisted, List<AxisTable> tables) {
+		ExpressionTreeNode result = hoisted.get(node);
+		if (result != null) {
+			return result;
+		}
+		List<ExpressionTreeNode> children = node.getChildren();
+		Set<Variable> uses = dependencies.get(node);
+		AxisTable.Axis axis = children.isEmpty() ? null : axisOf(uses, animated);
+		if (axis != null) {
+			// a shared subexpression needs no sharing once it is in a table
+			ExpressionTreeNode expression = node instanceof SharedNode shared ? shared.getExpression() : node;
+			AxisTable table = new AxisTable(expression, axis, tables.size(), uses.contains(Variable.T));
+			tables.add(table);
+			result = table;
+		} else if (children.isEmpty()) {
+			result = node;
+		} else {
+			List<ExpressionTreeNode> hoistedChildren = new ArrayList<>(children.size());
+			for (ExpressionTreeNode child : children) {
+				hoistedChildren.add(hoist(child, dependencies, animated, hoisted, tables));
+			}
+			result = node.withChildren(hoistedChildren);
+		}
+		hoisted.put(node, result);
+		return result;
+	}
+
+	/**
+	 * Returns the axis of the table for a subexpression with the given
+	 * dependencies, or null if it must be evaluated at every pixel or is
+	 * constant. Pixel tables only pay off in an animated expression.
+	 */
+	private static AxisTable.Axis axisOf(Set<Variable> dependencies, boolean animated) {
+		boolean usesX = dependencies.contains(Variable.X);
+		boolean usesY = dependencies.contains(Variable.Y);
+		if (usesX && !usesY) {
+			return AxisTable.Axis.COLUMN;
+		}
+		if (usesY && !usesX) {
+			return AxisTable.Axis.ROW;
+		}
+		if (!usesX && dependencies.contains(Variable.T)) {
+			return AxisTable.Axis.ROW;
+		}
+		if (animated && usesX && !dependencies.contains(Variable.T)) {
+			return AxisTable.Axis.PIXEL;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,113 @@
+package picasso.parser.optimizer;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.expressions.*;
+
+/**
+ * Finds the nodes of an expression that are provably gray: their red, green
+ * and blue values are always exactly the same, so one value can be computed
+ * instead of three.
+ *
+ * x, y, t, constants, gray colors, mandelbrot() and perlinBW() are gray; a
+ * function or operator that works on each channel on its own is gray if its
+ * arguments are. Color conversions, perlinColor() and images are never gray.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ChannelAnalyzer {
+
+	private static ChannelAnalyzer ourInstance;
+
+	/**
+	 * Returns the analyzer shared by the application.
+	 *
+	 * @return the shared analyzer
+	 */
+	public static synchronized ChannelAnalyzer getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ChannelAnalyzer();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Returns true if the expression is provably gray.
+	 *
+	 * @param expr the expression
+	 * @return true if the three channels of the expression are always equal
+	 */
+	public boolean isGray(ExpressionTreeNode expr) {
+		return isGray(expr, new IdentityHashMap<>());
+	}
+
+	/**
+	 * Finds the provably gray nodes of an expression.
+	 *
+	 * @param expr the expression
+	 * @return the gray nodes, compared by identity
+	 */
+	public Set<ExpressionTreeNode> grayNodes(ExpressionTreeNode expr) {
+		Map<ExpressionTreeNode, Boolean> gray = new IdentityHashMap<>();
+		isGray(expr, gray);
+		Set<ExpressionTreeNode> result = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Map.Entry<ExpressionTreeNode, Boolean> entry : gray.entrySet()) {
+			if (entry.getValue()) {
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	private boolean isGray(ExpressionTreeNode node, Map<ExpressionTreeNode, Boolean> gray) {
+		Boolean result = gray.get(node);
+		if (result == null) {
+			result = computeGray(node, gray);
+			gray.put(node, result);
+		}
+		return result;
+	}
+
+	private boolean computeGray(ExpressionTreeNode node, Map<ExpressionTreeNode, Boolean> gray) {
+		if (node instanceof X || node instanceof Y || node instanceof T || node instanceof Constant
+				|| node instanceof Mandelbrot || node instanceof PerlinBW) {
+			// the children of mandelbrot() and perlinBW() still need analyzing
+			for (ExpressionTreeNode child : node.getChildren()) {
+				isGray(child, gray);
+			}
+			return true;
+		}
+		if (node instanceof RGBColor || node instanceof Random) {
+			RGBColor color = node.evaluate(0, 0);
+			return sameBits(color.getRed(), color.getGreen()) && sameBits(color.getRed(), color.getBlue());
+		}
+		if (node instanceof RgbToYCrCb || node instanceof YCrCbToRGB) {
+			isGray(((UnaryFunction) node).getParam(), gray);
+			return false;
+		}
+		if (node instanceof UnaryFunction || node instanceof UnaryOperator || node instanceof BinaryOperator
+				|| node instanceof SharedNode || node instanceof AxisTable || node instanceof HoistedExpression) {
+			boolean allGray = true;
+			for (ExpressionTreeNode child : node.getChildren()) {
+				allGray &= isGray(child, gray);
+			}
+			return allGray;
+		}
+		// images, perlinColor() and nodes this analysis does not know
+		for (ExpressionTreeNode child : node.getChildren()) {
+			isGray(child, gray);
+		}
+		return false;
+	}
+
+	private static boolean sameBits(double a, double b) {
+		return Double.doubleToRawLongBits(a) == Double.doubleToRawLongBits(b);
+	}
+}
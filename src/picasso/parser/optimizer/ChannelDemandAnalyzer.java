@@ -0,0 +1,116 @@
+package picasso.parser.optimizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.expressions.*;
+
+/**
+ * Finds which color channels of each node of an expression are ever read.
+ * All three channels of the whole expression are needed, and a function or
+ * operator that works on each channel on its own needs the same channels of
+ * its arguments as are needed of it. But images, mandelbrot() and
+ * perlinColor() read only the red channel of their arguments, so the green and
+ * blue channels of those subexpressions need not be computed at all.
+ *
+ * Demands are bit sets of RED, GREEN and BLUE.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ChannelDemandAnalyzer {
+
+	public static final int RED = 1;
+	public static final int GREEN = 2;
+	public static final int BLUE = 4;
+	public static final int ALL = RED | GREEN | BLUE;
+
+	private static ChannelDemandAnalyzer ourInstance;
+
+	/**
+	 * Returns the analyzer shared by the application.
+	 *
+	 * @return the shared analyzer
+	 */
+	public static synchronized ChannelDemandAnalyzer getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ChannelDemandAnalyzer();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Finds the channels of every node of the expression that are needed to
+	 * compute the color of the expression.
+	 *
+	 * @param expr the expression
+	 * @return the demand of each node, by identity
+	 */
+	public Map<ExpressionTreeNode, Integer> analyze(ExpressionTreeNode expr) {
+		// visit every node after all the nodes that use it
+		List<ExpressionTreeNode> order = new ArrayList<>();
+		postOrder(expr, Collections.newSetFromMap(new IdentityHashMap<>()), order);
+		Collections.reverse(order);
+
+		Map<ExpressionTreeNode, Integer> demands = new IdentityHashMap<>();
+		demands.put(expr, ALL);
+		for (ExpressionTreeNode node : order) {
+			int demand = demands.getOrDefault(node, 0);
+			int childDemand = demand == 0 ? 0 : argumentDemand(node, demand);
+			for (ExpressionTreeNode child : node.getChildren()) {
+				demands.merge(child, childDemand, (a, b) -> a | b);
+			}
+		}
+		return demands;
+	}
+
+	/**
+	 * Returns true if the demand includes the channel.
+	 *
+	 * @param demand  a demand from analyze
+	 * @param channel 0 for red, 1 for green or 2 for blue
+	 * @return true if the channel is needed
+	 */
+	public static boolean needs(int demand, int channel) {
+		return (demand & (1 << channel)) != 0;
+	}
+
+	/**
+	 * Returns the channels a node needs of its arguments to compute the given
+	 * channels of its own value.
+	 */
+	private static int argumentDemand(ExpressionTreeNode node, int demand) {
+		if (node instanceof ImageClip || node instanceof ImageWrap || node instanceof Mandelbrot
+				|| node instanceof PerlinColor) {
+			return RED;
+		}
+		if (node instanceof RgbToYCrCb || node instanceof YCrCbToRGB || node instanceof PerlinBW) {
+			// every channel of the result mixes the channels of the argument
+			return ALL;
+		}
+		if (node instanceof UnaryFunction || node instanceof UnaryOperator || node instanceof BinaryOperator
+				|| node instanceof SharedNode || node instanceof AxisTable || node instanceof HoistedExpression) {
+			return demand;
+		}
+		// nodes this analysis does not know
+		return ALL;
+	}
+
+	private static void postOrder(ExpressionTreeNode node, Set<ExpressionTreeNode> visited,
+			List<ExpressionTreeNode> order) {
+		if (!visited.add(node)) {
+			return;
+		}
+		for (ExpressionTreeNode child : node.getChildren()) {
+			postOrder(child, visited, order);
+		}
+		order.add(node);
+	}
+}
@@ -0,0 +1,239 @@
+package picasso.parser.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.expressions.*;
+
+/**
+ * Turns an expression tree into a DAG in which every distinct subexpression
+ * appears once (hash-consing), and wraps the subexpressions that are used in
+ * more than one place in a SharedNode so that they are evaluated once per
+ * pixel.
+ * 
+ * Two subexpressions are the same only if they are exactly the same: colors
+ * and constants are compared bit for bit rather than with the tolerance of
+ * RGBColor.equals, and random() calls are never merged, since each has its own
+ * value.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class CommonSubexpressionEliminator {
+
+	private static CommonSubexpressionEliminator ourInstance;
+
+	/**
+	 * Returns the eliminator shared by the application.
+	 * 
+	 * @return the shared eliminator
+	 */
+	public static synchronized CommonSubexpressionEliminator getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new CommonSubexpressionEliminator();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Merge the repeated subexpressions of an expression. The expression itself
+	 * is not changed.
+	 * 
+	 * @param expr the expression
+	 * @return a DAG that produces the same colors as the expression
+	 */
+	public ExpressionTreeNode eliminate(ExpressionTreeNode expr) {
+		ExpressionTreeNode dag = intern(expr, new HashMap<>(), new IdentityHashMap<>());
+		Map<ExpressionTreeNode, Integer> uses = new IdentityHashMap<>();
+		countUses(dag, uses);
+		return share(dag, uses, new IdentityHashMap<>(), new int[1]);
+	}
+
+	/**
+	 * Returns the number of nodes the expression would have as a tree, counting a
+	 * subexpression once for every place it is used.
+	 * 
+	 * @param expr the expression
+	 * @return the number of nodes in the expression tree
+	 */
+	public static long countTreeNodes(ExpressionTreeNode expr) {
+		return countTreeNodes(expr, new IdentityHashMap<>());
+	}
+
+	/**
+	 * Returns the number of distinct node objects in the expression, which is
+	 * the number of nodes evaluated per pixel.
+	 * 
+	 * @param expr the expression
+	 * @return the number of distinct nodes in the expression
+	 */
+	public static int countDistinctNodes(ExpressionTreeNode expr) {
+		Map<ExpressionTreeNode, Integer> seen = new IdentityHashMap<>();
+		countUses(unwrap(expr), seen);
+		return seen.size() + 1;
+	}
+
+	/**
+	 * Returns the canonical node for the given one: the first node seen with the
+	 * same structure.
+	 */
+	private ExpressionTreeNode intern(ExpressionTreeNode node, Map<Key, ExpressionTreeNode> canonical,
+			Map<ExpressionTreeNode, ExpressionTreeNode> interned) {
+		node = unwrap(node);
+		ExpressionTreeNode result = interned.get(node);
+		if (result != null) {
+			return result;
+		}
+		List<ExpressionTreeNode> children = new ArrayList<>();
+		for (ExpressionTreeNode child : node.getChildren()) {
+			children.add(intern(child, canonical, interned));
+		}
+		result = node.withChildren(children);
+		Key key = Key.of(result, children);
+		if (key != null) {
+			ExpressionTreeNode existing = canonical.putIfAbsent(key, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		interned.put(node, result);
+		return result;
+	}
+
+	/**
+	 * Counts how many times each node of the DAG is used as an argument.
+	 */
+	private static void countUses(ExpressionTreeNode node, Map<ExpressionTreeNode, Integer> uses) {
+		for (ExpressionTreeNode child : node.getChildren()) {
+			child = unwrap(child);
+			Integer count = uses.get(child);
+			uses.put(child, count == null ? 1 : count + 1);
+			if (count == null) {
+				countUses(child, uses);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the DAG with a SharedNode around each subexpression that is used
+	 * more than once and costs more than reading a variable or a constant.
+	 */
+	private ExpressionTreeNode share(ExpressionTreeNode node, Map<ExpressionTreeNode, Integer> uses,
+			Map<ExpressionTreeNode, ExpressionTreeNode> shared, int[] nextSlot) {
+		ExpressionTreeNode result = shared.get(node);
+		if (result != null) {
+			return result;
+		}
+		List<ExpressionTreeNode> children = new ArrayList<>();
+		for (ExpressionTreeNode child : node.getChildren()) {
+			children.add(share(child, uses, shared, nextSlot));
+		}
+		result = node.withChildren(children);
+		boolean expensive = !children.isEmpty() || node instanceof ImageSampler;
+		if (expensive && uses.getOrDefault(node, 0) > 1) {
+			result = new SharedNode(result, nextSlot[0]++);
+		}
+		shared.put(node, result);
+		return result;
+	}
+
+	private static long countTreeNodes(ExpressionTreeNode node, Map<ExpressionTreeNode, Long> counted) {
+		node = unwrap(node);
+		Long count = counted.get(node);
+		if (count == null) {
+			count = 1L;
+			for (ExpressionTreeNode child : node.getChildren()) {
+				count += countTreeNodes(child, counted);
+			}
+			counted.put(node, count);
+		}
+		return count;
+	}
+
+	private static ExpressionTreeNode unwrap(ExpressionTreeNode node) {
+		while (node instanceof SharedNode shared) {
+			node = shared.getExpression();
+		}
+		return node;
+	}
+
+	/**
+	 * The structure of a node whose arguments are already canonical: its class,
+	 * any value it holds, and the identity of its arguments.
+	 */
+	private static final class Key {
+		private final Class<?> type;
+		private final Object value;
+		private final ExpressionTreeNode[] children;
+
+		private Key(Class<?> type, Object value, List<ExpressionTreeNode> children) {
+			this.type = type;
+			this.value = value;
+			this.children = children.toArray(new ExpressionTreeNode[0]);
+		}
+
+		/**
+		 * Returns the key of a node, or null if nodes like it must never be merged.
+		 */
+		static Key of(ExpressionTreeNode node, List<ExpressionTreeNode> children) {
+			if (node instanceof RGBColor color) {
+				return new Key(RGBColor.class, Arrays.asList(Double.doubleToRawLongBits(color.getRed()),
+						Double.doubleToRawLongBits(color.getGreen()), Double.doubleToRawLongBits(color.getBlue())),
+						children);
+			}
+			if (node instanceof Constant constant) {
+				return new Key(Constant.class, Double.doubleToRawLongBits(constant.getValue()), children);
+			}
+			if (node instanceof StringValue image) {
+				return new Key(StringValue.class, image.getValue(), children);
+			}
+			if (node instanceof ImageClip image) {
+				return new Key(ImageClip.class, image.getFilename(), children);
+			}
+			if (node instanceof ImageWrap image) {
+				return new Key(ImageWrap.class, image.getFilename(), children);
+			}
+			if (node instanceof X || node instanceof Y || node instanceof T || node instanceof UnaryFunction
+					|| node instanceof UnaryOperator || node instanceof BinaryOperator || node instanceof PerlinBW
+					|| node instanceof PerlinColor || node instanceof Mandelbrot) {
+				return new Key(node.getClass(), null, children);
+			}
+			// random(), and nodes this pass does not know
+			return null;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if (type != other.type || !Objects.equals(value, other.value)
+					|| children.length != other.children.length) {
+				return false;
+			}
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] != other.children[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = type.hashCode() * 31 + Objects.hashCode(value);
+			for (ExpressionTreeNode child : children) {
+				hash = hash * 31 + System.identityHashCode(child);
+			}
+			return hash;
+		}
+	}
+}
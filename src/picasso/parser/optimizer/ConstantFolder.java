@@ -0,0 +1,88 @@
+package picasso.parser.optimizer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.expressions.Constant;
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * Replaces every subtree that does not depend on x, y, t or random() with the
+ * color it evaluates to, so that it is computed once instead of once per pixel.
+ * 
+ * A subtree is constant if it is a color or a constant, or if it is a function
+ * or operator whose arguments are all constant. The folded color is computed
+ * by evaluating the subtree itself, so it is exactly the value every pixel
+ * would have computed.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ConstantFolder {
+
+	private static ConstantFolder ourInstance;
+
+	/**
+	 * Returns the constant folder shared by the application.
+	 * 
+	 * @return the shared constant folder
+	 */
+	public static synchronized ConstantFolder getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ConstantFolder();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Fold the constant subtrees of an expression. The expression itself is not
+	 * changed; the parts of it that need no folding are shared with the result.
+	 * 
+	 * @param expr the expression to fold
+	 * @return the folded expression
+	 */
+	public ExpressionTreeNode fold(ExpressionTreeNode expr) {
+		return fold(expr, new IdentityHashMap<>());
+	}
+
+	/**
+	 * Folds a node, reusing the result for nodes that appear more than once.
+	 */
+	private ExpressionTreeNode fold(ExpressionTreeNode node, Map<ExpressionTreeNode, ExpressionTreeNode> folded) {
+		ExpressionTreeNode result = folded.get(node);
+		if (result != null) {
+			return result;
+		}
+		List<ExpressionTreeNode> children = node.getChildren();
+		if (children.isEmpty()) {
+			result = node;
+		} else {
+			List<ExpressionTreeNode> foldedChildren = new ArrayList<>(children.size());
+			boolean allConstant = true;
+			for (ExpressionTreeNode child : children) {
+				ExpressionTreeNode foldedChild = fold(child, folded);
+				foldedChildren.add(foldedChild);
+				allConstant &= isConstant(foldedChild);
+			}
+			result = node.withChildren(foldedChildren);
+			if (allConstant) {
+				RGBColor value = result.evaluate(0, 0);
+				result = new RGBColor(value.getRed(), value.getGreen(), value.getBlue());
+			}
+		}
+		folded.put(node, result);
+		return result;
+	}
+
+	/**
+	 * Returns true if the expression is a color or a constant.
+	 * 
+	 * @param expr the expression to check
+	 * @return true iff the expression has the same value everywhere
+	 */
+	public static boolean isConstant(ExpressionTreeNode expr) {
+		return expr instanceof RGBColor || expr instanceof Constant;
+	}
+}
@@ -0,0 +1,107 @@
+package picasso.parser.optimizer;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.expressions.*;
+
+/**
+ * Finds which of x, y and t each node of an expression depends on. A node
+ * that depends on none of them is constant; one that depends on x but not y
+ * has the same value down each column of the image, and one that depends on y
+ * but not x has the same value along each row. A node that depends on t
+ * changes from frame to frame.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class DependencyAnalyzer {
+
+	/**
+	 * The variables an expression can depend on.
+	 */
+	public enum Variable {
+		X, Y, T
+	}
+
+	private static final Set<Variable> NONE = Collections.unmodifiableSet(EnumSet.noneOf(Variable.class));
+	private static final Set<Variable> ONLY_X = Collections.unmodifiableSet(EnumSet.of(Variable.X));
+	private static final Set<Variable> ONLY_Y = Collections.unmodifiableSet(EnumSet.of(Variable.Y));
+	private static final Set<Variable> ONLY_T = Collections.unmodifiableSet(EnumSet.of(Variable.T));
+	private static final Set<Variable> X_AND_Y = Collections.unmodifiableSet(EnumSet.of(Variable.X, Variable.Y));
+
+	private static DependencyAnalyzer ourInstance;
+
+	/**
+	 * Returns the analyzer shared by the application.
+	 *
+	 * @return the shared analyzer
+	 */
+	public static synchronized DependencyAnalyzer getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new DependencyAnalyzer();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Returns the variables the expression depends on.
+	 *
+	 * @param expr the expression
+	 * @return the variables, which may be none
+	 */
+	public Set<Variable> dependencies(ExpressionTreeNode expr) {
+		return analyze(expr).get(expr);
+	}
+
+	/**
+	 * Finds the variables every node of the expression depends on.
+	 *
+	 * @param expr the expression
+	 * @return the variables of each node of the expression, by identity
+	 */
+	public Map<ExpressionTreeNode, Set<Variable>> analyze(ExpressionTreeNode expr) {
+		Map<ExpressionTreeNode, Set<Variable>> dependencies = new IdentityHashMap<>();
+		analyze(expr, dependencies);
+		return dependencies;
+	}
+
+	private Set<Variable> analyze(ExpressionTreeNode node, Map<ExpressionTreeNode, Set<Variable>> dependencies) {
+		Set<Variable> result = dependencies.get(node);
+		if (result != null) {
+			return result;
+		}
+		if (node.getChildren().isEmpty()) {
+			result = leafDependencies(node);
+		} else {
+			Set<Variable> union = EnumSet.noneOf(Variable.class);
+			for (ExpressionTreeNode child : node.getChildren()) {
+				union.addAll(analyze(child, dependencies));
+			}
+			result = Collections.unmodifiableSet(union);
+		}
+		dependencies.put(node, result);
+		return result;
+	}
+
+	private static Set<Variable> leafDependencies(ExpressionTreeNode leaf) {
+		if (leaf instanceof X) {
+			return ONLY_X;
+		}
+		if (leaf instanceof Y) {
+			return ONLY_Y;
+		}
+		if (leaf instanceof T) {
+			return ONLY_T;
+		}
+		if (leaf instanceof RGBColor || leaf instanceof Constant || leaf instanceof Random) {
+			// random() picks its color once, when it is parsed
+			return NONE;
+		}
+		// an image sampled at (x, y), or a node this analysis does not know
+		return X_AND_Y;
+	}
+}
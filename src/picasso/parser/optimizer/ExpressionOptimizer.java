@@ -0,0 +1,39 @@
+package picasso.parser.optimizer;
+
+import picasso.parser.language.ExpressionTreeNode;
+
+/**
+ * Runs the optimization passes over a parsed expression before it is
+ * rendered. Every pass keeps the colors the expression produces exactly the
+ * same.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ExpressionOptimizer {
+
+	private static ExpressionOptimizer ourInstance;
+
+	/**
+	 * Returns the optimizer shared by the application.
+	 * 
+	 * @return the shared optimizer
+	 */
+	public static synchronized ExpressionOptimizer getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new ExpressionOptimizer();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Optimize an expression from ExpressionTreeGenerator.makeExpression.
+	 * 
+	 * @param expr the parsed expression
+	 * @return an expression that produces the same colors
+	 */
+	public ExpressionTreeNode optimize(ExpressionTreeNode expr) {
+		ExpressionTreeNode folded = ConstantFolder.getInstance().fold(expr);
+		ExpressionTreeNode dag = CommonSubexpressionEliminator.getInstance().eliminate(folded);
+		return AxisHoister.getInstance().hoist(dag);
+	}
+}
@@ -0,0 +1,110 @@
+package picasso.render;
+
+import java.util.List;
+
+import picasso.model.Pixmap;
+
+/**
+ * The rendered frames of an animation of an expression that uses t, kept for
+ * playback and export. Frame i is the image at time i * getTimeStep().
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class Animation {
+
+	private final List<Pixmap> frames;
+	private final double timeStep;
+	private final RenderResult result;
+
+	/**
+	 * Create an animation from its frames.
+	 *
+	 * @param frames   the frames, in order
+	 * @param timeStep the time between two frames
+	 * @param result   how much of the frames was rendered
+	 */
+	public Animation(Pixmap[] frames, double timeStep, RenderResult result) {
+		this.frames = List.of(frames);
+		this.timeStep = timeStep;
+		this.result = result;
+	}
+
+	/**
+	 * Returns how much of the frames was rendered, counting the tiles of every
+	 * frame.
+	 *
+	 * @return the result of the render
+	 */
+	public RenderResult getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns the number of frames.
+	 *
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return frames.size();
+	}
+
+	/**
+	 * Returns one frame.
+	 *
+	 * @param index the index of the frame, from 0
+	 * @return the frame
+	 */
+	public Pixmap getFrame(int index) {
+		return frames.get(index);
+	}
+
+	/**
+	 * Returns the last frame.
+	 *
+	 * @return the frame at the latest time
+	 */
+	public Pixmap getLastFrame() {
+		return frames.get(frames.size() - 1);
+	}
+
+	/**
+	 * Returns every frame, in order.
+	 *
+	 * @return an unmodifiable list of the frames
+	 */
+	public List<Pixmap> getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the time between two frames.
+	 *
+	 * @return the time step
+	 */
+	public double getTimeStep() {
+		return timeStep;
+	}
+
+	/**
+	 * Returns the time of a frame.
+	 *
+	 * @param index the index of the frame, from 0
+	 * @return the value of t in the frame
+	 */
+	public double getTime(int index) {
+		return index * timeStep;
+	}
+
+	/**
+	 * Writes every frame to its own file. The name of frame i is the pattern
+	 * formatted with i, so "frames/frame%03d.jpg" names the files frame000.jpg,
+	 * frame001.jpg and so on.
+	 *
+	 * @param fileNamePattern the pattern of the file names
+	 */
+	public void write(String fileNamePattern) {
+		for (int i = 0; i < frames.size(); i++) {
+			frames.get(i).write(String.format(fileNamePattern, i));
+		}
+	}
+}
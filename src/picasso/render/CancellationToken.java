@@ -0,0 +1,78 @@
+package picasso.render;
+
+/**
+ * Tells a running render to stop. The renderer checks the token before each
+ * tile and stops rendering once it is cancelled or its deadline has passed,
+ * leaving the tiles rendered so far in place.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class CancellationToken {
+
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private volatile boolean cancelRequested;
+	private final long startNanos;
+	private final long timeoutNanos;
+
+	/**
+	 * Create a token without a deadline, cancelled only by cancel().
+	 */
+	public CancellationToken() {
+		this.startNanos = System.nanoTime();
+		this.timeoutNanos = NO_DEADLINE;
+	}
+
+	private CancellationToken(long timeoutNanos) {
+		this.startNanos = System.nanoTime();
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	/**
+	 * Create a token that also cancels itself once the given time has passed.
+	 *
+	 * @param timeoutMillis the wall-clock time allowed from now, in milliseconds
+	 * @return the token
+	 */
+	public static CancellationToken withTimeout(long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis must not be negative");
+		}
+		return new CancellationToken(timeoutMillis * 1_000_000);
+	}
+
+	/**
+	 * Asks the renders that use the token to stop.
+	 */
+	public void cancel() {
+		cancelRequested = true;
+	}
+
+	/**
+	 * Returns true if the renders that use the token must stop, because it was
+	 * cancelled or its deadline has passed.
+	 *
+	 * @return true if rendering must stop
+	 */
+	public boolean isCancelled() {
+		return cancelRequested || isExpired();
+	}
+
+	/**
+	 * Returns true if cancel() was called.
+	 *
+	 * @return true if the token was cancelled explicitly
+	 */
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	/**
+	 * Returns true if the token has a deadline and it has passed.
+	 *
+	 * @return true if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return timeoutNanos != NO_DEADLINE && System.nanoTime() - startNanos >= timeoutNanos;
+	}
+}
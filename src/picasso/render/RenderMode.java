@@ -0,0 +1,43 @@
+package picasso.render;
+
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.compiler.ExpressionCompiler;
+import picasso.parser.language.vm.ExpressionLowerer;
+
+/**
+ * How a parsed expression is evaluated when it is rendered.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public enum RenderMode {
+	/** walk the expression tree */
+	TREE,
+	/** lower the tree to a register VM program */
+	VM,
+	/** compile the tree to bytecode */
+	COMPILED;
+
+	/**
+	 * Prepare a parsed expression for rendering in this mode. Expressions that
+	 * the VM or the compiler cannot handle are returned unchanged and rendered by
+	 * walking the tree. The body of a hoisted expression is prepared, and its
+	 * axis tables are kept for the renderer to fill.
+	 *
+	 * @param expr the parsed expression
+	 * @return the expression to render
+	 */
+	public ExpressionTreeNode prepare(ExpressionTreeNode expr) {
+		if (expr instanceof HoistedExpression hoisted) {
+			return hoisted.withBody(prepare(hoisted.getBody()));
+		}
+		switch (this) {
+		case VM:
+			return ExpressionLowerer.getInstance().lowerIfSupported(expr);
+		case COMPILED:
+			return ExpressionCompiler.getInstance().compileIfSupported(expr);
+		default:
+			return expr;
+		}
+	}
+}
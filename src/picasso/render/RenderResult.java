@@ -0,0 +1,90 @@
+package picasso.render;
+
+/**
+ * How much of an image a render wrote before it finished or was stopped by
+ * its CancellationToken.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class RenderResult {
+
+	/**
+	 * How a render ended.
+	 */
+	public enum Status {
+		/** every tile was rendered */
+		COMPLETE,
+		/** the token was cancelled before every tile was rendered */
+		CANCELLED,
+		/** the deadline of the token passed before every tile was rendered */
+		DEADLINE_EXPIRED
+	}
+
+	private final int renderedTiles;
+	private final int tileCount;
+	private final Status status;
+
+	/**
+	 * Create the result of a render.
+	 *
+	 * @param renderedTiles the number of tiles rendered
+	 * @param tileCount     the number of tiles of the whole render
+	 * @param status        how the render ended
+	 */
+	public RenderResult(int renderedTiles, int tileCount, Status status) {
+		this.renderedTiles = renderedTiles;
+		this.tileCount = tileCount;
+		this.status = status;
+	}
+
+	/**
+	 * Returns the number of tiles rendered. A progressive render counts each
+	 * tile once per pass.
+	 *
+	 * @return the number of tiles rendered
+	 */
+	public int getRenderedTiles() {
+		return renderedTiles;
+	}
+
+	/**
+	 * Returns the number of tiles of the whole render.
+	 *
+	 * @return the number of tiles
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+
+	/**
+	 * Returns how the render ended.
+	 *
+	 * @return the status
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true if every tile was rendered.
+	 *
+	 * @return true if the image is complete
+	 */
+	public boolean isComplete() {
+		return status == Status.COMPLETE;
+	}
+
+	/**
+	 * Returns the fraction of the tiles that were rendered.
+	 *
+	 * @return a number between 0 and 1
+	 */
+	public double getFractionComplete() {
+		return tileCount == 0 ? 1 : (double) renderedTiles / tileCount;
+	}
+
+	@Override
+	public String toString() {
+		return status + " (" + renderedTiles + " of " + tileCount + " tiles)";
+	}
+}
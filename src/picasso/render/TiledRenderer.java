@@ -0,0 +1,970 @@
+package picasso.render;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+import picasso.model.Pixmap;
+import picasso.model.RowWriter;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.FilledTables;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.language.interval.Interval;
+import picasso.parser.language.interval.IntervalEvaluator;
+
+/**
+ * Renders an expression into a pixmap by splitting the image into fixed-size
+ * square tiles and evaluating them on a work-stealing thread pool. Each pixel
+ * is computed exactly as the serial loop would compute it, so the output does
+ * not depend on the number of threads or the order in which tiles finish.
+ * 
+ * Tiles are evaluated a row at a time with the batch evaluation API of
+ * ExpressionTreeNode; each worker thread reuses its own batch. The axis tables
+ * of a HoistedExpression are filled once per frame, before its tiles; in an
+ * animation, those that do not depend on t are filled once for every frame,
+ * the rows of the tables with one value per pixel on the pool.
+ * 
+ * The time t of a frame travels with the batches that evaluate it rather than
+ * in shared state, so the frames of an animation are rendered at once: the
+ * tiles of every frame share the pool, each frame into its own pixmap.
+ * 
+ * Unless culling is turned off, each tile is first bounded with interval
+ * arithmetic: a region of the tile whose every pixel provably converts to the
+ * same Java color is filled with that color, and any other region is split
+ * into quarters until it is small enough to evaluate pixel by pixel. Filled
+ * regions get exactly the color evaluating their pixels would give.
+ *
+ * A progressive render shows a still image early: its first pass evaluates
+ * one pixel in PREVIEW_STEP by PREVIEW_STEP and paints it over its block, and
+ * each further pass halves the step, evaluating only the pixels the earlier
+ * passes did not. The last pass leaves exactly the image of a single render,
+ * for about the same cost. Tiles are rendered from the center of the image
+ * outward.
+ *
+ * The tiles of a single render are handed out along a Hilbert curve, so that
+ * the tiles a worker renders one after the other, and the halves of the image
+ * the workers split between them, are compact regions: the pixels of an image
+ * an expression samples around those tiles stay in the cache.
+ *
+ * Every render can be given a CancellationToken, which is checked before each
+ * tile: once it is cancelled or its deadline passes, no further tile is
+ * started, and the RenderResult tells how many tiles were written.
+ *
+ * A still image is drawn into the back buffer of its pixmap, and each tile is
+ * published once written: a view of the pixmap never shows a half-written
+ * tile, and only repaints the tiles that changed. The back buffer is swapped
+ * in when the render ends.
+ *
+ * An image too large to be held in memory is rendered in strips of rows that
+ * are handed to a RowWriter as they are done: while one strip is written, the
+ * next is rendered into a second one, so only two strips are ever in memory,
+ * however tall the image.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class TiledRenderer {
+
+	public static final double DOMAIN_MIN = -1;
+	public static final double DOMAIN_MAX = 1;
+
+	/** width and height of a tile, in pixels */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/** regions of at most this many pixels are evaluated without being bounded */
+	public static final int MIN_CULLED_AREA = 64;
+
+	/** one pixel in this many, along each axis, is evaluated by the first pass of a progressive render */
+	public static final int PREVIEW_STEP = 4;
+
+	/** about how many pixels a strip of a streamed render has */
+	public static final int STRIP_PIXELS = 1 << 22;
+
+	/**
+	 * the bytes the tables of an animation with one value per pixel can take;
+	 * beyond, their subexpressions are evaluated in every frame instead
+	 */
+	public static final long PIXEL_TABLE_BUDGET = 128L * 1024 * 1024;
+
+	private static TiledRenderer ourInstance;
+
+	private final ForkJoinPool pool;
+	private final int tileSize;
+	private final boolean culling;
+	private final ThreadLocal<PixelBatch> batches;
+	private final ThreadLocal<int[]> packedColors;
+
+	/**
+	 * Create a renderer that uses every available core and the default tile size.
+	 */
+	public TiledRenderer() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+	}
+
+	/**
+	 * Create a renderer with the given number of worker threads and tile size
+	 * that culls uniform regions.
+	 *
+	 * @param threads  the number of worker threads (at least 1)
+	 * @param tileSize the width and height of a tile, in pixels (at least 1)
+	 */
+	public TiledRenderer(int threads, int tileSize) {
+		this(threads, tileSize, true);
+	}
+
+	/**
+	 * Create a renderer with the given number of worker threads and tile size.
+	 *
+	 * @param threads  the number of worker threads (at least 1)
+	 * @param tileSize the width and height of a tile, in pixels (at least 1)
+	 * @param culling  true to fill regions that are provably one color without
+	 *                 evaluating their pixels
+	 */
+	public TiledRenderer(int threads, int tileSize, boolean culling) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("tileSize must be positive");
+		}
+		this.pool = new ForkJoinPool(threads);
+		this.tileSize = tileSize;
+		this.culling = culling;
+		this.batches = ThreadLocal.withInitial(() -> new PixelBatch(tileSize));
+		this.packedColors = ThreadLocal.withInitial(() -> new int[tileSize]);
+	}
+
+	/**
+	 * Returns the renderer shared by the application.
+	 *
+	 * @return the shared renderer
+	 */
+	public static synchronized TiledRenderer getInstance() {
+		if (ourInstance == null) {
+			ourInstance = new TiledRenderer();
+		}
+		return ourInstance;
+	}
+
+	/**
+	 * Returns the number of worker threads used by this renderer.
+	 *
+	 * @return the number of worker threads
+	 */
+	public int getThreadCount() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Returns the width and height of the tiles, in pixels.
+	 *
+	 * @return the tile size
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Returns true if this renderer fills provably uniform regions without
+	 * evaluating their pixels.
+	 *
+	 * @return true if uniform regions are culled
+	 */
+	public boolean isCulling() {
+		return culling;
+	}
+
+	/**
+	 * Evaluate the expression at time 0 for every pixel of the target.
+	 *
+	 * @param expr   the expression to evaluate
+	 * @param target the pixmap to draw into
+	 */
+	public void render(ExpressionTreeNode expr, Pixmap target) {
+		render(expr, target, 0);
+	}
+
+	/**
+	 * Evaluate the expression at the given time for every pixel of the target.
+	 * Returns once every tile has been written; exceptions thrown while
+	 * evaluating a pixel are rethrown to the caller.
+	 *
+	 * @param expr   the expression to evaluate
+	 * @param target the pixmap to draw into
+	 * @param time   the value of t
+	 */
+	public void render(ExpressionTreeNode expr, Pixmap target, double time) {
+		render(expr, target, time, new CancellationToken());
+	}
+
+	/**
+	 * Evaluate the expression at the given time for every pixel of the target,
+	 * unless the token stops the render first. Returns once every tile has been
+	 * written or the tiles in progress when the token stopped the render are
+	 * done; exceptions thrown while evaluating a pixel are rethrown to the
+	 * caller.
+	 *
+	 * @param expr   the expression to evaluate
+	 * @param target the pixmap to draw into
+	 * @param time   the value of t
+	 * @param token  the token that can stop the render
+	 * @return how much of the image was rendered
+	 */
+	public RenderResult render(ExpressionTreeNode expr, Pixmap target, double time, CancellationToken token) {
+		Dimension size = target.getSize();
+		Job job = new Job(token);
+		if (size.width > 0 && size.height > 0 && !token.isCancelled()) {
+			target.beginDrawing();
+			try {
+				pool.invoke(new FrameRange(expr, new Pixmap[] { target }, time, 0, 0, 1, null, job, (frame, index) -> {
+				}));
+			} finally {
+				target.endDrawing();
+			}
+		}
+		return job.result(tileCount(size, tileSize));
+	}
+
+	/**
+	 * Evaluate the expression at the given time for every pixel of the target,
+	 * in passes of increasing resolution: the first evaluates one pixel in
+	 * PREVIEW_STEP by PREVIEW_STEP, and each pass halves the step until every
+	 * pixel has been evaluated once. After each pass, every pixel shows the
+	 * color of the nearest pixel evaluated so far above and to its left, and the
+	 * listener is told the step of the pass. Returns once the last pass has been
+	 * written, with the same image render gives; exceptions thrown while
+	 * evaluating a pixel are rethrown to the caller.
+	 *
+	 * @param expr      the expression to evaluate
+	 * @param target    the pixmap to draw into
+	 * @param time      the value of t
+	 * @param afterPass called with the step of each pass once it is written, on
+	 *                  the calling thread
+	 */
+	public void renderProgressive(ExpressionTreeNode expr, Pixmap target, double time, IntConsumer afterPass) {
+		renderProgressive(expr, target, time, afterPass, new CancellationToken());
+	}
+
+	/**
+	 * Renders the target progressively, as above, unless the token stops the
+	 * render first. The listener is only told about the passes that were
+	 * completed.
+	 *
+	 * @param expr      the expression to evaluate
+	 * @param target    the pixmap to draw into
+	 * @param time      the value of t
+	 * @param afterPass called with the step of each pass once it is written, on
+	 *                  the calling thread
+	 * @param token     the token that can stop the render
+	 * @return how much of the image was rendered, counting each tile once per
+	 *         pass
+	 */
+	public RenderResult renderProgressive(ExpressionTreeNode expr, Pixmap target, double time, IntConsumer afterPass,
+			CancellationToken token) {
+		Dimension size = target.getSize();
+		// tiles and regions start on the grid of the first pass
+		int alignedTileSize = (tileSize + PREVIEW_STEP - 1) / PREVIEW_STEP * PREVIEW_STEP;
+		int passes = Integer.numberOfTrailingZeros(PREVIEW_STEP) + 1;
+		Job job = new Job(token);
+		if (size.width > 0 && size.height > 0 && !token.isCancelled()) {
+			TileGrid grid = new TileGrid(expr, target, time, null, job, alignedTileSize, PREVIEW_STEP);
+			int[] order = grid.centerOutOrder();
+			target.beginDrawing();
+			try {
+				for (int step = PREVIEW_STEP; step >= 1 && !token.isCancelled(); step /= 2) {
+					int before = job.renderedTiles.get();
+					pool.invoke(new TileQueue(grid, order, step, step == PREVIEW_STEP, new AtomicInteger(),
+							getThreadCount()));
+					if (job.renderedTiles.get() - before == order.length) {
+						afterPass.accept(step);
+					}
+				}
+			} finally {
+				target.endDrawing();
+			}
+		}
+		return job.result(tileCount(size, alignedTileSize) * passes);
+	}
+
+	/**
+	 * Renders the frames of an animation of the expression: frame i is the
+	 * image at time i * timeStep. The frames are rendered concurrently, each
+	 * into a pixmap of its own. The tables of a hoisted expression that do not
+	 * depend on t are filled once and shared by every frame. Returns once every
+	 * frame has been written; exceptions thrown while evaluating a pixel are
+	 * rethrown to the caller.
+	 *
+	 * @param expr       the expression to evaluate
+	 * @param size       the size of each frame
+	 * @param frameCount the number of frames (at least 1)
+	 * @param timeStep   the time between two frames
+	 * @return the rendered frames
+	 */
+	public Animation renderAnimation(ExpressionTreeNode expr, Dimension size, int frameCount, double timeStep) {
+		return renderAnimation(expr, size, frameCount, timeStep, new CancellationToken());
+	}
+
+	/**
+	 * Renders the frames of an animation of the expression, as above, unless
+	 * the token stops the render first; the frames are then only partly
+	 * rendered, as the result of the animation tells.
+	 *
+	 * @param expr       the expression to evaluate
+	 * @param size       the size of each frame
+	 * @param frameCount the number of frames (at least 1)
+	 * @param timeStep   the time between two frames
+	 * @param token      the token that can stop the render
+	 * @return the rendered frames
+	 */
+	public Animation renderAnimation(ExpressionTreeNode expr, Dimension size, int frameCount, double timeStep,
+			CancellationToken token) {
+		return renderAnimation(expr, size, frameCount, timeStep, token, (frame, index) -> {
+		});
+	}
+
+	/**
+	 * Renders the frames of an animation of the expression, as above, telling
+	 * the listener about each frame once every tile of it is written, so that
+	 * a view can show the frames as they are done rather than once they all
+	 * are. Frames are mostly done in order, but not always.
+	 *
+	 * @param expr       the expression to evaluate
+	 * @param size       the size of each frame
+	 * @param frameCount the number of frames (at least 1)
+	 * @param timeStep   the time between two frames
+	 * @param token      the token that can stop the render
+	 * @param frameDone  called with each frame rendered and its index, on the
+	 *                   thread that rendered its last tile
+	 * @return the rendered frames
+	 */
+	public Animation renderAnimation(ExpressionTreeNode expr, Dimension size, int frameCount, double timeStep,
+			CancellationToken token, ObjIntConsumer<Pixmap> frameDone) {
+		if (frameCount <= 0) {
+			throw new IllegalArgumentException("frameCount must be positive");
+		}
+		Pixmap[] frames = new Pixmap[frameCount];
+		for (int i = 0; i < frameCount; i++) {
+			frames[i] = new Pixmap(size);
+		}
+		Job job = new Job(token);
+		if (size.width > 0 && size.height > 0 && !token.isCancelled()) {
+			FilledTables invariant = null;
+			if (expr instanceof HoistedExpression hoisted && frameCount > 1) {
+				invariant = fillInvariantTables(hoisted, size, job);
+			}
+			pool.invoke(new FrameRange(expr, frames, 0, timeStep, 0, frameCount, invariant, job, frameDone));
+		}
+		return new Animation(frames, timeStep, job.result(tileCount(size, tileSize) * frameCount));
+	}
+
+	/**
+	 * Fills the tables of the expression that are the same in every frame of an
+	 * animation, the rows of the PIXEL tables on the pool, unless they would
+	 * take more than PIXEL_TABLE_BUDGET bytes or the render is stopped first.
+	 */
+	private FilledTables fillInvariantTables(HoistedExpression hoisted, Dimension size, Job job) {
+		double[] domainX = domain(size.width);
+		double[] domainY = domain(size.height);
+		long pixelBytes = 3L * Double.BYTES * size.width * size.height * hoisted.getPixelTableCount();
+		boolean pixels = pixelBytes <= PIXEL_TABLE_BUDGET;
+		FilledTables invariant = hoisted.fillInvariantTables(domainX, domainY, pixels);
+		if (invariant.hasPixelTables()) {
+			pool.invoke(new PixelRowRange(hoisted, invariant, domainX, domainY, 0, size.height, job));
+		}
+		return invariant;
+	}
+
+	/**
+	 * Evaluate the expression at the given time for every pixel of an image of
+	 * the given size, in strips of getStripRows rows handed to the writer from
+	 * the top down. Returns once every row has been given to the writer, which
+	 * is left open; exceptions thrown while evaluating a pixel are rethrown to
+	 * the caller.
+	 *
+	 * @param expr   the expression to evaluate
+	 * @param size   the size of the image
+	 * @param time   the value of t
+	 * @param writer the writer of the rows
+	 * @throws IOException if the writer cannot write the rows
+	 */
+	public void renderStrips(ExpressionTreeNode expr, Dimension size, double time, RowWriter writer)
+			throws IOException {
+		renderStrips(expr, size, time, getStripRows(size.width), writer, new CancellationToken());
+	}
+
+	/**
+	 * Renders an image in strips handed to the writer, as above, unless the
+	 * token stops the render first; the strips rendered before then are
+	 * written, and the strip in progress is not. Every pixel gets the color a
+	 * render of the whole image gives it.
+	 *
+	 * @param expr      the expression to evaluate
+	 * @param size      the size of the image
+	 * @param time      the value of t
+	 * @param stripRows the number of rows of a strip (at least 1)
+	 * @param writer    the writer of the rows
+	 * @param token     the token that can stop the render
+	 * @return how much of the image was rendered
+	 * @throws IOException if the writer cannot write the rows
+	 */
+	public RenderResult renderStrips(ExpressionTreeNode expr, Dimension size, double time, int stripRows,
+			RowWriter writer, CancellationToken token) throws IOException {
+		if (stripRows <= 0) {
+			throw new IllegalArgumentException("stripRows must be positive");
+		}
+		Job job = new Job(token);
+		if (size.width <= 0 || size.height <= 0) {
+			return job.result(0);
+		}
+		int columns = (size.width + tileSize - 1) / tileSize;
+		int tileCount = 0;
+		for (int y0 = 0; y0 < size.height; y0 += stripRows) {
+			tileCount += columns * ((Math.min(stripRows, size.height - y0) + tileSize - 1) / tileSize);
+		}
+		int rows = Math.min(stripRows, size.height);
+		Pixmap[] strips = { new Pixmap(size.width, rows), new Pixmap(size.width, rows) };
+		double[] domainX = domain(size.width);
+		double[] domainY = domain(size.height);
+		ExecutorService writing = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "strip-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Future<?> written = null;
+			for (int y0 = 0, index = 0; y0 < size.height && !token.isCancelled(); y0 += rows, index++) {
+				// the other strip is being written meanwhile
+				Pixmap strip = strips[index % 2];
+				int count = Math.min(rows, size.height - y0);
+				TileGrid grid = new TileGrid(expr, strip, domainX, Arrays.copyOfRange(domainY, y0, y0 + count), time,
+						null, job, tileSize, 1);
+				pool.invoke(new TileRange(grid, 0, grid.tileCount()));
+				await(written);
+				written = null;
+				if (token.isCancelled()) {
+					break;
+				}
+				written = writing.submit(() -> {
+					strip.writeRows(writer, count);
+					return null;
+				});
+			}
+			await(written);
+		} finally {
+			writing.shutdown();
+		}
+		return job.result(tileCount);
+	}
+
+	/**
+	 * Returns how many rows the strips of a streamed image of the given width
+	 * have: whole rows of tiles, about STRIP_PIXELS pixels in all.
+	 *
+	 * @param width the width of the image, in pixels
+	 * @return the number of rows of a strip
+	 */
+	public int getStripRows(int width) {
+		return Math.max(tileSize, STRIP_PIXELS / Math.max(width, 1) / tileSize * tileSize);
+	}
+
+	/**
+	 * Waits for a strip to be written, rethrowing what kept it from being
+	 * written.
+	 */
+	private static void await(Future<?> written) throws IOException {
+		if (written == null) {
+			return;
+		}
+		try {
+			written.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing a strip", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException cause) {
+				throw cause;
+			}
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the tiles of a grid in the order a Hilbert curve visits them: each
+	 * tile is next to the one before it whenever the grid is a square whose side
+	 * is a power of two, and the curve only leaves the grid to come back to it
+	 * otherwise. Tiles are numbered row after row. A grid much longer than it is
+	 * wide would leave the curve mostly outside, so its tiles are returned row
+	 * after row instead.
+	 *
+	 * @param columns the number of columns of tiles
+	 * @param rows    the number of rows of tiles
+	 * @return every tile once, in the order of the curve
+	 */
+	public static int[] hilbertOrder(int columns, int rows) {
+		int[] order = new int[Math.max(columns, 0) * Math.max(rows, 0)];
+		int side = Integer.highestOneBit(Math.max(Math.max(columns, rows), 1));
+		if (side < Math.max(columns, rows)) {
+			side *= 2;
+		}
+		if ((long) side * side > 16L * order.length) {
+			for (int tile = 0; tile < order.length; tile++) {
+				order[tile] = tile;
+			}
+			return order;
+		}
+		int next = 0;
+		for (int distance = 0; next < order.length; distance++) {
+			// the usual conversion from the distance along the curve to a cell
+			int x = 0;
+			int y = 0;
+			for (int half = 1, rest = distance; half < side; half *= 2, rest /= 4) {
+				int right = 1 & (rest / 2);
+				int up = 1 & (rest ^ right);
+				if (up == 0) {
+					if (right == 1) {
+						x = half - 1 - x;
+						y = half - 1 - y;
+					}
+					int swap = x;
+					x = y;
+					y = swap;
+				}
+				x += half * right;
+				y += half * up;
+			}
+			if (x < columns && y < rows) {
+				order[next++] = y * columns + x;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Convert from image space to domain space.
+	 *
+	 * @param value  the pixel coordinate
+	 * @param bounds the number of pixels along that axis
+	 * @return the domain coordinate of the pixel
+	 */
+	public static double imageToDomainScale(int value, int bounds) {
+		double range = DOMAIN_MAX - DOMAIN_MIN;
+		return ((double) value / bounds) * range + DOMAIN_MIN;
+	}
+
+	private static int tileCount(Dimension size, int tileSize) {
+		if (size.width <= 0 || size.height <= 0) {
+			return 0;
+		}
+		return ((size.width + tileSize - 1) / tileSize) * ((size.height + tileSize - 1) / tileSize);
+	}
+
+	/**
+	 * Returns the domain coordinate of every pixel along an axis.
+	 */
+	private static double[] domain(int bounds) {
+		double[] domain = new double[bounds];
+		for (int value = 0; value < bounds; value++) {
+			domain[value] = imageToDomainScale(value, bounds);
+		}
+		return domain;
+	}
+
+	/**
+	 * The token of a render and the number of tiles it has written.
+	 */
+	private static class Job {
+		private final CancellationToken token;
+		private final AtomicInteger renderedTiles = new AtomicInteger();
+
+		Job(CancellationToken token) {
+			this.token = token;
+		}
+
+		RenderResult result(int tileCount) {
+			int rendered = renderedTiles.get();
+			RenderResult.Status status;
+			if (rendered == tileCount) {
+				status = RenderResult.Status.COMPLETE;
+			} else if (token.isCancelRequested()) {
+				status = RenderResult.Status.CANCELLED;
+			} else {
+				status = RenderResult.Status.DEADLINE_EXPIRED;
+			}
+			return new RenderResult(rendered, tileCount, status);
+		}
+	}
+
+	/**
+	 * Everything the tile tasks of one frame share: the expression, the target,
+	 * the time, the domain coordinates of every column and row, the filled axis
+	 * tables and the job the frame belongs to.
+	 */
+	private class TileGrid {
+		private final Job job;
+		private final ExpressionTreeNode expr;
+		private final Pixmap target;
+		private final double time;
+		private final int tileSize;
+		private final int alignment;
+		private final int columns;
+		private final int rows;
+		private final int[] order;
+		private final double[] domainX;
+		private final double[] domainY;
+		private final FilledTables axisTables;
+
+		TileGrid(ExpressionTreeNode expr, Pixmap target, double time, FilledTables invariant, Job job) {
+			this(expr, target, time, invariant, job, TiledRenderer.this.tileSize, 1);
+		}
+
+		/**
+		 * @param alignment regions are only split at multiples of this
+		 */
+		TileGrid(ExpressionTreeNode expr, Pixmap target, double time, FilledTables invariant, Job job, int tileSize,
+				int alignment) {
+			this(expr, target, domain(target.getSize().width), domain(target.getSize().height), time, invariant, job,
+					tileSize, alignment);
+		}
+
+		/**
+		 * @param domainX the domain coordinate of each column of the target
+		 * @param domainY the domain coordinate of each row of the target that is
+		 *                rendered, from the top
+		 */
+		TileGrid(ExpressionTreeNode expr, Pixmap target, double[] domainX, double[] domainY, double time,
+				FilledTables invariant, Job job, int tileSize, int alignment) {
+			this.job = job;
+			this.expr = expr;
+			this.target = target;
+			this.time = time;
+			this.tileSize = tileSize;
+			this.alignment = alignment;
+			this.columns = (domainX.length + tileSize - 1) / tileSize;
+			this.rows = (domainY.length + tileSize - 1) / tileSize;
+			this.order = hilbertOrder(columns, rows);
+			this.domainX = domainX;
+			this.domainY = domainY;
+			if (expr instanceof HoistedExpression hoisted) {
+				this.axisTables = hoisted.fillTables(domainX, domainY, time, invariant);
+			} else {
+				this.axisTables = null;
+			}
+		}
+
+		int tileCount() {
+			return columns * rows;
+		}
+
+		/**
+		 * Returns the tiles sorted by the distance of their centers to the center
+		 * of the image.
+		 */
+		int[] centerOutOrder() {
+			double centerX = domainX.length / 2.0;
+			double centerY = domainY.length / 2.0;
+			double[] distances = new double[tileCount()];
+			Integer[] tiles = new Integer[tileCount()];
+			for (int tile = 0; tile < tiles.length; tile++) {
+				double dx = (tile % columns + 0.5) * tileSize - centerX;
+				double dy = (tile / columns + 0.5) * tileSize - centerY;
+				distances[tile] = dx * dx + dy * dy;
+				tiles[tile] = tile;
+			}
+			Arrays.sort(tiles, Comparator.comparingDouble(tile -> distances[tile]));
+			return Arrays.stream(tiles).mapToInt(Integer::intValue).toArray();
+		}
+
+		/**
+		 * Renders the tile at the given position along the Hilbert curve.
+		 */
+		void renderTileAt(int position) {
+			renderTile(order[position], 1, true);
+		}
+
+		/**
+		 * Renders the pixels of a tile that belong to one pass of a render, unless
+		 * the render has been stopped, and publishes the tile to the target so
+		 * that whoever shows it repaints the tile alone.
+		 *
+		 * @param step  one pixel in step by step is evaluated by the pass
+		 * @param first true for the first pass, false if the pixels on multiples
+		 *              of 2 * step were evaluated by the pass before
+		 */
+		void renderTile(int tile, int step, boolean first) {
+			if (job.token.isCancelled()) {
+				return;
+			}
+			int x0 = (tile % columns) * tileSize;
+			int y0 = (tile / columns) * tileSize;
+			int x1 = Math.min(x0 + tileSize, domainX.length);
+			int y1 = Math.min(y0 + tileSize, domainY.length);
+			PixelBatch batch = batches.get();
+			batch.setAxisTables(axisTables);
+			batch.setTime(time);
+			ColorPlanes colors = batch.acquire();
+			if (culling) {
+				renderRegion(batch, colors, x0, y0, x1, y1, step, first);
+			} else {
+				renderPixels(batch, colors, x0, y0, x1, y1, step, first);
+			}
+			batch.release(colors);
+			target.publish(x0, y0, x1 - x0, y1 - y0);
+			job.renderedTiles.incrementAndGet();
+		}
+
+		/**
+		 * Fills the region if it is provably one color, and otherwise renders its
+		 * quarters the same way. Every pass splits the regions alike, so passes
+		 * after the first skip the regions the first one filled.
+		 */
+		private void renderRegion(PixelBatch batch, ColorPlanes colors, int x0, int y0, int x1, int y1, int step,
+				boolean first) {
+			if (x0 >= x1 || y0 >= y1) {
+				return;
+			}
+			if ((x1 - x0) * (y1 - y0) <= MIN_CULLED_AREA) {
+				renderPixels(batch, colors, x0, y0, x1, y1, step, first);
+				return;
+			}
+			Color uniform = uniformColor(x0, y0, x1, y1);
+			if (uniform != null) {
+				if (first) {
+					target.fillRect(x0, y0, x1 - x0, y1 - y0, uniform);
+				}
+				return;
+			}
+			int xMiddle = (x0 + x1) >>> 1;
+			int yMiddle = (y0 + y1) >>> 1;
+			xMiddle -= xMiddle % alignment;
+			yMiddle -= yMiddle % alignment;
+			renderRegion(batch, colors, x0, y0, xMiddle, yMiddle, step, first);
+			renderRegion(batch, colors, xMiddle, y0, x1, yMiddle, step, first);
+			renderRegion(batch, colors, x0, yMiddle, xMiddle, y1, step, first);
+			renderRegion(batch, colors, xMiddle, yMiddle, x1, y1, step, first);
+		}
+
+		/**
+		 * Returns the color of every pixel of the region if the bounds of the
+		 * expression over the region prove they all have the same one, or null.
+		 * Converting to a Java color clamps and truncates each channel, which
+		 * never decreases, so the channels agree if their bounds convert alike.
+		 */
+		private Color uniformColor(int x0, int y0, int x1, int y1) {
+			Interval[] bounds = IntervalEvaluator.getInstance().bound(expr, domainX[x0], domainX[x1 - 1], domainY[y0],
+					domainY[y1 - 1], time);
+			for (Interval bound : bounds) {
+				if (bound.mayBeNaN()) {
+					return null;
+				}
+			}
+			Color lo = new RGBColor(bounds[0].getLo(), bounds[1].getLo(), bounds[2].getLo()).toJavaColor();
+			Color hi = new RGBColor(bounds[0].getHi(), bounds[1].getHi(), bounds[2].getHi()).toJavaColor();
+			return lo.equals(hi) ? lo : null;
+		}
+
+		/**
+		 * Evaluates the pixels of the region on multiples of step, except those an
+		 * earlier pass evaluated, and paints each over the step by step block it
+		 * starts. The region starts on multiples of step.
+		 */
+		private void renderPixels(PixelBatch batch, ColorPlanes colors, int x0, int y0, int x1, int y1, int step,
+				boolean first) {
+			double[] red = colors.getRed();
+			double[] green = colors.getGreen();
+			double[] blue = colors.getBlue();
+			int[] packed = packedColors.get();
+			for (int imageY = y0; imageY < y1; imageY += step) {
+				boolean evaluatedRow = !first && imageY % (2 * step) == 0;
+				int stride = evaluatedRow ? 2 * step : step;
+				int blockY1 = Math.min(imageY + step, y1);
+				for (int from = evaluatedRow ? x0 + step : x0; from < x1; from += stride * batch.getCapacity()) {
+					int to = Math.min(from + stride * batch.getCapacity(), x1);
+					batch.setRow(domainX, from, to, stride, domainY, imageY);
+					expr.evaluate(batch, colors);
+					for (int i = 0; i < batch.getSize(); i++) {
+						packed[i] = RGBColor.toPackedRGB(red[i], green[i], blue[i]);
+					}
+					if (stride == 1) {
+						target.setRow(from, imageY, packed, 0, batch.getSize());
+						continue;
+					}
+					if (step == 1) {
+						target.setPixels(from, imageY, batch.getSize(), stride, packed, 0);
+						continue;
+					}
+					for (int i = 0, imageX = from; i < batch.getSize(); i++, imageX += stride) {
+						target.fillRect(imageX, imageY, Math.min(step, x1 - imageX), blockY1 - imageY, packed[i]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Renders a contiguous range of frames, splitting it in half until a single
+	 * frame remains, whose tiles are then rendered the same way.
+	 */
+	@SuppressWarnings("serial")
+	private class FrameRange extends RecursiveAction {
+		private final ExpressionTreeNode expr;
+		private final Pixmap[] frames;
+		private final double startTime;
+		private final double timeStep;
+		private final int from;
+		private final int to;
+		private final FilledTables invariant;
+		private final Job job;
+		private final ObjIntConsumer<Pixmap> frameDone;
+
+		FrameRange(ExpressionTreeNode expr, Pixmap[] frames, double startTime, double timeStep, int from, int to,
+				FilledTables invariant, Job job, ObjIntConsumer<Pixmap> frameDone) {
+			this.expr = expr;
+			this.frames = frames;
+			this.startTime = startTime;
+			this.timeStep = timeStep;
+			this.from = from;
+			this.to = to;
+			this.invariant = invariant;
+			this.job = job;
+			this.frameDone = frameDone;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				if (job.token.isCancelled()) {
+					return;
+				}
+				TileGrid grid = new TileGrid(expr, frames[from], startTime + from * timeStep, invariant, job);
+				new TileRange(grid, 0, grid.tileCount()).invoke();
+				if (!job.token.isCancelled()) {
+					frameDone.accept(frames[from], from);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new FrameRange(expr, frames, startTime, timeStep, from, middle, invariant, job, frameDone),
+					new FrameRange(expr, frames, startTime, timeStep, middle, to, invariant, job, frameDone));
+		}
+	}
+
+	/**
+	 * Fills a contiguous range of rows of the PIXEL tables of an animation,
+	 * splitting it in half until a single row remains, which is left empty once
+	 * the render is stopped.
+	 */
+	@SuppressWarnings("serial")
+	private static class PixelRowRange extends RecursiveAction {
+		private final HoistedExpression expr;
+		private final FilledTables tables;
+		private final double[] domainX;
+		private final double[] domainY;
+		private final int from;
+		private final int to;
+		private final Job job;
+
+		PixelRowRange(HoistedExpression expr, FilledTables tables, double[] domainX, double[] domainY, int from,
+				int to, Job job) {
+			this.expr = expr;
+			this.tables = tables;
+			this.domainX = domainX;
+			this.domainY = domainY;
+			this.from = from;
+			this.to = to;
+			this.job = job;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				if (!job.token.isCancelled()) {
+					expr.fillPixelRow(tables, domainX, domainY, from);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new PixelRowRange(expr, tables, domainX, domainY, from, middle, job),
+					new PixelRowRange(expr, tables, domainX, domainY, middle, to, job));
+		}
+	}
+
+	/**
+	 * Renders a contiguous range of positions along the Hilbert curve of the
+	 * tiles, splitting it in half until a single tile remains so that idle
+	 * workers can steal the other halves.
+	 */
+	@SuppressWarnings("serial")
+	private class TileRange extends RecursiveAction {
+		private final TileGrid grid;
+		private final int from;
+		private final int to;
+
+		TileRange(TileGrid grid, int from, int to) {
+			this.grid = grid;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				grid.renderTileAt(from);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new TileRange(grid, from, middle), new TileRange(grid, middle, to));
+		}
+	}
+
+	/**
+	 * Renders the tiles of one pass in the given order: each worker takes the
+	 * next tile not yet taken until none is left.
+	 */
+	@SuppressWarnings("serial")
+	private class TileQueue extends RecursiveAction {
+		private final TileGrid grid;
+		private final int[] order;
+		private final int step;
+		private final boolean first;
+		private final AtomicInteger next;
+		private final int workers;
+
+		TileQueue(TileGrid grid, int[] order, int step, boolean first, AtomicInteger next, int workers) {
+			this.grid = grid;
+			this.order = order;
+			this.step = step;
+			this.first = first;
+			this.next = next;
+			this.workers = workers;
+		}
+
+		@Override
+		protected void compute() {
+			if (workers > 1) {
+				int half = workers / 2;
+				invokeAll(new TileQueue(grid, order, step, first, next, half),
+						new TileQueue(grid, order, step, first, next, workers - half));
+				return;
+			}
+			for (int i = next.getAndIncrement(); i < order.length; i = next.getAndIncrement()) {
+				grid.renderTile(order[i], step, first);
+			}
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package picasso.util;
+
+/**
+ * A command whose running execution can be asked to stop early.
+ * 
+ * @author Therese Elvira Mombou Gatsing
+ */
+public interface Cancellable {
+	/**
+	 * Asks the execution in progress, if any, to stop as soon as it can.
+	 */
+	public void cancel();
+
+	/**
+	 * Called by whoever runs the command as it hands an execution over to the
+	 * thread that runs it: a cancel() from then on stops that execution, even
+	 * one that has not started yet. Does nothing by default.
+	 */
+	public default void prepare() {
+	}
+}
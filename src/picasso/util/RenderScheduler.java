@@ -0,0 +1,224 @@
+package picasso.util;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Runs commands on their targets on a small pool of threads shared by every
+ * request, at most one command at a time per target. The latest request for a
+ * target wins: it replaces the request still waiting for that target, and the
+ * command running on the target is asked to stop if it is Cancellable. The
+ * waiting request starts as soon as the running one ends.
+ *
+ * While commands run, the view is repainted every DELAY milliseconds, and once
+ * more when each command ends.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class RenderScheduler<T> {
+
+	private static final int DELAY = 400; // in milliseconds
+
+	/** number of commands on different targets that can run at once */
+	public static final int DEFAULT_THREADS = 2;
+
+	private final JComponent view;
+	private final ExecutorService executor;
+	private final Timer repainter;
+	private final Map<T, Slot> slots = new IdentityHashMap<>();
+	private int running;
+
+	/**
+	 * Create a scheduler with the default number of threads that repaints the
+	 * given view.
+	 *
+	 * @param view the component showing the targets, or null
+	 */
+	public RenderScheduler(JComponent view) {
+		this(view, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Create a scheduler that repaints the given view.
+	 *
+	 * @param view    the component showing the targets, or null
+	 * @param threads the number of commands on different targets that can run at
+	 *                once (at least 1)
+	 */
+	public RenderScheduler(JComponent view, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		this.view = view;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+		this.repainter = view == null ? null : new Timer(DELAY, e -> view.repaint());
+	}
+
+	/**
+	 * Runs the command on the target once the command running on it, if any,
+	 * has ended, and asks that one to stop. A request still waiting for the
+	 * target is dropped, and its future is cancelled.
+	 *
+	 * @param command the command to run
+	 * @param target  the target to run it on
+	 * @return a future that completes when the command has run, or is cancelled
+	 *         if a later request replaces this one before it starts
+	 */
+	public synchronized Future<Void> submit(Command<T> command, T target) {
+		Slot slot = slots.computeIfAbsent(target, key -> new Slot());
+		Request request = new Request(command, target);
+		if (slot.waiting != null) {
+			slot.waiting.done.cancel(false);
+			slot.waiting = null;
+		}
+		if (slot.running == null) {
+			start(slot, request);
+		} else {
+			slot.waiting = request;
+			cancel(slot.running);
+		}
+		return request.done;
+	}
+
+	/**
+	 * Drops the request waiting for the target and asks the command running on
+	 * it to stop.
+	 *
+	 * @param target the target
+	 */
+	public synchronized void cancel(T target) {
+		Slot slot = slots.get(target);
+		if (slot == null) {
+			return;
+		}
+		if (slot.waiting != null) {
+			slot.waiting.done.cancel(false);
+			slot.waiting = null;
+		}
+		if (slot.running != null) {
+			cancel(slot.running);
+		}
+	}
+
+	/**
+	 * Returns true if a command is running or waiting.
+	 *
+	 * @return true if the scheduler is busy
+	 */
+	public synchronized boolean isBusy() {
+		return running > 0;
+	}
+
+	/**
+	 * Stops accepting work and asks the running commands to stop.
+	 */
+	public synchronized void shutdown() {
+		for (T target : slots.keySet()) {
+			cancel(target);
+		}
+		executor.shutdown();
+	}
+
+	private static void cancel(RenderScheduler<?>.Request request) {
+		if (request.command instanceof Cancellable) {
+			((Cancellable) request.command).cancel();
+		}
+	}
+
+	private void start(Slot slot, Request request) {
+		// a cancel that comes before the command starts still stops it
+		if (request.command instanceof Cancellable) {
+			((Cancellable) request.command).prepare();
+		}
+		slot.running = request;
+		running++;
+		if (running == 1 && repainter != null) {
+			repainter.start();
+		}
+		executor.execute(request);
+	}
+
+	private synchronized void finished(Request request) {
+		Slot slot = slots.get(request.target);
+		slot.running = null;
+		running--;
+		if (slot.waiting != null) {
+			Request next = slot.waiting;
+			slot.waiting = null;
+			start(slot, next);
+		} else {
+			slots.remove(request.target);
+		}
+		if (view != null) {
+			if (running == 0) {
+				repainter.stop();
+			}
+			view.repaint();
+		}
+	}
+
+	/**
+	 * The request running on a target and the one waiting for it.
+	 */
+	private class Slot {
+		private Request running;
+		private Request waiting;
+	}
+
+	/**
+	 * A command to run on a target.
+	 */
+	private class Request implements Runnable {
+		private final Command<T> command;
+		private final T target;
+		private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Request(Command<T> command, T target) {
+			this.command = command;
+			this.target = target;
+		}
+
+		@Override
+		public void run() {
+			Throwable failure = null;
+			try {
+				command.execute(target);
+			} catch (RuntimeException | Error e) {
+				failure = e;
+			}
+			// the target is free by the time the future completes
+			finished(this);
+			if (failure == null) {
+				done.complete(null);
+			} else {
+				done.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * Names the worker threads and lets the application exit while they wait.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "render-scheduler-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -15,7 +15,7 @@ public class ThreadedCommand<T> implements Command<T> {
 
 	private Command<T> myCommand;
 	private JComponent myView;
-	private boolean isDone;
+	private volatile boolean isDone;
 
 	/**
 	 * Create a command that runs the given command and updates the given view
@@ -28,13 +28,18 @@ public class ThreadedCommand<T> implements Command<T> {
 	}
 
 	/**
-	 * Run the command on the target or cancel it if is already running.
+	 * Run the command on the target or cancel it if is already running. A
+	 * command that is Cancellable is asked to stop; any other runs to its end.
 	 */
 	public void execute(final T target) {
 		if (isDone) {
 			// just starting ...
 			isDone = false;
 
+			if (myCommand instanceof Cancellable) {
+				((Cancellable) myCommand).prepare();
+			}
+
 			// start thread for long task that does visible work
 			Thread worker = new Thread() {
 				public void run() {
@@ -61,6 +66,9 @@ public class ThreadedCommand<T> implements Command<T> {
 		} else {
 			// allow action to be canceled
 			isDone = true;
+			if (myCommand instanceof Cancellable) {
+				((Cancellable) myCommand).cancel();
+			}
 		}
 	}
 }
@@ -0,0 +1,84 @@
+package picasso.view;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import picasso.model.Pixmap;
+import picasso.render.Animation;
+
+/**
+ * Plays the frames of an animation over and over in a pixmap, one frame every
+ * DELAY milliseconds, on a Swing timer. Playing another animation, or null,
+ * stops the one playing; once stop returns, no frame of the animation is drawn
+ * any more, so a render can draw into the pixmap right after.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public final class AnimationPlayer {
+
+	/** the time each frame is shown, in milliseconds */
+	public static final int DELAY = 40;
+
+	private final Pixmap target;
+	private final Timer timer;
+	private Animation playing;
+	private int frame;
+
+	/**
+	 * Create a player that draws the frames into the given pixmap.
+	 *
+	 * @param target the pixmap to draw the frames into
+	 */
+	public AnimationPlayer(Pixmap target) {
+		this.target = target;
+		this.timer = new Timer(DELAY, e -> showNextFrame());
+	}
+
+	/**
+	 * Plays the animation from its first frame, or stops playing if it is null.
+	 * May be called on any thread.
+	 *
+	 * @param animation the animation to play, or null
+	 */
+	public void play(Animation animation) {
+		synchronized (this) {
+			playing = animation;
+			frame = 0;
+		}
+		SwingUtilities.invokeLater(() -> {
+			if (isPlaying()) {
+				timer.start();
+			} else {
+				timer.stop();
+			}
+		});
+	}
+
+	/**
+	 * Stops playing. May be called on any thread.
+	 */
+	public void stop() {
+		play(null);
+	}
+
+	/**
+	 * Returns true while an animation is playing.
+	 *
+	 * @return true if an animation is playing
+	 */
+	public synchronized boolean isPlaying() {
+		return playing != null;
+	}
+
+	/**
+	 * Draws the next frame of the animation playing, if any, going back to the
+	 * first one after the last.
+	 */
+	synchronized void showNextFrame() {
+		if (playing == null) {
+			return;
+		}
+		target.copyFrom(playing.getFrame(frame));
+		frame = (frame + 1) % playing.getFrameCount();
+	}
+}
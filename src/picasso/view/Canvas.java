@@ -38,6 +38,8 @@ public class Canvas extends JPanel {
 		setBorder(BorderFactory.createLoweredBevelBorder());
 		myContainer = container;
 		myPixmap = new Pixmap(pixName);
+		// repaint only what changed, as the renderer publishes each tile
+		myPixmap.addChangeListener(this::repaint);
 		addComponentListener(new ComponentAdapter() {
 			public void componentResized(ComponentEvent e) {
 				myPixmap.setSize(getSize());
@@ -13,7 +13,7 @@ package picasso.view;
 		import javax.swing.JTextField;
 		import picasso.model.Pixmap;
 		import picasso.util.ErrorReporter;
-		import picasso.util.ThreadedCommand;
+		import picasso.util.RenderScheduler;
 		import picasso.view.commands.*;
 		/**
 		 * Main container for the Picasso application.
@@ -32,6 +32,7 @@ package picasso.view;
 			private ErrorReporter errorReporter;
 			private Label statusLabel;
 			private ExpressionHistory history;
+			private RenderScheduler<Pixmap> scheduler;
 
 			public Frame(Dimension size) {
 				setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -53,6 +54,10 @@ package picasso.view;
 				ExpressionHistoryStorage.load(historyFile, history, errorReporter);
 				ExpressionHistoryStorage.attachAutoSave(historyFile, history, errorReporter);
 
+				// every evaluation goes through one scheduler, so the latest one wins;
+				// the canvas repaints the tiles as they are published, not on a timer
+				scheduler = new RenderScheduler<Pixmap>(null);
+
 				// input
 				JPanel inputPanel = new JPanel();
 				JLabel label = new JLabel("Input Expression:"); // text label
@@ -60,28 +65,27 @@ package picasso.view;
 				inputPanel.add(label);
 				inputPanel.add(expression);
 
+				// the evaluator reads the expression field, so it comes after it
+				Evaluator evaluator = createEvaluator(new AnimationPlayer(canvas.getPixmap()));
+
 				// history panel
 				ExpressionHistoryPanel historyPanel = new ExpressionHistoryPanel(
 					history,
 					expression,
-					() -> new ThreadedCommand<Pixmap>(
-							canvas,
-							new Evaluator(expression, errorReporter, history))
-							.execute(canvas.getPixmap())
+					() -> scheduler.submit(evaluator, canvas.getPixmap())
 				);
 
 				// add commands to test here
 				ButtonPanel commands = new ButtonPanel(canvas);
-				commands.add("Open", new Reader(canvas, expression, errorReporter, history));
-				commands.add("Evaluate", new ThreadedCommand<Pixmap>(canvas, new Evaluator(expression, errorReporter, history)));
+				commands.add("Open", new Reader(canvas, expression, errorReporter, history, scheduler, evaluator));
+				commands.add("Evaluate", target -> scheduler.submit(evaluator, target));
 				commands.add("Save", new Writer(expression));
-				commands.add("Generate Random Expression", new RandomExpressionLoader(canvas, expression, errorReporter, history));
+				commands.add("Generate Random Expression", new RandomExpressionLoader(canvas, expression, errorReporter, history, scheduler, evaluator));
 
 				// Add action listener so pressing Enter evaluates
 				expression.addActionListener(new ActionListener() {
 					public void actionPerformed(ActionEvent e) {
-						new ThreadedCommand<Pixmap>(canvas, new Evaluator(expression, errorReporter, history))
-								.execute(canvas.getPixmap());
+						scheduler.submit(evaluator, canvas.getPixmap());
 						canvas.refresh();
 					}
 				});
@@ -104,6 +108,25 @@ package picasso.view;
 
 			}
 
+			/**
+			 * Creates an evaluator that renders still images progressively, so
+			 * that the canvas shows the coarse tiles of the first pass early, and
+			 * hands the animations it renders to the player.
+			 */
+			private Evaluator createEvaluator(AnimationPlayer player) {
+				Evaluator evaluator = new Evaluator(expression, errorReporter, history);
+				evaluator.setProgressive(true);
+				evaluator.setAnimationListener(player::play);
+				return evaluator;
+			}
+
+			/**
+			 * Returns the scheduler that runs every evaluation of this frame.
+			 */
+			public RenderScheduler<Pixmap> getScheduler() {
+				return scheduler;
+			}
+
 			// Add getter for error reporter for unit tests
 			public ErrorReporter getErrorReporter() {
 				return errorReporter;
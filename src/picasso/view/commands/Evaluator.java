@@ -1,17 +1,28 @@
 package picasso.view.commands;
 
-import java.awt.Color;
 import java.awt.Dimension;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
 import javax.swing.JTextField;
 
+import picasso.model.ImageCache;
 import picasso.model.Pixmap;
 import picasso.parser.ExpressionTreeGenerator;
 import picasso.parser.ParseException;
 import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.ImageSampler;
+import picasso.parser.optimizer.DependencyAnalyzer;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.Animation;
+import picasso.render.CancellationToken;
+import picasso.render.RenderMode;
+import picasso.render.RenderResult;
+import picasso.render.TiledRenderer;
+import picasso.util.Cancellable;
 import picasso.util.Command;
 import picasso.util.ErrorReporter;
 import picasso.view.ExpressionHistory;
-import picasso.parser.language.expressions.T;
 
 /**
  * Evaluate an expression for each pixel in an image and optionally record
@@ -24,28 +35,66 @@ import picasso.parser.language.expressions.T;
  * @author Menilik Deneke
  * @author Asya Yurkovskaya
  */
-public class Evaluator implements Command<Pixmap> {
+public class Evaluator implements Command<Pixmap>, Cancellable {
 
 	private final ExpressionTreeGenerator expTreeGen = new ExpressionTreeGenerator();
+	private final ExpressionOptimizer optimizer = ExpressionOptimizer.getInstance();
+
+	public static final double DOMAIN_MIN = TiledRenderer.DOMAIN_MIN;
+	public static final double DOMAIN_MAX = TiledRenderer.DOMAIN_MAX;
 
-	public static final double DOMAIN_MIN = -1;
-	public static final double DOMAIN_MAX = 1;
+	/** how many frames an expression that uses t is rendered for */
+	public static final int DEFAULT_FRAME_COUNT = 50;
+	/** how much t grows from one frame to the next */
+	public static final double DEFAULT_TIME_STEP = 0.02;
 
 	private JTextField expressionField;
 	private ErrorReporter errorReporter;
 	private ExpressionHistory history;
+	private TiledRenderer renderer;
+	private RenderMode renderMode = RenderMode.COMPILED;
+	private int frameCount = DEFAULT_FRAME_COUNT;
+	private double timeStep = DEFAULT_TIME_STEP;
+	private volatile Animation animation;
+	private boolean progressive;
+	private Runnable passListener;
+	private Consumer<Animation> animationListener;
+	private long deadlineMillis;
+	private volatile CancellationToken token = new CancellationToken();
+	private CancellationToken preparedToken;
+	private volatile RenderResult lastResult;
 
 	/**
 	 * Constructor for the expression.
 	 */
 	public Evaluator(JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history) {
+		this(expressionField, errorReporter, history, TiledRenderer.getInstance());
+	}
+
+	/**
+	 * Constructor for the expression that renders with the given renderer.
+	 */
+	public Evaluator(JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history,
+			TiledRenderer renderer) {
 		this.expressionField = expressionField;
 		this.errorReporter = errorReporter;
 		this.history = history;
+		this.renderer = renderer;
 	}
 
 	/**
-	 * Evaluate an expression for each point in the image.
+	 * Evaluate an expression for each point in the image. The expression is
+	 * optimized and prepared for the current render mode; the pixels of each
+	 * frame are computed in parallel by the renderer. An expression that uses t
+	 * is rendered as an animation whose frames are rendered concurrently and
+	 * kept (see getAnimation()); the image shows each frame once it is done,
+	 * ends on the last one, and the animation listener is given the frames to
+	 * play. Any other
+	 * expression is rendered progressively if progressive rendering is on or a
+	 * pass listener is set.
+	 * 
+	 * The render stops early if cancel() is called or the deadline, if any,
+	 * passes; see getLastResult().
 	 */
 	public void execute(Pixmap target) {
 		try {
@@ -53,29 +102,44 @@ public class Evaluator implements Command<Pixmap> {
 				errorReporter.clearError();
 			}
 
-			ExpressionTreeNode expr = createExpression();
-			rememberExpression();
-
-			int frames = 1;
-
-			if (T.getHasTime()) {
-				frames = 50;
+			if (animationListener != null) {
+				// whatever played the last animation stops drawing into the target
+				animationListener.accept(null);
 			}
+			CancellationToken token = takeToken();
+			ExpressionTreeNode optimized = optimizer.optimize(createExpression(target.getSize()));
+			ExpressionTreeNode expr = renderMode.prepare(optimized);
+			rememberExpression();
 
-			Dimension size = target.getSize();
-
-			for (int i = 0; i < frames; i++) {
-				
-				for (int imageY = 0; imageY < size.height; imageY++) {
-					double evalY = imageToDomainScale(imageY, size.height);
-					for (int imageX = 0; imageX < size.width; imageX++) {
-						double evalX = imageToDomainScale(imageX, size.width);
-						Color pixelColor = expr.evaluate(evalX, evalY).toJavaColor();
-						target.setColor(imageX, imageY, pixelColor);
+			if (DependencyAnalyzer.getInstance().dependencies(optimized).contains(DependencyAnalyzer.Variable.T)) {
+				FrameShower shower = new FrameShower(target);
+				Animation rendered = renderer.renderAnimation(expr, target.getSize(), frameCount, timeStep, token,
+						shower);
+				lastResult = rendered.getResult();
+				if (lastResult.isComplete()) {
+					target.copyFrom(rendered.getLastFrame());
+					animation = rendered;
+					if (animationListener != null) {
+						animationListener.accept(rendered);
 					}
+				} else {
+					animation = null;
 				}
-
-				T.increaseTime();
+			} else if (progressive || passListener != null) {
+				Runnable listener = passListener;
+				animation = null;
+				lastResult = renderer.renderProgressive(expr, target, 0, step -> {
+					if (listener != null) {
+						listener.run();
+					}
+				}, token);
+			} else {
+				animation = null;
+				lastResult = renderer.render(expr, target, 0, token);
+			}
+			if (lastResult.getStatus() == RenderResult.Status.DEADLINE_EXPIRED) {
+				reportError(String.format("Render stopped after %d ms with %.0f%% of the image done.", deadlineMillis,
+						lastResult.getFractionComplete() * 100));
 			}
 		} catch (ParseException e) {
 			e.printStackTrace();
@@ -105,11 +169,164 @@ public class Evaluator implements Command<Pixmap> {
 		    e.printStackTrace();
 		    reportError("Unable to evaluate expression. Please try a different one.");
 
-		} finally {
-			T.resetTime();
-			T.setHasTime(false);
+		}
+	}
+
+	/**
+	 * Stops the render in progress, if any, at the next tile boundary, or the
+	 * render handed over by prepare() if it has not started yet.
+	 */
+	@Override
+	public void cancel() {
+		token.cancel();
+	}
+
+	/**
+	 * Creates the token of the next render before it is handed to the thread
+	 * that runs it, so that a cancel() in between stops it. The deadline, if
+	 * any, counts from now.
+	 */
+	@Override
+	public synchronized void prepare() {
+		preparedToken = newToken();
+		token = preparedToken;
+	}
+
+	/**
+	 * Returns the token prepared for this render, or a new one if none was.
+	 */
+	private synchronized CancellationToken takeToken() {
+		CancellationToken taken = preparedToken;
+		preparedToken = null;
+		if (taken == null) {
+			taken = newToken();
+			token = taken;
+		}
+		return taken;
+	}
+
+	private CancellationToken newToken() {
+		return deadlineMillis > 0 ? CancellationToken.withTimeout(deadlineMillis) : new CancellationToken();
+	}
+
+	/**
+	 * Returns how much of the image the last render wrote.
+	 * 
+	 * @return the result of the last render, or null if nothing was rendered
+	 */
+	public RenderResult getLastResult() {
+		return lastResult;
+	}
+
+	/**
+	 * Returns the wall-clock time a render may take, in milliseconds.
+	 */
+	public long getDeadline() {
+		return deadlineMillis;
+	}
+
+	/**
+	 * Sets the wall-clock time a render may take, in milliseconds, after which
+	 * it stops and reports how much of the image it rendered; 0 for no limit.
+	 * Applies from the next render on.
+	 */
+	public void setDeadline(long deadlineMillis) {
+		if (deadlineMillis < 0) {
+			throw new IllegalArgumentException("deadlineMillis must not be negative");
+		}
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	/**
+	 * Returns the frames of the last expression rendered, if it used t.
+	 * 
+	 * @return the last animation, or null if the last expression did not use t
+	 */
+	public Animation getAnimation() {
+		return animation;
+	}
+
+	/**
+	 * Returns true if expressions that do not use t are rendered progressively.
+	 */
+	public boolean isProgressive() {
+		return progressive;
+	}
+
+	/**
+	 * Renders expressions that do not use t progressively, so that a view of
+	 * the target shows the coarse image while the finer passes are rendered;
+	 * applies from the next render on.
+	 */
+	public void setProgressive(boolean progressive) {
+		this.progressive = progressive;
+	}
+
+	/**
+	 * Renders expressions that do not use t progressively, running the listener
+	 * after each pass so that a view can show the coarse image while the finer
+	 * passes are rendered; null renders them in a single pass.
+	 */
+	public void setPassListener(Runnable passListener) {
+		this.passListener = passListener;
+	}
+
+	/**
+	 * Sets the listener told about the animations rendered: with each animation
+	 * once all its frames are rendered, so that it can be played, and with null
+	 * when any render starts, so that whatever plays the last one stops drawing
+	 * into the target. Called on the thread of the render; null for none.
+	 */
+	public void setAnimationListener(Consumer<Animation> animationListener) {
+		this.animationListener = animationListener;
+	}
 
+	/**
+	 * Returns how many frames an expression that uses t is rendered for.
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Sets how many frames an expression that uses t is rendered for; applies
+	 * from the next render on.
+	 */
+	public void setFrameCount(int frameCount) {
+		if (frameCount <= 0) {
+			throw new IllegalArgumentException("frameCount must be positive");
 		}
+		this.frameCount = frameCount;
+	}
+
+	/**
+	 * Returns how much t grows from one frame to the next.
+	 */
+	public double getTimeStep() {
+		return timeStep;
+	}
+
+	/**
+	 * Sets how much t grows from one frame to the next; applies from the next
+	 * render on.
+	 */
+	public void setTimeStep(double timeStep) {
+		this.timeStep = timeStep;
+	}
+
+	/**
+	 * Returns how expressions are evaluated by this command.
+	 */
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}
+
+	/**
+	 * Sets how expressions are evaluated by this command; applies from the next
+	 * render on.
+	 */
+	public void setRenderMode(RenderMode renderMode) {
+		this.renderMode = renderMode;
 	}
 
 	/**
@@ -144,8 +361,7 @@ public class Evaluator implements Command<Pixmap> {
 	 * Convert from image space to domain space.
 	 */
 	protected double imageToDomainScale(int value, int bounds) {
-		double range = DOMAIN_MAX - DOMAIN_MIN;
-		return ((double) value / bounds) * range + DOMAIN_MIN;
+		return TiledRenderer.imageToDomainScale(value, bounds);
 	}
 
 	/**
@@ -161,6 +377,23 @@ public class Evaluator implements Command<Pixmap> {
 	    return expTreeGen.makeExpression(expressionText);
 	}
 
+	/**
+	 * Parse the expression with its images decoded for a render of the given
+	 * size.
+	 */
+	private ExpressionTreeNode createExpression(Dimension size) {
+		ImageCache images = ImageCache.getInstance();
+		images.setResolution(size);
+		try {
+			ExpressionTreeNode expr = createExpression();
+			// the images were decoded while the expression was parsed
+			ImageSampler.awaitImages(expr);
+			return expr;
+		} finally {
+			images.setResolution(null);
+		}
+	}
+
 	/**
 	 * Persist the current expression into history if tracking is enabled.
 	 */
@@ -169,4 +402,25 @@ public class Evaluator implements Command<Pixmap> {
 			history.add(expressionField.getText());
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Shows each frame of an animation in the target as soon as it is rendered,
+	 * unless a later frame is already shown.
+	 */
+	private static class FrameShower implements ObjIntConsumer<Pixmap> {
+		private final Pixmap target;
+		private int shown = -1;
+
+		FrameShower(Pixmap target) {
+			this.target = target;
+		}
+
+		@Override
+		public synchronized void accept(Pixmap frame, int index) {
+			if (index > shown) {
+				shown = index;
+				target.copyFrom(frame);
+			}
+		}
+	}
+}
@@ -11,8 +11,10 @@ import javax.swing.JFileChooser;
 import javax.swing.JTextField;
 import picasso.model.Pixmap;
 import picasso.parser.language.BuiltinFunctionsReader;
+import picasso.util.Command;
 import picasso.util.ErrorReporter;
 import picasso.util.FileCommand;
+import picasso.util.RenderScheduler;
 import picasso.view.ExpressionHistory;
 
 /**
@@ -24,10 +26,11 @@ public class RandomExpressionLoader extends FileCommand<Pixmap> {
 
     private final JComponent view;
     private final JTextField expressionField;
-    private final Random rand = new Random();
+    private final Random rand;
     private final ErrorReporter errorReporter;
     private final ExpressionHistory history;
-
+    private RenderScheduler<Pixmap> scheduler;
+    private Command<Pixmap> evaluator;
 
     private static final int MAX_DEPTH = 10;
 
@@ -45,7 +48,27 @@ public class RandomExpressionLoader extends FileCommand<Pixmap> {
     private final List<String> imagePaths = new ArrayList<>();
 
     public RandomExpressionLoader(JComponent view, JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history) {
+        this(view, expressionField, errorReporter, history, new Random());
+    }
+
+    /**
+     * Creates a loader that submits the evaluation of each expression to the
+     * scheduler instead of evaluating it on the calling thread.
+     */
+    public RandomExpressionLoader(JComponent view, JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history,
+            RenderScheduler<Pixmap> scheduler, Command<Pixmap> evaluator) {
+        this(view, expressionField, errorReporter, history, new Random());
+        this.scheduler = scheduler;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Creates a loader that draws its expressions from the given random number
+     * generator, so that a seeded generator gives the same expressions every time.
+     */
+    public RandomExpressionLoader(JComponent view, JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history, Random rand) {
         super(JFileChooser.OPEN_DIALOG);
+        this.rand = rand;
         this.view = view;
         this.expressionField = expressionField;
         this.errorReporter = errorReporter;
@@ -112,16 +135,19 @@ public class RandomExpressionLoader extends FileCommand<Pixmap> {
         String randomExpr = generateTopLevelExpression();
         expressionField.setText(randomExpr);
 
-        Evaluator evaluator = new Evaluator(expressionField, errorReporter, history);
-        evaluator.execute(target);
+        if (scheduler != null) {
+            scheduler.submit(evaluator, target);
+        } else {
+            new Evaluator(expressionField, errorReporter, history).execute(target);
+        }
     }
 
     
     /**
      * Builds a top-level expression by combining 1–3 smaller expressions 
-     * with random binary operators.
+     * with random binary operators, without evaluating it.
      */
-    private String generateTopLevelExpression() {
+    public String generateTopLevelExpression() {
         // 3 here is just a design choice so expressions aren’t too simple or too huge.
         int termCount = 1 + rand.nextInt(3);
 
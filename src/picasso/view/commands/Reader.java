@@ -10,16 +10,18 @@ import javax.swing.JFileChooser;
 import javax.swing.JTextField;
 
 import picasso.model.Pixmap;
+import picasso.util.Command;
 import picasso.util.ErrorReporter;
 import picasso.util.FileCommand;
-import picasso.util.ThreadedCommand;
+import picasso.util.RenderScheduler;
 import picasso.view.ExpressionHistory;
 
 /**
  * Opens either an image or expression file. Images are read into the pixmap;
  * expression files populate the input field and trigger evaluation for each
  * non-blank, non-comment line in the file. Inline comments after // are
- * removed before evaluation.
+ * removed before evaluation. With a scheduler, the evaluations are submitted
+ * to it, so the evaluation of the last line supersedes those of the others.
  * 
  * @author Robert C Duvall
  */
@@ -29,13 +31,29 @@ public class Reader extends FileCommand<Pixmap> {
 	private final JTextField expressionField;
 	private final ErrorReporter errorReporter;
 	private final ExpressionHistory history;
+	private final RenderScheduler<Pixmap> scheduler;
+	private final Command<Pixmap> evaluator;
 
-	public Reader(JComponent view, JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history) {
+	/**
+	 * Creates a reader that submits the evaluation of each expression to the
+	 * scheduler.
+	 */
+	public Reader(JComponent view, JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history,
+			RenderScheduler<Pixmap> scheduler, Command<Pixmap> evaluator) {
 		super(JFileChooser.OPEN_DIALOG);
 		this.view = view;
 		this.expressionField = expressionField;
 		this.errorReporter = errorReporter;
 		this.history = history;
+		this.scheduler = scheduler;
+		this.evaluator = evaluator;
+	}
+
+	/**
+	 * Creates a reader that evaluates each expression before reading the next.
+	 */
+	public Reader(JComponent view, JTextField expressionField, ErrorReporter errorReporter, ExpressionHistory history) {
+		this(view, expressionField, errorReporter, history, null, new Evaluator(expressionField, errorReporter, history));
 	}
 
 	// Backward compatibility constructors
@@ -70,10 +88,11 @@ public class Reader extends FileCommand<Pixmap> {
 					continue; // skip blank or comment-only lines
 				}
 				expressionField.setText(expr);
-				Evaluator evaluator = (errorReporter != null)
-						? new Evaluator(expressionField, errorReporter, history)
-						: new Evaluator(expressionField, null, history);
-				new ThreadedCommand<Pixmap>(view, evaluator).execute(target);
+				if (scheduler != null) {
+					scheduler.submit(evaluator, target);
+				} else {
+					evaluator.execute(target);
+				}
 			}
 
 		} catch (IOException e) {
@@ -12,7 +12,8 @@ import picasso.util.FileCommand;
 
 /**
  * Save the chosen file. If the filename ends with .exp (or no known image extension),
- * save the current expression text; otherwise save the current image as a jpg.
+ * save the current expression text; otherwise save the current image in the
+ * format its extension names: png (lossless), gif, bmp or jpg.
  *
  * @author Robert C Duvall
  */
@@ -52,7 +53,7 @@ public class Writer extends FileCommand<Pixmap> {
 				e.printStackTrace();
 			}
 		} else {
-			// default to jpg write for images
+			// the pixmap picks the format from the extension
 			target.write(trimmed);
 		}
 	}
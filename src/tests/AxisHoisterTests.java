@@ -0,0 +1,259 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Dimension;
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.model.Pixmap;
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.FilledTables;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.compiler.CompiledNode;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.optimizer.AxisHoister;
+import picasso.parser.optimizer.DependencyAnalyzer;
+import picasso.parser.optimizer.DependencyAnalyzer.Variable;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.Animation;
+import picasso.render.RenderMode;
+import picasso.render.TiledRenderer;
+
+/**
+ * Tests the dependency analysis of expressions and the hoisting of
+ * subexpressions that depend on only one of x and y, or that do not depend on
+ * t in an animated expression, into tables.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class AxisHoisterTests {
+
+	private static final int WIDTH = 37;
+	private static final int HEIGHT = 23;
+
+	private static ExpressionTreeGenerator parser;
+	private static DependencyAnalyzer analyzer;
+	private static AxisHoister hoister;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		analyzer = DependencyAnalyzer.getInstance();
+		hoister = AxisHoister.getInstance();
+	}
+
+	private static double[] domain(int size) {
+		double[] domain = new double[size];
+		for (int i = 0; i < size; i++) {
+			domain[i] = TiledRenderer.imageToDomainScale(i, size);
+		}
+		return domain;
+	}
+
+	/**
+	 * Checks that the prepared expression, given its tables, gives exactly the
+	 * colors of the tree at every pixel, and that it still does without them.
+	 */
+	private static void assertSameColors(ExpressionTreeNode tree, ExpressionTreeNode prepared) {
+		double[] domainX = domain(WIDTH);
+		double[] domainY = domain(HEIGHT);
+		PixelBatch batch = new PixelBatch(16);
+		if (prepared instanceof HoistedExpression hoisted) {
+			batch.setAxisTables(hoisted.fillTables(domainX, domainY, 0));
+		}
+		ColorPlanes expected = new ColorPlanes(batch.getCapacity());
+		ColorPlanes actual = new ColorPlanes(batch.getCapacity());
+		for (int row = 0; row < HEIGHT; row++) {
+			for (int x0 = 0; x0 < WIDTH; x0 += batch.getCapacity()) {
+				int x1 = Math.min(x0 + batch.getCapacity(), WIDTH);
+				batch.setRow(domainX, x0, x1, domainY, row);
+				tree.evaluate(batch, expected);
+				prepared.evaluate(batch, actual);
+				SameColors.assertSameColors(expected, actual, batch.getSize(), "with tables");
+
+				// without the column and row, the tables cannot be used
+				batch.setRow(domainX, x0, x1, domainY[row]);
+				prepared.evaluate(batch, actual);
+				SameColors.assertSameColors(expected, actual, batch.getSize(), "without tables");
+			}
+			RGBColor single = prepared.evaluate(domainX[3], domainY[row]);
+			assertEquals(Double.doubleToLongBits(tree.evaluate(domainX[3], domainY[row]).getBlue()),
+					Double.doubleToLongBits(single.getBlue()));
+		}
+	}
+
+	@Test
+	public void testDependencies() {
+		assertEquals(EnumSet.noneOf(Variable.class),
+				analyzer.dependencies(parser.makeExpression("sin(0.5) + random()")));
+		assertEquals(EnumSet.of(Variable.X), analyzer.dependencies(parser.makeExpression("cos(x) * clamp(x)")));
+		assertEquals(EnumSet.of(Variable.Y), analyzer.dependencies(parser.makeExpression("log(y)")));
+		assertEquals(EnumSet.of(Variable.X, Variable.Y), analyzer.dependencies(parser.makeExpression("x * y")));
+		assertEquals(EnumSet.of(Variable.X, Variable.T),
+				analyzer.dependencies(parser.makeExpression("wrap(x + t)")));
+		assertEquals(EnumSet.of(Variable.X, Variable.Y),
+				analyzer.dependencies(parser.makeExpression("\"images/foo.jpg\"")));
+	}
+
+	@Test
+	public void testSeparableExpressionIsHoisted() {
+		ExpressionTreeNode hoisted = hoister.hoist(parser.makeExpression("sin(x) + cos(y)"));
+		HoistedExpression root = assertInstanceOf(HoistedExpression.class, hoisted);
+		assertEquals(2, root.getTables().size());
+		assertEquals(AxisTable.Axis.COLUMN, root.getTables().get(0).getAxis());
+		assertEquals(AxisTable.Axis.ROW, root.getTables().get(1).getAxis());
+		assertEquals(0, root.getTables().get(0).getSlot());
+		assertEquals(1, root.getTables().get(1).getSlot());
+	}
+
+	@Test
+	public void testOnlyLargestSubexpressionIsHoisted() {
+		HoistedExpression root = (HoistedExpression) hoister.hoist(parser.makeExpression("sin(cos(x) * x) * y"));
+		assertEquals(1, root.getTables().size());
+		assertEquals(parser.makeExpression("sin(cos(x) * x)"), root.getTables().get(0).getExpression());
+	}
+
+	@Test
+	public void testNothingToHoist() {
+		ExpressionTreeNode expr = parser.makeExpression("perlinBW(x, y) + x");
+		assertSame(expr, hoister.hoist(expr));
+		expr = parser.makeExpression("\"images/foo.jpg\"");
+		assertSame(expr, hoister.hoist(expr));
+	}
+
+	@Test
+	public void testHoistedExpressionGivesSameColorsInEveryMode() {
+		String[] expressions = { "sin(x) + cos(y)", "perlinColor(clamp(x), x) * log(y / 0.3) - perlinBW(x, y)",
+				"imageWrap(\"images/foo.jpg\", cos(x), x * y) + sin(t)", "sin(x * y) + sin(x * y) + floor(x)",
+				"perlinBW(x, y) * sin(t / 0.2) + x * y * t" };
+		for (String expression : expressions) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			ExpressionTreeNode optimized = ExpressionOptimizer.getInstance().optimize(tree);
+			for (RenderMode mode : RenderMode.values()) {
+				assertSameColors(tree, mode.prepare(optimized));
+			}
+		}
+	}
+
+	@Test
+	public void testTimeInvariantSubexpressionGetsPixelTable() {
+		HoistedExpression root = (HoistedExpression) hoister.hoist(parser.makeExpression("perlinBW(x, y) * sin(t) + x"));
+		assertEquals(2, root.getTables().size());
+		AxisTable pixels = root.getTables().get(0);
+		assertEquals(AxisTable.Axis.PIXEL, pixels.getAxis());
+		assertEquals(parser.makeExpression("perlinBW(x, y)"), pixels.getExpression());
+		assertFalse(pixels.usesTime());
+		assertEquals(AxisTable.Axis.ROW, root.getTables().get(1).getAxis());
+		assertTrue(root.getTables().get(1).usesTime());
+
+		// a still image evaluates each pixel once anyway
+		ExpressionTreeNode still = parser.makeExpression("perlinBW(x, y) * sin(y) + x");
+		root = (HoistedExpression) hoister.hoist(still);
+		for (AxisTable table : root.getTables()) {
+			assertNotEquals(AxisTable.Axis.PIXEL, table.getAxis());
+		}
+	}
+
+	@Test
+	public void testInvariantTablesAreReused() {
+		HoistedExpression root = (HoistedExpression) hoister
+				.hoist(parser.makeExpression("perlinBW(x, y) * sin(t) + cos(x / 0.3)"));
+		double[] domainX = domain(WIDTH);
+		double[] domainY = domain(HEIGHT);
+		FilledTables first = root.fillTables(domainX, domainY, 0);
+		FilledTables later = root.fillTables(domainX, domainY, 0.5, first);
+		assertTrue(later.hasPixelTables());
+		assertEquals(HEIGHT, later.getPixelRows(0).length);
+		assertSame(first.getPixelRows(0), later.getPixelRows(0));
+		assertNotSame(first.getAxisValues(1), later.getAxisValues(1));
+		assertSame(first.getAxisValues(2), later.getAxisValues(2));
+		assertFalse(root.getTables().get(2).usesTime());
+	}
+
+	@Test
+	public void testAnimationWithPixelTablesMatchesEveryFrame() {
+		ExpressionTreeNode tree = parser.makeExpression("perlinColor(x, y) * sin(t / 0.2) + x * y");
+		ExpressionTreeNode optimized = ExpressionOptimizer.getInstance().optimize(tree);
+		Dimension size = new Dimension(WIDTH, HEIGHT);
+		TiledRenderer serial = new TiledRenderer(1, 8, false);
+		for (RenderMode mode : RenderMode.values()) {
+			Animation animation = new TiledRenderer(3, 8).renderAnimation(mode.prepare(optimized), size, 4, 0.15);
+			for (int i = 0; i < animation.getFrameCount(); i++) {
+				Pixmap expected = new Pixmap(size);
+				serial.render(tree, expected, animation.getTime(i));
+				for (int imageY = 0; imageY < size.height; imageY++) {
+					for (int imageX = 0; imageX < size.width; imageX++) {
+						assertEquals(expected.getColor(imageX, imageY), animation.getFrame(i).getColor(imageX, imageY));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRendererFillsTables() {
+		ExpressionTreeNode tree = parser.makeExpression("wrap(x / 0.2) * ceil(y / 0.4)");
+		ExpressionTreeNode prepared = RenderMode.COMPILED.prepare(ExpressionOptimizer.getInstance().optimize(tree));
+		HoistedExpression root = assertInstanceOf(HoistedExpression.class, prepared);
+		assertInstanceOf(CompiledNode.class, root.getBody());
+
+		Pixmap expected = new Pixmap(WIDTH, HEIGHT);
+		Pixmap actual = new Pixmap(WIDTH, HEIGHT);
+		new TiledRenderer(1, 8).render(tree, expected);
+		new TiledRenderer(3, 8).render(prepared, actual);
+		Dimension size = expected.getSize();
+		for (int imageY = 0; imageY < size.height; imageY++) {
+			for (int imageX = 0; imageX < size.width; imageX++) {
+				assertEquals(expected.getColor(imageX, imageY), actual.getColor(imageX, imageY));
+			}
+		}
+	}
+
+	@Test
+	public void testInvariantTablesLeaveOutWhatDependsOnT() {
+		HoistedExpression root = (HoistedExpression) hoister
+				.hoist(parser.makeExpression("perlinBW(x, y) * sin(t) + cos(x / 0.3)"));
+		double[] domainX = domain(WIDTH);
+		double[] domainY = domain(HEIGHT);
+		FilledTables invariant = root.fillInvariantTables(domainX, domainY, true);
+		assertNull(invariant.getAxisValues(1));
+		assertNotNull(invariant.getAxisValues(2));
+		assertEquals(HEIGHT, invariant.getPixelRows(0).length);
+		assertNull(invariant.getPixelRows(0)[3]);
+		root.fillPixelRow(invariant, domainX, domainY, 3);
+		assertNotNull(invariant.getPixelRows(0)[3]);
+		assertNull(invariant.getPixelRows(0)[4]);
+
+		assertFalse(root.fillInvariantTables(domainX, domainY, false).hasPixelTables());
+		// a single frame evaluates the subexpression of a PIXEL table inline
+		assertNull(root.fillTables(domainX, domainY, 0.5, null).getPixelRows(0));
+	}
+
+	@Test
+	public void testTablesPartlyFilledGiveTheColorsOfTheTree() {
+		ExpressionTreeNode tree = parser.makeExpression("perlinBW(x, y) * sin(t) + cos(x / 0.3)");
+		HoistedExpression root = (HoistedExpression) hoister.hoist(tree);
+		double[] domainX = domain(WIDTH);
+		double[] domainY = domain(HEIGHT);
+		FilledTables invariant = root.fillInvariantTables(domainX, domainY, true);
+		root.fillPixelRow(invariant, domainX, domainY, 1);
+		PixelBatch batch = new PixelBatch(WIDTH);
+		batch.setAxisTables(root.fillTables(domainX, domainY, 0.5, invariant));
+		batch.setTime(0.5);
+		ColorPlanes expected = new ColorPlanes(batch.getCapacity());
+		ColorPlanes actual = new ColorPlanes(batch.getCapacity());
+		for (int row = 0; row < 3; row++) {
+			batch.setRow(domainX, 0, WIDTH, domainY, row);
+			tree.evaluate(batch, expected);
+			root.evaluate(batch, actual);
+			SameColors.assertSameColors(expected, actual, WIDTH, "row " + row);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * Tests that evaluating a batch of points gives exactly the same colors as
+ * evaluating the points one at a time.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class BatchEvaluationTests {
+
+	private static ExpressionTreeGenerator parser;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+	}
+
+	private static void assertBatchMatchesScalar(String expression) {
+		ExpressionTreeNode expr = parser.makeExpression(expression);
+		PixelBatch batch = SameColors.points();
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		expr.evaluate(batch, out);
+
+		for (int i = 0; i < batch.getSize(); i++) {
+			RGBColor expected = expr.evaluate(batch.getX()[i], batch.getY()[i]);
+			SameColors.assertSameColor(expected, out.getRed()[i], out.getGreen()[i], out.getBlue()[i],
+					expression + " at point " + i);
+		}
+	}
+
+	@Test
+	public void testVariablesAndConstants() {
+		assertBatchMatchesScalar("x");
+		assertBatchMatchesScalar("y");
+		assertBatchMatchesScalar("t");
+		assertBatchMatchesScalar("0.25");
+		assertBatchMatchesScalar("[0.1, -0.2, 0.3]");
+		assertBatchMatchesScalar("random()");
+	}
+
+	@Test
+	public void testUnaryFunctions() {
+		String[] functions = { "sin", "cos", "tan", "atan", "exp", "log", "floor", "ceil", "abs", "clamp", "wrap",
+				"rgbToYCrCb", "yCrCbToRGB" };
+		for (String function : functions) {
+			assertBatchMatchesScalar(function + "(x / 0.3 + [0.5, -0.25, 0.75])");
+		}
+		assertBatchMatchesScalar("!(x + [0.5, -0.25, 0.1])");
+	}
+
+	@Test
+	public void testBinaryOperators() {
+		String[] operators = { "+", "-", "*", "/", "%", "^" };
+		for (String operator : operators) {
+			assertBatchMatchesScalar("(x + [0.3, 0.6, 0.9]) " + operator + " (y - [0.2, 0.4, -0.7])");
+		}
+	}
+
+	@Test
+	public void testMultiArgumentFunctions() {
+		assertBatchMatchesScalar("perlinBW(x / 0.25, [0.2, 0.5, -0.6])");
+		assertBatchMatchesScalar("perlinColor(y / 0.3, x - y)");
+		assertBatchMatchesScalar("mandelbrot(x / 0.5, y + 0.1)");
+	}
+
+	@Test
+	public void testImageFunctions() {
+		assertBatchMatchesScalar("imageClip(\"images/foo.jpg\", x / 0.66, sin(y))");
+		assertBatchMatchesScalar("imageWrap(\"images/foo.jpg\", x / 0.3, y / 0.4)");
+	}
+
+	@Test
+	public void testNestedExpression() {
+		assertBatchMatchesScalar(
+				"sin(log(atan(x) / log([0.59, 0.80, 0.79] * atan(perlinColor(x, yCrCbToRGB(perlinColor(x, y)))) + y)))");
+	}
+
+	@Test
+	public void testScratchPlanesAreReused() {
+		PixelBatch batch = new PixelBatch(8);
+		ColorPlanes first = batch.acquire();
+		batch.release(first);
+		assertSame(first, batch.acquire());
+		assertNotSame(first, batch.acquire());
+	}
+
+	@Test
+	public void testSizeMustFitCapacity() {
+		PixelBatch batch = new PixelBatch(8);
+		assertThrows(IllegalArgumentException.class, () -> batch.setSize(9));
+		assertThrows(IllegalArgumentException.class, () -> new PixelBatch(0));
+	}
+}
@@ -0,0 +1,87 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.vm.ExpressionLowerer;
+import picasso.parser.optimizer.ChannelAnalyzer;
+import picasso.render.RenderMode;
+
+/**
+ * Tests the analysis of gray subexpressions and that evaluating them as one
+ * channel gives exactly the colors of the tree.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ChannelAnalyzerTests {
+
+	private static ExpressionTreeGenerator parser;
+	private static ChannelAnalyzer analyzer;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		analyzer = ChannelAnalyzer.getInstance();
+	}
+
+	private boolean isGray(String expression) {
+		return analyzer.isGray(parser.makeExpression(expression));
+	}
+
+	@Test
+	public void testGrayExpressions() {
+		assertTrue(isGray("x"));
+		assertTrue(isGray("t"));
+		assertTrue(isGray("0.5"));
+		assertTrue(isGray("[0.3, 0.3, 0.3]"));
+		assertTrue(isGray("sin(x * y) + floor(exp(y))"));
+		assertTrue(isGray("perlinBW(x, y)"));
+		assertTrue(isGray("mandelbrot(x, y) / !x"));
+		assertTrue(isGray("perlinBW(perlinColor(x, y), x)"));
+	}
+
+	@Test
+	public void testColorExpressions() {
+		assertFalse(isGray("[0.3, 0.3, 0.31]"));
+		assertFalse(isGray("x + [0.1, 0.2, 0.3]"));
+		assertFalse(isGray("perlinColor(x, y)"));
+		assertFalse(isGray("rgbToYCrCb(x)"));
+		assertFalse(isGray("yCrCbToRGB(x)"));
+		assertFalse(isGray("imageClip(\"images/foo.jpg\", x, y)"));
+		assertFalse(isGray("\"images/foo.jpg\""));
+	}
+
+	@Test
+	public void testGrayNodesGetOneInstruction() {
+		ExpressionLowerer lowerer = ExpressionLowerer.getInstance();
+		// one addition and one noise
+		assertEquals(2, lowerer.lower(parser.makeExpression("perlinBW(x, y)")).getInstructionCount());
+		// one multiplication and one cosine for the gray argument, three additions
+		assertEquals(5, lowerer.lower(parser.makeExpression("cos(x * y) + [0.1, 0.2, 0.3]")).getInstructionCount());
+	}
+
+	@Test
+	public void testGrayEvaluationMatchesTree() {
+		String[] expressions = { "sin(x * y) + floor(exp(y))", "perlinBW(x / 0.3, y * x) * [0.5, 0.5, 0.5]",
+				"imageWrap(\"images/foo.jpg\", sin(x * y), perlinBW(y, x)) - clamp(x - y)",
+				"(x + y) ^ [0.2, 0.2, 0.2] % wrap(x / y)", "perlinBW(perlinColor(x, y), atan(y)) + rgbToYCrCb(x)" };
+		PixelBatch batch = SameColors.points();
+		ColorPlanes expected = new ColorPlanes(batch.getCapacity());
+		ColorPlanes actual = new ColorPlanes(batch.getCapacity());
+		for (String expression : expressions) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			for (RenderMode mode : RenderMode.values()) {
+				ExpressionTreeNode prepared = mode.prepare(tree);
+				tree.evaluate(batch, expected);
+				prepared.evaluate(batch, actual);
+				SameColors.assertSameColors(expected, actual, batch.getSize(), expression + " " + mode);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.compiler.CompiledNode;
+import picasso.parser.language.compiler.ExpressionCompiler;
+import picasso.parser.language.expressions.BinaryOperator;
+import picasso.parser.language.expressions.ImageClip;
+import picasso.parser.language.expressions.Plus;
+import picasso.parser.language.expressions.UnaryFunction;
+import picasso.parser.language.vm.ExpressionLowerer;
+import picasso.parser.optimizer.ChannelDemandAnalyzer;
+
+/**
+ * Tests the analysis of which channels of each subexpression are read, and
+ * that computing only those channels gives exactly the colors of the tree.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ChannelDemandAnalyzerTests {
+
+	private static ExpressionTreeGenerator parser;
+	private static ChannelDemandAnalyzer analyzer;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		analyzer = ChannelDemandAnalyzer.getInstance();
+	}
+
+	@Test
+	public void testImageCoordinatesNeedOnlyRed() {
+		ImageClip image = (ImageClip) parser
+				.makeExpression("imageClip(\"images/foo.jpg\", sin(perlinColor(x, y)), y)");
+		Map<ExpressionTreeNode, Integer> demands = analyzer.analyze(image);
+		assertEquals(ChannelDemandAnalyzer.ALL, demands.get(image));
+		UnaryFunction sin = (UnaryFunction) image.getXCoord();
+		assertEquals(ChannelDemandAnalyzer.RED, demands.get(sin));
+		assertEquals(ChannelDemandAnalyzer.RED, demands.get(sin.getParam()));
+	}
+
+	@Test
+	public void testColorConversionsNeedEveryChannel() {
+		ExpressionTreeNode expr = parser.makeExpression("mandelbrot(yCrCbToRGB(x + [0.1, 0.2, 0.3]), y)");
+		Map<ExpressionTreeNode, Integer> demands = analyzer.analyze(expr);
+		UnaryFunction conversion = (UnaryFunction) expr.getChildren().get(0);
+		assertEquals(ChannelDemandAnalyzer.RED, demands.get(conversion));
+		assertEquals(ChannelDemandAnalyzer.ALL, demands.get(conversion.getParam()));
+	}
+
+	@Test
+	public void testSharedSubexpressionNeedsUnionOfDemands() {
+		ExpressionTreeNode shared = parser.makeExpression("perlinColor(x, y) * y");
+		ExpressionTreeNode image = parser.makeExpression("imageClip(\"images/foo.jpg\", x, y)")
+				.withChildren(List.of(shared, parser.makeExpression("y")));
+		Map<ExpressionTreeNode, Integer> demands = analyzer.analyze(image);
+		assertEquals(ChannelDemandAnalyzer.RED, demands.get(shared));
+
+		demands = analyzer.analyze(new Plus(image, shared));
+		assertEquals(ChannelDemandAnalyzer.ALL, demands.get(shared));
+		assertEquals(ChannelDemandAnalyzer.ALL, demands.get(((BinaryOperator) shared).getLeft()));
+	}
+
+	@Test
+	public void testUnreadChannelsAreNotLowered() {
+		// two additions and one noise for the red channel of perlinColor, one sample
+		// and three channel unpacks
+		ExpressionTreeNode expr = parser.makeExpression("imageClip(\"images/foo.jpg\", perlinColor(x, y), y)");
+		assertEquals(7, ExpressionLowerer.getInstance().lower(expr).getInstructionCount());
+	}
+
+	@Test
+	public void testCompiledMatchesTree() {
+		String[] expressions = { "imageClip(\"images/foo.jpg\", perlinColor(x, y), cos(x + [0.1, 0.4, -0.2]))",
+				"imageWrap(\"images/foo.jpg\", perlinColor(x, y) * y, mandelbrot(perlinColor(y, x), x))"
+						+ " + perlinColor(x, y) * y",
+				"perlinColor(imageWrap(\"images/foo.jpg\", x, y) / [0.3, 0.5, 0.7], yCrCbToRGB(x * [0.2, 0.5, 0.1]))" };
+		PixelBatch batch = SameColors.points();
+		ColorPlanes expected = new ColorPlanes(batch.getCapacity());
+		ColorPlanes actual = new ColorPlanes(batch.getCapacity());
+		for (String expression : expressions) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			ExpressionTreeNode compiled = ExpressionCompiler.getInstance().compileIfSupported(tree);
+			assertInstanceOf(CompiledNode.class, compiled);
+			tree.evaluate(batch, expected);
+			compiled.evaluate(batch, actual);
+			SameColors.assertSameColors(expected, actual, batch.getSize(), expression);
+		}
+	}
+}
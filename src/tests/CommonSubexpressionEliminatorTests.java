@@ -0,0 +1,144 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.SharedNode;
+import picasso.parser.language.expressions.*;
+import picasso.parser.optimizer.CommonSubexpressionEliminator;
+
+/**
+ * Tests the structural hash codes of expressions and the merging of repeated
+ * subexpressions.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class CommonSubexpressionEliminatorTests {
+
+	private static final String BEHOLDER = "perlinBW(atan([ 0.45075966636004616, -0.48259520096401376, -0.0480345861040292 ] - x) / y - perlinBW(perlinColor(y, x), [ -0.8769444236401625, 0.020908333085439823, -0.345652722399062 ]), perlinBW(perlinBW(atan([ 0.45075966636004616, -0.48259520096401376, -0.0480345861040292 ] - x) / y - perlinBW(perlinColor(y, x), [ -0.8769444236401625, 0.020908333085439823, -0.345652722399062 ]), [ -0.4931001920624658, -0.8372106125944161, -0.3537758878746999 ]) / perlinBW(atan([ 0.45075966636004616, -0.48259520096401376, -0.0480345861040292 ] - x) / perlinBW(perlinColor(y, x), [ -0.8769444236401625, 0.020908333085439823, -0.345652722399062 ]), clamp(x)), perlinBW(atan([ 0.45075966636004616, -0.48259520096401376, -0.0480345861040292 ]) / y - perlinBW(perlinColor(y, x), [ -0.8769444236401625, 0.020908333085439823, -0.345652722399062 ]), clamp(x))))";
+
+	private static ExpressionTreeGenerator parser;
+	private static CommonSubexpressionEliminator eliminator;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		eliminator = CommonSubexpressionEliminator.getInstance();
+	}
+
+	/**
+	 * Checks that the DAG gives exactly the colors of the tree, one point at a
+	 * time and in a batch.
+	 */
+	private static void assertSameColors(ExpressionTreeNode tree, ExpressionTreeNode dag) {
+		PixelBatch batch = SameColors.points();
+		ColorPlanes expected = new ColorPlanes(batch.getCapacity());
+		ColorPlanes actual = new ColorPlanes(batch.getCapacity());
+		tree.evaluate(batch, expected);
+		dag.evaluate(batch, actual);
+		SameColors.assertSameColors(expected, actual, batch.getSize(), "batch");
+		for (int i = 0; i < batch.getSize(); i++) {
+			RGBColor single = dag.evaluate(batch.getX()[i], batch.getY()[i]);
+			SameColors.assertSameColor(single, expected.getRed()[i], expected.getGreen()[i], expected.getBlue()[i],
+					"point " + i);
+		}
+	}
+
+	@Test
+	public void testEqualExpressionsHaveEqualHashCodes() {
+		String[] expressions = { "x", "y", "t", "0.5", "[0.1, 0.2, 0.3]", "sin(x) + cos(y)", "!(x * y)",
+				"perlinBW(x, y)", "perlinColor(x, y)", "mandelbrot(x, y)", "imageClip(\"images/foo.jpg\", x, y)",
+				"imageWrap(\"images/foo.jpg\", x, y)", "\"images/foo.jpg\"", BEHOLDER };
+		for (String expression : expressions) {
+			ExpressionTreeNode first = parser.makeExpression(expression);
+			ExpressionTreeNode second = parser.makeExpression(expression);
+			assertEquals(first, second, expression);
+			assertEquals(first.hashCode(), second.hashCode(), expression);
+		}
+		assertEquals(new RGBColor(0.5, 0.5, 0.5).hashCode(), new RGBColor(0.505, 0.5, 0.5).hashCode());
+	}
+
+	@Test
+	public void testRepeatedSubexpressionIsShared() {
+		ExpressionTreeNode tree = parser.makeExpression("sin(x * y) + sin(x * y)");
+		ExpressionTreeNode dag = eliminator.eliminate(tree);
+		Plus plus = (Plus) dag;
+		assertInstanceOf(SharedNode.class, plus.getLeft());
+		assertSame(plus.getLeft(), plus.getRight());
+		assertEquals(9, CommonSubexpressionEliminator.countTreeNodes(tree));
+		assertEquals(5, CommonSubexpressionEliminator.countDistinctNodes(dag));
+		assertSameColors(tree, dag);
+	}
+
+	@Test
+	public void testBeholderShrinks() {
+		ExpressionTreeNode tree = parser.makeExpression(BEHOLDER);
+		ExpressionTreeNode dag = eliminator.eliminate(tree);
+		long before = CommonSubexpressionEliminator.countTreeNodes(tree);
+		int after = CommonSubexpressionEliminator.countDistinctNodes(dag);
+		assertEquals(before, CommonSubexpressionEliminator.countTreeNodes(dag));
+		assertTrue(after < before / 2, before + " nodes became " + after);
+		assertSameColors(tree, dag);
+	}
+
+	@Test
+	public void testOnlyIdenticalSubexpressionsAreMerged() {
+		// these colors are equal() within RGBColor's tolerance, but not identical
+		ExpressionTreeNode tree = parser.makeExpression("sin([0.5, 0.5, 0.5] * x) + sin([0.501, 0.5, 0.5] * x)");
+		ExpressionTreeNode dag = eliminator.eliminate(tree);
+		assertEquals(CommonSubexpressionEliminator.countTreeNodes(tree) - 1,
+				CommonSubexpressionEliminator.countDistinctNodes(dag));
+		assertSameColors(tree, dag);
+
+		tree = parser.makeExpression("imageClip(\"images/foo.jpg\", x, y) + imageClip(\"images/vortex.jpg\", x, y)");
+		dag = eliminator.eliminate(tree);
+		assertNotSame(((Plus) dag).getLeft(), ((Plus) dag).getRight());
+	}
+
+	@Test
+	public void testRandomIsNeverMerged() {
+		ExpressionTreeNode tree = parser.makeExpression("random() + random()");
+		ExpressionTreeNode dag = eliminator.eliminate(tree);
+		assertNotSame(((Plus) dag).getLeft(), ((Plus) dag).getRight());
+		assertSameColors(tree, dag);
+	}
+
+	@Test
+	public void testSharedNodeIsEvaluatedOncePerBatch() {
+		CountingNode counter = new CountingNode();
+		ExpressionTreeNode tree = new Plus(new Sin(counter), new Sin(counter));
+		ExpressionTreeNode dag = eliminator.eliminate(tree);
+
+		PixelBatch batch = SameColors.points();
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		dag.evaluate(batch, out);
+		assertEquals(1, counter.batches);
+		batch.setSize(SameColors.POINTS);
+		dag.evaluate(batch, out);
+		assertEquals(2, counter.batches);
+	}
+
+	/**
+	 * Evaluates to x and counts how many batches it has evaluated.
+	 */
+	private static class CountingNode extends ExpressionTreeNode {
+		int batches;
+
+		@Override
+		public RGBColor evaluate(double x, double y) {
+			return new RGBColor(x, x, x);
+		}
+
+		@Override
+		public void evaluate(PixelBatch batch, ColorPlanes out) {
+			batches++;
+			out.fillGray(batch.getSize(), batch.getX());
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.expressions.*;
+import picasso.parser.optimizer.ConstantFolder;
+
+/**
+ * Tests that constant subtrees are folded into colors, and only those.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ConstantFolderTests {
+
+	private static ExpressionTreeGenerator parser;
+	private static ConstantFolder folder;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		folder = ConstantFolder.getInstance();
+	}
+
+	/**
+	 * Folds the expression and checks that it still gives exactly the same
+	 * colors.
+	 */
+	private static ExpressionTreeNode foldAndCompare(String expression) {
+		ExpressionTreeNode expr = parser.makeExpression(expression);
+		ExpressionTreeNode folded = folder.fold(expr);
+		for (double x = -1; x <= 1; x += 0.25) {
+			for (double y = -1; y <= 1; y += 0.5) {
+				RGBColor expected = expr.evaluate(x, y);
+				RGBColor actual = folded.evaluate(x, y);
+				String where = expression + " at (" + x + ", " + y + ")";
+				SameColors.assertSameColor(expected, actual, where);
+			}
+		}
+		return folded;
+	}
+
+	@Test
+	public void testFoldsUnaryFunctionOfColor() {
+		ExpressionTreeNode folded = foldAndCompare("clamp([0.50, 0.98, -0.83])");
+		assertEquals(new RGBColor(0.5, 0.98, -0.83), folded);
+	}
+
+	@Test
+	public void testFoldsNestedConstants() {
+		ExpressionTreeNode folded = foldAndCompare("sin([-0.98, 0.46, -0.22] - clamp([0.001, -0.52, -0.83]))");
+		assertInstanceOf(RGBColor.class, folded);
+		assertInstanceOf(RGBColor.class, foldAndCompare("exp(0.5) * !(0.25) ^ 0.3"));
+	}
+
+	@Test
+	public void testFoldsMultiArgumentFunctions() {
+		assertInstanceOf(RGBColor.class, foldAndCompare("perlinBW([0.2, 0.5, -0.6], 0.3)"));
+		assertInstanceOf(RGBColor.class, foldAndCompare("perlinColor(0.1, [0.2, 0.5, -0.6])"));
+		assertInstanceOf(RGBColor.class, foldAndCompare("mandelbrot(-0.5, 0.1)"));
+		assertInstanceOf(RGBColor.class, foldAndCompare("imageClip(\"images/foo.jpg\", 0.2, sin(-0.4))"));
+		assertInstanceOf(RGBColor.class, foldAndCompare("imageWrap(\"images/foo.jpg\", 0.2, -0.4)"));
+	}
+
+	@Test
+	public void testFoldsOnlyConstantParts() {
+		ExpressionTreeNode folded = foldAndCompare("x + sin(0.5)");
+		assertInstanceOf(Plus.class, folded);
+		assertEquals(new X(), ((Plus) folded).getLeft());
+		assertEquals(new RGBColor(Math.sin(0.5), Math.sin(0.5), Math.sin(0.5)), ((Plus) folded).getRight());
+
+		folded = foldAndCompare("imageClip(\"images/foo.jpg\", x, clamp(0.7))");
+		assertInstanceOf(ImageClip.class, folded);
+		assertInstanceOf(RGBColor.class, ((ImageClip) folded).getYCoord());
+	}
+
+	@Test
+	public void testDoesNotFoldVariables() {
+		assertInstanceOf(Sin.class, foldAndCompare("sin(t)"));
+		assertInstanceOf(Plus.class, foldAndCompare("random() + 0.5"));
+		assertInstanceOf(Cos.class, foldAndCompare("cos(y)"));
+		assertInstanceOf(StringValue.class, foldAndCompare("\"images/foo.jpg\""));
+	}
+
+	@Test
+	public void testLeavesUnfoldableTreeAlone() {
+		ExpressionTreeNode expr = parser.makeExpression("perlinColor(x, y) * sin(x / y)");
+		assertSame(expr, folder.fold(expr));
+	}
+
+	@Test
+	public void testSamples() {
+		// Vortex and North Cross
+		ExpressionTreeNode vortex = foldAndCompare(
+				"log(perlinBW(clamp([ 0.5078174305464065, 0.982268102468085, -0.8363576656054 ]), wrap(x)) * [ 0.6338800343751045, 0.6582121471242826, -0.76733486849055 ] / x + cos(x) / perlinBW(clamp(y), wrap(x)))");
+		assertTrue(vortex.toString().contains("perlinBW(Color: "), vortex.toString());
+		foldAndCompare(
+				"log(perlinColor([ 0.21300519241850902, 0.5800138495258065, -0.8363151257794 ], perlinColor([ 0.039703599218741115, -0.21065821734209034, -0.66615128939 ], sin([ -0.9821835722889416, 0.46380606624096044, -0.2270566034 ] - clamp([ 0.001277544071706549, -0.5295006067899626, -0.8340280559 ])))) / perlinBW(perlinBW(y, x), perlinBW(x - x - x, y)))");
+	}
+}
@@ -0,0 +1,134 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.compiler.CompiledNode;
+import picasso.parser.language.compiler.ExpressionCompiler;
+import picasso.parser.language.expressions.Plus;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.language.expressions.Variable;
+import picasso.parser.language.expressions.X;
+
+/**
+ * Tests that compiled expressions give exactly the same colors as the
+ * expression trees they were compiled from.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ExpressionCompilerTests {
+
+	private static ExpressionTreeGenerator parser;
+	private static ExpressionCompiler compiler;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		compiler = ExpressionCompiler.getInstance();
+	}
+
+	private static void assertCompiledMatchesTree(String expression) {
+		ExpressionTreeNode expr = parser.makeExpression(expression);
+		ExpressionTreeNode compiled = compiler.compileIfSupported(expr);
+		assertInstanceOf(CompiledNode.class, compiled, expression);
+
+		PixelBatch batch = SameColors.points();
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		compiled.evaluate(batch, out);
+
+		for (int i = 0; i < batch.getSize(); i++) {
+			double x = batch.getX()[i];
+			double y = batch.getY()[i];
+			RGBColor expected = expr.evaluate(x, y);
+			String where = expression + " at point " + i;
+			SameColors.assertSameColor(expected, out.getRed()[i], out.getGreen()[i], out.getBlue()[i], where);
+			RGBColor single = compiled.evaluate(x, y);
+			SameColors.assertSameColor(expected, single, where);
+		}
+	}
+
+	@Test
+	public void testVariablesAndConstants() {
+		assertCompiledMatchesTree("x");
+		assertCompiledMatchesTree("y");
+		assertCompiledMatchesTree("t");
+		assertCompiledMatchesTree("0.25");
+		assertCompiledMatchesTree("-0.0");
+		assertCompiledMatchesTree("[0.1, -0.2, 0.3]");
+		assertCompiledMatchesTree("random()");
+	}
+
+	@Test
+	public void testUnaryFunctions() {
+		String[] functions = { "sin", "cos", "tan", "atan", "exp", "log", "floor", "ceil", "abs", "clamp", "wrap",
+				"rgbToYCrCb", "yCrCbToRGB" };
+		for (String function : functions) {
+			assertCompiledMatchesTree(function + "(x / 0.3 + [0.5, -0.25, 0.75])");
+		}
+		assertCompiledMatchesTree("!(x + [0.5, -0.25, 0.1])");
+	}
+
+	@Test
+	public void testBinaryOperators() {
+		String[] operators = { "+", "-", "*", "/", "%", "^" };
+		for (String operator : operators) {
+			assertCompiledMatchesTree("(x + [0.3, 0.6, 0.9]) " + operator + " (y - [0.2, 0.4, -0.7])");
+		}
+	}
+
+	@Test
+	public void testMultiArgumentFunctions() {
+		assertCompiledMatchesTree("perlinBW(x / 0.25, [0.2, 0.5, -0.6])");
+		assertCompiledMatchesTree("perlinColor(y / 0.3, x - y)");
+		assertCompiledMatchesTree("mandelbrot(x / 0.5, y + 0.1)");
+	}
+
+	@Test
+	public void testImageFunctions() {
+		assertCompiledMatchesTree("imageClip(\"images/foo.jpg\", x / 0.66, sin(y))");
+		assertCompiledMatchesTree("imageWrap(\"images/foo.jpg\", x / 0.3, y / 0.4)");
+		assertCompiledMatchesTree("\"images/foo.jpg\"");
+	}
+
+	@Test
+	public void testNestedExpression() {
+		assertCompiledMatchesTree(
+				"sin(log(atan(x) / log([0.59, 0.80, 0.79] * atan(perlinColor(x, yCrCbToRGB(perlinColor(x, y)))) + y)))");
+	}
+
+	@Test
+	public void testSharedSubtreeIsCompiledOnce() {
+		ExpressionTreeNode shared = parser.makeExpression("sin(x * y)");
+		ExpressionTreeNode expr = new Plus(shared, shared);
+		ExpressionTreeNode compiled = compiler.compileIfSupported(expr);
+		assertInstanceOf(CompiledNode.class, compiled);
+		RGBColor expected = expr.evaluate(0.4, -0.7);
+		RGBColor actual = compiled.evaluate(0.4, -0.7);
+		SameColors.assertSameColor(expected, actual, "shared subtree");
+	}
+
+	@Test
+	public void testUnsupportedNodeFallsBackToTree() {
+		ExpressionTreeNode expr = new Plus(new X(), new Variable("a"));
+		assertSame(expr, compiler.compileIfSupported(expr));
+		assertThrows(UnsupportedOperationException.class, () -> compiler.compile(expr));
+	}
+
+	@Test
+	public void testSinglePointTakesTheTimeGiven() {
+		ExpressionTreeNode expr = parser.makeExpression("sin(t / 0.5) + x * t");
+		ExpressionTreeNode compiled = compiler.compileIfSupported(expr);
+		for (double time : new double[] { 0, 0.3, 0.98 }) {
+			RGBColor expected = expr.evaluate(0.4, -0.2, time);
+			RGBColor actual = compiled.evaluate(0.4, -0.2, time);
+			SameColors.assertSameColor(expected, actual, "t = " + time);
+		}
+		assertNotEquals(compiled.evaluate(0.4, -0.2, 0), compiled.evaluate(0.4, -0.2, 0.3));
+	}
+}
@@ -0,0 +1,144 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.Plus;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.language.expressions.Variable;
+import picasso.parser.language.expressions.X;
+import picasso.parser.language.vm.ExpressionLowerer;
+import picasso.parser.language.vm.Program;
+import picasso.parser.language.vm.ProgramNode;
+
+/**
+ * Tests that VM programs give exactly the same colors as the expression trees
+ * they were lowered from.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ExpressionLowererTests {
+
+	private static ExpressionTreeGenerator parser;
+	private static ExpressionLowerer lowerer;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		lowerer = ExpressionLowerer.getInstance();
+	}
+
+	private static void assertProgramMatchesTree(String expression) {
+		ExpressionTreeNode expr = parser.makeExpression(expression);
+		ExpressionTreeNode lowered = lowerer.lowerIfSupported(expr);
+		assertInstanceOf(ProgramNode.class, lowered, expression);
+
+		PixelBatch batch = SameColors.points();
+		ColorPlanes out = new ColorPlanes(batch.getCapacity());
+		lowered.evaluate(batch, out);
+
+		for (int i = 0; i < batch.getSize(); i++) {
+			double x = batch.getX()[i];
+			double y = batch.getY()[i];
+			RGBColor expected = expr.evaluate(x, y);
+			String where = expression + " at point " + i;
+			SameColors.assertSameColor(expected, out.getRed()[i], out.getGreen()[i], out.getBlue()[i], where);
+			RGBColor single = lowered.evaluate(x, y);
+			SameColors.assertSameColor(expected, single, where);
+		}
+	}
+
+	@Test
+	public void testVariablesAndConstants() {
+		assertProgramMatchesTree("x");
+		assertProgramMatchesTree("y");
+		assertProgramMatchesTree("t");
+		assertProgramMatchesTree("0.25");
+		assertProgramMatchesTree("-0.0");
+		assertProgramMatchesTree("[0.1, -0.2, 0.3]");
+		assertProgramMatchesTree("random()");
+	}
+
+	@Test
+	public void testUnaryFunctions() {
+		String[] functions = { "sin", "cos", "tan", "atan", "exp", "log", "floor", "ceil", "abs", "clamp", "wrap",
+				"rgbToYCrCb", "yCrCbToRGB" };
+		for (String function : functions) {
+			assertProgramMatchesTree(function + "(x / 0.3 + [0.5, -0.25, 0.75])");
+		}
+		assertProgramMatchesTree("!(x + [0.5, -0.25, 0.1])");
+	}
+
+	@Test
+	public void testBinaryOperators() {
+		String[] operators = { "+", "-", "*", "/", "%", "^" };
+		for (String operator : operators) {
+			assertProgramMatchesTree("(x + [0.3, 0.6, 0.9]) " + operator + " (y - [0.2, 0.4, -0.7])");
+		}
+	}
+
+	@Test
+	public void testMultiArgumentFunctions() {
+		assertProgramMatchesTree("perlinBW(x / 0.25, [0.2, 0.5, -0.6])");
+		assertProgramMatchesTree("perlinColor(y / 0.3, x - y)");
+		assertProgramMatchesTree("mandelbrot(x / 0.5, y + 0.1)");
+	}
+
+	@Test
+	public void testImageFunctions() {
+		assertProgramMatchesTree("imageClip(\"images/foo.jpg\", x / 0.66, sin(y))");
+		assertProgramMatchesTree("imageWrap(\"images/foo.jpg\", x / 0.3, y / 0.4)");
+		assertProgramMatchesTree("\"images/foo.jpg\"");
+	}
+
+	@Test
+	public void testNestedExpression() {
+		assertProgramMatchesTree(
+				"sin(log(atan(x) / log([0.59, 0.80, 0.79] * atan(perlinColor(x, yCrCbToRGB(perlinColor(x, y)))) + y)))");
+	}
+
+	@Test
+	public void testSharedSubtreeIsLoweredOnce() {
+		ExpressionTreeNode shared = parser.makeExpression("sin(x * y)");
+		ExpressionTreeNode expr = new Plus(shared, shared);
+		// x * y is gray: one multiplication, one sine and one addition
+		assertEquals(3, lowerer.lower(expr).getInstructionCount());
+		RGBColor expected = expr.evaluate(0.4, -0.7);
+		RGBColor actual = lowerer.lowerIfSupported(expr).evaluate(0.4, -0.7);
+		SameColors.assertSameColor(expected, actual, "shared subtree");
+	}
+
+	@Test
+	public void testUnusedChannelsAreDropped() {
+		// mandelbrot only reads the red channel of its arguments
+		Program program = lowerer.lower(parser.makeExpression("mandelbrot(sin(x), cos(y))"));
+		assertEquals(3, program.getInstructionCount());
+	}
+
+	@Test
+	public void testRegistersAreReused() {
+		String expression = "x";
+		for (int i = 0; i < 50; i++) {
+			expression = "sin(" + expression + " + y)";
+		}
+		Program program = lowerer.lower(parser.makeExpression(expression));
+		// one addition and one sine per level, since every level is gray
+		assertEquals(100, program.getInstructionCount());
+		// x, y, t and a few temporaries
+		assertTrue(program.getRegisterCount() < 10, "registers: " + program.getRegisterCount());
+		assertProgramMatchesTree(expression);
+	}
+
+	@Test
+	public void testUnsupportedNodeFallsBackToTree() {
+		ExpressionTreeNode expr = new Plus(new X(), new Variable("a"));
+		assertSame(expr, lowerer.lowerIfSupported(expr));
+		assertThrows(UnsupportedOperationException.class, () -> lowerer.lower(expr));
+	}
+}
@@ -0,0 +1,251 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import picasso.model.ImageCache;
+import picasso.model.ImageHandle;
+import picasso.model.ImagePlanes;
+import picasso.model.Pixmap;
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.Tokenizer;
+import picasso.parser.language.ImageSampler;
+
+/**
+ * Tests that the image cache decodes each file once, evicts the images used
+ * least recently to stay within its budget, and notices modified files.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ImageCacheTests {
+
+	private static final String FOO = "images/foo.jpg";
+	private static final String BEHOLDER = "images/beholder.jpg";
+
+	private static long bytes(ImagePlanes image) {
+		long width = image.getWidth();
+		long height = image.getHeight();
+		if (image.getLayout() == ImagePlanes.Layout.BLOCKS) {
+			// the blocks on the edges are padded
+			width = (width + ImagePlanes.BLOCK_SIZE - 1) / ImagePlanes.BLOCK_SIZE * ImagePlanes.BLOCK_SIZE;
+			height = (height + ImagePlanes.BLOCK_SIZE - 1) / ImagePlanes.BLOCK_SIZE * ImagePlanes.BLOCK_SIZE;
+		}
+		return width * height * 3 * Float.BYTES;
+	}
+
+	@Test
+	public void testSameFileDecodedOnce() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		ImagePlanes first = cache.get(FOO);
+		ImagePlanes second = cache.get("images/../images/foo.jpg");
+		assertSame(first, second);
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(bytes(first), cache.getBytes());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		ImagePlanes foo = cache.get(FOO);
+		ImagePlanes beholder = cache.get(BEHOLDER);
+		cache.get(FOO);
+		// room for foo alone: beholder, used least recently, goes
+		cache.setBudget(bytes(foo) + bytes(beholder) - 1);
+		assertEquals(1, cache.getEvictions());
+		assertSame(foo, cache.get(FOO));
+		assertNotSame(beholder, cache.get(BEHOLDER));
+		assertTrue(cache.getBytes() <= cache.getBudget());
+	}
+
+	@Test
+	public void testImageLargerThanBudgetNotKept() {
+		ImageCache cache = new ImageCache(1);
+		assertNotSame(cache.get(FOO), cache.get(FOO));
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testModifiedFileDecodedAgain(@TempDir Path folder) throws Exception {
+		Path copy = folder.resolve("copy.jpg");
+		Files.copy(new File(FOO).toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		ImagePlanes before = cache.get(copy.toString());
+		assertTrue(copy.toFile().setLastModified(copy.toFile().lastModified() - 60_000));
+		ImagePlanes after = cache.get(copy.toString());
+		assertNotSame(before, after);
+		assertEquals(1, cache.size());
+		assertEquals(bytes(after), cache.getBytes());
+	}
+
+	@Test
+	public void testLayoutsHoldTheSamePixels() {
+		ImagePlanes rows = new ImageCache(ImageCache.DEFAULT_BUDGET, ImagePlanes.Layout.ROWS).get(FOO);
+		ImagePlanes blocks = new ImageCache(ImageCache.DEFAULT_BUDGET, ImagePlanes.Layout.BLOCKS).get(FOO);
+		assertEquals(ImagePlanes.Layout.ROWS, rows.getLayout());
+		assertEquals(ImagePlanes.Layout.BLOCKS, blocks.getLayout());
+		for (int imageY = 0; imageY < rows.getHeight(); imageY++) {
+			for (int imageX = 0; imageX < rows.getWidth(); imageX++) {
+				int row = rows.pixelIndex(imageX, imageY);
+				int block = blocks.pixelIndex(imageX, imageY);
+				assertEquals(rows.getRed()[row], blocks.getRed()[block]);
+				assertEquals(rows.getGreen()[row], blocks.getGreen()[block]);
+				assertEquals(rows.getBlue()[row], blocks.getBlue()[block]);
+			}
+		}
+		for (double y = -1.2; y <= 1.2; y += 0.07) {
+			for (double x = -1.3; x <= 1.3; x += 0.05) {
+				assertEquals(rows.getRed()[rows.wrapIndex(x, y)], blocks.getRed()[blocks.wrapIndex(x, y)]);
+				assertEquals(rows.getRed()[rows.clipIndex(x, y)], blocks.getRed()[blocks.clipIndex(x, y)]);
+			}
+		}
+	}
+
+	@Test
+	public void testChangingLayoutForgetsImages() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET, ImagePlanes.Layout.ROWS);
+		cache.get(FOO);
+		cache.setLayout(ImagePlanes.Layout.BLOCKS);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+		assertEquals(ImagePlanes.Layout.BLOCKS, cache.get(FOO).getLayout());
+	}
+
+	@Test
+	public void testDecodesForRenderSize() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		ImagePlanes full = cache.get(FOO);
+		cache.clear();
+		cache.setResolution(new Dimension(100, 100));
+		ImagePlanes small = cache.get(FOO);
+		assertEquals(8, small.getSubsampling());
+		assertEquals(full.getWidth(), small.getSourceWidth());
+		assertEquals((full.getWidth() + 7) / 8, small.getWidth());
+		assertEquals((full.getHeight() + 7) / 8, small.getHeight());
+		for (int imageY = 0; imageY < small.getHeight(); imageY++) {
+			for (int imageX = 0; imageX < small.getWidth(); imageX++) {
+				assertEquals(full.getRed()[full.pixelIndex(8 * imageX, 8 * imageY)],
+						small.getRed()[small.pixelIndex(imageX, imageY)]);
+			}
+		}
+		assertTrue(small.getBytes() < full.getBytes() / 50);
+	}
+
+	@Test
+	public void testLargerRenderDecodesAgain() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		cache.setResolution(new Dimension(100, 100));
+		ImagePlanes small = cache.get(FOO);
+		cache.setResolution(new Dimension(400, 400));
+		ImagePlanes larger = cache.get(FOO);
+		assertEquals(2, larger.getSubsampling());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.size());
+		assertEquals(larger.getBytes(), cache.getBytes());
+
+		// a smaller render makes do with the larger image
+		cache.setResolution(new Dimension(200, 200));
+		assertSame(larger, cache.get(FOO));
+		cache.setResolution(null);
+		assertNotSame(small, cache.get(FOO));
+		assertEquals(1, cache.get(FOO).getSubsampling());
+	}
+
+	@Test
+	public void testZoomedImageKeepsThePixelsItSamples(@TempDir Path folder) throws Exception {
+		// a copy of its own, so that no image decoded by another test is reused
+		Path copy = folder.resolve("zoomed.jpg");
+		Files.copy(new File(FOO).toPath(), copy);
+		ImageCache cache = ImageCache.getInstance();
+		cache.setResolution(new Dimension(100, 100));
+		try {
+			ImageSampler whole = (ImageSampler) new ExpressionTreeGenerator()
+					.makeExpression("imageClip(\"" + copy + "\", x, y)");
+			assertEquals(8, whole.getPlanes().getSubsampling());
+			ImageSampler halfZoomed = (ImageSampler) new ExpressionTreeGenerator()
+					.makeExpression("imageWrap(\"" + copy + "\", x*0.5, y*0.5)");
+			assertEquals(4, halfZoomed.getPlanes().getSubsampling());
+			ImageSampler zoomed = (ImageSampler) new ExpressionTreeGenerator()
+					.makeExpression("imageClip(\"" + copy + "\", x*0.1, y*0.1)");
+			assertEquals(1, zoomed.getPlanes().getSubsampling());
+		} finally {
+			cache.setResolution(null);
+		}
+	}
+
+	@Test
+	public void testUnboundedSpanKeepsEveryPixel() {
+		Dimension render = new Dimension(100, 100);
+		ExpressionTreeGenerator parser = new ExpressionTreeGenerator();
+		assertEquals(render, ImageSampler.sampledResolution(render, parser.makeExpression("x"),
+				parser.makeExpression("y")));
+		assertEquals(new Dimension(1000, 500), ImageSampler.sampledResolution(render,
+				parser.makeExpression("x*0.1"), parser.makeExpression("y*0.2")));
+		// a span that changes with time, or that cannot be bounded
+		assertNull(ImageSampler.sampledResolution(render, parser.makeExpression("x*t"), parser.makeExpression("y")));
+		assertNull(ImageSampler.sampledResolution(render, parser.makeExpression("x"), parser.makeExpression("y/x")));
+		assertNull(ImageSampler.sampledResolution(render, parser.makeExpression("0.5"), parser.makeExpression("y")));
+		assertNull(ImageSampler.sampledResolution(null, parser.makeExpression("x"), parser.makeExpression("y")));
+	}
+
+	@Test
+	public void testPrefetchesShareOneDecode() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		ImageHandle first = cache.prefetch(FOO);
+		ImageHandle second = cache.prefetch(FOO);
+		assertSame(first.get(), second.get());
+		assertTrue(first.isDone());
+		assertEquals(1, cache.getMisses());
+		assertSame(first.get(), cache.get(FOO));
+	}
+
+	@Test
+	public void testPrefetchOfMissingFileFailsOnGet() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		ImageHandle missing = cache.prefetch("images/missing.jpg");
+		assertThrows(IllegalArgumentException.class, missing::get);
+
+		ImagePlanes fallback = new ImagePlanes(new Pixmap(2, 2));
+		assertSame(fallback, missing.orElse(e -> fallback).get());
+	}
+
+	@Test
+	public void testTokenizerStartsLoadingImages(@TempDir Path folder) throws Exception {
+		Path copy = folder.resolve("prefetched.jpg");
+		Files.copy(new File(BEHOLDER).toPath(), copy);
+		ImageCache cache = ImageCache.getInstance();
+		long misses = cache.getMisses();
+		new Tokenizer().parseTokens("imageWrap(\"" + copy + "\", x, y)");
+		long hits = cache.getHits();
+		// the image is being decoded, or is decoded, already
+		cache.prefetch(copy.toString()).get();
+		assertEquals(hits + 1, cache.getHits());
+		assertEquals(misses + 1, cache.getMisses());
+	}
+
+	@Test
+	public void testMissingFileRejected() {
+		ImageCache cache = new ImageCache(ImageCache.DEFAULT_BUDGET);
+		assertThrows(IllegalArgumentException.class, () -> cache.get("images/missing.jpg"));
+	}
+
+	@Test
+	public void testImageFunctionsShareTheirImage() {
+		ImageCache cache = ImageCache.getInstance();
+		new ExpressionTreeGenerator().makeExpression("imageClip(\"" + FOO + "\", x, y)");
+		long misses = cache.getMisses();
+		long hits = cache.getHits();
+		new ExpressionTreeGenerator().makeExpression("imageWrap(\"" + FOO + "\", x, y) + imageClip(\"" + FOO + "\", y, x)");
+		assertEquals(misses, cache.getMisses());
+		assertTrue(cache.getHits() >= hits + 2);
+	}
+}
@@ -2,12 +2,15 @@ package tests;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.awt.Color;
 import java.util.List;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import picasso.model.ImagePlanes;
+import picasso.model.Pixmap;
 import picasso.parser.ExpressionTreeGenerator;
 import picasso.parser.Tokenizer;
 import picasso.parser.language.ExpressionTreeNode;
@@ -202,6 +205,61 @@ public class ImageClipTests {
 	        assertNotEquals(different, parsed,
 	                "Different coordinate expressions should produce different trees");
 	    }
-	 
-	 
-}
\ No newline at end of file
+
+	/**
+	 * The pixel the function samples at a clamped coordinate.
+	 */
+	private static int pixel(double value, int bounds) {
+		double clamped = Math.max(-1.0, Math.min(1.0, value));
+		return (int) Math.round((clamped + 1.0) / 2.0 * (bounds - 1));
+	}
+
+	@Test
+	public void testSamplesNearestPixel() {
+		Pixmap pixmap = new Pixmap("images/vortex.jpg");
+		ImageClip img = new ImageClip("images/vortex.jpg", new X(), new Y());
+		double[] coordinates = { -3.3, -1, -0.77, -0.2, 0, 0.01, 0.5, 0.999, 1, 2.6 };
+		for (double x : coordinates) {
+			for (double y : coordinates) {
+				RGBColor expected = new RGBColor(pixmap.getColor(pixel(x, pixmap.getSize().width),
+						pixel(y, pixmap.getSize().height)));
+				RGBColor actual = img.evaluate(x, y);
+				assertEquals(expected.getRed(), actual.getRed(), EPSILON);
+				assertEquals(expected.getGreen(), actual.getGreen(), EPSILON);
+				assertEquals(expected.getBlue(), actual.getBlue(), EPSILON);
+			}
+		}
+	}
+
+	@Test
+	public void testSampledColorsExact() {
+		Pixmap pixmap = new Pixmap("images/northcross.jpg");
+		ImageClip img = new ImageClip("images/northcross.jpg", new X(), new Y());
+		for (int i = 0; i < 50; i++) {
+			for (int j = 0; j < 50; j++) {
+				double x = -1 + 2.0 * i / 49;
+				double y = -1 + 2.0 * j / 49;
+				Color expected = new RGBColor(
+						pixmap.getColor(pixel(x, pixmap.getSize().width), pixel(y, pixmap.getSize().height)))
+						.toJavaColor();
+				assertEquals(expected, img.evaluate(x, y).toJavaColor());
+			}
+		}
+	}
+
+	@Test
+	public void testEveryLevelConvertsBack() {
+		Pixmap pixmap = new Pixmap(256, 1);
+		for (int level = 0; level < 256; level++) {
+			pixmap.setColor(level, 0, new Color(level, 255 - level, level / 2));
+		}
+		ImagePlanes planes = new ImagePlanes(pixmap);
+		for (int level = 0; level < 256; level++) {
+			Color expected = new RGBColor(pixmap.getColor(level, 0)).toJavaColor();
+			int index = planes.pixelIndex(level, 0);
+			assertEquals(expected,
+					new RGBColor(planes.getRed()[index], planes.getGreen()[index], planes.getBlue()[index])
+							.toJavaColor());
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import picasso.model.ImageDiskCache;
+import picasso.model.ImagePlanes;
+
+/**
+ * Tests that the disk cache reads back the planes it stored, decodes again the
+ * images whose file changed or whose entry is broken, and keeps its entries
+ * within its limit.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class ImageDiskCacheTests {
+
+	private static final String FOO = "images/foo.jpg";
+	private static final String BEHOLDER = "images/beholder.jpg";
+
+	private static void assertSamePlanes(ImagePlanes expected, ImagePlanes actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		assertEquals(expected.getLayout(), actual.getLayout());
+		assertEquals(expected.getSubsampling(), actual.getSubsampling());
+		assertEquals(expected.getSourceWidth(), actual.getSourceWidth());
+		assertArrayEquals(expected.getRed(), actual.getRed());
+		assertArrayEquals(expected.getGreen(), actual.getGreen());
+		assertArrayEquals(expected.getBlue(), actual.getBlue());
+	}
+
+	private static Path onlyEntry(Path folder) throws Exception {
+		return entry(folder, ".planes");
+	}
+
+	private static Path entry(Path folder, String suffix) throws Exception {
+		try (Stream<Path> entries = Files.list(folder)) {
+			return entries.filter(entry -> entry.toString().endsWith(suffix)).findFirst().orElseThrow();
+		}
+	}
+
+	private static void setUsed(Path file, long ago) throws Exception {
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - ago));
+	}
+
+	@Test
+	public void testStoredPlanesReadBack(@TempDir Path folder) {
+		for (ImagePlanes.Layout layout : ImagePlanes.Layout.values()) {
+			ImagePlanes decoded = new ImageDiskCache(folder).load(new File(FOO), layout);
+			ImageDiskCache later = new ImageDiskCache(folder);
+			ImagePlanes read = later.load(new File(FOO), layout);
+			assertEquals(1, later.getHits());
+			assertEquals(0, later.getMisses());
+			assertSamePlanes(decoded, read);
+		}
+	}
+
+	@Test
+	public void testChangedFileDecodedAgain(@TempDir Path folder) throws Exception {
+		Path image = folder.resolve("image.jpg");
+		Files.copy(new File(FOO).toPath(), image);
+		ImageDiskCache cache = new ImageDiskCache(folder.resolve("cache"));
+		cache.load(image.toFile(), ImagePlanes.Layout.ROWS);
+
+		Files.copy(new File(BEHOLDER).toPath(), image, StandardCopyOption.REPLACE_EXISTING);
+		ImagePlanes changed = cache.load(image.toFile(), ImagePlanes.Layout.ROWS);
+		assertEquals(2, cache.getMisses());
+		assertSamePlanes(new ImageDiskCache(folder.resolve("other")).load(new File(BEHOLDER), ImagePlanes.Layout.ROWS),
+				changed);
+	}
+
+	@Test
+	public void testBrokenEntryDecodedAgain(@TempDir Path folder) throws Exception {
+		ImagePlanes decoded = new ImageDiskCache(folder).load(new File(FOO), ImagePlanes.Layout.ROWS);
+		Path entry = onlyEntry(folder);
+		Files.write(entry, new byte[] { 1, 2, 3 });
+
+		ImageDiskCache cache = new ImageDiskCache(folder);
+		assertSamePlanes(decoded, cache.load(new File(FOO), ImagePlanes.Layout.ROWS));
+		assertEquals(1, cache.getMisses());
+
+		// the entry was written again
+		ImageDiskCache later = new ImageDiskCache(folder);
+		later.load(new File(FOO), ImagePlanes.Layout.ROWS);
+		assertEquals(1, later.getHits());
+	}
+
+	@Test
+	public void testResolutionsStoredApart(@TempDir Path folder) {
+		ImageDiskCache cache = new ImageDiskCache(folder);
+		ImagePlanes small = cache.load(new File(FOO), ImagePlanes.Layout.ROWS, new Dimension(200, 200));
+		ImagePlanes full = cache.load(new File(FOO), ImagePlanes.Layout.ROWS);
+		assertEquals(4, small.getSubsampling());
+		assertEquals(1, full.getSubsampling());
+		assertEquals(2, cache.getMisses());
+
+		ImageDiskCache later = new ImageDiskCache(folder);
+		assertSamePlanes(small, later.load(new File(FOO), ImagePlanes.Layout.ROWS, new Dimension(200, 200)));
+		assertEquals(1, later.getHits());
+	}
+
+	@Test
+	public void testMissingFileRejected(@TempDir Path folder) {
+		assertThrows(IllegalArgumentException.class,
+				() -> new ImageDiskCache(folder).load(new File("images/missing.jpg"), ImagePlanes.Layout.ROWS));
+	}
+
+	@Test
+	public void testLimitEvictsLeastRecentlyUsed(@TempDir Path folder) throws Exception {
+		Path entries = folder.resolve("cache");
+		ImageDiskCache cache = new ImageDiskCache(entries);
+		cache.load(new File(FOO), ImagePlanes.Layout.ROWS);
+		cache.load(new File(FOO), ImagePlanes.Layout.BLOCKS);
+		Path rows = entry(entries, "-rows.planes");
+		Path blocks = entry(entries, "-blocks.planes");
+		setUsed(rows, 2 * 60 * 60 * 1000);
+		setUsed(blocks, 60 * 60 * 1000);
+		ImageDiskCache other = new ImageDiskCache(folder.resolve("other"));
+		other.load(new File(BEHOLDER), ImagePlanes.Layout.ROWS);
+		long beholder = Files.size(onlyEntry(folder.resolve("other")));
+
+		ImageDiskCache limited = new ImageDiskCache(entries, Files.size(rows) + Files.size(blocks) + beholder - 1);
+		// reading the rows makes them the entry used last
+		limited.load(new File(FOO), ImagePlanes.Layout.ROWS);
+		assertEquals(1, limited.getHits());
+		limited.load(new File(BEHOLDER), ImagePlanes.Layout.ROWS);
+		assertEquals(1, limited.getEvictions());
+		assertTrue(Files.exists(rows));
+		assertFalse(Files.exists(blocks));
+	}
+
+	@Test
+	public void testStaleFilesDeleted(@TempDir Path folder) throws Exception {
+		Path abandoned = Files.write(folder.resolve("entry1.tmp"), new byte[] { 1 });
+		setUsed(abandoned, 2 * 60 * 60 * 1000);
+		Path writing = Files.write(folder.resolve("entry2.tmp"), new byte[] { 1 });
+		Path older = Files.write(folder.resolve("old.planes"), new byte[] { 0x50, 0x43, 0x49, 0x50, 1, 0, 0, 0 });
+		Path unrelated = Files.write(folder.resolve("notes.txt"), new byte[] { 1 });
+
+		new ImageDiskCache(folder).load(new File(FOO), ImagePlanes.Layout.ROWS);
+		assertFalse(Files.exists(abandoned));
+		assertFalse(Files.exists(older));
+		assertTrue(Files.exists(writing));
+		assertTrue(Files.exists(unrelated));
+		assertTrue(Files.exists(entry(folder, "-rows.planes")));
+	}
+
+	@Test
+	public void testEntryOverLimitNotWritten(@TempDir Path folder) throws Exception {
+		ImageDiskCache cache = new ImageDiskCache(folder, 1024);
+		cache.load(new File(FOO), ImagePlanes.Layout.ROWS);
+		cache.load(new File(FOO), ImagePlanes.Layout.ROWS);
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+		try (Stream<Path> entries = Files.list(folder)) {
+			assertEquals(0, entries.count());
+		}
+	}
+
+	@Test
+	public void testNegativeLimitRejected(@TempDir Path folder) {
+		assertThrows(IllegalArgumentException.class, () -> new ImageDiskCache(folder, -1));
+	}
+}
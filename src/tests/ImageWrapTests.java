@@ -8,6 +8,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import picasso.model.Pixmap;
 import picasso.parser.ExpressionTreeGenerator;
 import picasso.parser.Tokenizer;
 import picasso.parser.language.ExpressionTreeNode;
@@ -151,4 +152,32 @@ public class ImageWrapTests {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The pixel the function samples at a wrapped coordinate.
+	 */
+	private static int pixel(double value, int bounds) {
+		double wrapped = (value + 1.0) % 2.0;
+		if (wrapped < 0) {
+			wrapped += 2.0;
+		}
+		return (int) Math.round(wrapped / 2.0 * (bounds - 1));
+	}
+
+	@Test
+	public void testSamplesNearestPixel() {
+		Pixmap pixmap = new Pixmap("images/vortex.jpg");
+		ImageWrap img = new ImageWrap("images/vortex.jpg", new X(), new Y());
+		double[] coordinates = { -3.3, -1, -0.77, -0.2, 0, 0.01, 0.5, 0.999, 1, 2.6 };
+		for (double x : coordinates) {
+			for (double y : coordinates) {
+				RGBColor expected = new RGBColor(pixmap.getColor(pixel(x, pixmap.getSize().width),
+						pixel(y, pixmap.getSize().height)));
+				RGBColor actual = img.evaluate(x, y);
+				assertEquals(expected.getRed(), actual.getRed(), EPSILON);
+				assertEquals(expected.getGreen(), actual.getGreen(), EPSILON);
+				assertEquals(expected.getBlue(), actual.getBlue(), EPSILON);
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Dimension;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.model.Pixmap;
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.expressions.Mandelbrot;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.language.interval.Interval;
+import picasso.parser.language.interval.IntervalEvaluator;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.RenderMode;
+import picasso.render.TiledRenderer;
+
+/**
+ * Tests that interval evaluation bounds every value an expression takes over a
+ * rectangle, and that culling the regions it proves uniform renders exactly
+ * the image evaluating every pixel does.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class IntervalEvaluatorTests {
+
+	private static final int SAMPLES = 9;
+
+	private static final String[] EXPRESSIONS = { "x * y + sin(x / 0.1)", "floor(x / 0.3) + ceil(y / 0.2)",
+			"clamp(x / 0.05) * [0.2, -0.5, 1]", "mandelbrot(x, y)", "mandelbrot(x * 0.2, y * 0.2)",
+			"log(x) / y", "tan(x / 0.2) % y", "wrap(x / 0.3 + y)", "(x + 1) ^ y", "x ^ [0.5, 0.5, 0.5]",
+			"exp(x / 0.1) - atan(y / 0.01)", "cos(y / 0.05) * abs(x)", "perlinColor(x, y) + perlinBW(x, 0.5)",
+			"rgbToYCrCb(x + [0.1, 0.2, 0.3])", "yCrCbToRGB(clamp(x * y) * [0.4, -0.3, 0.2])", "!x * t",
+			"imageWrap(\"images/foo.jpg\", x, y) * 0", "floor(x / 0.3) + floor(x / 0.3)" };
+
+	private static ExpressionTreeGenerator parser;
+	private static IntervalEvaluator evaluator;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+		evaluator = IntervalEvaluator.getInstance();
+	}
+
+	private static void assertContains(Interval bound, double value, String message) {
+		if (Double.isNaN(value)) {
+			assertTrue(bound.mayBeNaN(), message + ": NaN not in " + bound);
+		} else {
+			assertTrue(bound.getLo() <= value && value <= bound.getHi(), message + ": " + value + " not in " + bound);
+		}
+	}
+
+	@Test
+	public void testBoundsHoldEverySample() {
+		double[][] boxes = { { -1, 1, -1, 1 }, { 0.1, 0.15, -0.3, -0.2 }, { -0.05, 0.05, 0.5, 0.9 },
+				{ 0.6, 0.6, -1, 0.2 }, { -0.7, -0.69, 0.01, 0.02 } };
+		for (String expression : EXPRESSIONS) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			ExpressionTreeNode optimized = ExpressionOptimizer.getInstance().optimize(tree);
+			for (double[] box : boxes) {
+				Interval[] bounds = evaluator.bound(tree, box[0], box[1], box[2], box[3], 0);
+				Interval[] optimizedBounds = evaluator.bound(RenderMode.COMPILED.prepare(optimized), box[0], box[1],
+						box[2], box[3], 0);
+				for (int i = 0; i < SAMPLES; i++) {
+					for (int j = 0; j < SAMPLES; j++) {
+						double x = box[0] + (box[1] - box[0]) * i / (SAMPLES - 1);
+						double y = box[2] + (box[3] - box[2]) * j / (SAMPLES - 1);
+						RGBColor color = tree.evaluate(x, y);
+						double[] channels = { color.getRed(), color.getGreen(), color.getBlue() };
+						for (int channel = 0; channel < 3; channel++) {
+							assertContains(bounds[channel], channels[channel], expression);
+							assertContains(optimizedBounds[channel], channels[channel], expression);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPointIsExact() {
+		ExpressionTreeNode tree = parser.makeExpression("perlinColor(x, y) * sin(x / y) + wrap(x / 0.07)");
+		Interval[] bounds = evaluator.bound(tree, 0.3, 0.3, -0.45, -0.45, 0);
+		RGBColor color = tree.evaluate(0.3, -0.45);
+		assertTrue(bounds[1].isPoint());
+		assertEquals(Double.doubleToLongBits(color.getGreen()), Double.doubleToLongBits(bounds[1].getLo()));
+	}
+
+	@Test
+	public void testPlateausArePoints() {
+		Interval floor = evaluator.bound(parser.makeExpression("floor(x / 0.3)"), 0.31, 0.59, -1, 1, 0)[0];
+		assertEquals(Interval.point(1), floor);
+		Interval clamp = evaluator.bound(parser.makeExpression("clamp(x / 0.05)"), 0.2, 1, -1, 1, 0)[2];
+		assertEquals(Interval.point(1), clamp);
+		Interval interior = evaluator.bound(parser.makeExpression("mandelbrot(x, y)"), -0.1, 0.1, -0.1, 0.1, 0)[0];
+		assertEquals(Interval.point(Mandelbrot.escapeValue(0, 0)), interior);
+	}
+
+	@Test
+	public void testDivisionByZeroMayBeNaN() {
+		Interval quotient = evaluator.bound(parser.makeExpression("x / y"), 0.1, 0.2, -0.1, 0.1, 0)[0];
+		assertTrue(quotient.mayBeNaN());
+		assertEquals(Double.POSITIVE_INFINITY, quotient.getHi());
+	}
+
+	@Test
+	public void testCulledRenderMatchesEveryPixel() {
+		Dimension size = new Dimension(75, 58);
+		TiledRenderer culled = new TiledRenderer(2, 32, true);
+		TiledRenderer unculled = new TiledRenderer(1, 32, false);
+		for (String expression : EXPRESSIONS) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			ExpressionTreeNode prepared = RenderMode.COMPILED.prepare(ExpressionOptimizer.getInstance().optimize(tree));
+			Pixmap expected = new Pixmap(size.width, size.height);
+			Pixmap actual = new Pixmap(size.width, size.height);
+			unculled.render(tree, expected);
+			culled.render(prepared, actual);
+			for (int imageY = 0; imageY < size.height; imageY++) {
+				for (int imageX = 0; imageX < size.width; imageX++) {
+					assertEquals(expected.getColor(imageX, imageY), actual.getColor(imageX, imageY), expression);
+				}
+			}
+		}
+	}
+}
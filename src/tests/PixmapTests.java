@@ -0,0 +1,121 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import picasso.model.Pixmap;
+
+/**
+ * Tests that the packed color writes of a pixmap set the same pixels as
+ * setColor, including on a pixmap shrunk to part of its former image.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class PixmapTests {
+
+	@Test
+	public void testNewPixmapIsFilled() {
+		Pixmap tall = new Pixmap(3, 7, Color.ORANGE);
+		for (int y = 0; y < 7; y++) {
+			for (int x = 0; x < 3; x++) {
+				assertEquals(Color.ORANGE, tall.getColor(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testSetRowMatchesSetColor() {
+		int[] colors = { Color.RED.getRGB(), 0x00123456, Color.BLUE.getRGB(), Color.WHITE.getRGB() };
+		Pixmap pixmap = new Pixmap(3, 2);
+		pixmap.setRow(-1, 1, colors, 0, colors.length);
+		assertEquals(new Color(0x123456), pixmap.getColor(0, 1));
+		assertEquals(Color.BLUE, pixmap.getColor(1, 1));
+		assertEquals(Color.WHITE, pixmap.getColor(2, 1));
+		assertEquals(Color.BLACK, pixmap.getColor(0, 0));
+	}
+
+	@Test
+	public void testSetPixelsWritesEveryStridethPixel() {
+		int[] colors = { 0, Color.RED.getRGB(), 0x00123456, Color.BLUE.getRGB() };
+		Pixmap pixmap = new Pixmap(5, 2);
+		pixmap.setPixels(0, 1, 3, 2, colors, 1);
+		assertEquals(Color.RED, pixmap.getColor(0, 1));
+		assertEquals(new Color(0x123456), pixmap.getColor(2, 1));
+		assertEquals(Color.BLUE, pixmap.getColor(4, 1));
+		assertEquals(Color.BLACK, pixmap.getColor(1, 1));
+		assertEquals(Color.BLACK, pixmap.getColor(3, 1));
+		pixmap.setPixels(3, 0, 2, 3, colors, 1);
+		assertEquals(Color.RED, pixmap.getColor(3, 0));
+		pixmap.setPixels(0, 2, 1, 1, colors, 1);
+	}
+
+	@Test
+	public void testPackedWritesOnShrunkPixmap() {
+		Pixmap pixmap = new Pixmap(10, 10);
+		pixmap.setSize(6, 5);
+		int[] tile = new int[4 * 3];
+		for (int i = 0; i < tile.length; i++) {
+			tile[i] = 0x010101 * (i + 1);
+		}
+		pixmap.setPixels(3, 3, 4, 3, tile, 0, 4);
+		pixmap.fillRect(0, 0, 2, 2, Color.GREEN.getRGB());
+		pixmap.setRGB(5, 0, Color.CYAN.getRGB());
+
+		assertEquals(new Color(0x010101), pixmap.getColor(3, 3));
+		assertEquals(new Color(0x030303), pixmap.getColor(5, 3));
+		assertEquals(new Color(0x060606), pixmap.getColor(4, 4));
+		assertEquals(Color.BLACK, pixmap.getColor(2, 3));
+		assertEquals(Color.GREEN, pixmap.getColor(1, 1));
+		assertEquals(Color.BLACK, pixmap.getColor(2, 2));
+		assertEquals(Color.CYAN, pixmap.getColor(5, 0));
+	}
+
+	@Test
+	public void testWritesFollowTheBuffersSwapped() {
+		Pixmap pixmap = new Pixmap(4, 4);
+		pixmap.addChangeListener(changed -> {
+		});
+		for (int pass = 0; pass < 3; pass++) {
+			pixmap.beginDrawing();
+			pixmap.setRGB(pass, 0, Color.RED.getRGB());
+			// only published pixels are painted, but every pixel set is read back
+			assertEquals(Color.RED, pixmap.getColor(pass, 0));
+			pixmap.endDrawing();
+			pixmap.setRGB(pass, 1, Color.BLUE.getRGB());
+		}
+		for (int pass = 0; pass < 3; pass++) {
+			assertEquals(Color.RED, pixmap.getColor(pass, 0));
+			assertEquals(Color.BLUE, pixmap.getColor(pass, 1));
+		}
+
+		pixmap.copyFrom(new Pixmap(2, 3, Color.YELLOW));
+		pixmap.setRGB(1, 2, Color.RED.getRGB());
+		assertEquals(Color.RED, pixmap.getColor(1, 2));
+		assertEquals(Color.YELLOW, pixmap.getColor(0, 2));
+	}
+
+	@Test
+	public void testWriteChoosesFormatByExtension(@TempDir Path folder) throws Exception {
+		Pixmap pixmap = new Pixmap(5, 4, new Color(0x123456));
+		pixmap.setColor(2, 1, new Color(0xFEDCBA));
+		Path png = folder.resolve("out.PNG");
+		pixmap.write(png.toString());
+		Pixmap read = new Pixmap(png.toString());
+		assertEquals(new Color(0x123456), read.getColor(0, 0));
+		assertEquals(new Color(0xFEDCBA), read.getColor(2, 1));
+
+		Path jpg = folder.resolve("out.jpg");
+		pixmap.write(jpg.toString());
+		byte[] bytes = Files.readAllBytes(jpg);
+		assertEquals((byte) 0xFF, bytes[0]);
+		assertEquals((byte) 0xD8, bytes[1]);
+		assertEquals("bmp", Pixmap.formatOf("a.bmp"));
+		assertEquals("jpg", Pixmap.formatOf("a.jpeg"));
+	}
+}
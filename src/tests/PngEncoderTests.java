@@ -0,0 +1,149 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import picasso.model.PngEncoder;
+import picasso.model.RowWriter;
+
+/**
+ * Tests that the PNG encoder writes files that decode to the pixels of the
+ * image, whatever the strips it cuts the image into and the compression level.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class PngEncoderTests {
+
+	/**
+	 * Returns an image with smooth areas, which the filters predict, and noise,
+	 * which they do not.
+	 */
+	private static BufferedImage testImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Random random = new Random(7);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int rgb = x < width / 2 ? (x * 5 << 16 | y * 3 << 8 | (x + y)) & 0xFFFFFF : random.nextInt(1 << 24);
+				image.setRGB(x, y, rgb);
+			}
+		}
+		return image;
+	}
+
+	private static byte[] encode(PngEncoder encoder, BufferedImage image, int level) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		encoder.write(image, out, level);
+		return out.toByteArray();
+	}
+
+	private static void assertSamePixels(BufferedImage expected, byte[] png) throws Exception {
+		BufferedImage actual = ImageIO.read(new ByteArrayInputStream(png));
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "pixel (" + x + ", " + y + ")");
+			}
+		}
+	}
+
+	/**
+	 * Inflates the IDAT chunks of a PNG file as one zlib stream, which checks
+	 * its Adler-32, and returns the number of bytes inflated.
+	 */
+	private static long inflateImageData(byte[] png) throws Exception {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+		in.skipNBytes(8);
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		while (in.available() > 0) {
+			int length = in.readInt();
+			byte[] type = in.readNBytes(4);
+			byte[] chunk = in.readNBytes(length);
+			in.readInt();
+			if (new String(type, "US-ASCII").equals("IDAT")) {
+				data.write(chunk);
+			}
+		}
+		Inflater inflater = new Inflater();
+		inflater.setInput(data.toByteArray());
+		byte[] buffer = new byte[64 * 1024];
+		while (!inflater.finished()) {
+			assertFalse(inflater.needsInput(), "the stream ends early");
+			inflater.inflate(buffer);
+		}
+		long inflated = inflater.getBytesWritten();
+		inflater.end();
+		return inflated;
+	}
+
+	@Test
+	public void testRoundTripInOneStrip() throws Exception {
+		BufferedImage image = testImage(40, 30);
+		assertSamePixels(image, encode(new PngEncoder(2, PngEncoder.MIN_STRIP_BYTES), image, 6));
+	}
+
+	@Test
+	public void testRoundTripInManyStrips() throws Exception {
+		BufferedImage image = testImage(300, 200);
+		for (int stripBytes : new int[] { 1, 1000, 50_000 }) {
+			for (int level : new int[] { 0, 1, 6, 9 }) {
+				byte[] png = encode(new PngEncoder(3, stripBytes), image, level);
+				assertSamePixels(image, png);
+				assertEquals(200L * (1 + 3 * 300), inflateImageData(png));
+			}
+		}
+	}
+
+	@Test
+	public void testDictionaryKeepsStripsSmall() throws Exception {
+		BufferedImage image = testImage(300, 200);
+		int whole = encode(new PngEncoder(1, Integer.MAX_VALUE), image, 6).length;
+		int strips = encode(new PngEncoder(1, 1000), image, 6).length;
+		assertTrue(strips < whole * 1.05, strips + " bytes in strips, " + whole + " in one");
+	}
+
+	@Test
+	public void testRowsWrittenInPieces() throws Exception {
+		BufferedImage image = testImage(300, 200);
+		for (int stripBytes : new int[] { 1, 5000, PngEncoder.MIN_STRIP_BYTES }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (RowWriter writer = new PngEncoder(2, stripBytes).open(out, 300, 200, 6)) {
+				// pieces of uneven heights, each in an image of its own
+				for (int y0 = 0, rows = 1; y0 < 200; y0 += rows, rows += 13) {
+					rows = Math.min(rows, 200 - y0);
+					writer.writeRows(image.getSubimage(0, y0, 300, rows), rows);
+				}
+			}
+			assertSamePixels(image, out.toByteArray());
+			assertEquals(200L * (1 + 3 * 300), inflateImageData(out.toByteArray()));
+		}
+	}
+
+	@Test
+	public void testMissingRowsFailOnClose() throws Exception {
+		RowWriter writer = new PngEncoder().open(new ByteArrayOutputStream(), 10, 10, 6);
+		writer.writeRows(testImage(10, 4), 4);
+		assertThrows(IllegalArgumentException.class, () -> writer.writeRows(testImage(10, 7), 7));
+		assertThrows(IllegalArgumentException.class, () -> writer.writeRows(testImage(11, 2), 2));
+		assertThrows(IOException.class, writer::close);
+	}
+
+	@Test
+	public void testRejectsInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new PngEncoder(0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new PngEncoder(1, 0));
+		assertThrows(IllegalArgumentException.class,
+				() -> new PngEncoder().write(testImage(2, 2), new ByteArrayOutputStream(), 10));
+	}
+}
@@ -0,0 +1,66 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import picasso.model.PnmWriter;
+
+/**
+ * Tests that images are streamed as the PPM and PAM files Netpbm reads.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class PnmWriterTests {
+
+	private static BufferedImage twoPixels() {
+		BufferedImage image = new BufferedImage(2, 1, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, 0x102030);
+		image.setRGB(1, 0, 0xFFFFFF);
+		return image;
+	}
+
+	private static byte[] write(PnmWriter.Format format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (PnmWriter writer = new PnmWriter(out, 2, 2, format)) {
+			writer.writeRows(twoPixels(), 1);
+			writer.writeRows(twoPixels(), 1);
+		}
+		return out.toByteArray();
+	}
+
+	private static void assertPixels(byte[] file, String header) {
+		assertEquals(header, new String(file, 0, header.length(), StandardCharsets.US_ASCII));
+		byte[] pixels = Arrays.copyOfRange(file, header.length(), file.length);
+		byte[] row = { 0x10, 0x20, 0x30, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+		byte[] expected = new byte[12];
+		System.arraycopy(row, 0, expected, 0, 6);
+		System.arraycopy(row, 0, expected, 6, 6);
+		assertArrayEquals(expected, pixels);
+	}
+
+	@Test
+	public void testWritesPpm() throws IOException {
+		assertPixels(write(PnmWriter.Format.PPM), "P6\n2 2\n255\n");
+	}
+
+	@Test
+	public void testWritesPam() throws IOException {
+		assertPixels(write(PnmWriter.Format.PAM),
+				"P7\nWIDTH 2\nHEIGHT 2\nDEPTH 3\nMAXVAL 255\nTUPLTYPE RGB\nENDHDR\n");
+	}
+
+	@Test
+	public void testMissingRowsFailOnClose() throws IOException {
+		PnmWriter writer = new PnmWriter(new ByteArrayOutputStream(), 2, 2, PnmWriter.Format.PPM);
+		writer.writeRows(twoPixels(), 1);
+		assertThrows(IllegalArgumentException.class, () -> writer.writeRows(twoPixels(), 2));
+		assertThrows(IOException.class, writer::close);
+	}
+}
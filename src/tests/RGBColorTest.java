@@ -59,4 +59,25 @@ class RGBColorTest {
 		assertEquals(closeToOrange.toString(), "Color: 1.001 -1.0E-5 -0.9999");
 	}
 
+	@Test
+	public void testToJavaColorLeavesColorUnchanged() {
+		RGBColor bright = new RGBColor(1.5, -2, 0.25);
+		assertEquals(new java.awt.Color(255, 0, 159), bright.toJavaColor());
+		assertEquals(1.5, bright.getRed());
+		assertEquals(-2, bright.getGreen());
+	}
+
+	@Test
+	public void testPackedMatchesJavaColor() {
+		double[] values = { -3, -1, -0.5, -0.001, 0, 0.3, 0.999, 1, 7, Double.NaN };
+		for (double red : values) {
+			for (double green : values) {
+				for (double blue : values) {
+					RGBColor color = new RGBColor(red, green, blue);
+					assertEquals(color.toJavaColor().getRGB(), RGBColor.toPackedRGB(red, green, blue));
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,187 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.JTextField;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import picasso.model.Pixmap;
+import picasso.render.RenderResult;
+import picasso.util.Cancellable;
+import picasso.util.Command;
+import picasso.util.RenderScheduler;
+import picasso.view.commands.Evaluator;
+
+/**
+ * Tests that the render scheduler runs one command at a time per target and
+ * lets the latest request win.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class RenderSchedulerTests {
+
+	private static final long TIMEOUT = 10;
+
+	private RenderScheduler<Object> scheduler;
+	private List<String> ran;
+
+	/**
+	 * Records its name when it runs, then blocks until it is released, which
+	 * cancelling it does unless it is told to hold on.
+	 */
+	private class BlockingCommand implements Command<Object>, Cancellable {
+		private final String name;
+		private final boolean holdOnCancel;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch cancelled = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		BlockingCommand(String name) {
+			this(name, false);
+		}
+
+		BlockingCommand(String name, boolean holdOnCancel) {
+			this.name = name;
+			this.holdOnCancel = holdOnCancel;
+		}
+
+		@Override
+		public void execute(Object target) {
+			ran.add(name);
+			started.countDown();
+			try {
+				released.await(TIMEOUT, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			cancelled.countDown();
+			if (!holdOnCancel) {
+				released.countDown();
+			}
+		}
+	}
+
+	@BeforeEach
+	public void setUp() {
+		scheduler = new RenderScheduler<>(null, 2);
+		ran = new CopyOnWriteArrayList<>();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testLatestRequestWins() throws Exception {
+		Object target = new Object();
+		// the first command keeps running until both later requests are in
+		BlockingCommand first = new BlockingCommand("first", true);
+		Future<Void> firstDone = scheduler.submit(first, target);
+		assertTrue(first.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+		Future<Void> secondDone = scheduler.submit(target2 -> ran.add("second"), target);
+		Future<Void> thirdDone = scheduler.submit(target3 -> ran.add("third"), target);
+		assertTrue(first.cancelled.await(TIMEOUT, TimeUnit.SECONDS));
+		first.released.countDown();
+
+		thirdDone.get(TIMEOUT, TimeUnit.SECONDS);
+		assertTrue(firstDone.isDone());
+		assertTrue(secondDone.isCancelled());
+		assertEquals(List.of("first", "third"), ran);
+		assertFalse(scheduler.isBusy());
+	}
+
+	@Test
+	public void testOneCommandAtATimePerTarget() throws Exception {
+		Object target = new Object();
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger mostActive = new AtomicInteger();
+		Future<Void> last = null;
+		for (int i = 0; i < 20; i++) {
+			last = scheduler.submit(t -> {
+				mostActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				Thread.onSpinWait();
+				active.decrementAndGet();
+			}, target);
+		}
+		last.get(TIMEOUT, TimeUnit.SECONDS);
+		assertEquals(1, mostActive.get());
+	}
+
+	@Test
+	public void testTargetsRunIndependently() throws Exception {
+		BlockingCommand blocked = new BlockingCommand("blocked");
+		scheduler.submit(blocked, new Object());
+		assertTrue(blocked.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+		scheduler.submit(t -> ran.add("other"), new Object()).get(TIMEOUT, TimeUnit.SECONDS);
+		assertEquals(List.of("blocked", "other"), ran);
+		blocked.cancel();
+	}
+
+	@Test
+	public void testFailureCompletesFuture() throws Exception {
+		Future<Void> failed = scheduler.submit(t -> {
+			throw new IllegalStateException("boom");
+		}, new Object());
+		Exception e = assertThrows(Exception.class, () -> failed.get(TIMEOUT, TimeUnit.SECONDS));
+		assertInstanceOf(IllegalStateException.class, e.getCause());
+
+		// the worker survives the failure
+		scheduler.submit(t -> ran.add("after"), new Object()).get(TIMEOUT, TimeUnit.SECONDS);
+		assertEquals(List.of("after"), ran);
+	}
+
+	@Test
+	public void testPreparesBeforeHandingOver() throws Exception {
+		List<String> calls = new CopyOnWriteArrayList<>();
+		Thread submitter = Thread.currentThread();
+		class PreparedCommand implements Command<Object>, Cancellable {
+			@Override
+			public void execute(Object target) {
+				calls.add("execute");
+			}
+
+			@Override
+			public void cancel() {
+			}
+
+			@Override
+			public void prepare() {
+				// on the submitting thread, so before the worker can run it
+				assertSame(submitter, Thread.currentThread());
+				calls.add("prepare");
+			}
+		}
+		scheduler.submit(new PreparedCommand(), new Object()).get(TIMEOUT, TimeUnit.SECONDS);
+		assertEquals(List.of("prepare", "execute"), calls);
+	}
+
+	@Test
+	public void testCancelAfterPrepareStopsTheRender() {
+		Evaluator evaluator = new Evaluator(new JTextField("x * y"), null, null);
+		evaluator.prepare();
+		evaluator.cancel();
+		evaluator.execute(new Pixmap(40, 40));
+		assertEquals(RenderResult.Status.CANCELLED, evaluator.getLastResult().getStatus());
+
+		// the cancel only stopped the render it was meant for
+		evaluator.execute(new Pixmap(40, 40));
+		assertTrue(evaluator.getLastResult().isComplete());
+	}
+}
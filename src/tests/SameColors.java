@@ -0,0 +1,82 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.RGBColor;
+
+/**
+ * The points and the exact comparisons of colors shared by the tests checking
+ * that another way of evaluating an expression gives exactly the colors of its
+ * tree, bit for bit rather than within a tolerance.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class SameColors {
+
+	/** the number of points of the batch returned by points() */
+	public static final int POINTS = 37;
+
+	private SameColors() {
+	}
+
+	/**
+	 * Returns a batch of POINTS points spread over (and a little beyond) the
+	 * domain, with the rows in a scrambled order.
+	 *
+	 * @return the batch of points
+	 */
+	public static PixelBatch points() {
+		PixelBatch batch = new PixelBatch(64);
+		batch.setSize(POINTS);
+		for (int i = 0; i < POINTS; i++) {
+			batch.getX()[i] = -1.2 + 2.4 * i / (POINTS - 1);
+			batch.getY()[i] = 1.1 - 2.3 * ((i * 7) % POINTS) / (POINTS - 1);
+		}
+		return batch;
+	}
+
+	/**
+	 * Checks that the components are exactly those of the expected color.
+	 *
+	 * @param expected the expected color
+	 * @param red      the red component
+	 * @param green    the green component
+	 * @param blue     the blue component
+	 * @param where    what is compared, for the failure message
+	 */
+	public static void assertSameColor(RGBColor expected, double red, double green, double blue, String where) {
+		assertEquals(Double.doubleToLongBits(expected.getRed()), Double.doubleToLongBits(red), where);
+		assertEquals(Double.doubleToLongBits(expected.getGreen()), Double.doubleToLongBits(green), where);
+		assertEquals(Double.doubleToLongBits(expected.getBlue()), Double.doubleToLongBits(blue), where);
+	}
+
+	/**
+	 * Checks that the color is exactly the expected one.
+	 *
+	 * @param expected the expected color
+	 * @param actual   the color to check
+	 * @param where    what is compared, for the failure message
+	 */
+	public static void assertSameColor(RGBColor expected, RGBColor actual, String where) {
+		assertSameColor(expected, actual.getRed(), actual.getGreen(), actual.getBlue(), where);
+	}
+
+	/**
+	 * Checks that the first colors of the planes are exactly the expected ones.
+	 *
+	 * @param expected the expected colors
+	 * @param actual   the colors to check
+	 * @param size     the number of colors to compare
+	 * @param where    what is compared, for the failure message
+	 */
+	public static void assertSameColors(ColorPlanes expected, ColorPlanes actual, int size, String where) {
+		for (int channel = 0; channel < 3; channel++) {
+			for (int i = 0; i < size; i++) {
+				assertEquals(Double.doubleToLongBits(expected.getChannel(channel)[i]),
+						Double.doubleToLongBits(actual.getChannel(channel)[i]), where + " at point " + i);
+			}
+		}
+	}
+}
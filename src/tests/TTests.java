@@ -3,7 +3,6 @@ package tests;
 import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import picasso.parser.ExpressionTreeGenerator;
@@ -31,12 +30,6 @@ public class TTests {
 		parser = new ExpressionTreeGenerator();
 	}
 
-	@BeforeEach
-	public void setUp() throws Exception {
-		T.resetTime();
-		T.setHasTime(false);
-	}
-
 	@Test
 	public void testTEvaluationInitialValue() {
 		T myTree = new T();
@@ -44,24 +37,20 @@ public class TTests {
 	}
 
 	@Test
-	public void testTEvaluationAfterIncrement() {
+	public void testTEvaluationAtTime() {
 		T myTree = new T();
 		
-		T.increaseTime();
-		assertEquals(new RGBColor(0.02, 0.02, 0.02), myTree.evaluate(0, 0));
+		assertEquals(new RGBColor(0.02, 0.02, 0.02), myTree.evaluate(0, 0, 0.02));
 		
-		T.increaseTime();
-		assertEquals(new RGBColor(0.04, 0.04, 0.04), myTree.evaluate(0.5, 0.5));
+		assertEquals(new RGBColor(0.04, 0.04, 0.04), myTree.evaluate(0.5, 0.5, 0.04));
 	}
 
 	@Test
-	public void testResetTime() {
+	public void testTimeIsNotKept() {
 		T myTree = new T();
 		
-		T.increaseTime();
-		T.increaseTime();
+		myTree.evaluate(0, 0, 0.04);
 		
-		T.resetTime();
 		assertEquals(new RGBColor(0, 0, 0), myTree.evaluate(0, 0));
 	}
 
@@ -70,7 +59,6 @@ public class TTests {
 		ExpressionTreeNode e = parser.makeExpression("t");
 		assertEquals(new T(), e);
 
-		T.setHasTime(false);
 		e = parser.makeExpression("x + t");
 		assertEquals(new Plus(new X(), new T()), e);
 	}
@@ -94,27 +82,33 @@ public class TTests {
 	}
 
 	@Test
-	public void testTimeIsStatic() {
+	public void testEveryTGivesTheTime() {
 		T t1 = new T();
 		T t2 = new T();
 		
-		T.increaseTime();
-		
-		RGBColor result1 = t1.evaluate(0, 0);
-		RGBColor result2 = t2.evaluate(0, 0);
+		RGBColor result1 = t1.evaluate(0, 0, 0.02);
+		RGBColor result2 = t2.evaluate(0.3, -0.6, 0.02);
 		
 		assertEquals(result1.getRed(), result2.getRed(), EPSILON);
 	}
 
+	@Test
+	public void testTInExpressionTakesTheTimeGiven() {
+		ExpressionTreeNode e = parser.makeExpression("x + t");
+		assertEquals(new RGBColor(0.5, 0.5, 0.5), e.evaluate(0.25, 0, 0.25));
+		assertEquals(new RGBColor(0.25, 0.25, 0.25), e.evaluate(0.25, 0));
+	}
+
 	@Test
 	public void testTReaches1After50Increments() {
 		T myTree = new T();
 		
+		double time = 0;
 		for (int i = 0; i < 50; i++) {
-			T.increaseTime();
+			time += 0.02;
 		}
 		// from 0.2
-		RGBColor result = myTree.evaluate(0, 0);
+		RGBColor result = myTree.evaluate(0, 0, time);
 		assertEquals(1.0, result.getRed(), EPSILON);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+package tests;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.platform.launcher.LauncherSession;
+import org.junit.platform.launcher.LauncherSessionListener;
+
+import picasso.model.ImageDiskCache;
+
+/**
+ * Points the disk cache of the application at a temporary directory for the
+ * whole test run, and deletes it at the end, so that the tests parsing image
+ * functions never write into the home directory. A directory given on the
+ * command line is kept. Registered in
+ * META-INF/services/org.junit.platform.launcher.LauncherSessionListener.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class TemporaryImageCache implements LauncherSessionListener {
+
+	private Path directory;
+
+	@Override
+	public void launcherSessionOpened(LauncherSession session) {
+		if (System.getProperty(ImageDiskCache.DIRECTORY_PROPERTY) != null) {
+			return;
+		}
+		try {
+			directory = Files.createTempDirectory("picasso-images");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		System.setProperty(ImageDiskCache.DIRECTORY_PROPERTY, directory.toString());
+	}
+
+	@Override
+	public void launcherSessionClosed(LauncherSession session) {
+		if (directory == null) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		} catch (IOException e) {
+			// left for the system to clean up
+		}
+	}
+}
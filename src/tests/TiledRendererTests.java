@@ -0,0 +1,424 @@
+package tests;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import picasso.model.Pixmap;
+import picasso.model.RowWriter;
+import picasso.parser.ExpressionTreeGenerator;
+import picasso.parser.language.AxisTable;
+import picasso.parser.language.ColorPlanes;
+import picasso.parser.language.ExpressionTreeNode;
+import picasso.parser.language.HoistedExpression;
+import picasso.parser.language.PixelBatch;
+import picasso.parser.language.expressions.Plus;
+import picasso.parser.language.expressions.RGBColor;
+import picasso.parser.language.expressions.T;
+import picasso.parser.language.expressions.X;
+import picasso.parser.optimizer.ExpressionOptimizer;
+import picasso.render.Animation;
+import picasso.render.CancellationToken;
+import picasso.render.RenderMode;
+import picasso.render.RenderResult;
+import picasso.render.TiledRenderer;
+
+/**
+ * Tests that the tiled renderer produces exactly the image of the serial
+ * per-pixel loop.
+ *
+ * @author Therese Elvira Mombou Gatsing
+ */
+public class TiledRendererTests {
+
+	private static ExpressionTreeGenerator parser;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		parser = new ExpressionTreeGenerator();
+	}
+
+	/**
+	 * Renders the expression one pixel at a time, the way Evaluator used to.
+	 */
+	private static Pixmap renderSerially(ExpressionTreeNode expr, int width, int height) {
+		return renderSerially(width, height, expr::evaluate);
+	}
+
+	private static Pixmap renderSerially(ExpressionTreeNode expr, int width, int height, double time) {
+		return renderSerially(width, height, (x, y) -> expr.evaluate(x, y, time));
+	}
+
+	/**
+	 * Renders one point at a time with the given function of the domain
+	 * coordinates.
+	 */
+	private static Pixmap renderSerially(int width, int height, BiFunction<Double, Double, RGBColor> color) {
+		Pixmap pixmap = new Pixmap(width, height);
+		for (int imageY = 0; imageY < height; imageY++) {
+			double evalY = TiledRenderer.imageToDomainScale(imageY, height);
+			for (int imageX = 0; imageX < width; imageX++) {
+				double evalX = TiledRenderer.imageToDomainScale(imageX, width);
+				pixmap.setColor(imageX, imageY, color.apply(evalX, evalY).toJavaColor());
+			}
+		}
+		return pixmap;
+	}
+
+	private static void assertSameImage(Pixmap expected, Pixmap actual) {
+		Dimension size = expected.getSize();
+		assertEquals(size, actual.getSize());
+		for (int imageY = 0; imageY < size.height; imageY++) {
+			for (int imageX = 0; imageX < size.width; imageX++) {
+				assertEquals(expected.getColor(imageX, imageY), actual.getColor(imageX, imageY),
+						"pixel (" + imageX + ", " + imageY + ")");
+			}
+		}
+	}
+
+	private void assertMatchesSerial(String expression, int threads, int tileSize, int width, int height) {
+		ExpressionTreeNode expr = parser.makeExpression(expression);
+		Pixmap expected = renderSerially(expr, width, height);
+
+		Pixmap actual = new Pixmap(width, height);
+		new TiledRenderer(threads, tileSize).render(expr, actual);
+
+		assertSameImage(expected, actual);
+	}
+
+	@Test
+	public void testSingleThreadMatchesSerial() {
+		assertMatchesSerial("sin(x * y) + [0.2, -0.3, 0.5]", 1, 16, 64, 64);
+	}
+
+	@Test
+	public void testManyThreadsMatchSerial() {
+		assertMatchesSerial("perlinColor(y, x) / perlinBW(x, clamp(y))", 8, 16, 100, 80);
+	}
+
+	@Test
+	public void testPartialTilesAtEdges() {
+		// neither dimension is a multiple of the tile size
+		assertMatchesSerial("atan(x - y) * cos(x)", 4, 32, 75, 41);
+	}
+
+	@Test
+	public void testTileLargerThanImage() {
+		assertMatchesSerial("mandelbrot(x, y)", 3, 256, 50, 30);
+	}
+
+	@Test
+	public void testProgressiveRenderMatchesSerial() {
+		String[] expressions = { "mandelbrot(x, y)", "floor(x / 0.3) + sin(y / 0.1) * cos(x / 0.2)",
+				"perlinColor(y, x) / perlinBW(x, clamp(y))" };
+		for (String expression : expressions) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			ExpressionTreeNode optimized = ExpressionOptimizer.getInstance().optimize(tree);
+			Pixmap expected = renderSerially(tree, 75, 41);
+			for (RenderMode mode : RenderMode.values()) {
+				for (int tileSize : new int[] { 7, 32 }) {
+					for (boolean culling : new boolean[] { true, false }) {
+						List<Integer> steps = new ArrayList<>();
+						Pixmap actual = new Pixmap(75, 41);
+						new TiledRenderer(3, tileSize, culling).renderProgressive(mode.prepare(optimized), actual, 0,
+								steps::add);
+						assertEquals(List.of(4, 2, 1), steps);
+						assertSameImage(expected, actual);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFirstPassPaintsBlocks() {
+		ExpressionTreeNode expr = parser.makeExpression("sin(x / 0.05) * cos(y / 0.07)");
+		Pixmap expected = renderSerially(expr, 30, 22);
+		Pixmap preview = new Pixmap(30, 22);
+		Pixmap actual = new Pixmap(30, 22);
+		new TiledRenderer(2, 16, false).renderProgressive(expr, actual, 0, step -> {
+			if (step == TiledRenderer.PREVIEW_STEP) {
+				preview.copyFrom(actual);
+			}
+		});
+		for (int imageY = 0; imageY < 22; imageY++) {
+			for (int imageX = 0; imageX < 30; imageX++) {
+				assertEquals(expected.getColor(imageX - imageX % 4, imageY - imageY % 4),
+						preview.getColor(imageX, imageY));
+			}
+		}
+	}
+
+	/**
+	 * Copies the rows it is given into a pixmap, one after the other.
+	 */
+	private static class PixmapRowWriter implements RowWriter {
+		private final Pixmap pixmap;
+		private int next;
+
+		PixmapRowWriter(Pixmap pixmap) {
+			this.pixmap = pixmap;
+		}
+
+		@Override
+		public void writeRows(BufferedImage rows, int count) {
+			for (int y = 0; y < count; y++, next++) {
+				for (int x = 0; x < rows.getWidth(); x++) {
+					pixmap.setRGB(x, next, rows.getRGB(x, y));
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	@Test
+	public void testStripsMatchWholeRender() throws IOException {
+		String[] expressions = { "mandelbrot(x, y)", "floor(x / 0.3) + sin(y / 0.1) * cos(x / 0.2)",
+				"perlinColor(y, x) / perlinBW(x, clamp(y))" };
+		for (String expression : expressions) {
+			ExpressionTreeNode tree = parser.makeExpression(expression);
+			ExpressionTreeNode prepared = RenderMode.COMPILED.prepare(ExpressionOptimizer.getInstance().optimize(tree));
+			Pixmap expected = renderSerially(tree, 75, 41);
+			for (int stripRows : new int[] { 1, 7, 16, 100 }) {
+				for (boolean culling : new boolean[] { true, false }) {
+					Pixmap actual = new Pixmap(75, 41);
+					RenderResult result = new TiledRenderer(3, 16, culling).renderStrips(prepared,
+							new Dimension(75, 41), 0, stripRows, new PixmapRowWriter(actual), new CancellationToken());
+					assertTrue(result.isComplete());
+					assertSameImage(expected, actual);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStripRowsAreWholeTileRows() {
+		TiledRenderer renderer = new TiledRenderer(1, 64);
+		assertEquals(64, renderer.getStripRows(40_000));
+		assertEquals(0, renderer.getStripRows(1000) % 64);
+		assertTrue(renderer.getStripRows(1000) * 1000 <= TiledRenderer.STRIP_PIXELS);
+	}
+
+	@Test
+	public void testCancelledStripRenderWritesNothing() throws IOException {
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		Pixmap actual = new Pixmap(40, 40, Color.RED);
+		RenderResult result = new TiledRenderer(2, 16).renderStrips(parser.makeExpression("[1, 1, 1]"),
+				new Dimension(40, 40), 0, 8, new PixmapRowWriter(actual), token);
+		assertEquals(RenderResult.Status.CANCELLED, result.getStatus());
+		assertEquals(0, result.getRenderedTiles());
+		assertEquals(Color.RED, actual.getColor(0, 0));
+	}
+
+	@Test
+	public void testCompleteRenderResult() {
+		Pixmap actual = new Pixmap(75, 41);
+		RenderResult result = new TiledRenderer(2, 32).render(parser.makeExpression("x * y"), actual, 0,
+				new CancellationToken());
+		assertTrue(result.isComplete());
+		assertEquals(6, result.getTileCount());
+		assertEquals(6, result.getRenderedTiles());
+		assertEquals(1, result.getFractionComplete());
+	}
+
+	@Test
+	public void testCancelledTokenRendersNothing() {
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		Pixmap actual = new Pixmap(40, 40);
+		RenderResult result = new TiledRenderer(2, 16).render(parser.makeExpression("[1, 1, 1]"), actual, 0, token);
+		assertEquals(RenderResult.Status.CANCELLED, result.getStatus());
+		assertEquals(0, result.getRenderedTiles());
+		assertEquals(Pixmap.DEFAULT_COLOR, actual.getColor(20, 20));
+
+		Animation animation = new TiledRenderer(2, 16).renderAnimation(parser.makeExpression("x * t"),
+				new Dimension(40, 40), 3, 0.1, token);
+		assertFalse(animation.getResult().isComplete());
+		assertEquals(0, animation.getResult().getRenderedTiles());
+	}
+
+	@Test
+	public void testPassedDeadlineStopsRender() {
+		CancellationToken token = CancellationToken.withTimeout(0);
+		assertTrue(token.isExpired());
+		assertFalse(token.isCancelRequested());
+		RenderResult result = new TiledRenderer(2, 16).render(parser.makeExpression("x"), new Pixmap(40, 40), 0,
+				token);
+		assertEquals(RenderResult.Status.DEADLINE_EXPIRED, result.getStatus());
+		assertFalse(CancellationToken.withTimeout(60_000).isCancelled());
+	}
+
+	@Test
+	public void testCancelBetweenPasses() {
+		CancellationToken token = new CancellationToken();
+		List<Integer> steps = new ArrayList<>();
+		RenderResult result = new TiledRenderer(3, 16).renderProgressive(parser.makeExpression("sin(x / y)"),
+				new Pixmap(70, 50), 0, step -> {
+					steps.add(step);
+					token.cancel();
+				}, token);
+		assertEquals(List.of(TiledRenderer.PREVIEW_STEP), steps);
+		assertEquals(RenderResult.Status.CANCELLED, result.getStatus());
+		assertEquals(result.getTileCount() / 3, result.getRenderedTiles());
+	}
+
+	@Test
+	public void testAnimationFramesMatchSingleFrames() {
+		ExpressionTreeNode tree = parser.makeExpression("sin(x / 0.1 + t / 0.05) * y + cos(t) * x");
+		ExpressionTreeNode prepared = RenderMode.COMPILED.prepare(ExpressionOptimizer.getInstance().optimize(tree));
+		Dimension size = new Dimension(45, 30);
+		Animation animation = new TiledRenderer(4, 16).renderAnimation(prepared, size, 6, 0.1);
+		assertEquals(6, animation.getFrameCount());
+		assertEquals(0.5, animation.getTime(5), 1e-12);
+
+		TiledRenderer serial = new TiledRenderer(1, 16, false);
+		for (int i = 0; i < animation.getFrameCount(); i++) {
+			Pixmap expected = new Pixmap(size);
+			serial.render(tree, expected, animation.getTime(i));
+			assertSameImage(expected, animation.getFrame(i));
+		}
+		assertNotEquals(animation.getFrame(0).getColor(20, 3), animation.getFrame(5).getColor(20, 3));
+	}
+
+	@Test
+	public void testEveryFrameIsReportedOnceRendered() {
+		ExpressionTreeNode expr = parser.makeExpression("x * t");
+		List<Integer> reported = new CopyOnWriteArrayList<>();
+		Animation animation = new TiledRenderer(3, 16).renderAnimation(expr, new Dimension(30, 20), 7, 0.1,
+				new CancellationToken(), (frame, index) -> {
+					Pixmap expected = new Pixmap(30, 20);
+					new TiledRenderer(1, 16).render(expr, expected, index * 0.1);
+					assertSameImage(expected, frame);
+					reported.add(index);
+				});
+		assertSame(animation.getFrame(0), animation.getFrames().get(0));
+		assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), reported.stream().sorted().toList());
+	}
+
+	@Test
+	public void testFrameMatchesSerialAtSameTime() {
+		ExpressionTreeNode expr = parser.makeExpression("perlinBW(x, t) * wrap(y + t)");
+		Pixmap expected = renderSerially(expr, 40, 40, 0.02);
+		Pixmap actual = new Pixmap(40, 40);
+		new TiledRenderer(2, 16).render(expr, actual, 0.02);
+		assertSameImage(expected, actual);
+	}
+
+	@Test
+	public void testPublishesEachTileOnce() {
+		ExpressionTreeNode expr = parser.makeExpression("sin(x / 0.05) * cos(y / 0.07)");
+		Pixmap actual = new Pixmap(50, 40);
+		List<Rectangle> published = new CopyOnWriteArrayList<>();
+		actual.addChangeListener(published::add);
+		new TiledRenderer(2, 16, false).render(expr, actual);
+
+		assertEquals(4 * 3, published.size());
+		int area = 0;
+		for (Rectangle tile : published) {
+			area += tile.width * tile.height;
+			for (Rectangle other : published) {
+				assertTrue(tile == other || !tile.intersects(other), tile + " overlaps " + other);
+			}
+		}
+		assertEquals(50 * 40, area);
+		assertSameImage(renderSerially(expr, 50, 40), actual);
+	}
+
+	@Test
+	public void testBackBufferPaintsPublishedPixelsOnly() {
+		Pixmap pixmap = new Pixmap(4, 4);
+		List<Rectangle> published = new ArrayList<>();
+		pixmap.addChangeListener(published::add);
+		pixmap.beginDrawing();
+		pixmap.setColor(1, 1, Color.RED);
+		pixmap.setColor(3, 3, Color.RED);
+		assertEquals(Color.RED, pixmap.getColor(3, 3));
+		assertEquals(Color.BLACK.getRGB(), painted(pixmap).getRGB(1, 1));
+
+		pixmap.publish(0, 0, 2, 2);
+		assertEquals(List.of(new Rectangle(0, 0, 2, 2)), published);
+		assertEquals(Color.RED.getRGB(), painted(pixmap).getRGB(1, 1));
+		assertEquals(Color.BLACK.getRGB(), painted(pixmap).getRGB(3, 3));
+
+		pixmap.endDrawing();
+		assertEquals(Color.RED.getRGB(), painted(pixmap).getRGB(3, 3));
+	}
+
+	private static BufferedImage painted(Pixmap pixmap) {
+		Dimension size = pixmap.getSize();
+		BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+		Graphics pen = image.getGraphics();
+		pixmap.paint(pen);
+		pen.dispose();
+		return image;
+	}
+
+	@Test
+	public void testHilbertOrderVisitsEveryTileOnce() {
+		for (int[] grid : new int[][] { { 8, 8 }, { 5, 3 }, { 1, 7 }, { 60, 34 }, { 1, 100 }, { 0, 4 } }) {
+			int[] order = TiledRenderer.hilbertOrder(grid[0], grid[1]);
+			assertEquals(grid[0] * grid[1], order.length);
+			boolean[] seen = new boolean[order.length];
+			for (int tile : order) {
+				assertFalse(seen[tile], "tile " + tile);
+				seen[tile] = true;
+			}
+		}
+	}
+
+	@Test
+	public void testHilbertOrderStepsToNeighbors() {
+		int columns = 16;
+		int[] order = TiledRenderer.hilbertOrder(columns, columns);
+		for (int i = 1; i < order.length; i++) {
+			int dx = Math.abs(order[i] % columns - order[i - 1] % columns);
+			int dy = Math.abs(order[i] / columns - order[i - 1] / columns);
+			assertEquals(1, dx + dy, "step " + i);
+		}
+	}
+
+	@Test
+	public void testRejectsInvalidConfiguration() {
+		assertThrows(IllegalArgumentException.class, () -> new TiledRenderer(0, 64));
+		assertThrows(IllegalArgumentException.class, () -> new TiledRenderer(4, 0));
+		assertThrows(IllegalArgumentException.class,
+				() -> new TiledRenderer(1, 64).renderAnimation(new T(), new Dimension(4, 4), 0, 0.1));
+	}
+
+	@Test
+	public void testCancelStopsFillingPixelTables() {
+		CancellationToken token = new CancellationToken();
+		AtomicInteger rows = new AtomicInteger();
+		ExpressionTreeNode cancelling = new X() {
+			@Override
+			public void evaluate(PixelBatch batch, ColorPlanes out) {
+				rows.incrementAndGet();
+				token.cancel();
+				super.evaluate(batch, out);
+			}
+		};
+		AxisTable table = new AxisTable(cancelling, AxisTable.Axis.PIXEL, 0, false);
+		HoistedExpression expr = new HoistedExpression(new Plus(table, new T()), List.of(table));
+		Animation animation = new TiledRenderer(1, 16).renderAnimation(expr, new Dimension(16, 40), 3, 0.1, token);
+		// the first row is filled, and nothing after the cancel
+		assertEquals(1, rows.get());
+		assertEquals(0, animation.getResult().getRenderedTiles());
+	}
+}